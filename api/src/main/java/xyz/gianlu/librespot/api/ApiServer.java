@@ -29,27 +29,38 @@ public class ApiServer {
     private static final Logger LOGGER = LogManager.getLogger(ApiServer.class);
     protected final RoutingHandler handler;
     protected final EventsHandler events = new EventsHandler();
-    private final SessionWrapper wrapper;
+    final SessionWrapper wrapper;
     private final int port;
     private final String host;
     private Undertow undertow = null;
 
     public ApiServer(int port, @NotNull String host, @NotNull SessionWrapper wrapper) {
+        this(port, host, wrapper, 0);
+    }
+
+    /**
+     * @param webApiCacheSize The maximum size of the cached Web API GET responses in bytes, {@code 0} to disable caching
+     */
+    public ApiServer(int port, @NotNull String host, @NotNull SessionWrapper wrapper, long webApiCacheSize) {
         this.port = port;
         this.host = host;
         this.wrapper = wrapper;
+
+        WebApiHandler webApi = new WebApiHandler(wrapper, webApiCacheSize);
         this.handler = new RoutingHandler()
+                .post("/metadata/batch", new MetadataBatchHandler(wrapper))
                 .post("/metadata/{type}/{uri}", new MetadataHandler(wrapper, true))
                 .post("/metadata/{uri}", new MetadataHandler(wrapper, false))
                 .post("/search/{query}", new SearchHandler(wrapper))
                 .post("/token/{scope}", new TokensHandler(wrapper))
                 .post("/profile/{user_id}/{action}", new ProfileHandler(wrapper))
-                .post("/web-api/{endpoint}", new WebApiHandler(wrapper))
+                .post("/web-api/{endpoint}", webApi)
                 .post("/instance/{action}", InstanceHandler.forSession(this, wrapper))
                 .post("/discovery/{action}", new DiscoveryHandler())
                 .get("/events", events)
+                .get("/metrics", new MetricsHandler())
                 .setFallbackHandler(new PathHandler(ResponseCodeHandler.HANDLE_404)
-                        .addPrefixPath("/web-api", new WebApiHandler(wrapper)));
+                        .addPrefixPath("/web-api", webApi));
 
         wrapper.setListener(events);
     }
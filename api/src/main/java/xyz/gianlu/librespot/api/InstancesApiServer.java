@@ -0,0 +1,195 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import io.undertow.Undertow;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import xyz.gianlu.librespot.api.handlers.MetricsHandler;
+import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.core.SharedResources;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Serves many {@link ApiServer} instances from a single listener, each one mounted at {@code /instances/{id}}.
+ * The instances share the resources held by {@link SharedResources}.
+ *
+ * @author devgianlu
+ */
+public final class InstancesApiServer {
+    private static final Logger LOGGER = LogManager.getLogger(InstancesApiServer.class);
+    private static final Pattern ID_PATTERN = Pattern.compile("[A-Za-z0-9_-]+");
+    private final Map<String, ApiServer> instances = new LinkedHashMap<>();
+    private final PathHandler handler;
+    private final SharedResources shared;
+    private final int port;
+    private final String host;
+    private final Footprint baseline;
+    private Undertow undertow = null;
+
+    /**
+     * Must be created before any instance so that the footprint baseline doesn't include them.
+     */
+    public InstancesApiServer(int port, @NotNull String host, @NotNull SharedResources shared) {
+        this.port = port;
+        this.host = host;
+        this.shared = shared;
+        this.baseline = Footprint.measure();
+        this.handler = new PathHandler(ResponseCodeHandler.HANDLE_404)
+                .addExactPath("/instances", this::listInstances)
+                .addExactPath("/metrics", new MetricsHandler());
+    }
+
+    public static boolean isValidId(@NotNull String id) {
+        return ID_PATTERN.matcher(id).matches();
+    }
+
+    public synchronized void add(@NotNull String id, @NotNull ApiServer server) {
+        if (!isValidId(id)) throw new IllegalArgumentException("Invalid instance id: " + id);
+        if (instances.containsKey(id)) throw new IllegalArgumentException("Duplicated instance id: " + id);
+
+        instances.put(id, server);
+        handler.addPrefixPath("/instances/" + id, server.handler);
+    }
+
+    private void listInstances(@NotNull HttpServerExchange exchange) {
+        if (!Methods.GET.equals(exchange.getRequestMethod())) {
+            exchange.setStatusCode(StatusCodes.METHOD_NOT_ALLOWED);
+            exchange.endExchange();
+            return;
+        }
+
+        JsonArray array = new JsonArray();
+        synchronized (this) {
+            for (Map.Entry<String, ApiServer> entry : instances.entrySet()) {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("id", entry.getKey());
+
+                Session session = entry.getValue().wrapper.getSession();
+                if (session != null) obj.addProperty("username", session.username());
+                array.add(obj);
+            }
+        }
+
+        JsonObject obj = new JsonObject();
+        obj.add("instances", array);
+        obj.add("footprint", footprint().toJson());
+
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        exchange.getResponseSender().send(obj.toString());
+    }
+
+    /**
+     * @return The footprint of all the instances, measured against the state before they were created
+     */
+    @NotNull
+    public synchronized Footprint footprint() {
+        return Footprint.measure().minus(baseline, instances.size());
+    }
+
+    public void start() {
+        if (undertow != null) throw new IllegalStateException("Already started!");
+
+        undertow = Undertow.builder().addHttpListener(port, host, new CorsHandler(handler)).build();
+        undertow.start();
+
+        Footprint footprint = footprint();
+        LOGGER.info("Server started on port {} with {} instances! {threads: {}, heap: {}KB, perInstanceThreads: {}, perInstanceHeap: {}KB}",
+                port, footprint.instances, footprint.threads, footprint.heapBytes / 1024, String.format("%.1f", footprint.threadsPerInstance()), footprint.heapBytesPerInstance() / 1024);
+    }
+
+    public void stop() {
+        synchronized (this) {
+            for (ApiServer server : instances.values()) server.stop();
+        }
+
+        if (undertow != null) {
+            undertow.stop();
+            undertow = null;
+
+            LOGGER.info("Server stopped!");
+        }
+
+        try {
+            shared.close();
+        } catch (IOException ex) {
+            LOGGER.warn("Failed closing shared resources.", ex);
+        }
+    }
+
+    /**
+     * Live threads and used heap. Heap usage is approximate as it depends on when the GC last ran.
+     */
+    public static final class Footprint {
+        public final int instances;
+        public final int threads;
+        public final long heapBytes;
+
+        private Footprint(int instances, int threads, long heapBytes) {
+            this.instances = instances;
+            this.threads = threads;
+            this.heapBytes = heapBytes;
+        }
+
+        @NotNull
+        static Footprint measure() {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+            return new Footprint(0, threads.getThreadCount(), memory.getHeapMemoryUsage().getUsed());
+        }
+
+        @NotNull
+        Footprint minus(@NotNull Footprint baseline, int instances) {
+            return new Footprint(instances, threads - baseline.threads, Math.max(0, heapBytes - baseline.heapBytes));
+        }
+
+        public double threadsPerInstance() {
+            return instances == 0 ? 0 : (double) threads / instances;
+        }
+
+        public long heapBytesPerInstance() {
+            return instances == 0 ? 0 : heapBytes / instances;
+        }
+
+        @NotNull
+        JsonObject toJson() {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("threads", threads);
+            obj.addProperty("heapBytes", heapBytes);
+            obj.addProperty("threadsPerInstance", threadsPerInstance());
+            obj.addProperty("heapBytesPerInstance", heapBytesPerInstance());
+            return obj;
+        }
+    }
+}
@@ -21,12 +21,15 @@ import org.apache.logging.log4j.core.config.Configurator;
 import org.jetbrains.annotations.NotNull;
 import xyz.gianlu.librespot.common.Log4JUncaughtExceptionHandler;
 import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.core.SharedResources;
 import xyz.gianlu.librespot.mercury.MercuryClient;
 import xyz.gianlu.librespot.player.FileConfiguration;
 import xyz.gianlu.librespot.player.FileConfiguration.AuthStrategy;
 
+import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
+import java.util.Arrays;
 
 /**
  * @author Gianlu
@@ -41,10 +44,55 @@ public class Main {
         String host = conf.apiHost();
         int port = conf.apiPort();
 
-        if (args.length > 0 && args[0].equals("noPlayer")) withoutPlayer(port, host, conf);
+        boolean noPlayer = args.length > 0 && args[0].equals("noPlayer");
+        File instancesDir = conf.apiInstancesDir();
+        if (instancesDir != null) withInstances(port, host, conf, instancesDir, noPlayer);
+        else if (noPlayer) withoutPlayer(port, host, conf);
         else withPlayer(port, host, conf);
     }
 
+    /**
+     * Runs one instance for each configuration file in {@param dir}, the instance id is the file name without extension.
+     */
+    private static void withInstances(int port, @NotNull String host, @NotNull FileConfiguration conf, @NotNull File dir, boolean noPlayer) throws IOException, MercuryClient.MercuryException, GeneralSecurityException, Session.SpotifyAuthenticationException {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(".toml"));
+        if (files == null || files.length == 0)
+            throw new IllegalArgumentException("No instance configuration in " + dir);
+
+        Arrays.sort(files);
+
+        SharedResources shared = SharedResources.create(conf.toSession(), conf.apiSharedAudioThreads());
+        InstancesApiServer server = new InstancesApiServer(port, host, shared);
+        Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+
+        for (File file : files) {
+            String id = file.getName().substring(0, file.getName().length() - ".toml".length());
+            if (!InstancesApiServer.isValidId(id))
+                throw new IllegalArgumentException("Invalid instance id: " + id);
+
+            FileConfiguration instanceConf = new FileConfiguration("--conf-file=" + file.getAbsolutePath());
+            if (noPlayer) {
+                SessionWrapper wrapper;
+                if (instanceConf.authStrategy() == AuthStrategy.ZEROCONF)
+                    wrapper = SessionWrapper.fromZeroconf(instanceConf.initZeroconfBuilder(shared).create(), instanceConf.toEventsShell());
+                else
+                    wrapper = SessionWrapper.fromSession(instanceConf.initSessionBuilder(shared).create(), instanceConf.toEventsShell());
+
+                server.add(id, new ApiServer(port, host, wrapper, instanceConf.apiWebApiCacheSize() * 1024L));
+            } else {
+                PlayerWrapper wrapper;
+                if (instanceConf.authStrategy() == AuthStrategy.ZEROCONF)
+                    wrapper = PlayerWrapper.fromZeroconf(instanceConf.initZeroconfBuilder(shared).create(), instanceConf.toPlayer(), instanceConf.toEventsShell());
+                else
+                    wrapper = PlayerWrapper.fromSession(instanceConf.initSessionBuilder(shared).create(), instanceConf.toPlayer(), instanceConf.toEventsShell());
+
+                server.add(id, new PlayerApiServer(port, host, wrapper, instanceConf.apiWebApiCacheSize() * 1024L));
+            }
+        }
+
+        server.start();
+    }
+
     private static void withPlayer(int port, @NotNull String host, @NotNull FileConfiguration conf) throws IOException, MercuryClient.MercuryException, GeneralSecurityException, Session.SpotifyAuthenticationException {
         PlayerWrapper wrapper;
         if (conf.authStrategy() == AuthStrategy.ZEROCONF)
@@ -52,7 +100,7 @@ public class Main {
         else
             wrapper = PlayerWrapper.fromSession(conf.initSessionBuilder().create(), conf.toPlayer(), conf.toEventsShell());
 
-        PlayerApiServer server = new PlayerApiServer(port, host, wrapper);
+        PlayerApiServer server = new PlayerApiServer(port, host, wrapper, conf.apiWebApiCacheSize() * 1024L);
         Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
         server.start();
     }
@@ -64,7 +112,7 @@ public class Main {
         else
             wrapper = SessionWrapper.fromSession(conf.initSessionBuilder().create(), conf.toEventsShell());
 
-        ApiServer server = new ApiServer(port, host, wrapper);
+        ApiServer server = new ApiServer(port, host, wrapper, conf.apiWebApiCacheSize() * 1024L);
         Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
         server.start();
     }
@@ -25,7 +25,11 @@ import xyz.gianlu.librespot.api.handlers.PlayerHandler;
  */
 public class PlayerApiServer extends ApiServer {
     public PlayerApiServer(int port, @NotNull String host, @NotNull PlayerWrapper wrapper) {
-        super(port, host, wrapper);
+        this(port, host, wrapper, 0);
+    }
+
+    public PlayerApiServer(int port, @NotNull String host, @NotNull PlayerWrapper wrapper, long webApiCacheSize) {
+        super(port, host, wrapper, webApiCacheSize);
 
         handler.post("/player/{cmd}", new PlayerHandler(wrapper));
         handler.post("/instance/{action}", InstanceHandler.forPlayer(this, wrapper)); // Overrides session only handler
@@ -53,7 +53,7 @@ public class PlayerWrapper extends SessionWrapper {
             @Override
             public void sessionClosing(@NotNull Session session) {
                 if (wrapper.getSession() == session)
-                    wrapper.clear();
+                    wrapper.clear(false); // The server closes it or keeps it warm
             }
 
             @Override
@@ -99,14 +99,14 @@ public class PlayerWrapper extends SessionWrapper {
     }
 
     @Override
-    protected void clear() {
+    protected void clear(boolean closeSession) {
         Player old = playerRef.get();
         if (old != null) old.close();
         playerRef.set(null);
 
         if (listener != null && old != null) listener.onPlayerCleared(old);
 
-        super.clear();
+        super.clear(closeSession);
     }
 
     @Nullable
@@ -32,6 +32,7 @@ public class SessionWrapper {
     protected final AtomicReference<Session> sessionRef = new AtomicReference<>(null);
     protected final ShellEvents shellEvents;
     private Listener listener = null;
+    private Session.CloseListener closeListener = null;
 
     protected SessionWrapper(@NotNull ShellEvents.Configuration shellConf) {
         shellEvents = shellConf.enabled ? new ShellEvents(shellConf) : null;
@@ -50,7 +51,7 @@ public class SessionWrapper {
             @Override
             public void sessionClosing(@NotNull Session session) {
                 if (wrapper.getSession() == session)
-                    wrapper.clear();
+                    wrapper.clear(false); // The server closes it or keeps it warm
             }
 
             @Override
@@ -83,18 +84,33 @@ public class SessionWrapper {
 
     protected void set(@NotNull Session session) {
         sessionRef.set(session);
-        session.addCloseListener(this::clear);
+        session.addCloseListener(closeListener = () -> {
+            if (sessionRef.get() == session) clear();
+        });
         if (shellEvents != null) session.addReconnectionListener(shellEvents);
         if (listener != null) listener.onNewSession(session);
     }
 
     protected void clear() {
+        clear(true);
+    }
+
+    /**
+     * @param closeSession Whether to close the session, {@code false} if its lifecycle is handled elsewhere (it may be
+     *                     kept warm and set again later, so the listeners are removed)
+     */
+    protected void clear(boolean closeSession) {
         Session old = sessionRef.get();
         sessionRef.set(null);
         if (old != null) {
-            try {
-                old.close();
-            } catch (IOException ignored) {
+            if (closeSession) {
+                try {
+                    old.close();
+                } catch (IOException ignored) {
+                }
+            } else {
+                if (closeListener != null) old.removeCloseListener(closeListener);
+                if (shellEvents != null) old.removeReconnectionListener(shellEvents);
             }
 
             if (listener != null) listener.onSessionCleared(old);
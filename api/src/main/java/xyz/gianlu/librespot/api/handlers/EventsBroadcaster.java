@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api.handlers;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the same message to many clients. Every message is serialized once and shared by all clients, each client
+ * has its own bounded queue and at most one frame in flight. Pending messages with the same coalesce key are replaced
+ * by newer ones and clients whose queue fills up are disconnected.
+ *
+ * @author devgianlu
+ */
+final class EventsBroadcaster<C> {
+    private final Map<C, ClientQueue> clients = new ConcurrentHashMap<>();
+    private final Transport<C> transport;
+    private final int maxQueued;
+    private final AtomicLong coalesced = new AtomicLong(0);
+    private final AtomicLong disconnected = new AtomicLong(0);
+
+    /**
+     * @param maxQueued The maximum number of frames waiting to be sent to a single client
+     */
+    EventsBroadcaster(@NotNull Transport<C> transport, int maxQueued) {
+        if (maxQueued < 1) throw new IllegalArgumentException("Queue size must be positive: " + maxQueued);
+        this.transport = transport;
+        this.maxQueued = maxQueued;
+    }
+
+    void add(@NotNull C client) {
+        clients.put(client, new ClientQueue(client));
+    }
+
+    void remove(@NotNull C client) {
+        ClientQueue queue = clients.remove(client);
+        if (queue != null) queue.discard();
+    }
+
+    /**
+     * @param message     The message, serialized only once
+     * @param coalesceKey Messages with the same key replace each other while still queued, {@code null} to never replace
+     */
+    void broadcast(@NotNull String message, @Nullable String coalesceKey) {
+        if (clients.isEmpty()) return;
+
+        ByteBuffer frame = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+        for (ClientQueue queue : clients.values())
+            queue.offer(frame, coalesceKey);
+    }
+
+    int clients() {
+        return clients.size();
+    }
+
+    /**
+     * @return The number of messages that have been replaced by a newer one before being sent
+     */
+    long coalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return The number of clients disconnected because they could not keep up
+     */
+    long disconnected() {
+        return disconnected.get();
+    }
+
+    interface Transport<C> {
+        /**
+         * Sends the frame to the client, {@param callback} must be called exactly once when done.
+         */
+        void send(@NotNull C client, @NotNull ByteBuffer frame, @NotNull Callback callback);
+
+        /**
+         * Closes the connection to the client.
+         *
+         * @param failure The error that made sending fail, {@code null} if the client could not keep up
+         */
+        void close(@NotNull C client, @Nullable Throwable failure);
+    }
+
+    interface Callback {
+        void sent();
+
+        void failed(@NotNull Throwable ex);
+    }
+
+    private static final class Frame {
+        final String key;
+        ByteBuffer data;
+
+        Frame(@NotNull ByteBuffer data, @Nullable String key) {
+            this.data = data;
+            this.key = key;
+        }
+    }
+
+    private final class ClientQueue implements Callback {
+        private final C client;
+        private final ArrayDeque<Frame> pending = new ArrayDeque<>();
+        private boolean sending = false;
+        private boolean closed = false;
+
+        ClientQueue(@NotNull C client) {
+            this.client = client;
+        }
+
+        void offer(@NotNull ByteBuffer data, @Nullable String key) {
+            Frame next = null;
+            boolean overflow = false;
+            synchronized (this) {
+                if (closed) return;
+
+                if (key != null) {
+                    for (Frame frame : pending) {
+                        if (key.equals(frame.key)) {
+                            frame.data = data;
+                            coalesced.incrementAndGet();
+                            return;
+                        }
+                    }
+                }
+
+                if (pending.size() >= maxQueued) {
+                    overflow = closed = true;
+                    pending.clear();
+                } else {
+                    pending.add(new Frame(data, key));
+                    if (!sending) {
+                        sending = true;
+                        next = pending.poll();
+                    }
+                }
+            }
+
+            if (next != null) {
+                transport.send(client, next.data.duplicate(), this);
+            } else if (overflow) {
+                disconnected.incrementAndGet();
+                clients.remove(client, this);
+                transport.close(client, null);
+            }
+        }
+
+        synchronized void discard() {
+            closed = true;
+            pending.clear();
+        }
+
+        @Override
+        public void sent() {
+            Frame next;
+            synchronized (this) {
+                next = closed ? null : pending.poll();
+                if (next == null) sending = false;
+            }
+
+            if (next != null) transport.send(client, next.data.duplicate(), this);
+        }
+
+        @Override
+        public void failed(@NotNull Throwable ex) {
+            remove(client);
+            transport.close(client, ex);
+        }
+    }
+}
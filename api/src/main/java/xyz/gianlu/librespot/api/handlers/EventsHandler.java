@@ -19,6 +19,8 @@ package xyz.gianlu.librespot.api.handlers;
 import com.google.gson.JsonObject;
 import io.undertow.websockets.WebSocketConnectionCallback;
 import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.WebSocketCallback;
 import io.undertow.websockets.core.WebSocketChannel;
 import io.undertow.websockets.core.WebSockets;
 import org.apache.logging.log4j.LogManager;
@@ -26,6 +28,7 @@ import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Range;
+import org.xnio.IoUtils;
 import xyz.gianlu.librespot.api.PlayerWrapper;
 import xyz.gianlu.librespot.audio.MetadataWrapper;
 import xyz.gianlu.librespot.common.ProtobufToJson;
@@ -33,16 +36,47 @@ import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.metadata.PlayableId;
 import xyz.gianlu.librespot.player.Player;
 
+import java.nio.ByteBuffer;
+
 public final class EventsHandler extends WebSocketProtocolHandshakeHandler implements Player.EventsListener, PlayerWrapper.Listener, Session.ReconnectionListener {
     private static final Logger LOGGER = LogManager.getLogger(EventsHandler.class);
+    private static final int MAX_QUEUED_EVENTS = 64;
+    private final EventsBroadcaster<WebSocketChannel> broadcaster;
 
     public EventsHandler() {
-        super((WebSocketConnectionCallback) (exchange, channel) -> LOGGER.info("Accepted new websocket connection from {}.", channel.getSourceAddress().getAddress()));
+        this(new EventsBroadcaster<>(new WebSocketTransport(), MAX_QUEUED_EVENTS));
+    }
+
+    private EventsHandler(@NotNull EventsBroadcaster<WebSocketChannel> broadcaster) {
+        super((WebSocketConnectionCallback) (exchange, channel) -> {
+            LOGGER.info("Accepted new websocket connection from {}.", channel.getSourceAddress().getAddress());
+
+            broadcaster.add(channel);
+            channel.addCloseTask(broadcaster::remove);
+            channel.getReceiveSetter().set(new AbstractReceiveListener() {
+            });
+            channel.resumeReceives();
+        });
+
+        this.broadcaster = broadcaster;
+    }
+
+    /**
+     * @return The number of connected clients
+     */
+    int clients() {
+        return broadcaster.clients();
     }
 
     private void dispatch(@NotNull JsonObject obj) {
-        for (WebSocketChannel channel : getPeerConnections())
-            WebSockets.sendText(obj.toString(), channel, null);
+        dispatch(obj, null);
+    }
+
+    /**
+     * @param coalesceKey Events with the same key supersede each other if a client has not received them yet
+     */
+    void dispatch(@NotNull JsonObject obj, @Nullable String coalesceKey) {
+        broadcaster.broadcast(obj.toString(), coalesceKey);
     }
 
     @Override
@@ -95,7 +129,7 @@ public final class EventsHandler extends WebSocketProtocolHandshakeHandler imple
         JsonObject obj = new JsonObject();
         obj.addProperty("event", "trackSeeked");
         obj.addProperty("trackTime", trackTime);
-        dispatch(obj);
+        dispatch(obj, "trackSeeked");
     }
 
     @Override
@@ -129,7 +163,7 @@ public final class EventsHandler extends WebSocketProtocolHandshakeHandler imple
         JsonObject obj = new JsonObject();
         obj.addProperty("event", "volumeChanged");
         obj.addProperty("value", volume);
-        dispatch(obj);
+        dispatch(obj, "volumeChanged");
     }
 
     @Override
@@ -181,4 +215,32 @@ public final class EventsHandler extends WebSocketProtocolHandshakeHandler imple
         obj.addProperty("event", "connectionEstablished");
         dispatch(obj);
     }
+
+    private static final class WebSocketTransport implements EventsBroadcaster.Transport<WebSocketChannel> {
+
+        @Override
+        public void send(@NotNull WebSocketChannel channel, @NotNull ByteBuffer frame, @NotNull EventsBroadcaster.Callback callback) {
+            WebSockets.sendText(frame, channel, new WebSocketCallback<Void>() {
+                @Override
+                public void complete(WebSocketChannel channel, Void context) {
+                    callback.sent();
+                }
+
+                @Override
+                public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+                    callback.failed(throwable);
+                }
+            });
+        }
+
+        @Override
+        public void close(@NotNull WebSocketChannel channel, @Nullable Throwable failure) {
+            if (failure == null)
+                LOGGER.warn("Disconnecting slow websocket client {}.", channel.getSourceAddress().getAddress());
+            else
+                LOGGER.debug("Failed sending event to websocket client {}.", channel.getSourceAddress().getAddress(), failure);
+
+            IoUtils.safeClose(channel);
+        }
+    }
 }
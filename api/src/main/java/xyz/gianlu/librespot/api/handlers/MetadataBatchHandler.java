@@ -0,0 +1,191 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api.handlers;
+
+import com.google.gson.JsonObject;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import xyz.gianlu.librespot.api.SessionWrapper;
+import xyz.gianlu.librespot.api.Utils;
+import xyz.gianlu.librespot.common.ExecutorProvider;
+import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.dealer.ApiClient;
+import xyz.gianlu.librespot.mercury.MercuryClient;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Retrieves the metadata of many URIs of any type at once. The requests are made concurrently and every result
+ * is written to the JSON array as soon as it is available, so the order of the response does not follow the request.
+ * All the handlers share the same bounded executor, so concurrent batches cannot multiply the number of threads.
+ *
+ * @author devgianlu
+ */
+public final class MetadataBatchHandler extends AbsSessionHandler {
+    static final int MAX_URIS = 200;
+    private static final int CONCURRENCY = 16;
+    private static final Logger LOGGER = LogManager.getLogger(MetadataBatchHandler.class);
+    private static final ExecutorService EXECUTOR = ExecutorProvider.platform().newExecutor("metadata-batch", CONCURRENCY);
+
+    public MetadataBatchHandler(@NotNull SessionWrapper wrapper) {
+        super(wrapper);
+    }
+
+    @NotNull
+    private static JsonObject fetch(@NotNull Session session, int index, @NotNull String uri) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("index", index);
+        obj.addProperty("uri", uri);
+
+        MetadataHandler.MetadataType type = MetadataHandler.MetadataType.guessTypeFromUri(uri);
+        if (type == null) {
+            obj.add("error", error(400, "Unknown type"));
+            return obj;
+        }
+
+        try {
+            obj.add("metadata", MetadataHandler.handle(session, type, uri));
+        } catch (ApiClient.StatusCodeException ex) {
+            obj.add("error", error(ex.code, ex.getMessage()));
+        } catch (IOException | MercuryClient.MercuryException ex) {
+            LOGGER.error("Failed handling batch metadata request. {type: {}, uri: {}}", type, uri, ex);
+            obj.add("error", error(500, ex.getMessage()));
+        } catch (IllegalArgumentException ex) {
+            obj.add("error", error(400, "Invalid uri for type: " + type));
+        }
+
+        return obj;
+    }
+
+    @NotNull
+    private static JsonObject failed(int index, @NotNull String uri, int code, String msg) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("index", index);
+        obj.addProperty("uri", uri);
+        obj.add("error", error(code, msg));
+        return obj;
+    }
+
+    /**
+     * Writes the results as a JSON array in completion order. A task that failed or could not be awaited becomes
+     * an error entry, so the array is always complete and well-formed once the opening bracket has been written.
+     *
+     * @param futures The submitted tasks mapped to their index in {@param uris}
+     */
+    static void writeResults(@NotNull Writer out, @NotNull CompletionService<JsonObject> completion,
+                             @NotNull Map<Future<JsonObject>, Integer> futures, @NotNull List<String> uris) throws IOException {
+        Set<Future<JsonObject>> pending = new LinkedHashSet<>(futures.keySet());
+        boolean interrupted = false;
+
+        out.write('[');
+        boolean first = true;
+        while (!pending.isEmpty()) {
+            Future<JsonObject> done;
+            if (interrupted) {
+                done = pending.iterator().next();
+            } else {
+                try {
+                    done = completion.take();
+                } catch (InterruptedException ex) {
+                    interrupted = true;
+                    continue;
+                }
+            }
+
+            pending.remove(done);
+            int index = futures.get(done);
+
+            JsonObject result;
+            if (interrupted && !done.isDone()) {
+                done.cancel(true);
+                result = failed(index, uris.get(index), 503, "Interrupted");
+            } else {
+                try {
+                    result = done.get();
+                } catch (ExecutionException ex) {
+                    LOGGER.error("Failed handling batch metadata request. {uri: {}}", uris.get(index), ex.getCause());
+                    result = failed(index, uris.get(index), 500, String.valueOf(ex.getCause()));
+                } catch (CancellationException | InterruptedException ex) {
+                    interrupted = true;
+                    result = failed(index, uris.get(index), 503, "Interrupted");
+                }
+            }
+
+            if (!first) out.write(',');
+            first = false;
+            out.write(result.toString());
+            out.flush();
+        }
+
+        out.write(']');
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    @NotNull
+    private static JsonObject error(int code, String msg) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("code", code);
+        obj.addProperty("msg", msg);
+        return obj;
+    }
+
+    @Override
+    protected void handleRequest(@NotNull HttpServerExchange exchange, @NotNull Session session) throws Exception {
+        exchange.startBlocking();
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(this);
+            return;
+        }
+
+        Map<String, Deque<String>> params = Utils.readParameters(exchange);
+        Deque<String> uris = params.get("uri");
+        if (uris == null || uris.isEmpty()) {
+            Utils.invalidParameter(exchange, "uri");
+            return;
+        } else if (uris.size() > MAX_URIS) {
+            Utils.invalidParameter(exchange, "uri", "Too many uris, max: " + MAX_URIS);
+            return;
+        }
+
+        List<String> list = new ArrayList<>(uris);
+        CompletionService<JsonObject> completion = new ExecutorCompletionService<>(EXECUTOR);
+        Map<Future<JsonObject>, Integer> futures = new HashMap<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            int index = i;
+            String uri = list.get(i);
+            futures.put(completion.submit(() -> fetch(session, index, uri)), index);
+        }
+
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+        try (Writer out = new OutputStreamWriter(exchange.getOutputStream(), StandardCharsets.UTF_8)) {
+            writeResults(out, completion, futures, list);
+        } catch (IOException ex) {
+            LOGGER.debug("Client went away during batch metadata request.", ex);
+        } finally {
+            for (Future<JsonObject> future : futures.keySet()) future.cancel(true);
+        }
+    }
+}
@@ -101,7 +101,7 @@ public final class MetadataHandler extends AbsSessionHandler {
     }
 
     @NotNull
-    private JsonObject handle(@NotNull Session session, @NotNull MetadataType type, @NotNull String uri) throws IOException, MercuryClient.MercuryException, IllegalArgumentException {
+    static JsonObject handle(@NotNull Session session, @NotNull MetadataType type, @NotNull String uri) throws IOException, MercuryClient.MercuryException, IllegalArgumentException {
         switch (type) {
             case ALBUM:
                 return ProtobufToJson.convert(session.api().getMetadata4Album(AlbumId.fromUri(uri)));
@@ -121,7 +121,7 @@ public final class MetadataHandler extends AbsSessionHandler {
     }
 
     @NotNull
-    private JsonObject handlePlaylist(@NotNull Session session, @NotNull String uri) throws IOException, MercuryClient.MercuryException {
+    private static JsonObject handlePlaylist(@NotNull Session session, @NotNull String uri) throws IOException, MercuryClient.MercuryException {
         JsonObject obj = new JsonObject();
         obj.add("tracks", session.mercury().sendSync(MercuryRequests.getPlaylist(PlaylistId.fromUri(uri))).json());
 
@@ -133,7 +133,7 @@ public final class MetadataHandler extends AbsSessionHandler {
         return obj;
     }
 
-    private enum MetadataType {
+    enum MetadataType {
         EPISODE("episode"), TRACK("track"), ALBUM("album"),
         ARTIST("artist"), SHOW("show"), PLAYLIST("playlist");
 
@@ -144,7 +144,7 @@ public final class MetadataHandler extends AbsSessionHandler {
         }
 
         @Nullable
-        private static MetadataType parse(@NotNull String val) {
+        static MetadataType parse(@NotNull String val) {
             for (MetadataType type : values())
                 if (Objects.equals(type.val, val))
                     return type;
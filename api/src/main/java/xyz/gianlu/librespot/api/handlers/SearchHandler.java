@@ -16,7 +16,9 @@
 
 package xyz.gianlu.librespot.api.handlers;
 
+import com.google.gson.JsonObject;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.util.StatusCodes;
 import org.jetbrains.annotations.NotNull;
 import xyz.gianlu.librespot.api.SessionWrapper;
 import xyz.gianlu.librespot.api.Utils;
@@ -25,6 +27,8 @@ import xyz.gianlu.librespot.core.Session;
 
 import java.util.Deque;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 public final class SearchHandler extends AbsSessionHandler {
 
@@ -47,8 +51,18 @@ public final class SearchHandler extends AbsSessionHandler {
             return;
         }
 
-        exchange.getResponseSender().send(session.search()
-                .request(new SearchManager.SearchRequest(query))
-                .toString());
+        // Scope the channel to the client, otherwise clients could cancel each other's searches
+        String channel = Utils.getFirstString(params, "channel");
+        if (channel != null) channel = exchange.getSourceAddress().getAddress().getHostAddress() + '/' + channel;
+        try {
+            JsonObject result = session.search().requestAsync(new SearchManager.SearchRequest(query), channel).get();
+            exchange.getResponseSender().send(result.toString());
+        } catch (CancellationException ex) {
+            exchange.setStatusCode(StatusCodes.CONFLICT); // Superseded by a newer search on the same channel
+            exchange.endExchange();
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof Exception) throw (Exception) ex.getCause();
+            else throw ex;
+        }
     }
 }
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api.handlers;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * Bounded LRU cache for successful GET responses of the Web API. Entries are keyed by user, token scopes and URL
+ * and follow the {@code Cache-Control} and {@code ETag} headers of the response.
+ *
+ * @author devgianlu
+ */
+final class WebApiCache {
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final long maxBytes;
+    private long size = 0;
+
+    /**
+     * @param maxBytes The maximum size of all the cached bodies
+     */
+    WebApiCache(long maxBytes) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("Cache size must be positive: " + maxBytes);
+        this.maxBytes = maxBytes;
+    }
+
+    @NotNull
+    static String key(@NotNull String username, @NotNull String[] scopes, @NotNull String url) {
+        String[] sorted = scopes.clone();
+        Arrays.sort(sorted);
+        return username + '\n' + String.join(" ", sorted) + '\n' + url;
+    }
+
+    /**
+     * @return How long the response can be served without revalidation in seconds, or {@code -1} if it must not be stored
+     */
+    static long maxAge(@Nullable String cacheControl) {
+        if (cacheControl == null) return 0;
+
+        long maxAge = 0;
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim().toLowerCase(Locale.ROOT);
+            if (directive.equals("no-store")) {
+                return -1;
+            } else if (directive.equals("no-cache")) {
+                return 0;
+            } else if (directive.startsWith("max-age=")) {
+                try {
+                    maxAge = Math.max(0, Long.parseLong(directive.substring(8).replace("\"", "")));
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+
+        return maxAge;
+    }
+
+    /**
+     * @return The largest body that can be stored
+     */
+    long maxEntrySize() {
+        return maxBytes / 4;
+    }
+
+    @Nullable
+    synchronized Entry get(@NotNull String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * Stores the response if the headers allow it.
+     *
+     * @return Whether the response has been stored
+     */
+    synchronized boolean put(@NotNull String key, @Nullable String contentType, @Nullable String etag, @Nullable String cacheControl, @NotNull byte[] body, long now) {
+        long maxAge = maxAge(cacheControl);
+        if (maxAge < 0 || (maxAge == 0 && etag == null) || body.length > maxEntrySize()) {
+            remove(key);
+            return false;
+        }
+
+        Entry old = entries.put(key, new Entry(contentType, etag, body, now + maxAge * 1000));
+        if (old != null) size -= old.body.length;
+        size += body.length;
+
+        Iterator<Entry> iter = entries.values().iterator();
+        while (size > maxBytes && iter.hasNext()) {
+            size -= iter.next().body.length;
+            iter.remove();
+        }
+
+        return true;
+    }
+
+    /**
+     * Marks the entry as fresh again after the server confirmed it is still valid.
+     */
+    synchronized void revalidated(@NotNull String key, @NotNull Entry entry, @Nullable String cacheControl, long now) {
+        long maxAge = maxAge(cacheControl);
+        if (maxAge < 0) {
+            if (entries.get(key) == entry) remove(key);
+        } else {
+            entry.expiresAt = now + maxAge * 1000;
+        }
+    }
+
+    synchronized void remove(@NotNull String key) {
+        Entry old = entries.remove(key);
+        if (old != null) size -= old.body.length;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    synchronized long size() {
+        return size;
+    }
+
+    static final class Entry {
+        final String contentType;
+        final String etag;
+        final byte[] body;
+        volatile long expiresAt;
+
+        Entry(@Nullable String contentType, @Nullable String etag, @NotNull byte[] body, long expiresAt) {
+            this.contentType = contentType;
+            this.etag = etag;
+            this.body = body;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isFresh(long now) {
+            return now < expiresAt;
+        }
+    }
+}
@@ -14,67 +14,183 @@
  * limitations under the License.
  */
 
+
 package xyz.gianlu.librespot.api.handlers;
 
 import io.undertow.server.HttpServerExchange;
-import io.undertow.util.FileUtils;
 import io.undertow.util.HeaderValues;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
 import okhttp3.*;
+import okio.BufferedSource;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.api.SessionWrapper;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.core.TokenProvider;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Proxies requests to the Web API. No HTTP worker waits for the Web API or the client: the request body is received
+ * asynchronously, tokens that aren't cached are requested asynchronously, the response body is buffered in the HTTP client
+ * callback (up to {@link #MAX_BODY_SIZE}) and written back with the non-blocking sender.
+ * GET responses can optionally be cached, see {@link WebApiCache}.
+ */
 public final class WebApiHandler extends AbsSessionHandler {
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebApiHandler.class);
     private static final String[] API_TOKENS_ALL = new String[]{"ugc-image-upload", "playlist-read-collaborative", "playlist-modify-private", "playlist-modify-public", "playlist-read-private", "user-read-playback-position", "user-read-recently-played", "user-top-read", "user-modify-playback-state", "user-read-currently-playing", "user-read-playback-state", "user-read-private", "user-read-email", "user-library-modify", "user-library-read", "user-follow-modify", "user-follow-read", "streaming", "app-remote-control"};
     private static final HttpUrl BASE_API_URL = HttpUrl.get("https://api.spotify.com");
     private static final HttpString HEADER_X_SCOPE = HttpString.tryFromString("X-Spotify-Scope");
+    /**
+     * Web API responses are JSON documents far smaller than this, bigger bodies are refused rather than buffered
+     */
+    private static final long MAX_BODY_SIZE = 8 * 1024 * 1024;
+    private final WebApiCache cache;
 
     public WebApiHandler(@NotNull SessionWrapper wrapper) {
+        this(wrapper, 0);
+    }
+
+    /**
+     * @param cacheSize The maximum size of the cached GET responses in bytes, {@code 0} to disable caching
+     */
+    public WebApiHandler(@NotNull SessionWrapper wrapper, long cacheSize) {
         super(wrapper);
+        this.cache = cacheSize > 0 ? new WebApiCache(cacheSize) : null;
     }
 
-    @Override
-    protected void handleRequest(@NotNull HttpServerExchange exchange, @NotNull Session session) throws Exception {
-        exchange.startBlocking();
-        if (exchange.isInIoThread()) {
-            exchange.dispatch(this);
-            return;
-        }
+    private static void send(@NotNull HttpServerExchange exchange, @NotNull WebApiCache.Entry entry) {
+        exchange.setStatusCode(StatusCodes.OK);
+        if (entry.contentType != null) exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, entry.contentType);
+        exchange.getResponseSender().send(ByteBuffer.wrap(entry.body));
+    }
 
-        String body = FileUtils.readFile(exchange.getInputStream());
-        HeaderValues contentType = exchange.getRequestHeaders().get(Headers.CONTENT_TYPE);
+    private static void fail(@NotNull HttpServerExchange exchange, int code) {
+        if (!exchange.isResponseStarted()) exchange.setStatusCode(code);
+        exchange.endExchange();
+    }
 
+    @Override
+    protected void handleRequest(@NotNull HttpServerExchange exchange, @NotNull Session session) {
         String[] scopes = API_TOKENS_ALL;
         if (exchange.getRequestHeaders().contains(HEADER_X_SCOPE))
             scopes = exchange.getRequestHeaders().get(HEADER_X_SCOPE).toArray(new String[0]);
 
-        TokenProvider.StoredToken token = session.tokens().getToken(scopes);
-
-        HttpUrl.Builder url = BASE_API_URL.newBuilder()
+        HttpUrl url = BASE_API_URL.newBuilder()
                 .addPathSegments(exchange.getRelativePath().substring(1))
-                .query(exchange.getQueryString());
+                .query(exchange.getQueryString())
+                .build();
+
+        String method = exchange.getRequestMethod().toString();
+        String cacheKey = null;
+        WebApiCache.Entry cached = null;
+        if (cache != null && method.equals("GET")) {
+            cacheKey = WebApiCache.key(session.username(), scopes, url.toString());
+            cached = cache.get(cacheKey);
+            if (cached != null && cached.isFresh(System.currentTimeMillis())) {
+                send(exchange, cached);
+                return;
+            }
+        }
+
+        String[] finalScopes = scopes;
+        String finalCacheKey = cacheKey;
+        WebApiCache.Entry finalCached = cached;
+        exchange.dispatch(SameThreadExecutor.INSTANCE, () -> exchange.getRequestReceiver().receiveFullBytes(
+                (ex, body) -> ex.dispatch(() -> proxy(ex, session, finalScopes, url, method, body, finalCacheKey, finalCached)),
+                (ex, err) -> {
+                    LOGGER.warn("Failed receiving request body.", err);
+                    fail(ex, StatusCodes.BAD_REQUEST);
+                }));
+    }
 
+    private void proxy(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull String[] scopes, @NotNull HttpUrl url,
+                       @NotNull String method, @NotNull byte[] body, @Nullable String cacheKey, @Nullable WebApiCache.Entry cached) {
+        session.tokens().getTokenAsync(scopes).whenComplete((token, ex) -> {
+            if (ex != null) {
+                LOGGER.error("Failed getting token.", ex);
+                fail(exchange, StatusCodes.INTERNAL_SERVER_ERROR);
+            } else {
+                forward(exchange, session, token, url, method, body, cacheKey, cached);
+            }
+        });
+    }
+
+    private void forward(@NotNull HttpServerExchange exchange, @NotNull Session session, @NotNull TokenProvider.StoredToken token, @NotNull HttpUrl url,
+                         @NotNull String method, @NotNull byte[] body, @Nullable String cacheKey, @Nullable WebApiCache.Entry cached) {
         Request.Builder req = new Request.Builder()
-                .url(url.build())
+                .url(url)
                 .addHeader("Authorization", "Bearer " + token.accessToken);
 
-        String method = exchange.getRequestMethod().toString();
-        if (!body.isEmpty() && contentType != null)
+        if (cached != null && cached.etag != null)
+            req.addHeader("If-None-Match", cached.etag);
+
+        HeaderValues contentType = exchange.getRequestHeaders().get(Headers.CONTENT_TYPE);
+        if (body.length > 0 && contentType != null)
             req.method(method, RequestBody.create(body, MediaType.get(contentType.getFirst())));
         else
             req.method(method, null);
 
-        try (Response resp = session.client().newCall(req.build()).execute()) {
-            exchange.setStatusCode(resp.code());
+        session.client().newCall(req.build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException ex) {
+                LOGGER.warn("Web API request failed. {method: {}, url: {}}", method, url, ex);
+                fail(exchange, StatusCodes.BAD_GATEWAY);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response resp) {
+                try (Response ignored = resp) {
+                    respond(exchange, resp, cacheKey, cached);
+                } catch (IOException ex) {
+                    LOGGER.warn("Failed streaming Web API response. {method: {}, url: {}}", method, url, ex);
+                    fail(exchange, StatusCodes.BAD_GATEWAY);
+                }
+            }
+        });
+    }
+
+    private void respond(@NotNull HttpServerExchange exchange, @NotNull Response resp, @Nullable String cacheKey, @Nullable WebApiCache.Entry cached) throws IOException {
+        if (cache != null) {
+            if (resp.code() == StatusCodes.NOT_MODIFIED && cached != null && cacheKey != null) {
+                cache.revalidated(cacheKey, cached, resp.header("Cache-Control"), System.currentTimeMillis());
+                send(exchange, cached);
+                return;
+            } else if (cacheKey == null && resp.isSuccessful()) {
+                cache.clear(); // Something may have been modified
+            }
+        }
 
-            String respContentType = resp.header("Content-Type");
-            if (respContentType != null) exchange.getResponseHeaders().add(Headers.CONTENT_TYPE, respContentType);
+        ResponseBody respBody = resp.body();
+        if (respBody == null) {
+            exchange.setStatusCode(resp.code());
+            exchange.endExchange();
+            return;
+        }
 
-            ResponseBody respBody = resp.body();
-            if (respBody != null) exchange.getOutputStream().write(respBody.bytes());
+        // A slow client must not hold one of the HTTP client threads, only the upstream body is read here
+        BufferedSource source = respBody.source();
+        if (respBody.contentLength() > MAX_BODY_SIZE || source.request(MAX_BODY_SIZE + 1)) {
+            LOGGER.warn("Web API response is too big. {url: {}, max: {}}", resp.request().url(), MAX_BODY_SIZE);
+            fail(exchange, StatusCodes.BAD_GATEWAY);
+            return;
         }
+
+        byte[] body = source.readByteArray();
+
+        exchange.setStatusCode(resp.code());
+        String respContentType = resp.header("Content-Type");
+        if (respContentType != null) exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, respContentType);
+
+        if (cacheKey != null && resp.code() == StatusCodes.OK && body.length <= cache.maxEntrySize())
+            cache.put(cacheKey, respContentType, resp.header("ETag"), resp.header("Cache-Control"), body, System.currentTimeMillis());
+
+        exchange.getResponseSender().send(ByteBuffer.wrap(body));
     }
 }
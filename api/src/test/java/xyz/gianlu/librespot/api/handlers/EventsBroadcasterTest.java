@@ -0,0 +1,143 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api.handlers;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class EventsBroadcasterTest {
+
+    @Test
+    void testSerializedOnce() {
+        ManualTransport transport = new ManualTransport();
+        EventsBroadcaster<String> broadcaster = new EventsBroadcaster<>(transport, 4);
+        broadcaster.add("a");
+        broadcaster.add("b");
+
+        broadcaster.broadcast("{\"event\":\"x\"}", null);
+        assertEquals(2, transport.inFlight.size());
+        assertSame(transport.inFlight.get("a").frame.array(), transport.inFlight.get("b").frame.array());
+        assertEquals(Arrays.asList("{\"event\":\"x\"}"), transport.completeAll("a"));
+    }
+
+    @Test
+    void testCoalescing() {
+        ManualTransport transport = new ManualTransport();
+        EventsBroadcaster<String> broadcaster = new EventsBroadcaster<>(transport, 4);
+        broadcaster.add("a");
+
+        broadcaster.broadcast("seek 1", "seek");
+        broadcaster.broadcast("seek 2", "seek");
+        broadcaster.broadcast("pause", null);
+        broadcaster.broadcast("seek 3", "seek");
+        broadcaster.broadcast("volume", "volume");
+
+        // "seek 1" was already in flight, "seek 2" is replaced by "seek 3" in place
+        assertEquals(Arrays.asList("seek 1", "seek 3", "pause", "volume"), transport.completeAll("a"));
+        assertEquals(1, broadcaster.coalesced());
+    }
+
+    @Test
+    void testSlowClientDisconnected() {
+        ManualTransport transport = new ManualTransport();
+        EventsBroadcaster<String> broadcaster = new EventsBroadcaster<>(transport, 2);
+        broadcaster.add("slow");
+        broadcaster.add("fast");
+
+        for (int i = 0; i < 4; i++) {
+            broadcaster.broadcast("event " + i, null);
+            transport.completeAll("fast");
+        }
+
+        assertEquals(Collections.singletonList("slow"), transport.closed);
+        assertNull(transport.failures.get(0));
+        assertEquals(1, broadcaster.disconnected());
+        assertEquals(1, broadcaster.clients());
+
+        broadcaster.broadcast("event 4", null);
+        assertEquals(Collections.singletonList("event 4"), transport.completeAll("fast"));
+    }
+
+    @Test
+    void testFailedSendRemovesClient() {
+        ManualTransport transport = new ManualTransport();
+        EventsBroadcaster<String> broadcaster = new EventsBroadcaster<>(transport, 2);
+        broadcaster.add("a");
+
+        broadcaster.broadcast("event", null);
+        Exception failure = new Exception("Broken pipe");
+        transport.inFlight.remove("a").callback.failed(failure);
+
+        assertEquals(0, broadcaster.clients());
+        assertEquals(Collections.singletonList("a"), transport.closed);
+        assertSame(failure, transport.failures.get(0));
+        assertEquals(0, broadcaster.disconnected());
+    }
+
+    private static final class ManualTransport implements EventsBroadcaster.Transport<String> {
+        final Map<String, Send> inFlight = new HashMap<>();
+        final List<String> closed = new ArrayList<>();
+        final List<Throwable> failures = new ArrayList<>();
+
+        @Override
+        public void send(@NotNull String client, @NotNull ByteBuffer frame, @NotNull EventsBroadcaster.Callback callback) {
+            assertNull(inFlight.put(client, new Send(frame, callback)), "Only one frame can be in flight");
+        }
+
+        @Override
+        public void close(@NotNull String client, @Nullable Throwable failure) {
+            closed.add(client);
+            failures.add(failure);
+        }
+
+        /**
+         * Completes sends to the client until nothing is in flight.
+         */
+        @NotNull
+        List<String> completeAll(@NotNull String client) {
+            List<String> received = new ArrayList<>();
+            Send send;
+            while ((send = inFlight.remove(client)) != null) {
+                received.add(StandardCharsets.UTF_8.decode(send.frame).toString());
+                send.callback.sent();
+            }
+
+            return received;
+        }
+    }
+
+    private static final class Send {
+        final ByteBuffer frame;
+        final EventsBroadcaster.Callback callback;
+
+        Send(@NotNull ByteBuffer frame, @NotNull EventsBroadcaster.Callback callback) {
+            this.frame = frame;
+            this.callback = callback;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api.handlers;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.undertow.Undertow;
+import okhttp3.*;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Broadcasts events to hundreds of local websocket clients and measures the latency.
+ * Excluded from the default build, run it with {@code mvn test -DloadTests}.
+ *
+ * @author devgianlu
+ */
+@Tag("load")
+class EventsHandlerLoadTest {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventsHandlerLoadTest.class);
+    private static final int CLIENTS = 300;
+    private static final int EVENTS = 100;
+    private static final long MAX_P99_MS = 500;
+
+    private static long percentile(@NotNull List<Long> sorted, double percentile) {
+        return sorted.get((int) Math.min(sorted.size() - 1, Math.round(percentile * (sorted.size() - 1))));
+    }
+
+    @Test
+    void testBroadcastLatency() throws Exception {
+        EventsHandler handler = new EventsHandler();
+        Undertow undertow = Undertow.builder().addHttpListener(0, "localhost", handler).build();
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(CLIENTS);
+        dispatcher.setMaxRequestsPerHost(CLIENTS);
+        OkHttpClient client = new OkHttpClient.Builder().dispatcher(dispatcher).build();
+
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>(CLIENTS * EVENTS));
+        CountDownLatch received = new CountDownLatch(CLIENTS * EVENTS);
+        List<WebSocket> sockets = new ArrayList<>(CLIENTS);
+
+        try {
+            undertow.start();
+            int port = ((InetSocketAddress) undertow.getListenerInfo().get(0).getAddress()).getPort();
+
+            Request request = new Request.Builder().url("ws://localhost:" + port + "/events").build();
+            for (int i = 0; i < CLIENTS; i++) {
+                sockets.add(client.newWebSocket(request, new WebSocketListener() {
+                    @Override
+                    public void onMessage(@NotNull WebSocket webSocket, @NotNull String text) {
+                        JsonObject obj = JsonParser.parseString(text).getAsJsonObject();
+                        latencies.add(System.nanoTime() - obj.get("sentAt").getAsLong());
+                        received.countDown();
+                    }
+                }));
+            }
+
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (handler.clients() < CLIENTS && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            assertEquals(CLIENTS, handler.clients());
+
+            long start = System.nanoTime();
+            for (int i = 0; i < EVENTS; i++) {
+                JsonObject obj = new JsonObject();
+                obj.addProperty("event", "test");
+                obj.addProperty("index", i);
+                obj.addProperty("sentAt", System.nanoTime());
+                handler.dispatch(obj, null);
+                Thread.sleep(5); // Player events are not back to back
+            }
+
+            assertTrue(received.await(30, TimeUnit.SECONDS), "Missing events: " + received.getCount());
+            long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+            List<Long> sorted = new ArrayList<>(latencies);
+            Collections.sort(sorted);
+            long p99Ms = percentile(sorted, 0.99) / 1_000_000;
+            LOGGER.info("Broadcast {} events to {} clients in {}ms. {p50: {}ms, p99: {}ms, max: {}ms}", EVENTS, CLIENTS, elapsedMs,
+                    percentile(sorted, 0.5) / 1_000_000, p99Ms, sorted.get(sorted.size() - 1) / 1_000_000);
+            assertTrue(p99Ms <= MAX_P99_MS, "p99 latency too high: " + p99Ms + "ms");
+        } finally {
+            for (WebSocket socket : sockets) socket.cancel();
+            client.dispatcher().executorService().shutdown();
+            client.connectionPool().evictAll();
+            undertow.stop();
+        }
+    }
+}
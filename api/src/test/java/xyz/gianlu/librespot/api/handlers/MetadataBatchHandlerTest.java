@@ -0,0 +1,123 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api.handlers;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class MetadataBatchHandlerTest {
+    private ExecutorService executor;
+
+    @NotNull
+    private static JsonObject result(int index, String uri) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("index", index);
+        obj.addProperty("uri", uri);
+        obj.add("metadata", new JsonObject());
+        return obj;
+    }
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testFailedTaskBecomesErrorEntry() throws IOException {
+        List<String> uris = Arrays.asList("spotify:track:a", "spotify:track:b", "spotify:track:c");
+        CompletionService<JsonObject> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<JsonObject>, Integer> futures = new HashMap<>();
+        for (int i = 0; i < uris.size(); i++) {
+            int index = i;
+            futures.put(completion.submit(() -> {
+                if (index == 1) throw new IllegalStateException("boom");
+                return result(index, uris.get(index));
+            }), index);
+        }
+
+        StringWriter out = new StringWriter();
+        MetadataBatchHandler.writeResults(out, completion, futures, uris);
+
+        JsonArray array = JsonParser.parseString(out.toString()).getAsJsonArray();
+        assertEquals(3, array.size());
+
+        Set<Integer> indexes = new HashSet<>();
+        for (JsonElement elm : array) {
+            JsonObject obj = elm.getAsJsonObject();
+            int index = obj.get("index").getAsInt();
+            indexes.add(index);
+            assertEquals(uris.get(index), obj.get("uri").getAsString());
+
+            if (index == 1) assertEquals(500, obj.getAsJsonObject("error").get("code").getAsInt());
+            else assertTrue(obj.has("metadata"));
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(0, 1, 2)), indexes);
+    }
+
+    @Test
+    void testInterruptClosesArray() throws IOException {
+        List<String> uris = Arrays.asList("spotify:track:a", "spotify:track:b");
+        CountDownLatch never = new CountDownLatch(1);
+        CompletionService<JsonObject> completion = new ExecutorCompletionService<>(executor);
+        Map<Future<JsonObject>, Integer> futures = new HashMap<>();
+        futures.put(completion.submit(() -> result(0, uris.get(0))), 0);
+        futures.put(completion.submit(() -> {
+            never.await();
+            return result(1, uris.get(1));
+        }), 1);
+
+        StringWriter out = new StringWriter();
+        Thread.currentThread().interrupt();
+        try {
+            MetadataBatchHandler.writeResults(out, completion, futures, uris);
+            assertTrue(Thread.currentThread().isInterrupted());
+        } finally {
+            Thread.interrupted();
+        }
+
+        JsonArray array = JsonParser.parseString(out.toString()).getAsJsonArray();
+        assertEquals(2, array.size());
+        for (JsonElement elm : array) {
+            JsonObject obj = elm.getAsJsonObject();
+            if (obj.get("index").getAsInt() == 1)
+                assertEquals(503, obj.getAsJsonObject("error").get("code").getAsInt());
+        }
+    }
+}
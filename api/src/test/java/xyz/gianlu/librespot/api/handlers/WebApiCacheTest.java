@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.api.handlers;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class WebApiCacheTest {
+
+    @Test
+    void testMaxAge() {
+        assertEquals(0, WebApiCache.maxAge(null));
+        assertEquals(60, WebApiCache.maxAge("private, max-age=60"));
+        assertEquals(0, WebApiCache.maxAge("max-age=60, no-cache"));
+        assertEquals(-1, WebApiCache.maxAge("no-store, max-age=60"));
+        assertEquals(0, WebApiCache.maxAge("max-age=abc"));
+    }
+
+    @Test
+    void testKeyIgnoresScopeOrder() {
+        assertEquals(WebApiCache.key("user", new String[]{"b", "a"}, "https://api.spotify.com/v1/me"),
+                WebApiCache.key("user", new String[]{"a", "b"}, "https://api.spotify.com/v1/me"));
+        assertNotEquals(WebApiCache.key("user", new String[]{"a"}, "https://api.spotify.com/v1/me"),
+                WebApiCache.key("user", new String[]{"a", "b"}, "https://api.spotify.com/v1/me"));
+        assertNotEquals(WebApiCache.key("user", new String[]{"a"}, "https://api.spotify.com/v1/me"),
+                WebApiCache.key("other", new String[]{"a"}, "https://api.spotify.com/v1/me"));
+    }
+
+    @Test
+    void testFreshnessAndRevalidation() {
+        WebApiCache cache = new WebApiCache(1024);
+        assertFalse(cache.put("a", "application/json", null, "no-store", new byte[10], 0));
+        assertFalse(cache.put("a", "application/json", null, "max-age=0", new byte[10], 0));
+        assertNull(cache.get("a"));
+
+        assertTrue(cache.put("a", "application/json", "\"v1\"", "max-age=0", new byte[10], 0));
+        WebApiCache.Entry entry = cache.get("a");
+        assertNotNull(entry);
+        assertFalse(entry.isFresh(0));
+
+        cache.revalidated("a", entry, "max-age=5", 1000);
+        assertTrue(entry.isFresh(5999));
+        assertFalse(entry.isFresh(6000));
+
+        cache.revalidated("a", entry, "no-store", 7000);
+        assertNull(cache.get("a"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testEviction() {
+        WebApiCache cache = new WebApiCache(1000);
+        assertFalse(cache.put("huge", null, null, "max-age=60", new byte[251], 0));
+
+        for (int i = 0; i < 4; i++) assertTrue(cache.put("k" + i, null, null, "max-age=60", new byte[250], 0));
+        assertNotNull(cache.get("k0")); // Most recently used now
+
+        assertTrue(cache.put("k4", null, null, "max-age=60", new byte[250], 0));
+        assertEquals(1000, cache.size());
+        assertNotNull(cache.get("k0"));
+        assertNull(cache.get("k1"));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertNull(cache.get("k0"));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import xyz.gianlu.librespot.player.decoders.SeekableInputStream;
+
+/**
+ * A {@link SeekableInputStream} backed by an in-memory file, so that benchmarks measure decoding only.
+ *
+ * @author devgianlu
+ */
+public final class ByteArraySeekableStream extends SeekableInputStream {
+    private final byte[] data;
+    private int pos = 0;
+    private int mark = 0;
+
+    public ByteArraySeekableStream(@NotNull byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public int size() {
+        return data.length;
+    }
+
+    @Override
+    public int position() {
+        return pos;
+    }
+
+    @Override
+    public void seek(int seekZero) {
+        pos = seekZero;
+    }
+
+    @Override
+    public long skip(long skip) {
+        long k = Math.min(skip, data.length - pos);
+        pos += k;
+        return k;
+    }
+
+    @Override
+    public int read(@NotNull byte[] buffer, int index, int length) {
+        if (pos >= data.length) return -1;
+
+        int count = Math.min(length, data.length - pos);
+        System.arraycopy(data, pos, buffer, index, count);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public int read() {
+        if (pos >= data.length) return -1;
+        return data[pos++] & 0xFF;
+    }
+
+    @Override
+    public int available() {
+        return data.length - pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) {
+        mark = pos;
+    }
+
+    @Override
+    public void reset() {
+        pos = mark;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public int decodedLength() {
+        return data.length;
+    }
+}
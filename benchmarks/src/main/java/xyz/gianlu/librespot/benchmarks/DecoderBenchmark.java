@@ -0,0 +1,82 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import xyz.gianlu.librespot.audio.decoders.Mp3Decoder;
+import xyz.gianlu.librespot.audio.decoders.VorbisDecoder;
+import xyz.gianlu.librespot.player.decoders.Decoder;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to decode a whole track, the CPU spent here limits how many players fit on a single host.
+ *
+ * @author devgianlu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecoderBenchmark {
+    private static final OutputStream DISCARD = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) {
+        }
+    };
+    private byte[] vorbis;
+    private byte[] mp3;
+
+    private static long decodeAll(@NotNull Decoder decoder) throws Exception {
+        long total = 0;
+        int count;
+        while ((count = decoder.writeSomeTo(DISCARD)) != -1)
+            total += count;
+
+        decoder.close();
+        return total;
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        vorbis = GeneratedAudio.vorbis();
+        mp3 = GeneratedAudio.mp3();
+    }
+
+    @Benchmark
+    public long decodeVorbis() throws Exception {
+        return decodeAll(new VorbisDecoder(new ByteArraySeekableStream(vorbis), 1, GeneratedAudio.DURATION_SECONDS * 1000));
+    }
+
+    @Benchmark
+    public long decodeVorbisNormalized() throws Exception {
+        return decodeAll(new VorbisDecoder(new ByteArraySeekableStream(vorbis), 0.7f, GeneratedAudio.DURATION_SECONDS * 1000));
+    }
+
+    @Benchmark
+    public long decodeMp3() throws Exception {
+        return decodeAll(new Mp3Decoder(new ByteArraySeekableStream(mp3), 1, GeneratedAudio.DURATION_SECONDS * 1000));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates the audio files used by the benchmarks with {@code ffmpeg}. A file can be provided instead through
+ * the {@code benchmark.vorbisFile} and {@code benchmark.mp3File} system properties.
+ *
+ * @author devgianlu
+ */
+public final class GeneratedAudio {
+    public static final int DURATION_SECONDS = 60;
+    private static File dir = null;
+
+    private GeneratedAudio() {
+    }
+
+    @NotNull
+    public static byte[] vorbis() throws IOException {
+        return load("benchmark.vorbisFile", "track.ogg", "-c:a", "libvorbis", "-q:a", "5");
+    }
+
+    @NotNull
+    public static byte[] mp3() throws IOException {
+        return load("benchmark.mp3File", "episode.mp3", "-c:a", "libmp3lame", "-b:a", "96k");
+    }
+
+    @NotNull
+    private static synchronized byte[] load(@NotNull String property, @NotNull String name, @NotNull String... codec) throws IOException {
+        String path = System.getProperty(property);
+        if (path != null && !path.isEmpty()) return Files.readAllBytes(new File(path).toPath());
+
+        if (dir == null) {
+            dir = Files.createTempDirectory("librespot-benchmarks").toFile();
+            dir.deleteOnExit();
+        }
+
+        File file = new File(dir, name);
+        if (!file.exists()) generate(file, codec);
+        return Files.readAllBytes(file.toPath());
+    }
+
+    /**
+     * Generates a stereo 44.1 kHz file made of two sine waves and some noise, so that the encoder cannot trivially compress it.
+     */
+    private static void generate(@NotNull File file, @NotNull String... codec) throws IOException {
+        String[] base = new String[]{"ffmpeg", "-hide_banner", "-loglevel", "error", "-y",
+                "-f", "lavfi", "-i", "sine=frequency=440:sample_rate=44100:duration=" + DURATION_SECONDS,
+                "-f", "lavfi", "-i", "anoisesrc=color=pink:amplitude=0.1:sample_rate=44100:duration=" + DURATION_SECONDS,
+                "-filter_complex", "[0:a][1:a]amerge=inputs=2[a]", "-map", "[a]", "-ac", "2"};
+
+        String[] cmd = new String[base.length + codec.length + 1];
+        System.arraycopy(base, 0, cmd, 0, base.length);
+        System.arraycopy(codec, 0, cmd, base.length, codec.length);
+        cmd[cmd.length - 1] = file.getAbsolutePath();
+
+        Process process;
+        try {
+            process = new ProcessBuilder(cmd).inheritIO().start();
+        } catch (IOException ex) {
+            throw new IOException("Cannot run ffmpeg, provide the file through the system properties instead.", ex);
+        }
+
+        try {
+            if (!process.waitFor(2, TimeUnit.MINUTES) || process.exitValue() != 0)
+                throw new IOException("Failed generating " + file);
+        } catch (InterruptedException ex) {
+            throw new IOException(ex);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.benchmarks;
+
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import xyz.gianlu.librespot.audio.AbsChunkedInputStream;
+import xyz.gianlu.librespot.player.decoders.Decoder;
+import xyz.gianlu.librespot.player.mixing.CircularBuffer;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static xyz.gianlu.librespot.audio.storage.ChannelManager.CHUNK_SIZE;
+
+/**
+ * Measures the hand off between the threads of the streaming path: how long a reader stalled on a chunk takes to
+ * wake up once the chunk lands and how fast PCM moves through a mixing buffer. Run it against the previous revision to compare.
+ *
+ * @author devgianlu
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StreamingBenchmark {
+    private static final int CHUNKS = 16;
+    private static final int PIECES = 256;
+    private static final byte[] CHUNK = new byte[CHUNK_SIZE];
+    private final byte[] piece = new byte[Decoder.BUFFER_SIZE];
+    private ScheduledExecutorService feeder;
+
+    @Setup
+    public void setup() {
+        feeder = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        feeder.shutdownNow();
+    }
+
+    /**
+     * Reads one byte from every chunk, each chunk is delivered by another thread only after the reader stalled on it.
+     */
+    @Benchmark
+    @OperationsPerInvocation(CHUNKS)
+    public int chunkWakeUp() throws IOException {
+        int sum = 0;
+        try (StalledStream stream = new StalledStream(feeder)) {
+            for (int i = 0; i < CHUNKS; i++) {
+                stream.seek(i * CHUNK_SIZE);
+                sum += stream.read();
+            }
+        }
+
+        return sum;
+    }
+
+    /**
+     * Moves PCM from a writer thread to the reader through a buffer sized like the ones of the mixing line.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIECES)
+    public int circularBufferHandoff() throws Exception {
+        CircularBuffer buffer = new CircularBuffer(Decoder.BUFFER_SIZE * 4);
+        Future<?> writer = feeder.submit(() -> {
+            for (int i = 0; i < PIECES; i++) buffer.write(piece, 0, piece.length);
+        });
+
+        byte[] out = new byte[Decoder.BUFFER_SIZE];
+        int total = 0;
+        for (int i = 0; i < PIECES; i++) total += buffer.read(out, 0, out.length);
+
+        writer.get();
+        buffer.close();
+        return total;
+    }
+
+    /**
+     * A stream whose chunks are never prefetched: a chunk is delivered only once the reader halts waiting for it.
+     */
+    private static class StalledStream extends AbsChunkedInputStream {
+        private final ExecutorService feeder;
+        private final byte[][] buffer;
+        private final boolean[] available;
+        private final boolean[] requested;
+
+        StalledStream(@NotNull ScheduledExecutorService feeder) {
+            super(feeder, false);
+            this.feeder = feeder;
+            this.buffer = new byte[CHUNKS][];
+            Arrays.fill(buffer, CHUNK);
+            this.available = new boolean[CHUNKS];
+            this.requested = new boolean[CHUNKS];
+        }
+
+        @Override
+        protected byte[][] buffer() {
+            return buffer;
+        }
+
+        @Override
+        public int size() {
+            return CHUNKS * CHUNK_SIZE;
+        }
+
+        @Override
+        protected boolean[] requestedChunks() {
+            return requested;
+        }
+
+        @Override
+        protected boolean[] availableChunks() {
+            return available;
+        }
+
+        @Override
+        protected int chunks() {
+            return CHUNKS;
+        }
+
+        @Override
+        protected void requestChunkFromStream(int index) {
+        }
+
+        @Override
+        public void streamReadHalted(int chunk, long time) {
+            feeder.execute(() -> notifyChunkAvailable(chunk));
+        }
+
+        @Override
+        public void streamReadResumed(int chunk, long time) {
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.google.protobuf.ByteString;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.jetbrains.annotations.NotNull;
+import org.openjdk.jmh.annotations.*;
+import xyz.gianlu.librespot.common.FisherYatesShuffle;
+import xyz.gianlu.librespot.common.ProtoUtils;
+import xyz.gianlu.librespot.common.Utils;
+import xyz.gianlu.librespot.metadata.TrackId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link TrackStore} used by {@link StateWrapper} against linear scans over an {@link ArrayList} on synthetic contexts.
+ * It lives in the player package because {@link TrackStore} is package-private.
+ *
+ * @author devgianlu
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TrackStoreBenchmark {
+    private static final int PROBES = 1024;
+    private final ContextTrack[] probes = new ContextTrack[PROBES];
+    @Param({"10000", "100000"})
+    public int size;
+    private List<ContextTrack> list;
+    private TrackStore store;
+    private FisherYatesShuffle<ContextTrack> shuffle;
+    private ContextTrack added;
+    private int probe = 0;
+
+    @NotNull
+    private static ContextTrack track(int id) {
+        byte[] gid = new byte[16];
+        gid[12] = (byte) (id >>> 24);
+        gid[13] = (byte) (id >>> 16);
+        gid[14] = (byte) (id >>> 8);
+        gid[15] = (byte) id;
+
+        return ContextTrack.newBuilder()
+                .setUri(TrackId.fromHex(Utils.bytesToHex(gid)).toSpotifyUri())
+                .setUid(Integer.toHexString(id * 31))
+                .setGid(ByteString.copyFrom(gid))
+                .build();
+    }
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        list = new ArrayList<>(size);
+        store = new TrackStore();
+        for (int i = 0; i < size; i++) {
+            ContextTrack track = track(i);
+            list.add(track);
+            store.add(track);
+        }
+
+        for (int i = 0; i < PROBES; i++) probes[i] = list.get(random.nextInt(size));
+        shuffle = new FisherYatesShuffle<>(random);
+        added = track(size + 1);
+    }
+
+    @NotNull
+    private ContextTrack nextProbe() {
+        return probes[probe++ & (PROBES - 1)];
+    }
+
+    @Benchmark
+    public int uriLookupLinear() {
+        return ProtoUtils.indexOfTrackByUri(list, nextProbe().getUri());
+    }
+
+    @Benchmark
+    public int uriLookupIndexed() {
+        return store.indexOfUri(nextProbe().getUri());
+    }
+
+    @Benchmark
+    public int skipToLinear() {
+        return ProtoUtils.indexOfTrack(list, nextProbe());
+    }
+
+    @Benchmark
+    public int skipToIndexed() {
+        return store.indexOfTrack(nextProbe());
+    }
+
+    /**
+     * A playlist add at the top followed by a lookup, as it happens for {@code performAdd} and then {@code skipTo}.
+     */
+    @Benchmark
+    public int addFirstThenLookupLinear() {
+        list.add(0, added);
+        int index = ProtoUtils.indexOfTrack(list, nextProbe());
+        list.remove(0);
+        return index;
+    }
+
+    @Benchmark
+    public int addFirstThenLookupIndexed() {
+        store.add(0, added);
+        int index = store.indexOfTrack(nextProbe());
+        store.remove(0);
+        return index;
+    }
+
+    @Benchmark
+    public int shuffleLinear() {
+        shuffle.shuffle(list, true);
+        shuffle.unshuffle(list);
+        return list.size();
+    }
+
+    @Benchmark
+    public int shuffleIndexed() {
+        shuffle.shuffle(store, true);
+        shuffle.unshuffle(store);
+        return store.size();
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.common.Utils;
+import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.mercury.MercuryClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps authenticated sessions that have been handed off warm for a while, so that a later handoff from the same user
+ * can reuse them instead of connecting and authenticating again. Sessions are keyed by {@link #key(String, byte[])}, so
+ * that only a handoff with the same credentials gets one back.
+ *
+ * @author devgianlu
+ */
+final class SessionPool implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SessionPool.class);
+    private final int keepWarmSeconds;
+    private final Map<String, Parked> parked = new HashMap<>();
+
+    /**
+     * @param keepWarmSeconds For how long sessions are kept, {@code 0} to disable the pool
+     */
+    SessionPool(int keepWarmSeconds) {
+        this.keepWarmSeconds = keepWarmSeconds;
+    }
+
+    /**
+     * @param username    The username the session has been handed off with
+     * @param credentials The decrypted credentials blob of the handoff
+     * @return The key to park and take sessions with
+     */
+    @NotNull
+    static String key(@NotNull String username, byte[] credentials) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(username.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            digest.update(credentials);
+            return Utils.bytesToHex(digest.digest());
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * @return Whether the two keys are equal, compared in constant time
+     */
+    static boolean sameKey(@Nullable String a, @Nullable String b) {
+        if (a == null || b == null) return false;
+        return MessageDigest.isEqual(a.getBytes(StandardCharsets.US_ASCII), b.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void closeQuietly(@NotNull Session session) {
+        try {
+            session.close();
+        } catch (IOException ex) {
+            LOGGER.warn("Failed closing pooled session.", ex);
+        }
+    }
+
+    boolean enabled() {
+        return keepWarmSeconds > 0;
+    }
+
+    /**
+     * Parks the given session, closing it if the pool is disabled or the session isn't valid. The dealer is disconnected
+     * while parked so that the session doesn't show up as a Connect device alongside the current one. The expiry runs on
+     * the session's own scheduler, which goes away with the session.
+     *
+     * @param key     The {@link #key(String, byte[])} of the handoff
+     * @param session The session
+     */
+    void park(@NotNull String key, @NotNull Session session) {
+        if (!enabled() || !session.isValid()) {
+            closeQuietly(session);
+            return;
+        }
+
+        session.dealer().disconnect();
+
+        Parked old;
+        synchronized (parked) {
+            ScheduledFuture<?> expiry;
+            try {
+                expiry = session.scheduler().schedule(() -> expire(key, session), keepWarmSeconds, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException ex) {
+                closeQuietly(session);
+                return;
+            }
+
+            old = parked.put(key, new Parked(session, expiry));
+        }
+
+        if (old != null && old.session != session) {
+            old.expiry.cancel(false);
+            closeQuietly(old.session);
+        }
+
+        LOGGER.debug("Parked session for {}. {keepWarm: {}s}", session.username(), keepWarmSeconds);
+    }
+
+    private void expire(@NotNull String key, @NotNull Session session) {
+        synchronized (parked) {
+            Parked entry = parked.get(key);
+            if (entry == null || entry.session != session) return;
+            parked.remove(key);
+        }
+
+        LOGGER.debug("Closing expired session.");
+        closeQuietly(session);
+    }
+
+    /**
+     * @param key The {@link #key(String, byte[])} of the handoff
+     * @return A valid session parked with the same credentials, with its dealer reconnecting, or {@code null}
+     */
+    @Nullable
+    Session take(@NotNull String key) {
+        Parked entry;
+        synchronized (parked) {
+            entry = parked.remove(key);
+        }
+
+        if (entry == null) return null;
+
+        entry.expiry.cancel(false);
+        if (entry.session.isValid()) {
+            try {
+                entry.session.dealer().connect();
+                return entry.session;
+            } catch (IOException | MercuryClient.MercuryException ex) {
+                LOGGER.warn("Failed reconnecting dealer of pooled session.", ex);
+            }
+        }
+
+        closeQuietly(entry.session);
+        return null;
+    }
+
+    @Override
+    public void close() {
+        List<Parked> entries;
+        synchronized (parked) {
+            entries = new ArrayList<>(parked.values());
+            parked.clear();
+        }
+
+        for (Parked entry : entries) closeQuietly(entry.session);
+    }
+
+    private static final class Parked {
+        final Session session;
+        final ScheduledFuture<?> expiry;
+
+        Parked(@NotNull Session session, @NotNull ScheduledFuture<?> expiry) {
+            this.session = session;
+            this.expiry = expiry;
+        }
+    }
+}
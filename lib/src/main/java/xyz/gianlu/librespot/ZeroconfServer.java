@@ -18,17 +18,20 @@ package xyz.gianlu.librespot;
 
 import com.google.gson.JsonObject;
 import com.spotify.connectstate.Connect;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 import okhttp3.HttpUrl;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.crypto.DiffieHellman;
 import xyz.gianlu.librespot.mercury.MercuryClient;
+import xyz.gianlu.librespot.metrics.Metrics;
 import xyz.gianlu.zeroconf.Service;
 import xyz.gianlu.zeroconf.Zeroconf;
 
@@ -36,18 +39,20 @@ import javax.crypto.Cipher;
 import javax.crypto.Mac;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
-import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.*;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadLocalRandom;
 
 /**
@@ -58,9 +63,9 @@ public class ZeroconfServer implements Closeable {
     private final static int MAX_PORT = 65536;
     private final static int MIN_PORT = 1024;
     private static final Logger LOGGER = LoggerFactory.getLogger(ZeroconfServer.class);
-    private static final byte[] EOL = new byte[]{'\r', '\n'};
     private static final JsonObject DEFAULT_GET_INFO_FIELDS = new JsonObject();
     private static final JsonObject DEFAULT_SUCCESSFUL_ADD_USER = new JsonObject();
+    private static final byte[] DEFAULT_SUCCESSFUL_ADD_USER_BODY;
     private static final byte[][] VIRTUAL_INTERFACES = new byte[][]{
             new byte[]{(byte) 0x00, (byte) 0x0F, (byte) 0x4B}, // Virtual Iron Software, Inc.
             new byte[]{(byte) 0x00, (byte) 0x13, (byte) 0x07}, // Paravirtual Corporation
@@ -103,6 +108,7 @@ public class ZeroconfServer implements Closeable {
         DEFAULT_SUCCESSFUL_ADD_USER.addProperty("status", 101);
         DEFAULT_SUCCESSFUL_ADD_USER.addProperty("spotifyError", 0);
         DEFAULT_SUCCESSFUL_ADD_USER.addProperty("statusString", "OK");
+        DEFAULT_SUCCESSFUL_ADD_USER_BODY = DEFAULT_SUCCESSFUL_ADD_USER.toString().getBytes(StandardCharsets.UTF_8);
 
         Utils.removeCryptographyRestrictions();
     }
@@ -113,18 +119,26 @@ public class ZeroconfServer implements Closeable {
     private final Zeroconf zeroconf;
     private final Object connectionLock = new Object();
     private final Inner inner;
+    private final SessionPool sessionPool;
+    private final ExecutorService sessionExecutor;
+    private final Session.CloseListener infoInvalidator = this::invalidateInfo;
     private volatile Session session;
+    private volatile String sessionKey = null;
     private String connectingUsername = null;
+    private byte[] cachedInfo = null;
+    private String cachedInfoUser = null;
 
-    private ZeroconfServer(@NotNull Inner inner, int listenPort, boolean listenAllInterfaces, String[] interfacesList) throws IOException {
+    private ZeroconfServer(@NotNull Inner inner, int listenPort, boolean listenAllInterfaces, String[] interfacesList, int sessionKeepWarm) throws IOException {
         this.inner = inner;
+        this.sessionPool = new SessionPool(sessionKeepWarm);
         this.keys = new DiffieHellman(inner.random);
         this.sessionListeners = new ArrayList<>();
+        this.sessionExecutor = inner.conf.executorProvider.newSingleThreadExecutor("zeroconf-session");
 
         if (listenPort == -1)
             listenPort = inner.random.nextInt((MAX_PORT - MIN_PORT) + 1) + MIN_PORT;
 
-        new Thread(this.runner = new HttpRunner(listenPort), "zeroconf-http-server").start();
+        this.runner = new HttpRunner(listenPort);
 
         List<NetworkInterface> nics;
         if (listenAllInterfaces) {
@@ -211,10 +225,24 @@ public class ZeroconfServer implements Closeable {
         return map;
     }
 
+    private static void sendEmpty(@NotNull HttpExchange exchange, int code) throws IOException {
+        exchange.sendResponseHeaders(code, -1);
+    }
+
+    private static void sendJson(@NotNull HttpExchange exchange, @NotNull byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
     @Override
     public void close() throws IOException {
         zeroconf.close();
         runner.close();
+        sessionExecutor.shutdownNow();
+        sessionPool.close();
     }
 
     public void closeSession() throws IOException {
@@ -223,72 +251,117 @@ public class ZeroconfServer implements Closeable {
         sessionListeners.forEach(l -> l.sessionClosing(session));
         session.close();
         session = null;
+        invalidateInfo();
+    }
+
+    /**
+     * Like {@link #closeSession()}, but the session is kept warm in the pool if enabled.
+     */
+    private void releaseSession() {
+        Session old = session;
+        if (old == null) return;
+
+        sessionListeners.forEach(l -> l.sessionClosing(old));
+        session = null;
+        invalidateInfo();
+
+        sessionPool.park(sessionKey, old);
     }
 
     private boolean hasValidSession() {
         try {
             boolean valid = session != null && session.isValid();
-            if (!valid) session = null;
+            if (!valid) setInvalidSession();
             return valid;
         } catch (IllegalStateException ex) {
-            session = null;
+            setInvalidSession();
             return false;
         }
     }
 
-    private void handleGetInfo(OutputStream out, String httpVersion) throws IOException {
-        JsonObject info = DEFAULT_GET_INFO_FIELDS.deepCopy();
-        info.addProperty("deviceID", inner.deviceId);
-        info.addProperty("remoteName", inner.deviceName);
-        info.addProperty("publicKey", Utils.toBase64(keys.publicKeyArray()));
-        info.addProperty("deviceType", inner.deviceType.name().toUpperCase());
+    private void setInvalidSession() {
+        if (session != null) {
+            session = null;
+            invalidateInfo();
+        }
+    }
+
+    /**
+     * Drops the cached {@code getInfo} response. The active user is also checked on every request, so that a session
+     * that became invalid without notice isn't reported.
+     */
+    private void invalidateInfo() {
+        synchronized (connectionLock) {
+            cachedInfo = null;
+        }
+    }
+
+    private void setConnectingUsername(@Nullable String username) {
+        synchronized (connectionLock) {
+            connectingUsername = username;
+            cachedInfo = null;
+        }
+    }
 
+    private void clearConnectingUsername(@NotNull String username) {
         synchronized (connectionLock) {
-            info.addProperty("activeUser", connectingUsername != null ? connectingUsername : (hasValidSession() ? session.username() : ""));
+            if (username.equals(connectingUsername)) {
+                connectingUsername = null;
+                cachedInfo = null;
+            }
         }
+    }
 
-        out.write(httpVersion.getBytes());
-        out.write(" 200 OK".getBytes());
-        out.write(EOL);
-        out.flush();
+    private void handleGetInfo(@NotNull HttpExchange exchange) throws IOException {
+        Session current = session;
+        String sessionUser = current != null && hasValidSession() ? current.username() : "";
 
-        out.write("Content-Type: application/json".getBytes());
-        out.write(EOL);
-        out.flush();
+        byte[] body;
+        synchronized (connectionLock) {
+            String activeUser = connectingUsername != null ? connectingUsername : sessionUser;
+            if (cachedInfo == null || !activeUser.equals(cachedInfoUser)) {
+                JsonObject info = DEFAULT_GET_INFO_FIELDS.deepCopy();
+                info.addProperty("deviceID", inner.deviceId);
+                info.addProperty("remoteName", inner.deviceName);
+                info.addProperty("publicKey", Utils.toBase64(keys.publicKeyArray()));
+                info.addProperty("deviceType", inner.deviceType.name().toUpperCase());
+                info.addProperty("activeUser", activeUser);
+                cachedInfo = info.toString().getBytes(StandardCharsets.UTF_8);
+                cachedInfoUser = activeUser;
+            }
+
+            body = cachedInfo;
+        }
 
-        out.write(EOL);
-        out.write(info.toString().getBytes());
-        out.flush();
+        sendJson(exchange, body);
     }
 
-    private void handleAddUser(OutputStream out, Map<String, String> params, String httpVersion) throws GeneralSecurityException, IOException {
+    private void handleAddUser(@NotNull HttpExchange exchange, @NotNull Map<String, String> params) throws GeneralSecurityException, IOException {
         String username = params.get("userName");
         if (username == null || username.isEmpty()) {
             LOGGER.error("Missing userName!");
+            sendEmpty(exchange, 400);
             return;
         }
 
         String blobStr = params.get("blob");
         if (blobStr == null || blobStr.isEmpty()) {
             LOGGER.error("Missing blob!");
+            sendEmpty(exchange, 400);
             return;
         }
 
         String clientKeyStr = params.get("clientKey");
         if (clientKeyStr == null || clientKeyStr.isEmpty()) {
             LOGGER.error("Missing clientKey!");
+            sendEmpty(exchange, 400);
             return;
         }
 
         synchronized (connectionLock) {
             if (username.equals(connectingUsername)) {
                 LOGGER.info("{} is already trying to connect.", username);
-
-                out.write(httpVersion.getBytes());
-                out.write(" 403 Forbidden".getBytes()); // I don't think this is the Spotify way
-                out.write(EOL);
-                out.write(EOL);
-                out.flush();
+                sendEmpty(exchange, 403); // I don't think this is the Spotify way
                 return;
             }
         }
@@ -318,12 +391,7 @@ public class ZeroconfServer implements Closeable {
 
         if (!Arrays.equals(mac, checksum)) {
             LOGGER.error("Mac and checksum don't match!");
-
-            out.write(httpVersion.getBytes());
-            out.write(" 400 Bad Request".getBytes()); // I don't think this is the Spotify way
-            out.write(EOL);
-            out.write(EOL);
-            out.flush();
+            sendEmpty(exchange, 400); // I don't think this is the Spotify way
             return;
         }
 
@@ -331,58 +399,66 @@ public class ZeroconfServer implements Closeable {
         aes.init(Cipher.DECRYPT_MODE, new SecretKeySpec(Arrays.copyOfRange(encryptionKey, 0, 16), "AES"), new IvParameterSpec(iv));
         byte[] decrypted = aes.doFinal(encrypted);
 
+        long start = System.nanoTime();
+        String key = SessionPool.key(username, decrypted);
+        if (sessionPool.enabled() && SessionPool.sameKey(key, sessionKey) && hasValidSession()) {
+            LOGGER.info("Accepted same user from {}, keeping the current session. {deviceId: {}}", params.get("deviceName"), inner.deviceId);
+            sendJson(exchange, DEFAULT_SUCCESSFUL_ADD_USER_BODY);
+            Metrics.ZEROCONF_HANDOFF_CURRENT.observeSince(start);
+            return;
+        }
+
+        releaseSession();
+        setConnectingUsername(username);
+
+        LOGGER.info("Accepted new user from {}. {deviceId: {}}", params.get("deviceName"), inner.deviceId);
+
+        // Respond before connecting, the client doesn't wait for the session
+        sendJson(exchange, DEFAULT_SUCCESSFUL_ADD_USER_BODY);
+        exchange.close();
+
         try {
-            closeSession();
-        } catch (IOException ex) {
-            LOGGER.warn("Failed closing previous session.", ex);
+            sessionExecutor.execute(() -> connect(username, decrypted, key, start));
+        } catch (RejectedExecutionException ex) {
+            LOGGER.warn("Server is closing, not connecting {}.", username);
+            clearConnectingUsername(username);
         }
+    }
+
+    /**
+     * Takes a warm session from the pool or creates a new one. Runs on {@link #sessionExecutor}, one at a time, so that
+     * connecting doesn't hold one of the few HTTP workers for seconds. Only a session parked with the same credentials is
+     * reused, anything else authenticates again.
+     */
+    private void connect(@NotNull String username, byte[] decrypted, @NotNull String key, long start) {
+        releaseSession(); // Another user may have connected while this was queued
 
         try {
-            synchronized (connectionLock) {
-                connectingUsername = username;
+            Session pooled = sessionPool.take(key);
+            if (pooled != null) {
+                session = pooled;
+                Metrics.ZEROCONF_HANDOFF_POOLED.observeSince(start);
+                LOGGER.info("Reusing warm session for {}. {took: {}ms}", username, (System.nanoTime() - start) / 1_000_000);
+            } else {
+                session = new Session.Builder(inner.conf)
+                        .setDeviceId(inner.deviceId)
+                        .setDeviceName(inner.deviceName)
+                        .setDeviceType(inner.deviceType)
+                        .setPreferredLocale(inner.preferredLocale)
+                        .blob(username, decrypted)
+                        .create();
+                Metrics.ZEROCONF_HANDOFF_NEW.observeSince(start);
+                LOGGER.info("Created new session for {}. {took: {}ms}", username, (System.nanoTime() - start) / 1_000_000);
             }
 
-            LOGGER.info("Accepted new user from {}. {deviceId: {}}", params.get("deviceName"), inner.deviceId);
-
-            // Sending response
-            String resp = DEFAULT_SUCCESSFUL_ADD_USER.toString();
-            out.write(httpVersion.getBytes());
-            out.write(" 200 OK".getBytes());
-            out.write(EOL);
-            out.write("Content-Length: ".getBytes());
-            out.write(String.valueOf(resp.length()).getBytes());
-            out.write(EOL);
-            out.flush();
-
-            out.write(EOL);
-            out.write(resp.getBytes());
-            out.flush();
-
-            session = new Session.Builder(inner.conf)
-                    .setDeviceId(inner.deviceId)
-                    .setDeviceName(inner.deviceName)
-                    .setDeviceType(inner.deviceType)
-                    .setPreferredLocale(inner.preferredLocale)
-                    .blob(username, decrypted)
-                    .create();
-
-            synchronized (connectionLock) {
-                connectingUsername = null;
-            }
+            sessionKey = key;
+            session.addCloseListener(infoInvalidator);
+            clearConnectingUsername(username);
 
             sessionListeners.forEach(l -> l.sessionChanged(session));
-        } catch (Session.SpotifyAuthenticationException | MercuryClient.MercuryException | IOException | GeneralSecurityException ex) {
+        } catch (Session.SpotifyAuthenticationException | MercuryClient.MercuryException | IOException | GeneralSecurityException | RuntimeException ex) {
             LOGGER.error("Couldn't establish a new session.", ex);
-
-            synchronized (connectionLock) {
-                connectingUsername = null;
-            }
-
-            out.write(httpVersion.getBytes());
-            out.write(" 500 Internal Server Error".getBytes()); // I don't think this is the Spotify way
-            out.write(EOL);
-            out.write(EOL);
-            out.flush();
+            clearConnectingUsername(username);
         }
     }
 
@@ -396,7 +472,7 @@ public class ZeroconfServer implements Closeable {
 
     public interface SessionListener {
         /**
-         * The session instance is going to be closed after this call.
+         * The session instance is going to be closed or kept warm for a later handoff after this call, it must not be used anymore.
          *
          * @param session The old {@link Session}
          */
@@ -414,6 +490,7 @@ public class ZeroconfServer implements Closeable {
         private boolean listenAll = true;
         private int listenPort = -1;
         private String[] listenInterfaces = null;
+        private int sessionKeepWarm = 0;
 
         public Builder(Session.@NotNull Configuration conf) {
             super(conf);
@@ -439,9 +516,19 @@ public class ZeroconfServer implements Closeable {
             return this;
         }
 
+        /**
+         * @param sessionKeepWarm For how many seconds a session that has been handed off is kept authenticated, so that
+         *                        the same user can take it back without reconnecting. {@code 0} to always close it.
+         */
+        public Builder setSessionKeepWarm(int sessionKeepWarm) {
+            if (sessionKeepWarm < 0) throw new IllegalArgumentException("Keep warm must be positive or zero: " + sessionKeepWarm);
+            this.sessionKeepWarm = sessionKeepWarm;
+            return this;
+        }
+
         @NonNls
         public ZeroconfServer create() throws IOException {
-            return new ZeroconfServer(new Inner(deviceType, deviceName, deviceId, preferredLocale, conf), listenPort, listenAll, listenInterfaces);
+            return new ZeroconfServer(new Inner(deviceType, deviceName, deviceId, preferredLocale, conf), listenPort, listenAll, listenInterfaces, sessionKeepWarm);
         }
     }
 
@@ -462,122 +549,91 @@ public class ZeroconfServer implements Closeable {
         }
     }
 
-    private class HttpRunner implements Runnable, Closeable {
-        private final ServerSocket serverSocket;
-        private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "zeroconf-client-" + r.hashCode()));
-        private volatile boolean shouldStop = false;
+    /**
+     * Serves the Zeroconf endpoint with the JDK HTTP server: connections are multiplexed on a single selector thread,
+     * kept alive between requests and handled by a small fixed pool.
+     */
+    private class HttpRunner implements HttpHandler, Closeable {
+        private static final int WORKER_THREADS = 4;
+        private final HttpServer server;
+        private final ExecutorService executorService = inner.conf.executorProvider.newExecutor("zeroconf-http", WORKER_THREADS);
 
         HttpRunner(int port) throws IOException {
-            serverSocket = new ServerSocket(port);
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+            server.createContext("/", this);
+            server.setExecutor(executorService);
+            server.start();
             LOGGER.info("Zeroconf HTTP server started successfully on port {}!", port);
         }
 
         @Override
-        public void run() {
-            while (!shouldStop) {
-                try {
-                    Socket socket = serverSocket.accept();
-                    executorService.execute(() -> {
-                        try {
-                            handle(socket);
-                            socket.close();
-                        } catch (IOException ex) {
-                            LOGGER.error("Failed handling request!", ex);
-                        }
-                    });
-                } catch (IOException ex) {
-                    if (!shouldStop) LOGGER.error("Failed handling connection!", ex);
-                }
-            }
-        }
-
-        private void handleRequest(@NotNull OutputStream out, @NotNull String httpVersion, @NotNull String action, @Nullable Map<String, String> params) {
-            if (Objects.equals(action, "addUser")) {
-                if (params == null) throw new IllegalArgumentException();
-
-                try {
-                    handleAddUser(out, params, httpVersion);
-                } catch (GeneralSecurityException | IOException ex) {
-                    LOGGER.error("Failed handling addUser!", ex);
-                }
-            } else if (Objects.equals(action, "getInfo")) {
-                try {
-                    handleGetInfo(out, httpVersion);
-                } catch (IOException ex) {
-                    LOGGER.error("Failed handling getInfo!", ex);
-                }
-            } else {
-                LOGGER.warn("Unknown action: " + action);
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                handleExchange(exchange);
+            } catch (IOException | RuntimeException ex) {
+                LOGGER.error("Failed handling request!", ex);
+            } finally {
+                exchange.close();
             }
         }
 
-        private void handle(@NotNull Socket socket) throws IOException {
-            DataInputStream in = new DataInputStream(socket.getInputStream());
-            OutputStream out = socket.getOutputStream();
-
-            String[] requestLine = Utils.split(Utils.readLine(in), ' ');
-            if (requestLine.length != 3) {
-                LOGGER.warn("Unexpected request line: " + Arrays.toString(requestLine));
-                return;
-            }
-
-            String method = requestLine[0];
-            String path = requestLine[1];
-            String httpVersion = requestLine[2];
-
-            Map<String, String> headers = new HashMap<>();
-            String header;
-            while (!(header = Utils.readLine(in)).isEmpty()) {
-                String[] split = Utils.split(header, ':');
-                headers.put(split[0], split[1].trim());
-            }
-
+        private void handleExchange(@NotNull HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
             if (!hasValidSession())
-                LOGGER.trace("Handling request: {} {} {}, headers: {}", method, path, httpVersion, headers);
+                LOGGER.trace("Handling request: {} {}, headers: {}", method, exchange.getRequestURI(), exchange.getRequestHeaders().entrySet());
 
             Map<String, String> params;
             if (Objects.equals(method, "POST")) {
-                String contentType = headers.get("Content-Type");
-                if (!Objects.equals(contentType, "application/x-www-form-urlencoded")) {
+                String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+                if (contentType == null || !contentType.startsWith("application/x-www-form-urlencoded")) {
                     LOGGER.error("Bad Content-Type: " + contentType);
+                    sendEmpty(exchange, 400);
                     return;
                 }
 
-                String contentLengthStr = headers.get("Content-Length");
-                if (contentLengthStr == null) {
-                    LOGGER.error("Missing Content-Length header!");
-                    return;
+                ByteArrayOutputStream body = new ByteArrayOutputStream();
+                try (InputStream in = exchange.getRequestBody()) {
+                    byte[] buffer = new byte[1024];
+                    int count;
+                    while ((count = in.read(buffer)) != -1) body.write(buffer, 0, count);
                 }
 
-                int contentLength = Integer.parseInt(contentLengthStr);
-                byte[] body = new byte[contentLength];
-                in.readFully(body);
-                String bodyStr = new String(body);
+                String bodyStr = new String(body.toByteArray(), StandardCharsets.UTF_8);
 
                 String[] pairs = Utils.split(bodyStr, '&');
                 params = new HashMap<>(pairs.length);
                 for (String pair : pairs) {
                     String[] split = Utils.split(pair, '=');
+                    if (split.length != 2) continue;
+
                     params.put(URLDecoder.decode(split[0], "UTF-8"),
                             URLDecoder.decode(split[1], "UTF-8"));
                 }
             } else {
-                params = parsePath(path);
+                params = parsePath(exchange.getRequestURI().toString());
             }
 
             String action = params.get("action");
-            if (action == null) {
-                LOGGER.debug("Request is missing action.");
-                return;
-            }
+            if (Objects.equals(action, "addUser")) {
+                try {
+                    handleAddUser(exchange, params);
+                } catch (GeneralSecurityException ex) {
+                    LOGGER.error("Failed handling addUser!", ex);
+                    sendEmpty(exchange, 500);
+                }
+            } else if (Objects.equals(action, "getInfo")) {
+                handleGetInfo(exchange);
+            } else {
+                if (action == null) LOGGER.debug("Request is missing action.");
+                else LOGGER.warn("Unknown action: " + action);
 
-            handleRequest(out, httpVersion, action, params);
+                sendEmpty(exchange, 400);
+            }
         }
 
         @Override
-        public void close() throws IOException {
-            shouldStop = true;
-            serverSocket.close();
+        public void close() {
+            server.stop(0);
             executorService.shutdown();
         }
     }
@@ -17,32 +17,42 @@
 package xyz.gianlu.librespot.audio;
 
 import org.jetbrains.annotations.NotNull;
+import xyz.gianlu.librespot.metrics.Metrics;
 import xyz.gianlu.librespot.player.decoders.SeekableInputStream;
 
 import java.io.IOException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import static xyz.gianlu.librespot.audio.storage.ChannelManager.CHUNK_SIZE;
 
 /**
+ * Readers block on a per-chunk future, so that they wake up only when the chunk they need lands or fails.
+ *
  * @author devgianlu
  */
 public abstract class AbsChunkedInputStream extends SeekableInputStream implements HaltListener {
     private static final int PRELOAD_AHEAD = 3;
     private static final int PRELOAD_CHUNK_RETRIES = 2;
     private static final int MAX_CHUNK_TRIES = 128;
-    private final Object waitLock = new Object();
+    private final AtomicReferenceArray<CompletableFuture<Void>> chunkFutures;
     private final int[] retries;
     private final boolean retryOnChunkError;
-    private volatile int waitForChunk = -1;
-    private volatile ChunkException chunkException = null;
-    private int pos = 0;
+    private final ScheduledExecutorService retryScheduler;
+    private volatile int pos = 0;
     private int mark = 0;
     private volatile boolean closed = false;
     private int decodedLength = 0;
 
-    protected AbsChunkedInputStream(boolean retryOnChunkError) {
+    /**
+     * @param retryScheduler    The scheduler failed chunks are requested again on, usually the session's
+     * @param retryOnChunkError Whether to keep retrying after the first failure of a chunk
+     */
+    protected AbsChunkedInputStream(@NotNull ScheduledExecutorService retryScheduler, boolean retryOnChunkError) {
         this.retries = new int[chunks()];
+        this.chunkFutures = new AtomicReferenceArray<>(chunks());
         this.retryOnChunkError = retryOnChunkError;
+        this.retryScheduler = retryScheduler;
     }
 
     public final boolean isClosed() {
@@ -57,13 +67,14 @@ public abstract class AbsChunkedInputStream extends SeekableInputStream implemen
     public void close() {
         closed = true;
 
-        synchronized (waitLock) {
-            waitLock.notifyAll();
+        for (int i = 0; i < chunkFutures.length(); i++) {
+            CompletableFuture<Void> future = chunkFutures.get(i);
+            if (future != null) future.complete(null);
         }
     }
 
     @Override
-    public final synchronized int available() {
+    public final int available() {
         return size() - pos;
     }
 
@@ -83,7 +94,7 @@ public abstract class AbsChunkedInputStream extends SeekableInputStream implemen
     }
 
     @Override
-    public final synchronized int position() {
+    public final int position() {
         return pos;
     }
 
@@ -93,7 +104,7 @@ public abstract class AbsChunkedInputStream extends SeekableInputStream implemen
         if (closed) throw new IOException("Stream is closed!");
         pos = where;
 
-        checkAvailability(pos / CHUNK_SIZE, false, false);
+        checkAvailability(pos / CHUNK_SIZE, false);
     }
 
     @Override
@@ -106,7 +117,7 @@ public abstract class AbsChunkedInputStream extends SeekableInputStream implemen
         pos += k;
 
         int chunk = pos / CHUNK_SIZE;
-        checkAvailability(chunk, false, false);
+        checkAvailability(chunk, false);
 
         return k;
     }
@@ -122,6 +133,38 @@ public abstract class AbsChunkedInputStream extends SeekableInputStream implemen
      */
     protected abstract void requestChunkFromStream(int index);
 
+    /**
+     * @return The future completed when {@param chunk} is available or failed, it is replaced after a failure
+     */
+    @NotNull
+    private CompletableFuture<Void> chunkFuture(int chunk) {
+        CompletableFuture<Void> future;
+        while ((future = chunkFutures.get(chunk)) == null)
+            chunkFutures.compareAndSet(chunk, null, new CompletableFuture<>());
+
+        return future;
+    }
+
+    /**
+     * Requests {@param chunk} again after a delay that grows with the number of failures, without blocking the reader.
+     *
+     * @return Whether the retry has been scheduled, {@code false} if the scheduler has been shut down
+     */
+    private boolean scheduleRetry(int chunk) {
+        long delay = (long) (Math.log10(retries[chunk]) * 1000);
+        try {
+            retryScheduler.schedule(() -> {
+                if (closed || availableChunks()[chunk] || requestedChunks()[chunk]) return;
+
+                requestedChunks()[chunk] = true;
+                requestChunkFromStream(chunk);
+            }, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+
     /**
      * Should we retry fetching this chunk? MUST be called only for chunks that are needed immediately ({@code wait = true})!
      *
@@ -137,60 +180,50 @@ public abstract class AbsChunkedInputStream extends SeekableInputStream implemen
     /**
      * Chunk if {@param chunk} is available or wait until it becomes, also handles the retry mechanism.
      *
-     * @param chunk  The chunk index
-     * @param wait   Whether we should wait for {@param chunk} to be available
-     * @param halted Whether we have already notified that the retrieving of this chunk is halted
+     * @param chunk The chunk index
+     * @param wait  Whether we should wait for {@param chunk} to be available
      * @throws IOException If we fail to retrieve this chunk and no more retries are available
      */
-    private void checkAvailability(int chunk, boolean wait, boolean halted) throws IOException {
-        if (halted && !wait) throw new IllegalArgumentException();
-
+    private void checkAvailability(int chunk, boolean wait) throws IOException {
+        // Mark before requesting, an error can come back before the request returns and it must be able to clear the flag
         if (!requestedChunks()[chunk]) {
-            requestChunkFromStream(chunk);
             requestedChunks()[chunk] = true;
+            requestChunkFromStream(chunk);
         }
 
         for (int i = chunk + 1; i <= Math.min(chunks() - 1, chunk + PRELOAD_AHEAD); i++) {
             if (!requestedChunks()[i] && retries[i] < PRELOAD_CHUNK_RETRIES) {
-                requestChunkFromStream(i);
                 requestedChunks()[i] = true;
+                requestChunkFromStream(i);
             }
         }
 
-        if (wait) {
-            if (availableChunks()[chunk]) return;
-
-            boolean retry = false;
-            synchronized (waitLock) {
-                if (!halted) streamReadHalted(chunk, System.currentTimeMillis());
+        if (!wait || availableChunks()[chunk]) return;
 
-                try {
-                    chunkException = null;
-                    waitForChunk = chunk;
-                    waitLock.wait();
+        long start = System.nanoTime();
+        streamReadHalted(chunk, System.currentTimeMillis());
 
-                    if (closed) return;
-
-                    if (chunkException != null) {
-                        if (shouldRetry(chunk)) retry = true;
-                        else throw chunkException;
-                    }
-                } catch (InterruptedException ex) {
-                    throw new IOException(ex);
-                }
-
-                if (!retry) streamReadResumed(chunk, System.currentTimeMillis());
+        while (true) {
+            CompletableFuture<Void> future = chunkFuture(chunk);
+            if (closed) throw new IOException("Stream is closed!");
+            if (availableChunks()[chunk]) break;
+
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            } catch (ExecutionException ex) {
+                chunkFutures.compareAndSet(chunk, future, null);
+                if (closed) throw new IOException("Stream is closed!");
+                if (!shouldRetry(chunk) || !scheduleRetry(chunk)) throw (ChunkException) ex.getCause();
             }
+        }
 
-            if (retry) {
-                try {
-                    Thread.sleep((long) (Math.log10(retries[chunk]) * 1000));
-                } catch (InterruptedException ignored) {
-                }
+        Metrics.CHUNK_STALLS.observeSince(start);
+        if (closed) throw new IOException("Stream is closed!");
 
-                checkAvailability(chunk, true, true); // We must exit the synchronized block!
-            }
-        }
+        streamReadResumed(chunk, System.currentTimeMillis());
     }
 
     @Override
@@ -211,7 +244,7 @@ public abstract class AbsChunkedInputStream extends SeekableInputStream implemen
             int chunk = pos / CHUNK_SIZE;
             int chunkOff = pos % CHUNK_SIZE;
 
-            checkAvailability(chunk, true, false);
+            checkAvailability(chunk, true);
 
             int copy = Math.min(buffer()[chunk].length - chunkOff, len - i);
             System.arraycopy(buffer()[chunk], chunkOff, b, off + i, copy);
@@ -231,7 +264,7 @@ public abstract class AbsChunkedInputStream extends SeekableInputStream implemen
             return -1;
 
         int chunk = pos / CHUNK_SIZE;
-        checkAvailability(chunk, true, false);
+        checkAvailability(chunk, true);
 
         return buffer()[chunk][pos++ % CHUNK_SIZE] & 0xff;
     }
@@ -239,27 +272,17 @@ public abstract class AbsChunkedInputStream extends SeekableInputStream implemen
     public final void notifyChunkAvailable(int index) {
         availableChunks()[index] = true;
         decodedLength += buffer()[index].length;
-
-        synchronized (waitLock) {
-            if (index == waitForChunk && !closed) {
-                waitForChunk = -1;
-                waitLock.notifyAll();
-            }
-        }
+        chunkFuture(index).complete(null);
     }
 
     public final void notifyChunkError(int index, @NotNull ChunkException ex) {
         availableChunks()[index] = false;
         requestedChunks()[index] = false;
         retries[index] += 1;
+        Metrics.CHUNK_ERRORS.inc();
 
-        synchronized (waitLock) {
-            if (index == waitForChunk && !closed) {
-                chunkException = ex;
-                waitForChunk = -1;
-                waitLock.notifyAll();
-            }
-        }
+        // The reader may not be waiting yet, it will find the failed future and replace it
+        chunkFuture(index).completeExceptionally(ex);
     }
 
     @Override
@@ -33,7 +33,6 @@ import xyz.gianlu.librespot.audio.format.AudioQualityPicker;
 import xyz.gianlu.librespot.audio.format.SuperAudioFormat;
 import xyz.gianlu.librespot.audio.storage.AudioFileFetch;
 import xyz.gianlu.librespot.audio.storage.StorageFeedHelper;
-import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.mercury.MercuryClient;
@@ -47,7 +46,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 import static xyz.gianlu.librespot.audio.storage.ChannelManager.CHUNK_SIZE;
 
@@ -192,10 +191,13 @@ public final class PlayableContentFeeder {
         private final int size;
         private final boolean[] available;
         private final boolean[] requested;
-        private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "file-async-" + r.hashCode()));
+        private final ExecutorService executorService;
+        private final ScheduledExecutorService retryScheduler;
 
-        FileAudioStream(File file) throws IOException {
+        FileAudioStream(@NotNull File file, @NotNull Session session) throws IOException {
             this.file = file;
+            this.executorService = session.executors().newExecutor("file-async", 4);
+            this.retryScheduler = session.scheduler();
             this.raf = new RandomAccessFile(file, "r");
 
             this.size = (int) raf.length();
@@ -207,7 +209,7 @@ public final class PlayableContentFeeder {
 
         @Override
         public @NotNull AbsChunkedInputStream stream() {
-            return new AbsChunkedInputStream(false) {
+            return new AbsChunkedInputStream(retryScheduler, false) {
                 @Override
                 protected byte[][] buffer() {
                     return buffer;
@@ -302,8 +304,8 @@ public final class PlayableContentFeeder {
         }
 
         @NotNull
-        public static LoadedStream forLocalFile(@NotNull LocalId id, @NotNull File file) throws IOException {
-            return new LoadedStream(id, new FileAudioStream(file));
+        public static LoadedStream forLocalFile(@NotNull LocalId id, @NotNull File file, @NotNull Session session) throws IOException {
+            return new LoadedStream(id, new FileAudioStream(file, session));
         }
     }
 
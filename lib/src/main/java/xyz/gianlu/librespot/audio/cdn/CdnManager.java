@@ -31,16 +31,15 @@ import xyz.gianlu.librespot.audio.decrypt.NoopAudioDecrypt;
 import xyz.gianlu.librespot.audio.format.SuperAudioFormat;
 import xyz.gianlu.librespot.audio.storage.AudioFileFetch;
 import xyz.gianlu.librespot.cache.CacheManager;
-import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.mercury.MercuryClient;
+import xyz.gianlu.librespot.metrics.Metrics;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static xyz.gianlu.librespot.audio.storage.ChannelManager.CHUNK_SIZE;
@@ -197,7 +196,9 @@ public class CdnManager {
 
     public class Streamer implements DecodedAudioStream, GeneralWritableStream {
         private final StreamId streamId;
-        private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "cdn-async-" + r.hashCode()));
+        private final boolean sharedExecutor = session.sharedAudioExecutor() != null;
+        private final ExecutorService executorService = sharedExecutor ? session.sharedAudioExecutor()
+                : session.executors().newExecutor("cdn-async", 8);
         private final SuperAudioFormat format;
         private final AudioDecrypt audioDecrypt;
         private final CdnUrl cdnUrl;
@@ -306,7 +307,9 @@ public class CdnManager {
             if (cacheHandler != null) {
                 try {
                     if (cacheHandler.hasChunk(index)) {
+                        long start = System.nanoTime();
                         cacheHandler.readChunk(index, this);
+                        Metrics.CHUNK_FETCH_CACHE.observeSince(start);
                         return;
                     }
                 } catch (IOException | CacheManager.BadChunkHashException ex) {
@@ -315,7 +318,9 @@ public class CdnManager {
             }
 
             try {
+                long start = System.nanoTime();
                 InternalResponse resp = request(index);
+                Metrics.CHUNK_FETCH_CDN.observeSince(start);
                 writeChunk(resp.buffer, index, false);
             } catch (IOException | CdnException ex) {
                 LOGGER.error("Failed requesting chunk from network, index: {}", index, ex);
@@ -352,13 +357,13 @@ public class CdnManager {
         private class InternalStream extends AbsChunkedInputStream {
 
             private InternalStream(boolean retryOnChunkError) {
-                super(retryOnChunkError);
+                super(session.scheduler(), retryOnChunkError);
             }
 
             @Override
             public void close() {
                 super.close();
-                executorService.shutdown();
+                if (!sharedExecutor) executorService.shutdown();
 
                 if (cacheHandler != null) {
                     try {
@@ -18,6 +18,9 @@ package xyz.gianlu.librespot.audio.decoders;
 
 import javazoom.jl.decoder.*;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.player.decoders.Decoder;
 import xyz.gianlu.librespot.player.decoders.SeekableInputStream;
 import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
@@ -27,19 +30,31 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.Arrays;
 
 /**
  * @author Gianlu
  */
 public final class Mp3Decoder extends Decoder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Mp3Decoder.class);
+    /**
+     * Forward seeks within this amount of frames past the index are resolved by scanning frame headers.
+     */
+    private static final int MAX_SCAN_FRAMES = 256;
     private final byte[] buffer = new byte[2 * Decoder.BUFFER_SIZE];
     private final Mp3InputStream in;
+    private final Mp3SeekTable seekTable;
 
     public Mp3Decoder(@NotNull SeekableInputStream audioIn, float normalizationFactor, int duration) throws IOException, BitstreamException {
         super(audioIn, normalizationFactor, duration);
 
         skipMp3Tags(audioIn);
-        this.in = new Mp3InputStream(audioIn, normalizationFactor);
+
+        int firstFrameOffset = audioIn.position();
+        seekTable = readSeekTable(audioIn, firstFrameOffset, duration);
+        audioIn.seek(firstFrameOffset);
+
+        this.in = new Mp3InputStream(audioIn, normalizationFactor, firstFrameOffset);
 
         audioIn.mark(-1);
         setAudioFormat(new OutputAudioFormat(in.getSampleRate(), 16, in.getChannels(), true, false));
@@ -68,6 +83,41 @@ public final class Mp3Decoder extends Decoder {
             throw new IOException();
     }
 
+    /**
+     * Reads the first frame and builds the seek table from its Xing/VBRI header or bitrate.
+     */
+    @Nullable
+    private static Mp3SeekTable readSeekTable(@NotNull SeekableInputStream in, int firstFrameOffset, int duration) throws IOException {
+        int header = readHeaderAt(in, firstFrameOffset);
+        if (!Mp3SeekTable.isValidHeader(header)) return null;
+
+        byte[] frame = new byte[Mp3SeekTable.frameLength(header)];
+        in.seek(firstFrameOffset);
+
+        int read = 0;
+        while (read < frame.length) {
+            int count = in.read(frame, read, frame.length - read);
+            if (count <= 0) break;
+            read += count;
+        }
+
+        return Mp3SeekTable.parse(frame, read, in.size() - firstFrameOffset, duration);
+    }
+
+    private static int readHeaderAt(@NotNull SeekableInputStream in, int offset) throws IOException {
+        if (offset + 4 > in.size()) return 0;
+
+        in.seek(offset);
+        int header = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = in.read();
+            if (b == -1) return 0;
+            header = (header << 8) | b;
+        }
+
+        return header;
+    }
+
     @Override
     public int readInternal(@NotNull OutputStream out) throws IOException {
         if (closed) return -1;
@@ -80,8 +130,40 @@ public final class Mp3Decoder extends Decoder {
     }
 
     @Override
-    public int time() throws CannotGetTimeException {
-        throw new CannotGetTimeException("No way to get time on MP3 stream");
+    public int time() {
+        long position = in.samplePosition() - (long) Decoder.BUFFER_SIZE * 6 * sampleSizeBytes(); // Account for buffer between the decoder and the player
+        return (int) (Math.max(in.seekBase, position) * 1000 / in.getSampleRate());
+    }
+
+    /**
+     * Seeks using the frame index if the target has already been decoded, the Xing/VBRI table or the bitrate otherwise.
+     *
+     * @param positionMs The position in milliseconds
+     */
+    @Override
+    public synchronized void seek(int positionMs) {
+        if (positionMs < 0) positionMs = 0;
+
+        long target = (long) positionMs * in.getSampleRate() / 1000;
+        int targetFrame = (int) (target / in.samplesPerFrame);
+        int skipSamples = (int) (target - (long) targetFrame * in.samplesPerFrame);
+
+        try {
+            if (targetFrame >= in.indexedFrames() && targetFrame - in.indexedFrames() < MAX_SCAN_FRAMES)
+                in.scanFrames(targetFrame);
+
+            if (targetFrame < in.indexedFrames()) {
+                in.seekToFrame(in.frameOffset(targetFrame), targetFrame, skipSamples, true);
+            } else if (seekTable != null) {
+                int offset = in.firstFrameOffset + (int) seekTable.offsetFor(targetFrame);
+                in.seekToFrame(offset, targetFrame, skipSamples, false);
+            } else {
+                super.seek(positionMs);
+                in.seekToFrame(audioIn.position(), targetFrame, 0, false);
+            }
+        } catch (IOException | BitstreamException ex) {
+            LOGGER.error("Failed seeking!", ex);
+        }
     }
 
     @Override
@@ -93,24 +175,37 @@ public final class Mp3Decoder extends Decoder {
     private static class Mp3InputStream extends InputStream {
         private final static int MAX_READ_SIZE = 96 * 1024;
         private final static int MP3_BUFFER_SIZE = 128 * 1024;
-        private final InputStream in;
-        private final Bitstream bitstream;
+        private final SeekableInputStream in;
         private final ByteBuffer buffer;
-        private final MP3Decoder decoder;
         private final int channels;
         private final int sampleRate;
+        private final int samplesPerFrame;
+        private final int firstFrameOffset;
         private final OutputBuffer outputBuffer;
+        private Bitstream bitstream;
+        private MP3Decoder decoder;
         private boolean eos;
         private int bufferIndex;
+        private int[] frameOffsets = new int[1024];
+        private int indexedFrames = 0;
+        private boolean indexing = true;
+        private int nextFrame = 0;
+        private int nextFrameOffset;
+        private long seekBase = 0;
+        private long bytesOut = 0;
+        private int skipBytes = 0;
 
         /**
          * Initializes the stream, reads the first header, retrieves important stream information and unreads the header
          *
          * @param in                   The MP3 stream
          * @param normalisationPregain The normalisation pregain applied to the raw PCM
+         * @param firstFrameOffset     The offset of the first frame in the stream
          */
-        Mp3InputStream(@NotNull InputStream in, float normalisationPregain) throws BitstreamException {
+        Mp3InputStream(@NotNull SeekableInputStream in, float normalisationPregain, int firstFrameOffset) throws BitstreamException {
             this.in = in;
+            this.firstFrameOffset = firstFrameOffset;
+            this.nextFrameOffset = firstFrameOffset;
 
             eos = false;
             bufferIndex = 0;
@@ -124,6 +219,7 @@ public final class Mp3Decoder extends Decoder {
             outputBuffer = new OutputBuffer(channels, false);
             decoder.setOutputBuffer(outputBuffer);
             sampleRate = header.getSampleRate();
+            samplesPerFrame = Mp3SeekTable.samplesPerFrame(header.getSyncHeader());
             bitstream.unreadFrame();
 
             outputBuffer.setReplayGainScale(normalisationPregain);
@@ -146,6 +242,8 @@ public final class Mp3Decoder extends Decoder {
                     break;
                 }
 
+                frameRead(header.getSyncHeader());
+
                 try {
                     decoder.decodeFrame(header, bitstream);
                 } catch (javazoom.jl.decoder.DecoderException ex) {
@@ -162,6 +260,93 @@ public final class Mp3Decoder extends Decoder {
             buffer.flip();
         }
 
+        /**
+         * Records the offset of the frame that is being decoded in the index.
+         */
+        private void frameRead(int header) {
+            if (!indexing || !Mp3SeekTable.isValidHeader(header)) {
+                indexing = false;
+                return;
+            }
+
+            if (nextFrame == indexedFrames) addFrame(nextFrameOffset);
+
+            nextFrame++;
+            nextFrameOffset += Mp3SeekTable.frameLength(header);
+        }
+
+        private void addFrame(int offset) {
+            if (indexedFrames == frameOffsets.length)
+                frameOffsets = Arrays.copyOf(frameOffsets, frameOffsets.length * 2);
+
+            frameOffsets[indexedFrames++] = offset;
+        }
+
+        int indexedFrames() {
+            return indexedFrames;
+        }
+
+        int frameOffset(int frame) {
+            return frameOffsets[frame];
+        }
+
+        /**
+         * Extends the index up to {@param targetFrame} by reading only the frame headers.
+         */
+        void scanFrames(int targetFrame) throws IOException {
+            int offset = indexedFrames == 0 ? firstFrameOffset : frameOffsets[indexedFrames - 1];
+            if (indexedFrames > 0) {
+                int header = readHeaderAt(in, offset);
+                if (!Mp3SeekTable.isValidHeader(header)) return;
+                offset += Mp3SeekTable.frameLength(header);
+            }
+
+            while (indexedFrames <= targetFrame) {
+                int header = readHeaderAt(in, offset);
+                if (!Mp3SeekTable.isValidHeader(header)) return;
+
+                addFrame(offset);
+                offset += Mp3SeekTable.frameLength(header);
+            }
+        }
+
+        /**
+         * Restarts decoding from the frame at {@param offset}.
+         *
+         * @param offset      The offset of the frame in the stream
+         * @param frame       The index of the frame, exact only if {@param exact} is {@code true}
+         * @param skipSamples The number of samples to drop after the frame
+         * @param exact       Whether the offset comes from the index and the frame can be indexed further
+         */
+        void seekToFrame(int offset, int frame, int skipSamples, boolean exact) throws IOException, BitstreamException {
+            in.seek(offset);
+
+            bitstream = new Bitstream(in);
+            decoder = new MP3Decoder();
+            decoder.setOutputBuffer(outputBuffer);
+            outputBuffer.reset();
+
+            buffer.clear();
+            buffer.limit(0);
+            bufferIndex = 0;
+            eos = false;
+
+            nextFrame = frame;
+            nextFrameOffset = offset;
+            indexing = exact;
+
+            skipBytes = skipSamples * 2 * channels;
+            seekBase = (long) frame * samplesPerFrame + skipSamples;
+            bytesOut = 0;
+        }
+
+        /**
+         * @return The position in samples of the data returned so far
+         */
+        long samplePosition() {
+            return seekBase + bytesOut / (2L * channels);
+        }
+
         int getChannels() {
             return channels;
         }
@@ -186,22 +371,57 @@ public final class Mp3Decoder extends Decoder {
             in.close();
         }
 
+        /**
+         * Makes sure there is some data in the buffer and drops the samples that must be skipped after a seek.
+         *
+         * @return Whether data is available
+         */
+        private boolean fillBuffer() throws IOException {
+            while (true) {
+                // Have we read past the limit of the buffer?
+                if (bufferIndex >= buffer.limit()) {
+                    // End of stream when we try to read past the limit
+                    // since there maybe data in MP3 buffer
+                    if (eos) return false;
+
+                    buffer.clear();
+                    bufferIndex = 0;
+                    readMP3();
+                    continue;
+                }
+
+                if (skipBytes > 0) {
+                    int skip = Math.min(skipBytes, buffer.limit() - bufferIndex);
+                    bufferIndex += skip;
+                    skipBytes -= skip;
+                    continue;
+                }
+
+                return true;
+            }
+        }
+
+        @Override
+        public int read(@NotNull byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!fillBuffer()) return -1;
+
+            int count = Math.min(len, buffer.limit() - bufferIndex);
+            buffer.position(bufferIndex);
+            buffer.get(b, off, count);
+            bufferIndex += count;
+            bytesOut += count;
+            return count;
+        }
+
         @Override
         public int read() throws IOException {
-            // Have we read past the limit of the buffer?
-            if (bufferIndex >= buffer.limit()) {
-                // End of stream when we try to read past the limit
-                // since there maybe data in MP3 buffer
-                if (eos) return -1;
-
-                buffer.clear();
-                bufferIndex = 0;
-                readMP3();
-            }
+            if (!fillBuffer()) return -1;
 
             // Get the value from the MP3 buffer
             int value = buffer.get(bufferIndex++);
             if (value < 0) value = 256 + value;
+            bytesOut++;
             return value;
         }
     }
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.audio.decoders;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Maps MP3 frames to byte offsets. It is built from the Xing/Info or VBRI header of the first frame if present,
+ * or from the frame header itself for CBR streams. Offsets are relative to the first frame.
+ *
+ * @author devgianlu
+ */
+final class Mp3SeekTable {
+    private static final int[][] BITRATES = {
+            {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 0}, // MPEG 1, Layer III
+            {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160, 0} // MPEG 2/2.5, Layer III
+    };
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000}, // MPEG 2.5
+            null, // Reserved
+            {22050, 24000, 16000}, // MPEG 2
+            {44100, 48000, 32000} // MPEG 1
+    };
+    private static final int XING_FRAMES = 0x1;
+    private static final int XING_BYTES = 0x2;
+    private static final int XING_TOC = 0x4;
+    private final long frames;
+    private final long bytes;
+    private final byte[] xingToc;
+    private final long[] vbriOffsets;
+    private final int vbriFramesPerEntry;
+    private final boolean linear;
+
+    private Mp3SeekTable(long frames, long bytes, @Nullable byte[] xingToc, @Nullable long[] vbriOffsets, int vbriFramesPerEntry, boolean linear) {
+        this.frames = frames;
+        this.bytes = bytes;
+        this.xingToc = xingToc;
+        this.vbriOffsets = vbriOffsets;
+        this.vbriFramesPerEntry = vbriFramesPerEntry;
+        this.linear = linear;
+    }
+
+    /**
+     * @return Whether {@param header} is a valid MPEG Layer III frame header.
+     */
+    static boolean isValidHeader(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) return false; // Sync
+        if (((header >>> 19) & 0x3) == 1) return false; // Reserved version
+        if (((header >>> 17) & 0x3) != 1) return false; // Layer III only
+        int bitrateIndex = (header >>> 12) & 0xF;
+        if (bitrateIndex == 0 || bitrateIndex == 15) return false;
+        return ((header >>> 10) & 0x3) != 3;
+    }
+
+    private static boolean isMpeg1(int header) {
+        return ((header >>> 19) & 0x3) == 3;
+    }
+
+    private static boolean isMono(int header) {
+        return ((header >>> 6) & 0x3) == 3;
+    }
+
+    static int sampleRate(int header) {
+        return SAMPLE_RATES[(header >>> 19) & 0x3][(header >>> 10) & 0x3];
+    }
+
+    static int samplesPerFrame(int header) {
+        return isMpeg1(header) ? 1152 : 576;
+    }
+
+    /**
+     * @return The bitrate in kbps
+     */
+    static int bitrate(int header) {
+        return BITRATES[isMpeg1(header) ? 0 : 1][(header >>> 12) & 0xF];
+    }
+
+    /**
+     * @return The length of the frame including its header
+     */
+    static int frameLength(int header) {
+        int padding = (header >>> 9) & 0x1;
+        return (isMpeg1(header) ? 144 : 72) * bitrate(header) * 1000 / sampleRate(header) + padding;
+    }
+
+    private static int readInt(@NotNull byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16) | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    private static int readShort(@NotNull byte[] b, int off) {
+        return ((b[off] & 0xFF) << 8) | (b[off + 1] & 0xFF);
+    }
+
+    private static boolean hasTag(@NotNull byte[] b, int off, int len, @NotNull String tag) {
+        if (off + 4 > len) return false;
+        for (int i = 0; i < 4; i++)
+            if (b[off + i] != tag.charAt(i)) return false;
+
+        return true;
+    }
+
+    /**
+     * Builds the seek table from the first frame of the stream.
+     *
+     * @param frame       The first frame, header included
+     * @param length      The number of valid bytes in {@param frame}
+     * @param streamBytes The number of bytes from the first frame to the end of the stream
+     * @param durationMs  The duration of the stream, used if the frame count is unknown
+     * @return The seek table or {@code null} if the frame header is invalid
+     */
+    @Nullable
+    static Mp3SeekTable parse(@NotNull byte[] frame, int length, long streamBytes, int durationMs) {
+        if (length < 4) return null;
+
+        int header = readInt(frame, 0);
+        if (!isValidHeader(header)) return null;
+
+        int sideInfo;
+        if (isMpeg1(header)) sideInfo = isMono(header) ? 17 : 32;
+        else sideInfo = isMono(header) ? 9 : 17;
+
+        long estimatedFrames = (long) durationMs * sampleRate(header) / 1000 / samplesPerFrame(header);
+
+        int xing = 4 + sideInfo;
+        boolean info = hasTag(frame, xing, length, "Info");
+        if (info || hasTag(frame, xing, length, "Xing")) {
+            if (xing + 8 > length) return null;
+
+            int flags = readInt(frame, xing + 4);
+            int off = xing + 8;
+
+            long frames = estimatedFrames;
+            if ((flags & XING_FRAMES) != 0 && off + 4 <= length) {
+                frames = readInt(frame, off) & 0xFFFFFFFFL;
+                off += 4;
+            }
+
+            long bytes = streamBytes;
+            if ((flags & XING_BYTES) != 0 && off + 4 <= length) {
+                bytes = readInt(frame, off) & 0xFFFFFFFFL;
+                off += 4;
+            }
+
+            byte[] toc = null;
+            if ((flags & XING_TOC) != 0 && off + 100 <= length)
+                toc = Arrays.copyOfRange(frame, off, off + 100);
+
+            return new Mp3SeekTable(frames, bytes, toc, null, 0, info || toc == null);
+        }
+
+        int vbri = 4 + 32;
+        if (hasTag(frame, vbri, length, "VBRI") && vbri + 26 <= length) {
+            long bytes = readInt(frame, vbri + 10) & 0xFFFFFFFFL;
+            long frames = readInt(frame, vbri + 14) & 0xFFFFFFFFL;
+            int entries = readShort(frame, vbri + 18);
+            int scale = readShort(frame, vbri + 20);
+            int entrySize = readShort(frame, vbri + 22);
+            int framesPerEntry = readShort(frame, vbri + 24);
+
+            int off = vbri + 26;
+            if (entrySize < 1 || entrySize > 4 || off + entries * entrySize > length || framesPerEntry == 0)
+                return new Mp3SeekTable(frames, bytes, null, null, 0, true);
+
+            long[] offsets = new long[entries + 1];
+            for (int i = 0; i < entries; i++) {
+                int value = 0;
+                for (int j = 0; j < entrySize; j++)
+                    value = (value << 8) | (frame[off++] & 0xFF);
+
+                offsets[i + 1] = offsets[i] + (long) value * scale;
+            }
+
+            return new Mp3SeekTable(frames, bytes, null, offsets, framesPerEntry, false);
+        }
+
+        double averageLength = (isMpeg1(header) ? 144 : 72) * bitrate(header) * 1000.0 / sampleRate(header);
+        return new Mp3SeekTable((long) (streamBytes / averageLength), streamBytes, null, null, 0, true);
+    }
+
+    /**
+     * @return The total number of frames in the stream, as reported by the header or estimated
+     */
+    long frames() {
+        return frames;
+    }
+
+    /**
+     * Finds the offset of the given frame.
+     *
+     * @param frame The frame index
+     * @return The offset relative to the first frame
+     */
+    long offsetFor(long frame) {
+        if (frame <= 0 || frames <= 0) return 0;
+        if (frame >= frames) frame = frames - 1;
+
+        if (vbriOffsets != null) {
+            int entry = (int) (frame / vbriFramesPerEntry);
+            if (entry >= vbriOffsets.length - 1) return vbriOffsets[vbriOffsets.length - 1];
+
+            long start = vbriOffsets[entry];
+            long end = vbriOffsets[entry + 1];
+            return start + (end - start) * (frame % vbriFramesPerEntry) / vbriFramesPerEntry;
+        } else if (xingToc != null && !linear) {
+            double percent = frame * 100.0 / frames;
+            int a = Math.min(99, (int) percent);
+            double fa = xingToc[a] & 0xFF;
+            double fb = a < 99 ? (xingToc[a + 1] & 0xFF) : 256;
+            double fx = fa + (fb - fa) * (percent - a);
+            return (long) (fx / 256.0 * bytes);
+        } else {
+            return bytes * frame / frames;
+        }
+    }
+}
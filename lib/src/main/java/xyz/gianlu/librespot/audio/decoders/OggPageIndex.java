@@ -0,0 +1,210 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.audio.decoders;
+
+import com.jcraft.jogg.Page;
+import com.jcraft.jogg.SyncState;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.gianlu.librespot.player.decoders.Decoder;
+import xyz.gianlu.librespot.player.decoders.SeekableInputStream;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Index of Ogg pages by granule position. It is filled with the pages read while decoding and completed on demand
+ * by bisecting over the stream, so that seeking touches as few chunks as possible.
+ *
+ * @author devgianlu
+ */
+final class OggPageIndex {
+    /**
+     * Below this amount of bytes pages are scanned linearly, it's cheaper than seeking around.
+     */
+    static final int LINEAR_SCAN_THRESHOLD = Decoder.BUFFER_SIZE * 8;
+    private final TreeMap<Long, Entry> pages = new TreeMap<>();
+    private final SyncState syncState = new SyncState();
+    private final Page page = new Page();
+    private final int serial;
+    private final int firstOffset;
+    private final long totalGranuleEstimate;
+
+    /**
+     * @param serial               The serial number of the logical stream being indexed
+     * @param firstOffset          The offset of the first audio page
+     * @param totalGranuleEstimate An estimate of the granule position of the last page, used until that page is known
+     */
+    OggPageIndex(int serial, int firstOffset, long totalGranuleEstimate) {
+        this.serial = serial;
+        this.firstOffset = firstOffset;
+        this.totalGranuleEstimate = totalGranuleEstimate;
+        this.syncState.init();
+    }
+
+    int firstOffset() {
+        return firstOffset;
+    }
+
+    int size() {
+        return pages.size();
+    }
+
+    /**
+     * Adds a page to the index.
+     *
+     * @param granule The granule position of the page, pages without one are ignored
+     * @param offset  The absolute offset of the page in the stream
+     * @param length  The length of the page (header and body)
+     */
+    void add(long granule, int offset, int length) {
+        if (granule <= 0) return;
+        pages.putIfAbsent(granule, new Entry(granule, offset, length));
+    }
+
+    /**
+     * Finds the last page whose granule position is strictly lower than {@param target}. Decoding from that page yields
+     * the exact position once its last packet has been decoded.
+     *
+     * @param in     The stream to search, its position is undefined after this call
+     * @param target The target granule position
+     * @return The page or {@code null} if decoding should start from the first audio page
+     */
+    @Nullable
+    Entry find(@NotNull SeekableInputStream in, long target) throws IOException {
+        Map.Entry<Long, Entry> lower = pages.lowerEntry(target);
+        Map.Entry<Long, Entry> higher = pages.ceilingEntry(target);
+
+        Entry lo = lower == null ? null : lower.getValue();
+        int loEnd = lo == null ? firstOffset : lo.end();
+        long loGranule = lo == null ? 0 : lo.granule;
+        int hiOffset = higher == null ? in.size() : higher.getValue().offset;
+        long hiGranule = higher == null ? Math.max(totalGranuleEstimate, target + 1) : higher.getValue().granule;
+
+        boolean bisect = false;
+        while (hiOffset - loEnd > LINEAR_SCAN_THRESHOLD) {
+            int probe;
+            if (bisect || hiGranule <= loGranule) {
+                probe = loEnd + (hiOffset - loEnd) / 2;
+            } else {
+                double ratio = (double) (target - loGranule) / (double) (hiGranule - loGranule);
+                probe = loEnd + (int) ((hiOffset - loEnd) * ratio) - LINEAR_SCAN_THRESHOLD / 2;
+            }
+
+            bisect = !bisect;
+            if (probe < loEnd) probe = loEnd;
+            else if (probe >= hiOffset) probe = hiOffset - 1;
+
+            Entry entry = nextGranulePage(in, probe, hiOffset);
+            if (entry == null) {
+                hiOffset = probe;
+                continue;
+            }
+
+            if (entry.granule < target) {
+                lo = entry;
+                loEnd = entry.end();
+                loGranule = entry.granule;
+            } else {
+                hiOffset = entry.offset;
+                hiGranule = entry.granule;
+            }
+        }
+
+        int offset = loEnd;
+        while (offset < hiOffset) {
+            Entry entry = nextPage(in, offset, hiOffset);
+            if (entry == null || entry.granule >= target) break;
+
+            if (entry.granule > 0) lo = entry;
+            offset = entry.end();
+        }
+
+        return lo;
+    }
+
+    /**
+     * Reads the first page with a granule position starting between {@param from} (inclusive) and {@param limit} (exclusive).
+     */
+    @Nullable
+    private Entry nextGranulePage(@NotNull SeekableInputStream in, int from, int limit) throws IOException {
+        int offset = from;
+        while (offset < limit) {
+            Entry entry = nextPage(in, offset, limit);
+            if (entry == null) return null;
+            if (entry.granule > 0) return entry;
+            offset = entry.end();
+        }
+
+        return null;
+    }
+
+    /**
+     * Reads the first page of this logical stream starting between {@param from} (inclusive) and {@param limit} (exclusive)
+     * and adds it to the index.
+     */
+    @Nullable
+    private Entry nextPage(@NotNull SeekableInputStream in, int from, int limit) throws IOException {
+        in.seek(from);
+        syncState.reset();
+
+        int offset = from;
+        while (offset < limit) {
+            int result = syncState.pageseek(page);
+            if (result < 0) {
+                offset -= result;
+            } else if (result > 0) {
+                if (page.serialno() == serial) {
+                    Entry entry = new Entry(page.granulepos(), offset, result);
+                    add(entry.granule, entry.offset, entry.length);
+                    return entry;
+                }
+
+                offset += result;
+            } else {
+                int index = syncState.buffer(Decoder.BUFFER_SIZE);
+                int count = in.read(syncState.data, index, Decoder.BUFFER_SIZE);
+                if (count <= 0) return null;
+                syncState.wrote(count);
+            }
+        }
+
+        return null;
+    }
+
+    static final class Entry {
+        final long granule;
+        final int offset;
+        final int length;
+
+        Entry(long granule, int offset, int length) {
+            this.granule = granule;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        int end() {
+            return offset + length;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{granule=" + granule + ", offset=" + offset + ", length=" + length + '}';
+        }
+    }
+}
@@ -25,6 +25,8 @@ import com.jcraft.jorbis.Comment;
 import com.jcraft.jorbis.DspState;
 import com.jcraft.jorbis.Info;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.player.decoders.Decoder;
 import xyz.gianlu.librespot.player.decoders.SeekableInputStream;
 import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
@@ -36,6 +38,7 @@ import java.io.OutputStream;
  * @author Gianlu
  */
 public final class VorbisDecoder extends Decoder {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VorbisDecoder.class);
     private static final int CONVERTED_BUFFER_SIZE = Decoder.BUFFER_SIZE * 2;
     private final StreamState joggStreamState = new StreamState();
     private final DspState jorbisDspState = new DspState();
@@ -47,12 +50,19 @@ public final class VorbisDecoder extends Decoder {
     private final SyncState joggSyncState = new SyncState();
     private final Object readLock = new Object();
     private final byte[] convertedBuffer;
+    private final float gain;
     private final float[][][] pcmInfo;
     private final int[] pcmIndex;
+    private final OggPageIndex pageIndex;
     private byte[] buffer;
     private int count;
     private int index;
     private long pcm_offset;
+    private int serial;
+    private int pageOffset;
+    private int firstAudioOffset = -1;
+    private long pcmPosition = 0;
+    private long seekTarget = 0;
 
     public VorbisDecoder(@NotNull SeekableInputStream audioIn, float normalizationFactor, int duration) throws IOException, DecoderException {
         super(audioIn, normalizationFactor, duration);
@@ -61,10 +71,15 @@ public final class VorbisDecoder extends Decoder {
         this.joggSyncState.buffer(Decoder.BUFFER_SIZE);
         this.buffer = joggSyncState.data;
 
+        pageOffset = audioIn.position();
         readHeader();
         seekZero = audioIn.position();
+        if (firstAudioOffset == -1) firstAudioOffset = pageOffset;
+
+        pageIndex = new OggPageIndex(serial, firstAudioOffset, (long) duration * jorbisInfo.rate / 1000);
 
         convertedBuffer = new byte[CONVERTED_BUFFER_SIZE];
+        gain = 32767f * normalizationFactor;
 
         jorbisDspState.synthesis_init(jorbisInfo);
         jorbisBlock.init(jorbisDspState);
@@ -86,6 +101,57 @@ public final class VorbisDecoder extends Decoder {
         return (int) (((float) pcm_offset / (float) jorbisInfo.rate) * 1000f);
     }
 
+    /**
+     * Seeks to the exact sample using the page index, only the pages required to locate the target are read.
+     *
+     * @param positionMs The position in milliseconds
+     */
+    @Override
+    public synchronized void seek(int positionMs) {
+        if (positionMs < 0) positionMs = 0;
+
+        long target = (long) positionMs * jorbisInfo.rate / 1000;
+        try {
+            OggPageIndex.Entry from = pageIndex.find(audioIn, target);
+            int offset = from == null ? pageIndex.firstOffset() : from.offset;
+
+            synchronized (readLock) {
+                if (closed) return;
+
+                audioIn.seek(offset);
+                joggSyncState.reset();
+                joggStreamState.reset();
+                jorbisDspState.synthesis_init(jorbisInfo);
+                jorbisBlock.init(jorbisDspState);
+
+                pageOffset = offset;
+                pcmPosition = from == null ? 0 : -1;
+                seekTarget = target;
+                pcm_offset = target;
+            }
+
+            LOGGER.trace("Seeked to {} (granule: {}, page: {}, indexed: {})", positionMs, target, from, pageIndex.size());
+        } catch (IOException ex) {
+            LOGGER.error("Failed seeking!", ex);
+        }
+    }
+
+    /**
+     * Adds the page that has just been read to the index and advances the offset of the next page.
+     */
+    private void pageRead() {
+        if (pageOffset == -1) return;
+
+        int length = joggPage.header_len + joggPage.body_len;
+        long granule = joggPage.granulepos();
+        if (granule > 0) {
+            if (firstAudioOffset == -1) firstAudioOffset = pageOffset;
+            if (pageIndex != null) pageIndex.add(granule, pageOffset, length);
+        }
+
+        pageOffset += length;
+    }
+
     /**
      * Reads the body. All "holes" (-1) in data will stop the playback.
      *
@@ -106,8 +172,11 @@ public final class VorbisDecoder extends Decoder {
             } else if (result == 0) {
                 // Read more
             } else if (result == 1) {
+                pageRead();
+
                 if (packet == 1) {
-                    joggStreamState.init(joggPage.serialno());
+                    serial = joggPage.serialno();
+                    joggStreamState.init(serial);
                     joggStreamState.reset();
 
                     jorbisInfo.init();
@@ -147,9 +216,13 @@ public final class VorbisDecoder extends Decoder {
 
         int written = 0;
         int result = joggSyncState.pageout(joggPage);
-        if (result == -1 || result == 0) {
+        if (result == -1) {
+            pageOffset = -1; // Lost sync, offsets are unknown until the next seek
+        } else if (result == 0) {
             // Read more
         } else if (result == 1) {
+            pageRead();
+
             if (joggStreamState.pagein(joggPage) == -1)
                 throw new DecoderException("Failed reading page");
 
@@ -161,7 +234,9 @@ public final class VorbisDecoder extends Decoder {
                     if (closed) return written;
 
                     result = joggStreamState.packetout(joggPacket);
-                    if (result == -1 || result == 0) {
+                    if (result == -1) {
+                        continue; // Hole in data, skip it
+                    } else if (result == 0) {
                         break;
                     } else if (result == 1) {
                         written += decodeCurrentPacket(out);
@@ -188,46 +263,78 @@ public final class VorbisDecoder extends Decoder {
         if (jorbisBlock.synthesis(joggPacket) == 0)
             jorbisDspState.synthesis_blockin(jorbisBlock);
 
+        int channels = jorbisInfo.channels;
+        int frameSize = 2 * channels;
         int written = 0;
+        int converted = 0;
         int range;
         int samples;
         while ((samples = jorbisDspState.synthesis_pcmout(pcmInfo, pcmIndex)) > 0) {
-            range = Math.min(samples, CONVERTED_BUFFER_SIZE);
+            if (converted + frameSize > convertedBuffer.length) {
+                out.write(convertedBuffer, 0, converted);
+                written += converted;
+                converted = 0;
+            }
 
-            for (int i = 0; i < jorbisInfo.channels; i++) {
-                int sampleIndex = i * 2;
-                for (int j = 0; j < range; j++) {
-                    int value = (int) (pcmInfo[0][i][pcmIndex[i] + j] * 32767);
-                    value *= normalizationFactor;
+            range = Math.min(samples, (convertedBuffer.length - converted) / frameSize);
 
-                    if (value > 32767) value = 32767;
-                    else if (value < -32768) value = -32768;
-                    else if (value < 0) value = value | 32768;
+            // Samples are dropped until the position is known and the seek target is reached
+            int skip;
+            if (pcmPosition == -1) skip = range;
+            else if (pcmPosition < seekTarget) skip = (int) Math.min(range, seekTarget - pcmPosition);
+            else skip = 0;
 
-                    convertedBuffer[sampleIndex] = (byte) (value);
-                    convertedBuffer[sampleIndex + 1] = (byte) (value >>> 8);
+            if (skip < range)
+                converted = convert(pcmInfo[0], skip, range, channels, converted);
 
-                    sampleIndex += 2 * jorbisInfo.channels;
-                }
+            jorbisDspState.synthesis_read(range);
+            if (pcmPosition != -1) {
+                pcmPosition += range;
+                updateTime();
             }
+        }
 
-            int c = 2 * jorbisInfo.channels * range;
-            out.write(convertedBuffer, 0, c);
-            out.flush();
-            written += c;
-            jorbisDspState.synthesis_read(range);
+        if (converted > 0) {
+            out.write(convertedBuffer, 0, converted);
+            written += converted;
+        }
 
-            long granulepos = joggPacket.granulepos;
-            if (granulepos != -1 && joggPacket.e_o_s == 0) {
-                granulepos -= samples;
-                granulepos -= (long) Decoder.BUFFER_SIZE * 6 * sampleSizeBytes(); // Account for buffer between the decoder and the player
-                pcm_offset = granulepos;
-            }
+        // The granule position is the exact number of samples decoded once this packet has been consumed
+        if (joggPacket.granulepos != -1 && joggPacket.e_o_s == 0) {
+            pcmPosition = joggPacket.granulepos;
+            updateTime();
         }
 
         return written;
     }
 
+    /**
+     * Converts the float samples to interleaved 16 bit little-endian PCM applying the normalization gain.
+     *
+     * @return The new offset in {@link #convertedBuffer}
+     */
+    private int convert(@NotNull float[][] pcm, int from, int to, int channels, int dest) {
+        byte[] buffer = convertedBuffer;
+        float gain = this.gain;
+        for (int j = from; j < to; j++) {
+            for (int i = 0; i < channels; i++) {
+                int value = (int) (pcm[i][pcmIndex[i] + j] * gain);
+                if (value > 32767) value = 32767;
+                else if (value < -32768) value = -32768;
+
+                buffer[dest++] = (byte) value;
+                buffer[dest++] = (byte) (value >>> 8);
+            }
+        }
+
+        return dest;
+    }
+
+    private void updateTime() {
+        long granulepos = pcmPosition - (long) Decoder.BUFFER_SIZE * 6 * sampleSizeBytes(); // Account for buffer between the decoder and the player
+        pcm_offset = Math.max(seekTarget, granulepos);
+    }
+
     @Override
     public void close() throws IOException {
         super.close();
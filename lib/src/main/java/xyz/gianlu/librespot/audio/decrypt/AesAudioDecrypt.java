@@ -18,6 +18,7 @@ package xyz.gianlu.librespot.audio.decrypt;
 
 import org.jetbrains.annotations.NotNull;
 import xyz.gianlu.librespot.common.Utils;
+import xyz.gianlu.librespot.metrics.Metrics;
 
 import javax.crypto.Cipher;
 import javax.crypto.NoSuchPaddingException;
@@ -67,8 +68,10 @@ public final class AesAudioDecrypt implements AudioDecrypt {
                 iv = iv.add(IV_DIFF);
             }
 
-            decryptTotalTime += System.nanoTime() - start;
+            long elapsed = System.nanoTime() - start;
+            decryptTotalTime += elapsed;
             decryptCount++;
+            Metrics.DECRYPT_TIME.observe(elapsed / 1_000_000_000.0);
         } catch (GeneralSecurityException ex) {
             throw new IOException(ex);
         }
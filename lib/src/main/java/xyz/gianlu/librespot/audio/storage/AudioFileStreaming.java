@@ -30,15 +30,14 @@ import xyz.gianlu.librespot.audio.decrypt.AudioDecrypt;
 import xyz.gianlu.librespot.audio.format.SuperAudioFormat;
 import xyz.gianlu.librespot.cache.CacheManager;
 import xyz.gianlu.librespot.cache.JournalHeader;
-import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.metrics.Metrics;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * @author devgianlu
@@ -50,13 +49,17 @@ public class AudioFileStreaming implements AudioFile, DecodedAudioStream {
     private final byte[] key;
     private final Session session;
     private final HaltListener haltListener;
-    private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory(r -> "storage-async-" + r.hashCode()));
+    private final boolean sharedExecutor;
+    private final ExecutorService executorService;
     private int chunks = -1;
     private ChunksBuffer chunksBuffer;
 
     AudioFileStreaming(@NotNull Session session, @NotNull Metadata.AudioFile file, byte[] key, @Nullable HaltListener haltListener) throws IOException {
         this.session = session;
         this.haltListener = haltListener;
+        this.sharedExecutor = session.sharedAudioExecutor() != null;
+        this.executorService = sharedExecutor ? session.sharedAudioExecutor()
+                : session.executors().newExecutor("storage-async", 8);
         this.cacheHandler = session.cache().getHandler(Utils.bytesToHex(file.getFileId()));
         this.file = file;
         this.key = key;
@@ -97,7 +100,9 @@ public class AudioFileStreaming implements AudioFile, DecodedAudioStream {
     private boolean tryCacheChunk(int index) {
         try {
             if (!cacheHandler.hasChunk(index)) return false;
+            long start = System.nanoTime();
             cacheHandler.readChunk(index, this);
+            Metrics.CHUNK_FETCH_CACHE.observeSince(start);
             return true;
         } catch (IOException | CacheManager.BadChunkHashException ex) {
             LOGGER.error("Failed requesting chunk from cache, index: {}", index, ex);
@@ -169,7 +174,7 @@ public class AudioFileStreaming implements AudioFile, DecodedAudioStream {
 
     @Override
     public void close() {
-        executorService.shutdown();
+        if (!sharedExecutor) executorService.shutdown();
         if (chunksBuffer != null)
             chunksBuffer.close();
 
@@ -223,7 +228,7 @@ public class AudioFileStreaming implements AudioFile, DecodedAudioStream {
         private class InternalStream extends AbsChunkedInputStream {
 
             private InternalStream(boolean retryOnChunkError) {
-                super(retryOnChunkError);
+                super(session.scheduler(), retryOnChunkError);
             }
 
             @Override
@@ -20,22 +20,21 @@ import com.google.protobuf.ByteString;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.PacketsReceiver;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.crypto.Packet;
+import xyz.gianlu.librespot.metrics.Metrics;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -45,13 +44,18 @@ import java.util.concurrent.atomic.AtomicInteger;
 public class ChannelManager implements Closeable, PacketsReceiver {
     public static final int CHUNK_SIZE = 128 * 1024;
     private static final Logger LOGGER = LoggerFactory.getLogger(ChannelManager.class);
-    private final Map<Short, Channel> channels = new HashMap<>();
+    /**
+     * Queued to make the handler of a channel stop, it is compared by identity.
+     */
+    private static final ByteBuffer END_OF_CHANNEL = ByteBuffer.allocate(0);
+    private final Map<Short, Channel> channels = new ConcurrentHashMap<>();
     private final AtomicInteger seqHolder = new AtomicInteger(0);
-    private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory(r -> "channel-queue-" + r.hashCode()));
+    private final ExecutorService executorService;
     private final Session session;
 
     public ChannelManager(@NotNull Session session) {
         this.session = session;
+        this.executorService = session.executors().newUnboundedExecutor("channel-queue");
     }
 
     void requestChunk(@NotNull ByteString fileId, int index, @NotNull AudioFile file) throws IOException {
@@ -104,6 +108,7 @@ public class ChannelManager implements Closeable, PacketsReceiver {
 
     @Override
     public void close() {
+        for (Channel channel : channels.values()) channel.end();
         executorService.shutdown();
     }
 
@@ -113,6 +118,7 @@ public class ChannelManager implements Closeable, PacketsReceiver {
         private final AudioFile file;
         private final int chunkIndex;
         private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(CHUNK_SIZE);
+        private final long requestedAt = System.nanoTime();
         private volatile boolean header = true;
 
         private Channel(@NotNull AudioFile file, int chunkIndex) {
@@ -132,6 +138,7 @@ public class ChannelManager implements Closeable, PacketsReceiver {
             if (payload.remaining() == 0) {
                 if (!header) {
                     synchronized (buffer) {
+                        Metrics.CHUNK_FETCH_AP.observeSince(requestedAt);
                         file.writeChunk(buffer.toByteArray(), chunkIndex, false);
                         return true;
                     }
@@ -168,6 +175,15 @@ public class ChannelManager implements Closeable, PacketsReceiver {
 
         void streamError(short code) {
             file.streamError(chunkIndex, code);
+            end();
+        }
+
+        /**
+         * Stops the handler without writing the chunk.
+         */
+        private void end() {
+            channels.remove(id);
+            queue.add(END_OF_CHANNEL);
         }
 
         private class Handler implements Runnable {
@@ -178,7 +194,10 @@ public class ChannelManager implements Closeable, PacketsReceiver {
 
                 while (true) {
                     try {
-                        if (handle(queue.take())) {
+                        ByteBuffer payload = queue.take();
+                        if (payload == END_OF_CHANNEL) break;
+
+                        if (handle(payload)) {
                             channels.remove(id);
                             break;
                         }
@@ -23,7 +23,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -46,7 +45,16 @@ public class AsyncProcessor<REQ, RES> implements Closeable {
      * @param processor actual processing implementation ran on background thread
      */
     public AsyncProcessor(@NotNull String name, @NotNull Function<REQ, RES> processor) {
-        executor = Executors.newSingleThreadExecutor(new NameThreadFactory(r -> name));
+        this(name, processor, ExecutorProvider.platform());
+    }
+
+    /**
+     * @param name      name of async processor - used for thread name and logging
+     * @param processor actual processing implementation ran on background thread
+     * @param executors provider of the underlying executor
+     */
+    public AsyncProcessor(@NotNull String name, @NotNull Function<REQ, RES> processor, @NotNull ExecutorProvider executors) {
+        executor = executors.newSingleThreadExecutor(name);
         this.name = name;
         this.processor = processor;
         LOGGER.trace("AsyncProcessor{{}} has started", name);
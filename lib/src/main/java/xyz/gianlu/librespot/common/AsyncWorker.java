@@ -32,10 +32,14 @@ public class AsyncWorker<T> implements Closeable {
     private final AsyncProcessor<T, Void> underlyingProcessor;
 
     public AsyncWorker(@NotNull String name, @NotNull Consumer<T> consumer) {
+        this(name, consumer, ExecutorProvider.platform());
+    }
+
+    public AsyncWorker(@NotNull String name, @NotNull Consumer<T> consumer, @NotNull ExecutorProvider executors) {
         this.underlyingProcessor = new AsyncProcessor<>(name, t -> {
             consumer.accept(t);
             return null;
-        });
+        }, executors);
     }
 
     @NotNull
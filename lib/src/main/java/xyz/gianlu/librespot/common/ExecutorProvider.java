@@ -0,0 +1,205 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.common;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.metrics.Gauge;
+import xyz.gianlu.librespot.metrics.MetricsRegistry;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+
+/**
+ * Creates the executors used by the library. Executors with the same name share the
+ * {@code librespot_executor_threads{pool}} gauge, which counts their live threads.
+ *
+ * @author devgianlu
+ */
+public abstract class ExecutorProvider {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutorProvider.class);
+    static final int UNBOUNDED = 0;
+    private static final ExecutorProvider PLATFORM = new Platform();
+    private static ExecutorProvider virtual = null;
+
+    ExecutorProvider() {
+    }
+
+    /**
+     * @return The provider backed by bounded pools of platform threads
+     */
+    @NotNull
+    public static ExecutorProvider platform() {
+        return PLATFORM;
+    }
+
+    /**
+     * @return The provider backed by virtual threads, or {@link #platform()} if the runtime doesn't support them (before Java 21)
+     */
+    @NotNull
+    public static synchronized ExecutorProvider virtual() {
+        if (virtual != null) return virtual;
+
+        try {
+            virtual = new Virtual();
+        } catch (ReflectiveOperationException ex) {
+            LOGGER.warn("Virtual threads are not available on Java {}, using platform threads.", System.getProperty("java.version"));
+            virtual = PLATFORM;
+        }
+
+        return virtual;
+    }
+
+    @NotNull
+    public static ExecutorProvider forBackend(@NotNull Backend backend) {
+        return backend == Backend.VIRTUAL ? virtual() : platform();
+    }
+
+    @NotNull
+    private static Gauge threadsGauge(@NotNull String name) {
+        return MetricsRegistry.global().gauge("librespot_executor_threads", "Live threads of the executors, by name", "pool", name);
+    }
+
+    @NotNull
+    static Runnable counted(@NotNull Gauge gauge, @NotNull Runnable r) {
+        return () -> {
+            gauge.add(1);
+            try {
+                r.run();
+            } finally {
+                gauge.add(-1);
+            }
+        };
+    }
+
+    /**
+     * @return The backend of this provider
+     */
+    @NotNull
+    public abstract Backend backend();
+
+    /**
+     * Creates an executor for tasks that mostly block on I/O. Tasks exceeding {@param maxThreads} are queued.
+     *
+     * @param name       The name of the executor, threads are named after it
+     * @param maxThreads The maximum number of concurrent tasks, {@code 1} to run tasks in submission order
+     */
+    @NotNull
+    public final ExecutorService newExecutor(@NotNull String name, int maxThreads) {
+        if (maxThreads < 1) throw new IllegalArgumentException("Max threads must be positive: " + maxThreads);
+        return newExecutor(name, maxThreads, threadsGauge(name));
+    }
+
+    /**
+     * Creates an executor that runs tasks in submission order.
+     *
+     * @param name The name of the executor, threads are named after it
+     */
+    @NotNull
+    public final ExecutorService newSingleThreadExecutor(@NotNull String name) {
+        return newExecutor(name, 1);
+    }
+
+    /**
+     * Creates an executor that never queues tasks. Use it for tasks that wait on external events for a long time
+     * (network packets, the end of a track) and would otherwise starve a bounded executor.
+     *
+     * @param name The name of the executor, threads are named after it
+     */
+    @NotNull
+    public final ExecutorService newUnboundedExecutor(@NotNull String name) {
+        return newExecutor(name, UNBOUNDED, threadsGauge(name));
+    }
+
+    /**
+     * @param maxThreads The maximum number of concurrent tasks or {@link #UNBOUNDED}
+     * @param gauge      The gauge counting the live threads
+     */
+    @NotNull
+    abstract ExecutorService newExecutor(@NotNull String name, int maxThreads, @NotNull Gauge gauge);
+
+    public enum Backend {
+        PLATFORM, VIRTUAL
+    }
+
+    private static final class Platform extends ExecutorProvider {
+
+        @Override
+        public @NotNull Backend backend() {
+            return Backend.PLATFORM;
+        }
+
+        @Override
+        @NotNull ExecutorService newExecutor(@NotNull String name, int maxThreads, @NotNull Gauge gauge) {
+            NameThreadFactory factory = new NameThreadFactory(r -> name + "-" + r.hashCode());
+            if (maxThreads == UNBOUNDED)
+                return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<>(),
+                        r -> factory.newThread(counted(gauge, r)));
+
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), r -> factory.newThread(counted(gauge, r)));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+
+    /**
+     * Uses {@code Thread.ofVirtual()} through reflection so that the library still targets Java 8.
+     * Virtual threads are cheap, therefore {@code maxThreads} only matters to keep single threaded executors sequential.
+     */
+    private static final class Virtual extends ExecutorProvider {
+        private final Method ofVirtual;
+        private final Method name;
+        private final Method factory;
+        private final Method newThreadPerTaskExecutor;
+
+        Virtual() throws ReflectiveOperationException {
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            name = builder.getMethod("name", String.class, long.class);
+            factory = builder.getMethod("factory");
+            newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+        }
+
+        @Override
+        public @NotNull Backend backend() {
+            return Backend.VIRTUAL;
+        }
+
+        @Override
+        @NotNull ExecutorService newExecutor(@NotNull String name, int maxThreads, @NotNull Gauge gauge) {
+            ThreadFactory virtualFactory;
+            try {
+                virtualFactory = (ThreadFactory) factory.invoke(this.name.invoke(ofVirtual.invoke(null), name + "-", 0L));
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);
+            }
+
+            ThreadFactory countingFactory = r -> virtualFactory.newThread(counted(gauge, r));
+            if (maxThreads == 1)
+                return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), countingFactory);
+
+            try {
+                return (ExecutorService) newThreadPerTaskExecutor.invoke(null, countingFactory);
+            } catch (ReflectiveOperationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+}
@@ -100,4 +100,31 @@ public final class FisherYatesShuffle<I> {
     public boolean canUnshuffle(int size) {
         return currentSeed != 0 && sizeForSeed == size;
     }
+
+    /**
+     * @return The seed saved by the last {@link #shuffle(List, int, int, boolean)}, or {@code 0}
+     */
+    public long currentSeed() {
+        return currentSeed;
+    }
+
+    /**
+     * @return The size of the range shuffled with {@link #currentSeed()}, or {@code -1}
+     */
+    public int sizeForSeed() {
+        return sizeForSeed;
+    }
+
+    /**
+     * Restores a seed previously obtained from {@link #currentSeed()}, so that a list shuffled with it can be unshuffled.
+     *
+     * @param seed the seed.
+     * @param size the size of the shuffled range.
+     */
+    public void restoreSeed(long seed, int size) {
+        if (seed == 0 || size < 0) throw new IllegalArgumentException("Invalid seed or size!");
+
+        currentSeed = seed;
+        sizeForSeed = size;
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.common;
+
+/**
+ * A seeded random permutation that maps indexes one at a time, without materializing the whole order.
+ * It is built from a small Feistel network with cycle-walking, so both {@link #map(int)} and {@link #unmap(int)} are exact and
+ * take constant time on average. Infinite sequences are shuffled in consecutive blocks of a fixed size.
+ *
+ * @author devgianlu
+ */
+public final class ShufflePermutation {
+    private static final int ROUNDS = 4;
+    private final long seed;
+    private final int size;
+    private final int blockSize;
+
+    private ShufflePermutation(long seed, int size, int blockSize) {
+        this.seed = seed;
+        this.size = size;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param size The number of elements to shuffle
+     * @param seed The seed, the same seed always gives the same permutation
+     */
+    public static ShufflePermutation finite(int size, long seed) {
+        if (size < 0 || size > 1 << 30) throw new IllegalArgumentException("Invalid size: " + size);
+        return new ShufflePermutation(seed, size, Math.max(size, 1));
+    }
+
+    /**
+     * Shuffles an unbounded sequence, each block of {@param blockSize} elements is shuffled independently.
+     *
+     * @param blockSize The size of each block
+     * @param seed      The seed, the same seed always gives the same permutation
+     */
+    public static ShufflePermutation blocks(int blockSize, long seed) {
+        if (blockSize < 1 || blockSize > 1 << 30) throw new IllegalArgumentException("Invalid block size: " + blockSize);
+        return new ShufflePermutation(seed, -1, blockSize);
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+
+    private static int halfBits(int length) {
+        int bits = 32 - Integer.numberOfLeadingZeros(length - 1);
+        return (bits + 1) / 2;
+    }
+
+    /**
+     * @return The number of elements or {@code -1} if the permutation is infinite
+     */
+    public int size() {
+        return size;
+    }
+
+    private int blockLength(int blockStart) {
+        return size == -1 ? blockSize : Math.min(blockSize, size - blockStart);
+    }
+
+    private int round(long key, int round, int value, int mask) {
+        return (int) mix(key + round * 0x9e3779b97f4a7c15L + value) & mask;
+    }
+
+    private int encrypt(long key, int value, int half) {
+        int mask = (1 << half) - 1;
+        int left = value >>> half;
+        int right = value & mask;
+        for (int r = 0; r < ROUNDS; r++) {
+            int tmp = right;
+            right = left ^ round(key, r, right, mask);
+            left = tmp;
+        }
+
+        return (left << half) | right;
+    }
+
+    private int decrypt(long key, int value, int half) {
+        int mask = (1 << half) - 1;
+        int left = value >>> half;
+        int right = value & mask;
+        for (int r = ROUNDS - 1; r >= 0; r--) {
+            int tmp = left;
+            left = right ^ round(key, r, left, mask);
+            right = tmp;
+        }
+
+        return (left << half) | right;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || (size != -1 && index >= size))
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    }
+
+    /**
+     * @param position The position in the shuffled order
+     * @return The index in the original order of the element at {@param position}
+     */
+    public int map(int position) {
+        checkIndex(position);
+
+        int blockStart = position - position % blockSize;
+        int length = blockLength(blockStart);
+        if (length <= 1) return position;
+
+        long key = mix(seed ^ mix(blockStart));
+        int half = halfBits(length);
+        int value = position - blockStart;
+        do {
+            value = encrypt(key, value, half);
+        } while (value >= length);
+
+        return blockStart + value;
+    }
+
+    /**
+     * @param index The index in the original order
+     * @return The position of the element in the shuffled order, so that {@code map(unmap(index)) == index}
+     */
+    public int unmap(int index) {
+        checkIndex(index);
+
+        int blockStart = index - index % blockSize;
+        int length = blockLength(blockStart);
+        if (length <= 1) return index;
+
+        long key = mix(seed ^ mix(blockStart));
+        int half = halfBits(length);
+        int value = index - blockStart;
+        do {
+            value = decrypt(key, value, half);
+        } while (value >= length);
+
+        return blockStart + value;
+    }
+}
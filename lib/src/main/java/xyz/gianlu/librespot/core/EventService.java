@@ -20,39 +20,81 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import xyz.gianlu.librespot.common.AsyncWorker;
+import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.mercury.MercuryClient;
 import xyz.gianlu.librespot.mercury.RawMercuryRequest;
+import xyz.gianlu.librespot.metrics.Metrics;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
+ * Delivers events to the event service. Events are spooled to disk until they are delivered, so that they survive a connection
+ * drop or a restart. Pending events are sent in batches, without waiting for the previous response, and failed deliveries are
+ * retried with exponential backoff.
+ *
  * @author Gianlu
  */
-public final class EventService implements Closeable {
+public final class EventService implements Closeable, Session.ReconnectionListener {
     private final static Logger LOGGER = LoggerFactory.getLogger(EventService.class);
-    private final AsyncWorker<EventBuilder> asyncWorker;
+    private static final int MAX_BATCH = 16;
+    private static final long MAX_SPOOL_BYTES = 512 * 1024;
+    private static final long REQUEST_TIMEOUT_MS = 3000;
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+    private final Transport transport;
+    private final EventSpool spool;
+    private final Thread thread;
+    private final Object lock = new Object();
+    private volatile boolean closed = false;
+    private long backoffMs = 0;
+    private long retryAt = 0;
+    private long sent = 0;
+    private long rejected = 0;
+    private long failedAttempts = 0;
+    private long totalLagMs = 0;
+    private long maxLagMs = 0;
 
-    EventService(@NotNull Session session) {
-        this.asyncWorker = new AsyncWorker<>("event-service-sender", eventBuilder -> {
-            try {
-                byte[] body = eventBuilder.toArray();
-                MercuryClient.Response resp = session.mercury().sendSync(RawMercuryRequest.newBuilder()
-                        .setUri("hm://event-service/v1/events").setMethod("POST")
-                        .addUserField("Accept-Language", "en")
-                        .addUserField("X-ClientTimeStamp", String.valueOf(TimeProvider.currentTimeMillis()))
-                        .addPayloadPart(body)
-                        .build());
+    EventService(@NotNull Session session, @NotNull Session.Configuration conf) {
+        this(new MercuryTransport(session), new EventSpool(conf.cacheEnabled ? spoolFile(conf.cacheDir, session.username(), session.deviceId()) : null, MAX_SPOOL_BYTES));
+    }
 
-                LOGGER.debug("Event sent. {body: {}, result: {}}", EventBuilder.toString(body), resp.statusCode);
-            } catch (IOException ex) {
-                LOGGER.error("Failed sending event: " + eventBuilder, ex);
-            }
-        });
+    EventService(@NotNull Transport transport, @NotNull EventSpool spool) {
+        this.transport = transport;
+        this.spool = spool;
+
+        this.thread = new Thread(this::run, "event-service-sender");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * @return The spool file of the given user and device, so that events are never replayed on another account's session
+     */
+    @Nullable
+    static File spoolFile(@NotNull File cacheDir, @NotNull String username, @NotNull String deviceId) {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            LOGGER.warn("Failed creating cache directory, events won't be spooled: {}", cacheDir);
+            return null;
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest((username + '\n' + deviceId).getBytes(StandardCharsets.UTF_8));
+            return new File(cacheDir, "events-" + Utils.bytesToHex(digest).toLowerCase() + ".spool");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
     }
 
     public void sendEvent(@NotNull GenericEvent event) {
@@ -60,17 +102,151 @@ public final class EventService implements Closeable {
     }
 
     public void sendEvent(@NotNull EventBuilder builder) {
-        asyncWorker.submit(builder);
+        if (closed) return;
+
+        spool.append(builder.toArray(), TimeProvider.currentTimeMillis());
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+    }
+
+    private void run() {
+        while (!closed) {
+            List<EventSpool.Entry> batch;
+            synchronized (lock) {
+                try {
+                    while (!closed) {
+                        long wait = retryAt - System.currentTimeMillis();
+                        if (spool.isEmpty()) lock.wait();
+                        else if (wait > 0) lock.wait(wait);
+                        else break;
+                    }
+                } catch (InterruptedException ex) {
+                    return;
+                }
+
+                if (closed) return;
+                batch = spool.peek(MAX_BATCH);
+            }
+
+            if (!send(batch)) return;
+        }
+    }
+
+    /**
+     * Sends the batch and removes the events that have been delivered or rejected from the spool.
+     *
+     * @return Whether the thread should keep running
+     */
+    private boolean send(@NotNull List<EventSpool.Entry> batch) {
+        List<CompletableFuture<Integer>> futures = new ArrayList<>(batch.size());
+        for (EventSpool.Entry entry : batch) futures.add(transport.send(entry.body));
+
+        List<EventSpool.Entry> done = new ArrayList<>(batch.size());
+        boolean failed = false;
+        long now = TimeProvider.currentTimeMillis();
+        for (int i = 0; i < batch.size(); i++) {
+            EventSpool.Entry entry = batch.get(i);
+
+            int status;
+            try {
+                status = futures.get(i).get(REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException | TimeoutException ex) {
+                futures.get(i).cancel(false);
+                LOGGER.debug("Failed sending event: {}", EventBuilder.toString(entry.body), ex);
+                failed = true;
+                continue;
+            } catch (InterruptedException ex) {
+                for (CompletableFuture<Integer> future : futures) future.cancel(false);
+                return false;
+            }
+
+            if (status >= 200 && status < 300) {
+                long lag = now - entry.enqueuedAt;
+                synchronized (lock) {
+                    sent++;
+                    totalLagMs += lag;
+                    if (lag > maxLagMs) maxLagMs = lag;
+                }
+
+                Metrics.EVENTS_SENT.inc();
+                Metrics.EVENT_LAG.observe(Math.max(0, lag) / 1000.0);
+
+                done.add(entry);
+                LOGGER.debug("Event sent. {body: {}, result: {}, lag: {}ms}", EventBuilder.toString(entry.body), status, lag);
+            } else if (status >= 400 && status < 500) {
+                synchronized (lock) {
+                    rejected++;
+                }
+
+                Metrics.EVENTS_REJECTED.inc();
+
+                done.add(entry);
+                LOGGER.warn("Event rejected, dropping it. {body: {}, result: {}}", EventBuilder.toString(entry.body), status);
+            } else {
+                LOGGER.debug("Failed sending event. {body: {}, result: {}}", EventBuilder.toString(entry.body), status);
+                failed = true;
+            }
+        }
+
+        spool.remove(done);
+
+        synchronized (lock) {
+            if (failed) {
+                failedAttempts++;
+                Metrics.EVENT_FAILED_ATTEMPTS.inc();
+                backoffMs = backoffMs == 0 ? MIN_BACKOFF_MS : Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+                retryAt = System.currentTimeMillis() + backoffMs;
+                LOGGER.warn("Failed sending {} of {} events, retrying in {}ms.", batch.size() - done.size(), batch.size(), backoffMs);
+            } else {
+                backoffMs = 0;
+                retryAt = 0;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * @return The statistics of the events delivered so far
+     */
+    @NotNull
+    public Stats stats() {
+        synchronized (lock) {
+            return new Stats(spool.size(), sent, rejected, failedAttempts, spool.dropped(),
+                    sent == 0 ? 0 : totalLagMs / sent, maxLagMs);
+        }
+    }
+
+    @Override
+    public void onConnectionDropped() {
+    }
+
+    @Override
+    public void onConnectionEstablished() {
+        synchronized (lock) {
+            backoffMs = 0;
+            retryAt = 0;
+            lock.notifyAll();
+        }
     }
 
+    /**
+     * Stops sending, events that haven't been delivered yet stay in the spool.
+     */
     @Override
     public void close() {
-        asyncWorker.close();
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
 
         try {
-            asyncWorker.awaitTermination(1, TimeUnit.SECONDS);
+            thread.join(1000);
         } catch (InterruptedException ignored) {
         }
+
+        spool.close();
     }
 
     public enum Type {
@@ -85,11 +261,75 @@ public final class EventService implements Closeable {
         }
     }
 
+    interface Transport {
+        /**
+         * @return The status code of the response, cancelling it abandons the request
+         */
+        @NotNull
+        CompletableFuture<Integer> send(@NotNull byte[] body);
+    }
+
     public interface GenericEvent {
         @NotNull
         EventBuilder build();
     }
 
+    public static final class Stats {
+        public final int pending;
+        public final long sent;
+        public final long rejected;
+        public final long failedAttempts;
+        public final long dropped;
+        public final long averageLagMs;
+        public final long maxLagMs;
+
+        Stats(int pending, long sent, long rejected, long failedAttempts, long dropped, long averageLagMs, long maxLagMs) {
+            this.pending = pending;
+            this.sent = sent;
+            this.rejected = rejected;
+            this.failedAttempts = failedAttempts;
+            this.dropped = dropped;
+            this.averageLagMs = averageLagMs;
+            this.maxLagMs = maxLagMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{pending=" + pending + ", sent=" + sent + ", rejected=" + rejected + ", failedAttempts=" + failedAttempts +
+                    ", dropped=" + dropped + ", averageLagMs=" + averageLagMs + ", maxLagMs=" + maxLagMs + '}';
+        }
+    }
+
+    private static final class MercuryTransport implements Transport {
+        private final Session session;
+
+        MercuryTransport(@NotNull Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public @NotNull CompletableFuture<Integer> send(@NotNull byte[] body) {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            try {
+                MercuryClient mercury = session.mercury();
+                int seq = mercury.send(RawMercuryRequest.newBuilder()
+                        .setUri("hm://event-service/v1/events").setMethod("POST")
+                        .addUserField("Accept-Language", "en")
+                        .addUserField("X-ClientTimeStamp", String.valueOf(TimeProvider.currentTimeMillis()))
+                        .addPayloadPart(body)
+                        .build(), resp -> future.complete(resp.statusCode));
+
+                future.whenComplete((status, ex) -> {
+                    if (future.isCancelled()) mercury.cancel(seq);
+                });
+            } catch (IOException | RuntimeException ex) {
+                future.completeExceptionally(ex);
+            }
+
+            return future;
+        }
+    }
+
     public static class EventBuilder {
         private final ByteArrayOutputStream body = new ByteArrayOutputStream(256);
 
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.metrics.Metrics;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.*;
+
+/**
+ * Keeps the events that haven't been delivered yet, mirrored to an append-only file so that they survive a restart.
+ * Delivered events are marked with an acknowledgement record, the file is compacted when most of it has been delivered
+ * and the oldest events are dropped when it grows over the limit. The file is locked, so that only one spool writes to it,
+ * the others keep their events in memory.
+ *
+ * @author devgianlu
+ */
+final class EventSpool {
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventSpool.class);
+    private static final int RECORD_HEADER = 4 + 8 + 8;
+    private static final int ACK_RECORD = 4 + 8;
+    private final File file;
+    private final FileLock lock;
+    private final long maxBytes;
+    private final Deque<Entry> entries = new ArrayDeque<>();
+    private DataOutputStream out = null;
+    private long bytes = 0;
+    private long fileBytes = 0;
+    private long dropped = 0;
+    private long nextSeq = 0;
+    private boolean closed = false;
+
+    /**
+     * @param file     The spool file, {@code null} to keep the events in memory only
+     * @param maxBytes The maximum size of the pending events
+     */
+    EventSpool(@Nullable File file, long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.lock = file == null ? null : lock(file);
+        this.file = lock == null ? null : file;
+
+        if (this.file != null) load();
+    }
+
+    /**
+     * @return The lock on {@param file} or {@code null} if another spool, in this or another process, is holding it
+     */
+    @Nullable
+    private static FileLock lock(@NotNull File file) {
+        FileChannel channel = null;
+        try {
+            channel = new RandomAccessFile(file.getPath() + ".lock", "rw").getChannel();
+            FileLock lock = channel.tryLock();
+            if (lock != null) return lock;
+        } catch (IOException ex) {
+            LOGGER.warn("Failed locking events spool: {}", file, ex);
+        } catch (OverlappingFileLockException ignored) {
+        }
+
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        LOGGER.warn("Events spool is in use by another session, events will be kept in memory: {}", file);
+        return null;
+    }
+
+    private void load() {
+        if (!file.exists()) return;
+
+        boolean truncated = false;
+        Set<Long> acked = new HashSet<>();
+        List<Entry> loaded = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException ex) {
+                    break;
+                }
+
+                if (length < -1 || length > maxBytes) {
+                    truncated = true;
+                    break;
+                }
+
+                try {
+                    long seq = in.readLong();
+                    if (length == -1) {
+                        acked.add(seq);
+                        continue;
+                    }
+
+                    long enqueuedAt = in.readLong();
+                    byte[] body = new byte[length];
+                    in.readFully(body);
+                    loaded.add(new Entry(seq, body, enqueuedAt));
+                } catch (EOFException ex) {
+                    truncated = true;
+                    break;
+                }
+            }
+        } catch (IOException ex) {
+            LOGGER.warn("Failed reading events spool: {}", file, ex);
+            truncated = true;
+        }
+
+        for (Entry entry : loaded) {
+            if (!acked.contains(entry.seq)) add(entry);
+            nextSeq = Math.max(nextSeq, entry.seq + 1);
+        }
+
+        if (!entries.isEmpty()) LOGGER.info("Loaded {} pending events from spool.", entries.size());
+        if (truncated) LOGGER.warn("Events spool was truncated, recovered {} events.", entries.size());
+
+        trim();
+        rewrite();
+    }
+
+    private void add(@NotNull Entry entry) {
+        entries.add(entry);
+        bytes += entry.size();
+        if (!closed) Metrics.EVENTS_PENDING.add(1);
+    }
+
+    /**
+     * Drops the oldest events until the spool fits in {@link #maxBytes}.
+     *
+     * @return Whether any event has been dropped
+     */
+    private boolean trim() {
+        boolean trimmed = false;
+        while (bytes > maxBytes && !entries.isEmpty()) {
+            Entry entry = entries.poll();
+            bytes -= entry.size();
+            dropped++;
+            trimmed = true;
+
+            Metrics.EVENTS_DROPPED.inc();
+            if (!closed) Metrics.EVENTS_PENDING.add(-1);
+        }
+
+        if (trimmed) LOGGER.warn("Events spool is full, dropped oldest events. {dropped: {}}", dropped);
+        return trimmed;
+    }
+
+    @NotNull
+    synchronized Entry append(@NotNull byte[] body, long enqueuedAt) {
+        Entry entry = new Entry(nextSeq++, body, enqueuedAt);
+        add(entry);
+
+        if (trim()) {
+            rewrite();
+        } else if (file != null && !closed) {
+            try {
+                if (out == null) out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                write(out, entry);
+                out.flush();
+                fileBytes += entry.size();
+            } catch (IOException ex) {
+                LOGGER.warn("Failed appending to events spool: {}", file, ex);
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * @return Up to {@param max} of the oldest events
+     */
+    @NotNull
+    synchronized List<Entry> peek(int max) {
+        List<Entry> list = new ArrayList<>(Math.min(max, entries.size()));
+        for (Entry entry : entries) {
+            if (list.size() >= max) break;
+            list.add(entry);
+        }
+
+        return list;
+    }
+
+    /**
+     * Removes the given events, they have either been delivered or rejected.
+     */
+    synchronized void remove(@NotNull Collection<Entry> delivered) {
+        if (delivered.isEmpty()) return;
+
+        List<Entry> removed = new ArrayList<>(delivered.size());
+        for (Entry entry : delivered) {
+            if (entries.remove(entry)) {
+                bytes -= entry.size();
+                removed.add(entry);
+            }
+        }
+
+        if (!closed) Metrics.EVENTS_PENDING.add(-removed.size());
+
+        if (entries.isEmpty() || fileBytes > 2 * bytes + 4096) {
+            rewrite();
+        } else if (file != null && !closed && !removed.isEmpty()) {
+            try {
+                if (out == null) out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                for (Entry entry : removed) {
+                    out.writeInt(-1);
+                    out.writeLong(entry.seq);
+                }
+
+                out.flush();
+                fileBytes += (long) removed.size() * ACK_RECORD;
+            } catch (IOException ex) {
+                LOGGER.warn("Failed acknowledging events in spool: {}", file, ex);
+            }
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long dropped() {
+        return dropped;
+    }
+
+    private static void write(@NotNull DataOutputStream out, @NotNull Entry entry) throws IOException {
+        out.writeInt(entry.body.length);
+        out.writeLong(entry.seq);
+        out.writeLong(entry.enqueuedAt);
+        out.write(entry.body);
+    }
+
+    /**
+     * Replaces the file with the pending events only.
+     */
+    private void rewrite() {
+        if (file == null || closed) return;
+
+        closeStream();
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (DataOutputStream tmpOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                for (Entry entry : entries) write(tmpOut, entry);
+            }
+
+            if (file.exists() && !file.delete()) throw new IOException("Failed deleting " + file);
+            if (!tmp.renameTo(file)) throw new IOException("Failed renaming " + tmp);
+            fileBytes = bytes;
+        } catch (IOException ex) {
+            LOGGER.warn("Failed compacting events spool: {}", file, ex);
+        }
+    }
+
+    private void closeStream() {
+        if (out == null) return;
+
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+
+        out = null;
+    }
+
+    /**
+     * Closes the file and releases the lock, events are no longer written to disk afterwards.
+     */
+    synchronized void close() {
+        if (closed) return;
+        Metrics.EVENTS_PENDING.add(-entries.size());
+        closed = true;
+
+        closeStream();
+        if (lock != null) {
+            try {
+                lock.release();
+                lock.channel().close();
+            } catch (IOException ex) {
+                LOGGER.warn("Failed releasing events spool lock: {}", file, ex);
+            }
+        }
+    }
+
+    static final class Entry {
+        final long seq;
+        final byte[] body;
+        final long enqueuedAt;
+
+        Entry(long seq, @NotNull byte[] body, long enqueuedAt) {
+            this.seq = seq;
+            this.body = body;
+            this.enqueuedAt = enqueuedAt;
+        }
+
+        long size() {
+            return RECORD_HEADER + body.length;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.core;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * The disk tier of {@link ImageService}, bounded in size. The least recently used images are deleted first, the last access
+ * is kept as the file modification time so that the order survives a restart. The directory is scanned on first use.
+ *
+ * @author devgianlu
+ */
+final class ImageDiskCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageDiskCache.class);
+    private final File dir;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private boolean loaded = false;
+
+    ImageDiskCache(@NotNull File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    @NotNull
+    private File file(@NotNull String hex) {
+        return new File(new File(dir, hex.substring(0, 2)), hex);
+    }
+
+    private void load() {
+        if (loaded) return;
+        loaded = true;
+
+        File[] parents = dir.listFiles(File::isDirectory);
+        if (parents == null) return;
+
+        List<File> files = new ArrayList<>();
+        for (File parent : parents) {
+            File[] children = parent.listFiles(File::isFile);
+            if (children == null) continue;
+
+            for (File child : children) {
+                if (child.getName().endsWith(".tmp")) child.delete();
+                else files.add(child);
+            }
+        }
+
+        files.sort(Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            index.put(file.getName(), file.length());
+            bytes += file.length();
+        }
+
+        trim();
+        LOGGER.debug("Loaded image cache. {images: {}, bytes: {}}", index.size(), bytes);
+    }
+
+    private void remove(@NotNull String hex) {
+        Long size = index.remove(hex);
+        if (size != null) bytes -= size;
+
+        File file = file(hex);
+        if (file.exists() && !file.delete())
+            LOGGER.warn("Couldn't delete cached image: " + file);
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<String, Long>> iter = index.entrySet().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            Map.Entry<String, Long> entry = iter.next();
+            iter.remove();
+            bytes -= entry.getValue();
+
+            File file = file(entry.getKey());
+            if (file.exists() && !file.delete())
+                LOGGER.warn("Couldn't delete cached image: " + file);
+        }
+    }
+
+    /**
+     * @return The image or {@code null} if it isn't cached
+     */
+    @Nullable
+    synchronized byte[] read(@NotNull String hex) {
+        load();
+        if (index.get(hex) == null) return null;
+
+        File file = file(hex);
+        try {
+            byte[] data = Files.readAllBytes(file.toPath());
+            file.setLastModified(System.currentTimeMillis());
+            return data;
+        } catch (IOException ex) {
+            LOGGER.warn("Failed reading cached image. {id: {}}", hex, ex);
+            remove(hex);
+            return null;
+        }
+    }
+
+    synchronized void write(@NotNull String hex, @NotNull byte[] data) {
+        load();
+
+        File file = file(hex);
+        File parent = file.getParentFile();
+        if (!parent.exists() && !parent.mkdirs()) {
+            LOGGER.warn("Couldn't create image cache directory: " + parent);
+            return;
+        }
+
+        File tmp = new File(parent, hex + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(data);
+        } catch (IOException ex) {
+            LOGGER.warn("Failed writing cached image. {id: {}}", hex, ex);
+            tmp.delete();
+            return;
+        }
+
+        if (file.exists()) file.delete();
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            remove(hex);
+            return;
+        }
+
+        Long old = index.put(hex, (long) data.length);
+        if (old != null) bytes -= old;
+        bytes += data.length;
+        trim();
+    }
+
+    /**
+     * @return The total size of the cached images
+     */
+    synchronized long size() {
+        load();
+        return bytes;
+    }
+}
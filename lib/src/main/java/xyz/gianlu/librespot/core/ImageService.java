@@ -0,0 +1,204 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.core;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.metadata.ImageId;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Fetches images by {@link ImageId}. Images are content addressed, therefore they never need revalidation once stored.
+ * Lookups go through a bounded in-memory LRU, then the {@code images} directory inside the cache directory (if the cache is enabled)
+ * and lastly the network. Concurrent requests for the same image share a single fetch. The disk is only accessed from the
+ * loader executor and is bounded too, see {@link ImageDiskCache}.
+ *
+ * @author devgianlu
+ */
+public final class ImageService implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageService.class);
+    private static final long MAX_MEMORY_BYTES = 8 * 1024 * 1024;
+    private static final long MAX_DISK_BYTES = 64 * 1024 * 1024;
+    private final Session session;
+    private final ImageDiskCache disk;
+    private final ExecutorService loader;
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes = 0;
+
+    ImageService(@NotNull Session session, @NotNull Session.Configuration conf) {
+        this.session = session;
+        this.disk = conf.cacheEnabled ? new ImageDiskCache(new File(conf.cacheDir, "images"), MAX_DISK_BYTES) : null;
+        this.loader = disk != null ? session.executors().newSingleThreadExecutor("image-loader") : null;
+    }
+
+    @Nullable
+    private synchronized byte[] fromMemory(@NotNull String hex) {
+        return memory.get(hex);
+    }
+
+    private synchronized void toMemory(@NotNull String hex, @NotNull byte[] data) {
+        if (data.length > MAX_MEMORY_BYTES / 4) return;
+
+        byte[] old = memory.put(hex, data);
+        if (old != null) memoryBytes -= old.length;
+        memoryBytes += data.length;
+
+        Iterator<byte[]> iter = memory.values().iterator();
+        while (memoryBytes > MAX_MEMORY_BYTES && iter.hasNext()) {
+            memoryBytes -= iter.next().length;
+            iter.remove();
+        }
+    }
+
+    /**
+     * Gets the given image, completing immediately if it is cached in memory.
+     *
+     * @param image The image to fetch
+     * @return A future completing with the image bytes or exceptionally with an {@link IOException}
+     */
+    @NotNull
+    public CompletableFuture<byte[]> get(@NotNull ImageId image) {
+        String hex = image.hexId();
+        byte[] data = fromMemory(hex);
+        if (data != null) return CompletableFuture.completedFuture(data);
+
+        CompletableFuture<byte[]> future = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(hex, future);
+        if (existing != null) return existing;
+
+        data = fromMemory(hex); // Completed between the first lookup and our registration
+        if (data != null) {
+            complete(hex, future, data);
+            return future;
+        }
+
+        if (disk == null) {
+            fetch(hex, future);
+            return future;
+        }
+
+        try {
+            loader.execute(() -> {
+                byte[] cached = disk.read(hex);
+                if (cached == null) {
+                    fetch(hex, future);
+                } else {
+                    toMemory(hex, cached);
+                    complete(hex, future, cached);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            fetch(hex, future);
+        }
+
+        return future;
+    }
+
+    private void fetch(@NotNull String hex, @NotNull CompletableFuture<byte[]> future) {
+        String url = session.getUserAttribute("image-url", "https://i.scdn.co/image/{file_id}").replace("{file_id}", hex);
+        session.client().newCall(new Request.Builder().url(url).build()).enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException ex) {
+                fail(hex, future, ex);
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response resp) {
+                try (Response r = resp) {
+                    ResponseBody body;
+                    if (r.code() != 200 || (body = r.body()) == null) {
+                        fail(hex, future, new IOException(String.format("Bad response code. {id: %s, code: %d}", hex, r.code())));
+                        return;
+                    }
+
+                    byte[] bytes = body.bytes();
+                    toMemory(hex, bytes);
+                    complete(hex, future, bytes);
+                    if (disk != null) loader.execute(() -> disk.write(hex, bytes));
+                } catch (IOException ex) {
+                    fail(hex, future, ex);
+                } catch (RejectedExecutionException ignored) {
+                }
+            }
+        });
+    }
+
+    private void complete(@NotNull String hex, @NotNull CompletableFuture<byte[]> future, @NotNull byte[] data) {
+        inFlight.remove(hex, future);
+        future.complete(data);
+    }
+
+    private void fail(@NotNull String hex, @NotNull CompletableFuture<byte[]> future, @NotNull IOException ex) {
+        inFlight.remove(hex, future);
+        future.completeExceptionally(ex);
+    }
+
+    /**
+     * Gets the given image, waiting for it to be fetched if needed.
+     *
+     * @param image The image to fetch
+     * @return The image bytes
+     * @throws IOException If the image couldn't be fetched
+     */
+    @NotNull
+    public byte[] getSync(@NotNull ImageId image) throws IOException {
+        try {
+            return get(image).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while fetching image " + image.hexId(), ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            else throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Starts fetching the given image in the background so that a later {@link #get(ImageId)} doesn't wait on the network.
+     *
+     * @param image The image to fetch
+     */
+    public void prefetch(@NotNull ImageId image) {
+        get(image).whenComplete((data, ex) -> {
+            if (ex != null) LOGGER.debug("Failed prefetching image. {id: {}}", image.hexId(), ex);
+        });
+    }
+
+    /**
+     * Stops the loader, images that are being written to disk may be lost.
+     */
+    @Override
+    public void close() {
+        if (loader != null) loader.shutdownNow();
+    }
+}
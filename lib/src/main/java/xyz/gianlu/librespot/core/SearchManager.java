@@ -19,39 +19,193 @@ package xyz.gianlu.librespot.core;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import xyz.gianlu.librespot.mercury.MercuryClient;
 import xyz.gianlu.librespot.mercury.RawMercuryRequest;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.*;
 
 /**
+ * Searches the catalogue. Results are cached for {@link #CACHE_TTL_MS}, identical concurrent searches share the same request
+ * and searches made on the same channel supersede each other, which is what type-ahead needs.
+ *
  * @author Gianlu
  */
-public final class SearchManager {
+public final class SearchManager implements Closeable {
     private static final String BASE_URL = "hm://searchview/km/v4/search/";
+    private static final long CACHE_TTL_MS = TimeUnit.SECONDS.toMillis(60);
+    private static final int CACHE_MAX_ENTRIES = 128;
+    private static final long REQUEST_TIMEOUT_MS = 5000;
     private final Session session;
+    private final Fetcher fetcher;
+    private final ExecutorService parser;
+    private final LinkedHashMap<String, CacheEntry> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, CompletableFuture<JsonObject>> inFlight = new ConcurrentHashMap<>();
+    private final Map<String, CompletableFuture<JsonObject>> channels = new ConcurrentHashMap<>();
 
     public SearchManager(@NotNull Session session) {
+        this(session, null);
+    }
+
+    SearchManager(@Nullable Session session, @Nullable Fetcher fetcher) {
         this.session = session;
+        this.fetcher = fetcher == null ? this::fetch : fetcher;
+        this.parser = session == null ? null : session.executors().newSingleThreadExecutor("search-parser");
+    }
+
+    @NotNull
+    private static JsonObject parse(@NotNull MercuryClient.Response resp) {
+        if (resp.statusCode != 200) throw new CompletionException(new SearchException(resp.statusCode));
+
+        try (Reader reader = new InputStreamReader(resp.payload.stream())) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (IOException ex) {
+            throw new CompletionException(ex);
+        }
     }
 
+    @NotNull
+    private CompletableFuture<JsonObject> fetch(@NotNull String url) {
+        CompletableFuture<MercuryClient.Response> future = new CompletableFuture<>();
+        try {
+            session.mercury().send(RawMercuryRequest.newBuilder().setMethod("GET").setUri(url).build(), future::complete);
+        } catch (IOException ex) {
+            future.completeExceptionally(ex);
+            return future.thenApply(SearchManager::parse);
+        }
+
+        ScheduledFuture<?> timeout = session.scheduler().schedule(() -> future.completeExceptionally(
+                new TimeoutException("Search request timed out: " + url)), REQUEST_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        future.whenComplete((resp, ex) -> timeout.cancel(false));
+
+        // Parse away from the thread receiving Mercury packets
+        return future.thenApplyAsync(SearchManager::parse, parser);
+    }
+
+    @Nullable
+    private synchronized JsonObject cached(@NotNull String key) {
+        CacheEntry entry = cache.get(key);
+        if (entry == null) return null;
+
+        if (entry.expiresAt < System.currentTimeMillis()) {
+            cache.remove(key);
+            return null;
+        }
+
+        return entry.result;
+    }
+
+    private synchronized void cache(@NotNull String key, @NotNull JsonObject result) {
+        cache.put(key, new CacheEntry(result, System.currentTimeMillis() + CACHE_TTL_MS));
+
+        Iterator<CacheEntry> iter = cache.values().iterator();
+        while (cache.size() > CACHE_MAX_ENTRIES && iter.hasNext()) {
+            iter.next();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Searches, waiting for the result.
+     *
+     * @param req The search request
+     * @return The search result, which can be freely modified
+     * @throws SearchException If the search failed
+     * @throws IOException     If the request couldn't be made
+     */
     @NotNull
     public JsonObject request(@NotNull SearchRequest req) throws IOException {
+        try {
+            return requestAsync(req, null).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            else throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Searches. If {@param channel} is not {@code null}, the previous search on the same channel which is still pending is cancelled,
+     * the underlying request keeps going so that its result can be cached.
+     *
+     * @param req     The search request
+     * @param channel The channel this search belongs to, usually one per input field. Channels are shared by everyone using
+     *                this session, so callers serving several clients must make it unique to the client
+     * @return A future completing with the search result, which can be freely modified
+     */
+    @NotNull
+    public CompletableFuture<JsonObject> requestAsync(@NotNull SearchRequest req, @Nullable String channel) {
         if (req.username.isEmpty()) req.username = session.username();
         if (req.country.isEmpty()) req.country = session.countryCode();
         if (req.locale.isEmpty()) req.locale = session.preferredLocale();
 
-        MercuryClient.Response resp = session.mercury().sendSync(RawMercuryRequest.newBuilder()
-                .setMethod("GET").setUri(req.buildUrl()).build());
+        String key = req.cacheKey();
+        CompletableFuture<JsonObject> shared;
+        JsonObject result = cached(key);
+        if (result != null) {
+            shared = CompletableFuture.completedFuture(result);
+        } else {
+            CompletableFuture<JsonObject> future = new CompletableFuture<>();
+            shared = inFlight.putIfAbsent(key, future);
+            if (shared == null) {
+                shared = future;
 
-        if (resp.statusCode != 200) throw new SearchException(resp.statusCode);
+                String url;
+                try {
+                    url = req.buildUrl();
+                } catch (UnsupportedEncodingException ex) {
+                    throw new IllegalStateException(ex);
+                }
 
-        try (Reader reader = new InputStreamReader(resp.payload.stream())) {
-            return JsonParser.parseReader(reader).getAsJsonObject();
+                fetcher.fetch(url).whenComplete((obj, ex) -> {
+                    if (obj != null) cache(key, obj);
+                    inFlight.remove(key, future);
+
+                    if (ex != null) future.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+                    else future.complete(obj);
+                });
+            }
+        }
+
+        CompletableFuture<JsonObject> mine = shared.thenApply(JsonObject::deepCopy);
+        if (channel != null) {
+            CompletableFuture<JsonObject> previous = channels.put(channel, mine);
+            if (previous != null) previous.cancel(false);
+            mine.whenComplete((obj, ex) -> channels.remove(channel, mine));
+        }
+
+        return mine;
+    }
+
+    @Override
+    public void close() {
+        if (parser != null) parser.shutdown();
+    }
+
+    interface Fetcher {
+        @NotNull
+        CompletableFuture<JsonObject> fetch(@NotNull String url);
+    }
+
+    private static final class CacheEntry {
+        final JsonObject result;
+        final long expiresAt;
+
+        CacheEntry(@NotNull JsonObject result, long expiresAt) {
+            this.result = result;
+            this.expiresAt = expiresAt;
         }
     }
 
@@ -91,6 +245,15 @@ public final class SearchManager {
             return url;
         }
 
+        /**
+         * @return The key identifying this search regardless of casing and whitespace in the query
+         */
+        @NotNull
+        String cacheKey() {
+            String normalized = query.replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+            return normalized + '\0' + limit + '\0' + imageSize + '\0' + catalogue + '\0' + country + '\0' + locale + '\0' + username;
+        }
+
         @NotNull
         public SearchRequest imageSize(@NotNull String imageSize) {
             this.imageSize = imageSize;
@@ -43,6 +43,7 @@ import xyz.gianlu.librespot.audio.PlayableContentFeeder;
 import xyz.gianlu.librespot.audio.cdn.CdnManager;
 import xyz.gianlu.librespot.audio.storage.ChannelManager;
 import xyz.gianlu.librespot.cache.CacheManager;
+import xyz.gianlu.librespot.common.ExecutorProvider;
 import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.crypto.CipherPair;
@@ -52,6 +53,7 @@ import xyz.gianlu.librespot.crypto.Packet;
 import xyz.gianlu.librespot.dealer.ApiClient;
 import xyz.gianlu.librespot.dealer.DealerClient;
 import xyz.gianlu.librespot.mercury.MercuryClient;
+import xyz.gianlu.librespot.metrics.Metrics;
 
 import javax.crypto.Cipher;
 import javax.crypto.Mac;
@@ -103,6 +105,7 @@ public final class Session implements Closeable {
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new NameThreadFactory(r -> "session-scheduler-" + r.hashCode()));
     private final AtomicBoolean authLock = new AtomicBoolean(false);
     private final OkHttpClient client;
+    private final ExecutorService sharedAudioExecutor;
     private final List<CloseListener> closeListeners = Collections.synchronizedList(new ArrayList<>());
     private final List<ReconnectionListener> reconnectionListeners = Collections.synchronizedList(new ArrayList<>());
     private final Map<String, String> userAttributes = Collections.synchronizedMap(new HashMap<>());
@@ -119,6 +122,7 @@ public final class Session implements Closeable {
     private DealerClient dealer;
     private ApiClient api;
     private SearchManager search;
+    private ImageService images;
     private PlayableContentFeeder contentFeeder;
     private EventService eventService;
     private String countryCode = null;
@@ -130,13 +134,14 @@ public final class Session implements Closeable {
         this.inner = inner;
         this.keys = new DiffieHellman(inner.random);
         this.conn = ConnectionHolder.create(addr, inner.conf);
-        this.client = createClient(inner.conf);
+        this.client = inner.conf.sharedResources != null ? inner.conf.sharedResources.client() : createClient(inner.conf);
+        this.sharedAudioExecutor = inner.conf.sharedResources != null ? inner.conf.sharedResources.newAudioExecutor() : null;
 
         LOGGER.info("Created new session! {deviceId: {}, ap: {}, proxy: {}} ", inner.deviceId, addr, inner.conf.proxyEnabled);
     }
 
     @NotNull
-    private static OkHttpClient createClient(@NotNull Configuration conf) {
+    static OkHttpClient createClient(@NotNull Configuration conf) {
         OkHttpClient.Builder builder = new OkHttpClient.Builder();
         builder.retryOnConnectionFailure(true);
 
@@ -340,15 +345,17 @@ public final class Session implements Closeable {
             api = new ApiClient(this);
             cdnManager = new CdnManager(this);
             contentFeeder = new PlayableContentFeeder(this);
-            cacheManager = new CacheManager(inner.conf);
+            cacheManager = inner.conf.sharedResources != null ? inner.conf.sharedResources.cacheManager() : new CacheManager(inner.conf);
             dealer = new DealerClient(this);
             search = new SearchManager(this);
-            eventService = new EventService(this);
+            images = new ImageService(this, inner.conf);
+            eventService = new EventService(this, inner.conf);
 
             authLock.set(false);
             authLock.notifyAll();
         }
 
+        addReconnectionListener(eventService);
         TimeProvider.init(this);
         dealer.connect();
 
@@ -471,7 +478,18 @@ public final class Session implements Closeable {
             channelManager = null;
         }
 
+        if (images != null) {
+            images.close();
+            images = null;
+        }
+
+        if (search != null) {
+            search.close();
+            search = null;
+        }
+
         if (eventService != null) {
+            removeReconnectionListener(eventService);
             eventService.close();
             eventService = null;
         }
@@ -486,8 +504,12 @@ public final class Session implements Closeable {
             receiver = null;
         }
 
-        client.dispatcher().executorService().shutdownNow();
-        client.connectionPool().evictAll();
+        if (inner.conf.sharedResources == null) {
+            client.dispatcher().executorService().shutdownNow();
+            client.connectionPool().evictAll();
+        } else {
+            sharedAudioExecutor.shutdownNow();
+        }
 
         if (conn != null) {
             conn.socket.close();
@@ -623,6 +645,30 @@ public final class Session implements Closeable {
         return contentFeeder;
     }
 
+    /**
+     * @return The provider that must be used to create executors for anything tied to this session
+     */
+    @NotNull
+    public ExecutorProvider executors() {
+        return inner.conf.executorProvider;
+    }
+
+    /**
+     * @return This session's lane of the audio executor of the {@link SharedResources}, {@code null} if they are not used
+     */
+    @Nullable
+    public ExecutorService sharedAudioExecutor() {
+        return sharedAudioExecutor;
+    }
+
+    /**
+     * @return The single threaded scheduler of this session, shut down when the session is closed. Tasks must be short.
+     */
+    @NotNull
+    public ScheduledExecutorService scheduler() {
+        return scheduler;
+    }
+
     @NotNull
     public SearchManager search() {
         waitAuthLock();
@@ -630,6 +676,13 @@ public final class Session implements Closeable {
         return search;
     }
 
+    @NotNull
+    public ImageService images() {
+        waitAuthLock();
+        if (images == null) throw new IllegalStateException("Session isn't authenticated!");
+        return images;
+    }
+
     @NotNull
     public EventService eventService() {
         waitAuthLock();
@@ -720,6 +773,7 @@ public final class Session implements Closeable {
                     .build(), true);
 
             LOGGER.info("Re-authenticated as {}!", apWelcome.getCanonicalUsername());
+            Metrics.RECONNECTS.inc();
 
             synchronized (reconnectionListeners) {
                 reconnectionListeners.forEach(ReconnectionListener::onConnectionEstablished);
@@ -729,6 +783,7 @@ public final class Session implements Closeable {
                 return;
 
             conn = null;
+            Metrics.RECONNECT_FAILURES.inc();
             LOGGER.error("Failed reconnecting, retrying in 10 seconds...", ex);
 
             try {
@@ -743,6 +798,10 @@ public final class Session implements Closeable {
         if (!closeListeners.contains(listener)) closeListeners.add(listener);
     }
 
+    public void removeCloseListener(@NotNull CloseListener listener) {
+        closeListeners.remove(listener);
+    }
+
     public void addReconnectionListener(@NotNull ReconnectionListener listener) {
         if (!reconnectionListeners.contains(listener)) reconnectionListeners.add(listener);
     }
@@ -1054,11 +1113,18 @@ public final class Session implements Closeable {
         // Network
         public final int connectionTimeout;
 
+        // Shared
+        public final SharedResources sharedResources;
+
+        // Threads
+        public final ExecutorProvider executorProvider;
+
         private Configuration(boolean proxyEnabled, Proxy.Type proxyType, String proxyAddress, int proxyPort, boolean proxyAuth, String proxyUsername, String proxyPassword,
                               TimeProvider.Method timeSynchronizationMethod, int timeManualCorrection,
                               boolean cacheEnabled, File cacheDir, boolean doCacheCleanUp,
                               boolean storeCredentials, File storedCredentialsFile,
-                              boolean retryOnChunkError, int connectionTimeout) {
+                              boolean retryOnChunkError, int connectionTimeout, SharedResources sharedResources,
+                              ExecutorProvider executorProvider) {
             this.proxyEnabled = proxyEnabled;
             this.proxyType = proxyType;
             this.proxyAddress = proxyAddress;
@@ -1075,6 +1141,8 @@ public final class Session implements Closeable {
             this.storedCredentialsFile = storedCredentialsFile;
             this.retryOnChunkError = retryOnChunkError;
             this.connectionTimeout = connectionTimeout;
+            this.sharedResources = sharedResources;
+            this.executorProvider = executorProvider;
         }
 
         public static final class Builder {
@@ -1106,6 +1174,12 @@ public final class Session implements Closeable {
             // Network
             private int connectionTimeout;
 
+            // Shared
+            private SharedResources sharedResources = null;
+
+            // Threads
+            private ExecutorProvider executorProvider = ExecutorProvider.platform();
+
             public Builder() {
             }
 
@@ -1189,13 +1263,35 @@ public final class Session implements Closeable {
                 return this;
             }
 
+            /**
+             * Shares the HTTP client, the cache and the audio executor with other sessions. The proxy and cache
+             * settings of the {@link SharedResources} apply instead of the ones of this configuration, a warning
+             * is logged if they differ.
+             *
+             * @param sharedResources The {@link SharedResources} or {@code null} to create them for every session
+             */
+            public Builder setSharedResources(@Nullable SharedResources sharedResources) {
+                this.sharedResources = sharedResources;
+                return this;
+            }
+
+            /**
+             * @param executorProvider The provider of the executors used by the session and its components
+             */
+            public Builder setExecutorProvider(@NotNull ExecutorProvider executorProvider) {
+                this.executorProvider = executorProvider;
+                return this;
+            }
+
             @NotNull
             public Configuration build() {
-                return new Configuration(proxyEnabled, proxyType, proxyAddress, proxyPort, proxyAuth, proxyUsername, proxyPassword,
+                Configuration conf = new Configuration(proxyEnabled, proxyType, proxyAddress, proxyPort, proxyAuth, proxyUsername, proxyPassword,
                         timeSynchronizationMethod, timeManualCorrection,
                         cacheEnabled, cacheDir, doCacheCleanUp,
                         storeCredentials, storedCredentialsFile,
-                        retryOnChunkError, connectionTimeout);
+                        retryOnChunkError, connectionTimeout, sharedResources, executorProvider);
+                if (sharedResources != null) sharedResources.checkConfiguration(conf);
+                return conf;
             }
         }
     }
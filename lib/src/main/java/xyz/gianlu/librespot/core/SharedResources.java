@@ -0,0 +1,262 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.core;
+
+import okhttp3.OkHttpClient;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.cache.CacheManager;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Resources shared by many {@link Session}s in the same process: the HTTP client (and its connection pool), the audio cache
+ * and a bounded executor for audio fetching. Sessions created with {@link Session.Configuration.Builder#setSharedResources(SharedResources)}
+ * use these instead of creating their own and never close them.
+ * <p>
+ * Every session gets its own lane on the audio executor which runs a limited number of tasks at once and queues the others,
+ * so a session with a large backlog cannot fill the queue of the shared executor ahead of the other sessions.
+ *
+ * @author devgianlu
+ */
+public final class SharedResources implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedResources.class);
+    private final Session.Configuration conf;
+    private final OkHttpClient client;
+    private final CacheManager cacheManager;
+    private final ExecutorService audioExecutor;
+    private final int audioThreadsPerSession;
+
+    private SharedResources(@NotNull Session.Configuration conf, @NotNull OkHttpClient client, @NotNull CacheManager cacheManager,
+                            @NotNull ExecutorService audioExecutor, int audioThreadsPerSession) {
+        this.conf = conf;
+        this.client = client;
+        this.cacheManager = cacheManager;
+        this.audioExecutor = audioExecutor;
+        this.audioThreadsPerSession = audioThreadsPerSession;
+    }
+
+    /**
+     * Creates the shared resources allowing every session to use a quarter of the audio threads.
+     *
+     * @see #create(Session.Configuration, int, int)
+     */
+    @NotNull
+    public static SharedResources create(@NotNull Session.Configuration conf, int audioThreads) throws IOException {
+        return create(conf, audioThreads, Math.max(1, audioThreads / 4));
+    }
+
+    /**
+     * @param conf                   The configuration used for the proxy and cache settings
+     * @param audioThreads           The maximum number of threads fetching audio for all sessions
+     * @param audioThreadsPerSession The maximum number of threads fetching audio for a single session
+     */
+    @NotNull
+    public static SharedResources create(@NotNull Session.Configuration conf, int audioThreads, int audioThreadsPerSession) throws IOException {
+        if (audioThreads < 1) throw new IllegalArgumentException("Audio threads must be positive: " + audioThreads);
+        if (audioThreadsPerSession < 1 || audioThreadsPerSession > audioThreads)
+            throw new IllegalArgumentException("Audio threads per session must be between 1 and " + audioThreads + ": " + audioThreadsPerSession);
+
+        return new SharedResources(conf, Session.createClient(conf), new CacheManager(conf),
+                conf.executorProvider.newExecutor("shared-audio", audioThreads), audioThreadsPerSession);
+    }
+
+    /**
+     * @return The names of the settings of {@param other} that differ from {@param shared} and are therefore ignored
+     */
+    @NotNull
+    static List<String> conflicts(@NotNull Session.Configuration shared, @NotNull Session.Configuration other) {
+        List<String> list = new ArrayList<>();
+        if (shared.proxyEnabled != other.proxyEnabled) {
+            list.add("proxy.enabled");
+        } else if (shared.proxyEnabled) {
+            if (shared.proxyType != other.proxyType) list.add("proxy.type");
+            if (!Objects.equals(shared.proxyAddress, other.proxyAddress)) list.add("proxy.address");
+            if (shared.proxyPort != other.proxyPort) list.add("proxy.port");
+            if (shared.proxyAuth != other.proxyAuth || !Objects.equals(shared.proxyUsername, other.proxyUsername)
+                    || !Objects.equals(shared.proxyPassword, other.proxyPassword))
+                list.add("proxy.auth");
+        }
+
+        if (shared.cacheEnabled != other.cacheEnabled) {
+            list.add("cache.enabled");
+        } else if (shared.cacheEnabled) {
+            if (!sameFile(shared.cacheDir, other.cacheDir)) list.add("cache.dir");
+            if (shared.doCacheCleanUp != other.doCacheCleanUp) list.add("cache.doCleanUp");
+        }
+
+        return list;
+    }
+
+    private static boolean sameFile(@Nullable File a, @Nullable File b) {
+        if (a == null || b == null) return a == b;
+        return a.getAbsoluteFile().equals(b.getAbsoluteFile());
+    }
+
+    /**
+     * Warns if the proxy or cache settings of {@param other} will be ignored in favour of the shared ones.
+     */
+    void checkConfiguration(@NotNull Session.Configuration other) {
+        List<String> conflicts = conflicts(conf, other);
+        if (!conflicts.isEmpty())
+            LOGGER.warn("These settings are ignored in favour of the shared resources: {}", conflicts);
+    }
+
+    @NotNull
+    public OkHttpClient client() {
+        return client;
+    }
+
+    @NotNull
+    public CacheManager cacheManager() {
+        return cacheManager;
+    }
+
+    /**
+     * @return A new lane of the audio executor for a single session, it must be shut down when the session closes
+     */
+    @NotNull
+    ExecutorService newAudioExecutor() {
+        return new Lane(audioExecutor, audioThreadsPerSession);
+    }
+
+    @Override
+    public void close() throws IOException {
+        audioExecutor.shutdownNow();
+        client.dispatcher().executorService().shutdownNow();
+        client.connectionPool().evictAll();
+        cacheManager.close();
+
+        LOGGER.info("Closed shared resources.");
+    }
+
+    /**
+     * Runs at most {@code maxRunning} tasks on the delegate at once and queues the others in submission order.
+     * Shutting down a lane doesn't affect the delegate.
+     */
+    static final class Lane extends AbstractExecutorService {
+        private final Executor delegate;
+        private final int maxRunning;
+        private final ArrayDeque<Runnable> queue = new ArrayDeque<>();
+        private int running = 0;
+        private boolean shutdown = false;
+
+        Lane(@NotNull Executor delegate, int maxRunning) {
+            this.delegate = delegate;
+            this.maxRunning = maxRunning;
+        }
+
+        @Override
+        public void execute(@NotNull Runnable task) {
+            synchronized (this) {
+                if (shutdown) throw new RejectedExecutionException("Lane has been shut down!");
+
+                if (running >= maxRunning) {
+                    queue.add(task);
+                    return;
+                }
+
+                running++;
+            }
+
+            if (!dispatch(task)) throw new RejectedExecutionException("Shared audio executor has been shut down!");
+        }
+
+        /**
+         * Hands the task to the delegate, the next queued task is handed over only after it completes. This puts it
+         * at the back of the delegate queue, so lanes with a backlog take turns instead of holding on to the threads.
+         *
+         * @return Whether the delegate accepted the task
+         */
+        private boolean dispatch(@NotNull Runnable task) {
+            try {
+                delegate.execute(() -> {
+                    try {
+                        task.run();
+                    } catch (RuntimeException ex) {
+                        LOGGER.error("Failed running audio task.", ex);
+                    }
+
+                    Runnable next;
+                    synchronized (this) {
+                        next = shutdown ? null : queue.poll();
+                    }
+
+                    if (next == null) finished();
+                    else dispatch(next);
+                });
+                return true;
+            } catch (RejectedExecutionException ex) {
+                synchronized (this) {
+                    queue.clear();
+                }
+
+                finished();
+                return false;
+            }
+        }
+
+        private synchronized void finished() {
+            running--;
+            if (running == 0 && shutdown) notifyAll();
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+            queue.clear();
+            if (running == 0) notifyAll();
+        }
+
+        @NotNull
+        @Override
+        public synchronized List<Runnable> shutdownNow() {
+            List<Runnable> pending = new ArrayList<>(queue);
+            shutdown();
+            return pending;
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown && running == 0;
+        }
+
+        @Override
+        public synchronized boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            while (!isTerminated()) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+
+            return true;
+        }
+    }
+}
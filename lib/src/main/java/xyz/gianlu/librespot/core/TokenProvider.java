@@ -25,12 +25,11 @@ import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.mercury.MercuryClient;
 import xyz.gianlu.librespot.mercury.MercuryRequests;
+import xyz.gianlu.librespot.metrics.Metrics;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Objects;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Gianlu
@@ -40,6 +39,7 @@ public final class TokenProvider {
     private final static int TOKEN_EXPIRE_THRESHOLD = 10;
     private final Session session;
     private final List<StoredToken> tokens = new ArrayList<>();
+    private final Map<String, CompletableFuture<StoredToken>> pending = new HashMap<>();
 
     TokenProvider(@NotNull Session session) {
         this.session = session;
@@ -65,6 +65,7 @@ public final class TokenProvider {
         }
 
         LOGGER.debug("Token expired or not suitable, requesting again. {scopes: {}, oldToken: {}}", Arrays.asList(scopes), token);
+        Metrics.TOKEN_REFRESHES.inc();
         MercuryRequests.GenericJson resp = session.mercury().sendSync(MercuryRequests.requestToken(session.deviceId(), String.join(",", scopes)));
         token = new StoredToken(resp.obj);
 
@@ -74,6 +75,59 @@ public final class TokenProvider {
         return token;
     }
 
+    /**
+     * Like {@link #getToken(String...)}, but a token that isn't cached is requested without blocking the caller.
+     * Concurrent requests for the same scopes share the same request.
+     *
+     * @return A future completed with the token, possibly already completed
+     */
+    @NotNull
+    public synchronized CompletableFuture<StoredToken> getTokenAsync(@NotNull String... scopes) {
+        if (scopes.length == 0) throw new IllegalArgumentException();
+
+        StoredToken token = findTokenWithAllScopes(scopes);
+        if (token != null) {
+            if (token.expired()) tokens.remove(token);
+            else return CompletableFuture.completedFuture(token);
+        }
+
+        String key = String.join(",", scopes);
+        CompletableFuture<StoredToken> future = pending.get(key);
+        if (future != null) return future;
+
+        LOGGER.debug("Token expired or not suitable, requesting again asynchronously. {scopes: {}, oldToken: {}}", Arrays.asList(scopes), token);
+        Metrics.TOKEN_REFRESHES.inc();
+        future = new CompletableFuture<>();
+        pending.put(key, future);
+
+        CompletableFuture<StoredToken> finalFuture = future;
+        session.mercury().send(MercuryRequests.requestToken(session.deviceId(), key), new MercuryClient.JsonCallback<MercuryRequests.GenericJson>() {
+            @Override
+            public void response(@NotNull MercuryRequests.GenericJson json) {
+                StoredToken newToken;
+                synchronized (TokenProvider.this) {
+                    pending.remove(key);
+                    newToken = new StoredToken(json.obj);
+                    tokens.add(newToken);
+                }
+
+                LOGGER.debug("Updated token successfully! {scopes: {}, newToken: {}}", Arrays.asList(scopes), newToken);
+                finalFuture.complete(newToken);
+            }
+
+            @Override
+            public void exception(@NotNull Exception ex) {
+                synchronized (TokenProvider.this) {
+                    pending.remove(key);
+                }
+
+                finalFuture.completeExceptionally(ex);
+            }
+        });
+
+        return future;
+    }
+
     @NotNull
     public String get(@NotNull String scope) throws IOException, MercuryClient.MercuryException {
         return getToken(scope).accessToken;
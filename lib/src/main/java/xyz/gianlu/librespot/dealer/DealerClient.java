@@ -27,8 +27,6 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import xyz.gianlu.librespot.common.AsyncWorker;
-import xyz.gianlu.librespot.common.BytesArrayList;
 import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.ApResolver;
@@ -48,17 +46,27 @@ import java.util.zip.GZIPInputStream;
  */
 public class DealerClient implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(DealerClient.class);
-    private final AsyncWorker<Runnable> asyncWorker;
+    private static final String CONNECTION_ID_URI = "hm://pusher/v1/connections/";
+    private final OrderedDispatcher dispatcher;
     private final Session session;
-    private final Map<String, RequestListener> reqListeners = new HashMap<>();
-    private final Map<MessageListener, List<String>> msgListeners = new HashMap<>();
+    private final UriRouter<RequestListener> reqListeners = new UriRouter<>();
+    private final UriRouter<MessageListener> msgListeners = new UriRouter<>();
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(new NameThreadFactory((r) -> "dealer-scheduler-" + r.hashCode()));
     private volatile ConnectionHolder conn = null;
     private ScheduledFuture<?> lastScheduledReconnection;
+    private volatile JsonObject lastConnectionMessage = null;
 
     public DealerClient(@NotNull Session session) {
         this.session = session;
-        this.asyncWorker = new AsyncWorker<>("dealer-worker", Runnable::run);
+        this.dispatcher = new OrderedDispatcher("dealer-worker", session.executors());
+    }
+
+    /**
+     * Creates a client that only dispatches the messages it's given and cannot {@link #connect()}.
+     */
+    DealerClient(@NotNull OrderedDispatcher dispatcher) {
+        this.session = null;
+        this.dispatcher = dispatcher;
     }
 
     @NotNull
@@ -75,11 +83,59 @@ public class DealerClient implements Closeable {
      * Creates a new WebSocket client. <b>Intended for internal use only!</b>
      */
     public synchronized void connect() throws IOException, MercuryClient.MercuryException {
+        if (lastScheduledReconnection != null) {
+            lastScheduledReconnection.cancel(false);
+            lastScheduledReconnection = null;
+        }
+
         conn = new ConnectionHolder(session, new Request.Builder()
                 .url(String.format("wss://%s/?access_token=%s", ApResolver.getRandomDealer(), session.tokens().get("playlist-read")))
                 .build());
     }
 
+    @NotNull
+    private static byte[] decodePayloads(@NotNull JsonArray payloads) {
+        if (payloads.size() == 1) return Utils.fromBase64(payloads.get(0).getAsString());
+
+        byte[][] decoded = new byte[payloads.size()][];
+        int length = 0;
+        for (int i = 0; i < decoded.length; i++) {
+            decoded[i] = Utils.fromBase64(payloads.get(i).getAsString());
+            length += decoded[i].length;
+        }
+
+        byte[] result = new byte[length];
+        int offset = 0;
+        for (byte[] part : decoded) {
+            System.arraycopy(part, 0, result, offset, part.length);
+            offset += part.length;
+        }
+
+        return result;
+    }
+
+    /**
+     * Decompresses a single member GZIP payload into an array sized from its trailer.
+     */
+    @NotNull
+    private static byte[] gunzip(@NotNull byte[] gzip) throws IOException {
+        int size = gzip.length < 4 ? 0 : (gzip[gzip.length - 4] & 0xFF) | ((gzip[gzip.length - 3] & 0xFF) << 8)
+                | ((gzip[gzip.length - 2] & 0xFF) << 16) | ((gzip[gzip.length - 1] & 0xFF) << 24);
+        if (size <= 0 || size > 64 * 1024 * 1024) size = gzip.length * 4;
+
+        byte[] out = new byte[size + 1];
+        int count = 0;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip), Math.min(gzip.length, 64 * 1024))) {
+            int read;
+            while ((read = in.read(out, count, out.length - count)) != -1) {
+                count += read;
+                if (count == out.length) out = Arrays.copyOf(out, out.length * 2);
+            }
+        }
+
+        return count == out.length ? out : Arrays.copyOf(out, count);
+    }
+
     private void waitForListeners() {
         synchronized (msgListeners) {
             if (!msgListeners.isEmpty()) return;
@@ -95,154 +151,131 @@ public class DealerClient implements Closeable {
         String mid = obj.get("message_ident").getAsString();
         String key = obj.get("key").getAsString();
 
-        Map<String, String> headers = getHeaders(obj);
-        JsonObject payload = obj.getAsJsonObject("payload");
-        if ("gzip".equals(headers.get("Transfer-Encoding"))) {
-            byte[] gzip = Utils.fromBase64(payload.get("compressed").getAsString());
-            try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip)); Reader reader = new InputStreamReader(in)) {
-                payload = JsonParser.parseReader(reader).getAsJsonObject();
-            } catch (IOException ex) {
-                LOGGER.warn("Failed decompressing request! {mid: {}, key: {}}", mid, key, ex);
-                return;
-            }
+        List<RequestListener> listeners = reqListeners.match(mid);
+        if (listeners.isEmpty()) {
+            LOGGER.debug("Couldn't dispatch request: " + mid);
+            return;
         }
 
-        int pid = payload.get("message_id").getAsInt();
-        String sender = payload.get("sent_by_device_id").getAsString();
-
-        JsonObject command = payload.getAsJsonObject("command");
-        LOGGER.trace("Received request. {mid: {}, key: {}, pid: {}, sender: {}, command: {}}", mid, key, pid, sender, command);
+        Map<String, String> headers = getHeaders(obj);
+        LazyRequest request = new LazyRequest(mid, key, headers, obj.getAsJsonObject("payload"));
+        for (RequestListener listener : listeners) {
+            dispatcher.dispatch(listener, () -> {
+                if (!request.decode()) return;
 
-        boolean interesting = false;
-        synchronized (reqListeners) {
-            for (String midPrefix : reqListeners.keySet()) {
-                if (mid.startsWith(midPrefix)) {
-                    RequestListener listener = reqListeners.get(midPrefix);
-                    interesting = true;
-                    asyncWorker.submit(() -> {
-                        try {
-                            RequestResult result = listener.onRequest(mid, pid, sender, command);
-                            if (conn != null) conn.sendReply(key, result);
-                            LOGGER.debug("Handled request. {key: {}, result: {}}", key, result);
-                        } catch (Exception ex) {
-                            if (conn != null) conn.sendReply(key, RequestResult.UPSTREAM_ERROR);
-                            LOGGER.error("Failed handling request. {key: {}}", key, ex);
-                        }
-                    });
+                try {
+                    RequestResult result = listener.onRequest(mid, request.pid, request.sender, request.command);
+                    if (conn != null) conn.sendReply(key, result);
+                    LOGGER.debug("Handled request. {key: {}, result: {}}", key, result);
+                } catch (Exception ex) {
+                    if (conn != null) conn.sendReply(key, RequestResult.UPSTREAM_ERROR);
+                    LOGGER.error("Failed handling request. {key: {}}", key, ex);
                 }
-            }
+            });
         }
-
-        if (!interesting) LOGGER.debug("Couldn't dispatch request: " + mid);
     }
 
-    private void handleMessage(@NotNull JsonObject obj) {
+    void handleMessage(@NotNull JsonObject obj) {
         String uri = obj.get("uri").getAsString();
+        if (uri.startsWith(CONNECTION_ID_URI)) lastConnectionMessage = obj;
 
-        Map<String, String> headers = getHeaders(obj);
-        JsonArray payloads = obj.getAsJsonArray("payloads");
-        byte[] decodedPayload;
-        if (payloads != null) {
-            if ("application/json".equals(headers.get("Content-Type"))) {
-                if (payloads.size() > 1) throw new UnsupportedOperationException();
-                decodedPayload = payloads.get(0).getAsJsonObject().toString().getBytes();
-            } else if ("text/plain".equals(headers.get("Content-Type"))) {
-                if (payloads.size() > 1) throw new UnsupportedOperationException();
-                decodedPayload = payloads.get(0).getAsString().getBytes();
-            } else {
-                String[] payloadsStr = new String[payloads.size()];
-                for (int i = 0; i < payloads.size(); i++) payloadsStr[i] = payloads.get(i).getAsString();
+        List<MessageListener> listeners = msgListeners.match(uri);
+        if (listeners.isEmpty()) {
+            LOGGER.debug("Couldn't dispatch message: " + uri);
+            return;
+        }
 
-                InputStream in = BytesArrayList.streamBase64(payloadsStr);
-                if ("gzip".equals(headers.get("Transfer-Encoding"))) {
-                    try {
-                        in = new GZIPInputStream(in);
-                    } catch (IOException ex) {
-                        LOGGER.warn("Failed decompressing message! {uri: {}}", uri, ex);
-                        return;
-                    }
-                }
+        dispatchMessage(obj, listeners);
+    }
+
+    /**
+     * Dispatch is ordered per listener rather than per URI: each listener gets its messages in arrival order and never
+     * concurrently, so listeners don't need to be thread-safe. Messages for the same URI are therefore in order for every
+     * listener, but a slow listener holds back all of its URIs, and different listeners run concurrently.
+     */
+    private void dispatchMessage(@NotNull JsonObject obj, @NotNull List<MessageListener> listeners) {
+        String uri = obj.get("uri").getAsString();
+        Map<String, String> headers = getHeaders(obj);
+        LazyPayload payload = new LazyPayload(uri, headers, obj.getAsJsonArray("payloads"));
+        for (MessageListener listener : listeners) {
+            dispatcher.dispatch(listener, () -> {
+                byte[] decodedPayload = payload.get();
+                if (decodedPayload == null) return;
 
                 try {
-                    ByteArrayOutputStream out = new ByteArrayOutputStream(in.available());
-                    byte[] buffer = new byte[1024];
-                    int read;
-                    while ((read = in.read(buffer)) != -1) out.write(buffer, 0, read);
-                    decodedPayload = out.toByteArray();
+                    listener.onMessage(uri, headers, decodedPayload);
                 } catch (IOException ex) {
-                    throw new IllegalStateException(ex);
-                } finally {
-                    try {
-                        in.close();
-                    } catch (IOException ignored) {
-                    }
+                    LOGGER.error("Failed dispatching message! {uri: {}}", uri, ex);
+                } catch (Exception ex) {
+                    LOGGER.error("Failed handling message! {uri: {}}", uri, ex);
                 }
-            }
-        } else {
-            decodedPayload = new byte[0];
+            });
         }
-
-        boolean interesting = false;
-        synchronized (msgListeners) {
-            for (MessageListener listener : msgListeners.keySet()) {
-                boolean dispatched = false;
-                List<String> keys = msgListeners.get(listener);
-                for (String key : keys) {
-                    if (uri.startsWith(key) && !dispatched) {
-                        interesting = true;
-                        asyncWorker.submit(() -> {
-                            try {
-                                listener.onMessage(uri, headers, decodedPayload);
-                            } catch (IOException ex) {
-                                LOGGER.error("Failed dispatching message! {uri: {}}", uri, ex);
-                            } catch (Exception ex) {
-                                LOGGER.error("Failed handling message! {uri: {}}", uri, ex);
-                            }
-                        });
-                        dispatched = true;
-                    }
-                }
-            }
-        }
-
-        if (!interesting) LOGGER.debug("Couldn't dispatch message: " + uri);
     }
 
+    /**
+     * Registers a listener for the given URI prefixes. The connection ID message is sent only once per connection,
+     * therefore the last one is replayed to listeners that are interested in it but are registered afterwards.
+     */
     public void addMessageListener(@NotNull MessageListener listener, @NotNull String... uris) {
         synchronized (msgListeners) {
-            if (msgListeners.containsKey(listener))
+            if (msgListeners.contains(listener))
                 throw new IllegalArgumentException(String.format("A listener for %s has already been added.", Arrays.toString(uris)));
 
-            msgListeners.put(listener, Arrays.asList(uris));
+            msgListeners.add(listener, uris);
             msgListeners.notifyAll();
         }
+
+        JsonObject connectionMessage = lastConnectionMessage;
+        if (connectionMessage == null) return;
+
+        String uri = connectionMessage.get("uri").getAsString();
+        for (String prefix : uris) {
+            if (uri.startsWith(prefix)) {
+                LOGGER.trace("Replaying connection ID to new listener. {uri: {}}", uri);
+                dispatchMessage(connectionMessage, Collections.singletonList(listener));
+                break;
+            }
+        }
     }
 
     public void removeMessageListener(@NotNull MessageListener listener) {
-        synchronized (msgListeners) {
-            msgListeners.remove(listener);
-        }
+        msgListeners.remove(listener);
     }
 
     public void addRequestListener(@NotNull RequestListener listener, @NotNull String uri) {
         synchronized (reqListeners) {
-            if (reqListeners.containsKey(uri))
+            if (reqListeners.containsPrefix(uri))
                 throw new IllegalArgumentException(String.format("A listener for '%s' has already been added.", uri));
 
-            reqListeners.put(uri, listener);
-            reqListeners.notifyAll();
+            reqListeners.add(listener, uri);
         }
     }
 
     public void removeRequestListener(@NotNull RequestListener listener) {
-        synchronized (reqListeners) {
-            reqListeners.values().remove(listener);
+        reqListeners.remove(listener);
+    }
+
+    /**
+     * Closes the WebSocket without scheduling a reconnection, {@link #connect()} resumes it.
+     */
+    public synchronized void disconnect() {
+        if (lastScheduledReconnection != null) {
+            lastScheduledReconnection.cancel(false);
+            lastScheduledReconnection = null;
+        }
+
+        lastConnectionMessage = null;
+        if (conn != null) {
+            ConnectionHolder tmp = conn; // Do not trigger connectionInvalided()
+            conn = null;
+            tmp.close();
         }
     }
 
     @Override
     public void close() {
-        asyncWorker.close();
+        dispatcher.close();
         scheduler.shutdown();
 
         if (conn != null) {
@@ -267,6 +300,7 @@ public class DealerClient implements Closeable {
             throw new IllegalStateException();
 
         conn = null;
+        lastConnectionMessage = null;
 
         LOGGER.trace("Scheduled reconnection attempt in 10 seconds...");
         lastScheduledReconnection = scheduler.schedule(() -> {
@@ -297,6 +331,101 @@ public class DealerClient implements Closeable {
         void onMessage(@NotNull String uri, @NotNull Map<String, String> headers, @NotNull byte[] payload) throws IOException;
     }
 
+    /**
+     * The payload of a message, decoded once by whichever listener needs it first.
+     */
+    private static final class LazyPayload {
+        private final String uri;
+        private final Map<String, String> headers;
+        private final JsonArray payloads;
+        private boolean done = false;
+        private byte[] decoded = null;
+
+        LazyPayload(@NotNull String uri, @NotNull Map<String, String> headers, @Nullable JsonArray payloads) {
+            this.uri = uri;
+            this.headers = headers;
+            this.payloads = payloads;
+        }
+
+        /**
+         * @return The decoded payload or {@code null} if it couldn't be decoded
+         */
+        @Nullable
+        synchronized byte[] get() {
+            if (done) return decoded;
+            done = true;
+
+            if (payloads == null) {
+                decoded = new byte[0];
+            } else if ("application/json".equals(headers.get("Content-Type"))) {
+                if (payloads.size() > 1) throw new UnsupportedOperationException();
+                decoded = payloads.get(0).getAsJsonObject().toString().getBytes();
+            } else if ("text/plain".equals(headers.get("Content-Type"))) {
+                if (payloads.size() > 1) throw new UnsupportedOperationException();
+                decoded = payloads.get(0).getAsString().getBytes();
+            } else {
+                decoded = decodePayloads(payloads);
+                if ("gzip".equals(headers.get("Transfer-Encoding"))) {
+                    try {
+                        decoded = gunzip(decoded);
+                    } catch (IOException ex) {
+                        LOGGER.warn("Failed decompressing message! {uri: {}}", uri, ex);
+                        decoded = null;
+                    }
+                }
+            }
+
+            return decoded;
+        }
+    }
+
+    /**
+     * A request whose payload is decompressed and parsed once by whichever listener needs it first.
+     */
+    private static final class LazyRequest {
+        private final String mid;
+        private final String key;
+        private final Map<String, String> headers;
+        private JsonObject payload;
+        private boolean valid = false;
+        private int pid;
+        private String sender;
+        private JsonObject command;
+
+        LazyRequest(@NotNull String mid, @NotNull String key, @NotNull Map<String, String> headers, @NotNull JsonObject payload) {
+            this.mid = mid;
+            this.key = key;
+            this.headers = headers;
+            this.payload = payload;
+        }
+
+        /**
+         * @return Whether the request is valid
+         */
+        synchronized boolean decode() {
+            if (payload == null) return valid;
+
+            JsonObject payload = this.payload;
+            this.payload = null;
+
+            if ("gzip".equals(headers.get("Transfer-Encoding"))) {
+                byte[] gzip = Utils.fromBase64(payload.get("compressed").getAsString());
+                try (Reader reader = new InputStreamReader(new ByteArrayInputStream(gunzip(gzip)))) {
+                    payload = JsonParser.parseReader(reader).getAsJsonObject();
+                } catch (IOException ex) {
+                    LOGGER.warn("Failed decompressing request! {mid: {}, key: {}}", mid, key, ex);
+                    return false;
+                }
+            }
+
+            pid = payload.get("message_id").getAsInt();
+            sender = payload.get("sent_by_device_id").getAsString();
+            command = payload.getAsJsonObject("command");
+            LOGGER.trace("Received request. {mid: {}, key: {}, pid: {}, sender: {}, command: {}}", mid, key, pid, sender, command);
+            return valid = true;
+        }
+    }
+
     private class ConnectionHolder implements Closeable {
         private final WebSocket ws;
         private boolean closed = false;
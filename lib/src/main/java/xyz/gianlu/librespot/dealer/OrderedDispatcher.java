@@ -0,0 +1,113 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.dealer;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.common.ExecutorProvider;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Runs tasks asynchronously, in submission order for the same key and concurrently for different keys.
+ * There is at most one thread per key, so the executor doesn't need to be bounded. Tasks dispatched after {@link #close()}
+ * are dropped.
+ *
+ * @author devgianlu
+ */
+final class OrderedDispatcher implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OrderedDispatcher.class);
+    private final ExecutorService executorService;
+    private final Map<Object, Queue<Runnable>> lanes = new HashMap<>();
+
+    OrderedDispatcher(@NotNull String name) {
+        this(name, ExecutorProvider.platform());
+    }
+
+    OrderedDispatcher(@NotNull String name, @NotNull ExecutorProvider executors) {
+        this.executorService = executors.newUnboundedExecutor(name);
+    }
+
+    void dispatch(@NotNull Object key, @NotNull Runnable task) {
+        synchronized (lanes) {
+            Queue<Runnable> lane = lanes.get(key);
+            if (lane != null) {
+                lane.add(task);
+                return;
+            }
+
+            lane = new ArrayDeque<>();
+            lane.add(task);
+            lanes.put(key, lane);
+        }
+
+        try {
+            executorService.execute(() -> drain(key));
+        } catch (RejectedExecutionException ex) {
+            synchronized (lanes) {
+                lanes.remove(key);
+            }
+
+            LOGGER.debug("Dispatcher is closed, dropping task. {key: {}}", key);
+        }
+    }
+
+    /**
+     * @return Whether there are no queued or running tasks
+     */
+    boolean idle() {
+        synchronized (lanes) {
+            return lanes.isEmpty();
+        }
+    }
+
+    private void drain(@NotNull Object key) {
+        while (true) {
+            Runnable task;
+            synchronized (lanes) {
+                Queue<Runnable> lane = lanes.get(key);
+                task = lane.peek();
+                if (task == null) {
+                    lanes.remove(key);
+                    return;
+                }
+            }
+
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                LOGGER.error("Failed running task. {key: {}}", key, ex);
+            }
+
+            synchronized (lanes) {
+                lanes.get(key).poll();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.dealer;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Routes URIs to the listeners registered for any of their prefixes. Lookups walk an immutable prefix trie without locking,
+ * the trie is rebuilt whenever listeners change, which is rare.
+ *
+ * @author devgianlu
+ */
+final class UriRouter<L> {
+    private final Map<L, List<String>> registrations = new LinkedHashMap<>();
+    private volatile Node<L> root = new Node<>();
+
+    @NotNull
+    private static <L> Node<L> build(@NotNull Map<L, List<String>> registrations) {
+        Node<L> root = new Node<>();
+        for (Map.Entry<L, List<String>> entry : registrations.entrySet()) {
+            for (String prefix : entry.getValue()) {
+                Node<L> node = root;
+                for (int i = 0; i < prefix.length(); i++)
+                    node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node<>());
+
+                if (!node.listeners.contains(entry.getKey())) node.listeners.add(entry.getKey());
+            }
+        }
+
+        return root;
+    }
+
+    /**
+     * Registers {@param listener} for the given prefixes, in addition to the ones it may already have.
+     */
+    synchronized void add(@NotNull L listener, @NotNull String... prefixes) {
+        registrations.computeIfAbsent(listener, l -> new ArrayList<>()).addAll(Arrays.asList(prefixes));
+        root = build(registrations);
+    }
+
+    synchronized boolean remove(@NotNull L listener) {
+        if (registrations.remove(listener) == null) return false;
+
+        root = build(registrations);
+        return true;
+    }
+
+    synchronized void clear() {
+        registrations.clear();
+        root = new Node<>();
+    }
+
+    synchronized boolean contains(@NotNull L listener) {
+        return registrations.containsKey(listener);
+    }
+
+    synchronized boolean containsPrefix(@NotNull String prefix) {
+        for (List<String> prefixes : registrations.values())
+            if (prefixes.contains(prefix)) return true;
+
+        return false;
+    }
+
+    synchronized boolean isEmpty() {
+        return registrations.isEmpty();
+    }
+
+    /**
+     * @return The listeners registered for any prefix of {@param uri}, each one only once
+     */
+    @NotNull
+    List<L> match(@NotNull String uri) {
+        List<L> result = null;
+        Node<L> node = root;
+        for (int i = 0; ; i++) {
+            if (!node.listeners.isEmpty()) {
+                if (result == null) result = new ArrayList<>(node.listeners.size());
+                for (L listener : node.listeners)
+                    if (!result.contains(listener)) result.add(listener);
+            }
+
+            if (i == uri.length()) break;
+
+            node = node.children.get(uri.charAt(i));
+            if (node == null) break;
+        }
+
+        return result == null ? Collections.emptyList() : result;
+    }
+
+    private static final class Node<L> {
+        final Map<Character, Node<L>> children = new HashMap<>(4);
+        final List<L> listeners = new ArrayList<>(1);
+    }
+}
@@ -32,6 +32,7 @@ import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.PacketsReceiver;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.crypto.Packet;
+import xyz.gianlu.librespot.metrics.Metrics;
 
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
@@ -39,6 +40,8 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -48,8 +51,10 @@ import java.util.concurrent.atomic.AtomicReference;
 public final class MercuryClient implements PacketsReceiver, Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(MercuryClient.class);
     private static final int MERCURY_REQUEST_TIMEOUT = 3000;
+    private static final long SENT_AT_MAX_AGE_MS = MERCURY_REQUEST_TIMEOUT * 10L;
     private final AtomicInteger seqHolder = new AtomicInteger(1);
     private final Map<Long, Callback> callbacks = Collections.synchronizedMap(new HashMap<>());
+    private final Map<Long, Long> sentAt = new ConcurrentHashMap<>();
     private final Object removeCallbackLock = new Object();
     private final List<InternalSubListener> subscriptions = Collections.synchronizedList(new ArrayList<>());
     private final Map<Long, BytesArrayList> partials = new HashMap<>();
@@ -90,11 +95,14 @@ public final class MercuryClient implements PacketsReceiver, Closeable {
 
         try {
             Response resp = callback.waitResponse();
-            if (resp == null)
+            if (resp == null) {
+                cancel(seq);
                 throw new IOException(String.format("Request timeout out, %d passed, yet no response. {seq: %d}", MERCURY_REQUEST_TIMEOUT, seq));
+            }
 
             return resp;
         } catch (InterruptedException ex) {
+            cancel(seq);
             throw new IOException(ex); // Wrapping to avoid having to dispatch yet another exception down the call stack
         }
     }
@@ -171,12 +179,39 @@ public final class MercuryClient implements PacketsReceiver, Closeable {
         }
 
         Packet.Type cmd = Packet.Type.forMethod(request.header.getMethod());
-        session.send(cmd, bytesOut.toByteArray());
-
+        evictStaleSentAt();
         callbacks.put((long) seq, callback);
+        sentAt.put((long) seq, System.nanoTime());
+
+        try {
+            session.send(cmd, bytesOut.toByteArray());
+        } catch (IOException | RuntimeException ex) {
+            cancel(seq);
+            throw ex;
+        }
+
         return seq;
     }
 
+    /**
+     * Forgets the send time of requests that have been waiting for longer than {@link #SENT_AT_MAX_AGE_MS}.
+     * Asynchronous requests have no timeout, so their entry would otherwise stay forever if they are never answered.
+     */
+    private void evictStaleSentAt() {
+        long oldest = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(SENT_AT_MAX_AGE_MS);
+        sentAt.values().removeIf(start -> start - oldest < 0);
+    }
+
+    /**
+     * Forgets about a request that is not going to be answered, a late response will be skipped.
+     *
+     * @param seq The sequence number returned by {@link #send(RawMercuryRequest, Callback)}
+     */
+    public void cancel(int seq) {
+        callbacks.remove((long) seq);
+        sentAt.remove((long) seq);
+    }
+
     @Override
     public void dispatch(@NotNull Packet packet) {
         ByteBuffer payload = ByteBuffer.wrap(packet.payload);
@@ -233,6 +268,9 @@ public final class MercuryClient implements PacketsReceiver, Closeable {
             if (!dispatched)
                 LOGGER.debug("Couldn't dispatch Mercury event {seq: {}, uri: {}, code: {}, payload: {}}", seq, header.getUri(), header.getStatusCode(), resp.payload.toHex());
         } else if (packet.is(Packet.Type.MercuryReq) || packet.is(Packet.Type.MercurySub) || packet.is(Packet.Type.MercuryUnsub)) {
+            Long start = sentAt.remove(seq);
+            if (start != null) Metrics.MERCURY_RTT.observeSince(start);
+
             Callback callback = callbacks.remove(seq);
             if (callback != null)
                 callback.response(resp);
@@ -278,6 +316,7 @@ public final class MercuryClient implements PacketsReceiver, Closeable {
         }
 
         callbacks.clear();
+        sentAt.clear();
     }
 
     public interface JsonCallback<W extends JsonWrapper> {
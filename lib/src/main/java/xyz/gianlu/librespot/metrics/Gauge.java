@@ -0,0 +1,42 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.metrics;
+
+/**
+ * A value that can go up and down.
+ *
+ * @author devgianlu
+ */
+public final class Gauge {
+    private volatile double value = 0;
+
+    Gauge() {
+    }
+
+    public synchronized void set(double value) {
+        this.value = value;
+    }
+
+    public synchronized void add(double delta) {
+        this.value += delta;
+    }
+
+    public double get() {
+        return value;
+    }
+}
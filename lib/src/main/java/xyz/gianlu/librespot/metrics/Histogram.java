@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observations in cumulative buckets, like a Prometheus histogram.
+ *
+ * @author devgianlu
+ */
+public final class Histogram {
+    /**
+     * Buckets for latencies in seconds, from 0.5ms to 10s.
+     */
+    public static final double[] LATENCY_BUCKETS = {0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10};
+    final double[] buckets;
+    private final LongAdder[] counts;
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+
+    Histogram(@NotNull double[] buckets) {
+        for (int i = 1; i < buckets.length; i++)
+            if (buckets[i] <= buckets[i - 1]) throw new IllegalArgumentException("Buckets must be increasing!");
+
+        this.buckets = buckets;
+        this.counts = new LongAdder[buckets.length];
+        for (int i = 0; i < counts.length; i++) counts[i] = new LongAdder();
+    }
+
+    public void observe(double value) {
+        for (int i = 0; i < buckets.length; i++) {
+            if (value <= buckets[i]) {
+                counts[i].increment();
+                break;
+            }
+        }
+
+        count.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Observes the time elapsed since {@param startNanos}, in seconds.
+     *
+     * @param startNanos A value obtained from {@link System#nanoTime()}
+     */
+    public void observeSince(long startNanos) {
+        observe((System.nanoTime() - startNanos) / (double) TimeUnit.SECONDS.toNanos(1));
+    }
+
+    /**
+     * @return The cumulative count of each bucket, the last element is the total count
+     */
+    @NotNull
+    long[] cumulativeCounts() {
+        long[] result = new long[buckets.length + 1];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += counts[i].sum();
+            result[i] = total;
+        }
+
+        result[buckets.length] = Math.max(total, count.sum());
+        return result;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double sum() {
+        return sum.sum();
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.metrics;
+
+/**
+ * The metrics collected by the library, all registered in {@link MetricsRegistry#global()}.
+ *
+ * @author devgianlu
+ */
+public final class Metrics {
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.global();
+    private static final String CHUNK_FETCH = "librespot_chunk_fetch_seconds";
+    private static final String CHUNK_FETCH_HELP = "Time to retrieve an audio chunk, by source";
+    public static final Histogram CHUNK_FETCH_CDN = REGISTRY.histogram(CHUNK_FETCH, CHUNK_FETCH_HELP, Histogram.LATENCY_BUCKETS, "source", "cdn");
+    public static final Histogram CHUNK_FETCH_AP = REGISTRY.histogram(CHUNK_FETCH, CHUNK_FETCH_HELP, Histogram.LATENCY_BUCKETS, "source", "ap");
+    public static final Histogram CHUNK_FETCH_CACHE = REGISTRY.histogram(CHUNK_FETCH, CHUNK_FETCH_HELP, Histogram.LATENCY_BUCKETS, "source", "cache");
+    public static final Counter CHUNK_ERRORS = REGISTRY.counter("librespot_chunk_errors_total", "Audio chunks that failed to be retrieved");
+    public static final Histogram CHUNK_STALLS = REGISTRY.histogram("librespot_chunk_stall_seconds", "Time a reader waited for an audio chunk to become available", Histogram.LATENCY_BUCKETS);
+    public static final Histogram DECRYPT_TIME = REGISTRY.histogram("librespot_decrypt_seconds", "Time to decrypt an audio chunk", Histogram.LATENCY_BUCKETS);
+    public static final Histogram MERCURY_RTT = REGISTRY.histogram("librespot_mercury_rtt_seconds", "Round trip time of Mercury requests", Histogram.LATENCY_BUCKETS);
+    public static final Counter TOKEN_REFRESHES = REGISTRY.counter("librespot_token_refreshes_total", "Access tokens requested");
+    public static final Counter RECONNECTS = REGISTRY.counter("librespot_reconnects_total", "Reconnections to the access point", "result", "success");
+    public static final Counter RECONNECT_FAILURES = REGISTRY.counter("librespot_reconnects_total", "Reconnections to the access point", "result", "failure");
+    private static final String ZEROCONF_HANDOFF = "librespot_zeroconf_handoff_seconds";
+    private static final String ZEROCONF_HANDOFF_HELP = "Time from a Zeroconf addUser to a usable session, by where the session came from";
+    public static final Histogram ZEROCONF_HANDOFF_CURRENT = REGISTRY.histogram(ZEROCONF_HANDOFF, ZEROCONF_HANDOFF_HELP, Histogram.LATENCY_BUCKETS, "session", "current");
+    public static final Histogram ZEROCONF_HANDOFF_POOLED = REGISTRY.histogram(ZEROCONF_HANDOFF, ZEROCONF_HANDOFF_HELP, Histogram.LATENCY_BUCKETS, "session", "pooled");
+    public static final Histogram ZEROCONF_HANDOFF_NEW = REGISTRY.histogram(ZEROCONF_HANDOFF, ZEROCONF_HANDOFF_HELP, Histogram.LATENCY_BUCKETS, "session", "new");
+    private static final String EVENTS = "librespot_events_total";
+    private static final String EVENTS_HELP = "Events that left the event service spool, by result";
+    public static final Counter EVENTS_SENT = REGISTRY.counter(EVENTS, EVENTS_HELP, "result", "sent");
+    public static final Counter EVENTS_REJECTED = REGISTRY.counter(EVENTS, EVENTS_HELP, "result", "rejected");
+    public static final Counter EVENTS_DROPPED = REGISTRY.counter(EVENTS, EVENTS_HELP, "result", "dropped");
+    public static final Gauge EVENTS_PENDING = REGISTRY.gauge("librespot_events_pending", "Events waiting in the event service spool");
+    public static final Counter EVENT_FAILED_ATTEMPTS = REGISTRY.counter("librespot_event_failed_attempts_total", "Event batches that could not be delivered entirely and were retried");
+    public static final Histogram EVENT_LAG = REGISTRY.histogram("librespot_event_lag_seconds", "Time from an event being recorded to being delivered", Histogram.LATENCY_BUCKETS);
+
+    private Metrics() {
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Holds the metrics of the process and writes them in the Prometheus text format. Metrics are identified by name and labels,
+ * asking for the same metric twice returns the same instance, so callers should keep a reference to it on hot paths.
+ *
+ * @author devgianlu
+ */
+public final class MetricsRegistry {
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+    private static final Pattern NAME_PATTERN = Pattern.compile("[a-zA-Z_:][a-zA-Z0-9_:]*");
+    private final ConcurrentMap<String, Family> families = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a registry separate from {@link #global()}.
+     */
+    public MetricsRegistry() {
+    }
+
+    /**
+     * @return The registry shared by the whole process
+     */
+    @NotNull
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    @NotNull
+    private static String escape(@NotNull String str, boolean quotes) {
+        StringBuilder builder = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            if (c == '\\') builder.append("\\\\");
+            else if (c == '\n') builder.append("\\n");
+            else if (c == '"' && quotes) builder.append("\\\"");
+            else builder.append(c);
+        }
+
+        return builder.toString();
+    }
+
+    @NotNull
+    private static String format(double value) {
+        if (value == Double.POSITIVE_INFINITY) return "+Inf";
+        else if (value == Double.NEGATIVE_INFINITY) return "-Inf";
+        else if (value == Math.rint(value) && Math.abs(value) < 1e15) return String.valueOf((long) value);
+        else return String.valueOf(value);
+    }
+
+    @NotNull
+    private <M> M get(@NotNull String name, @NotNull String help, @NotNull Type type, @NotNull String[] labels, @NotNull Function<Family, M> factory) {
+        if (!NAME_PATTERN.matcher(name).matches()) throw new IllegalArgumentException("Invalid metric name: " + name);
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name-value pairs!");
+
+        Family family = families.computeIfAbsent(name, n -> new Family(n, help, type));
+        if (family.type != type)
+            throw new IllegalArgumentException("Metric " + name + " is a " + family.type + ", not a " + type);
+
+        @SuppressWarnings("unchecked")
+        M metric = (M) family.children.computeIfAbsent(Labels.of(labels), l -> factory.apply(family));
+        return metric;
+    }
+
+    @NotNull
+    public Counter counter(@NotNull String name, @NotNull String help, @NotNull String... labels) {
+        return get(name, help, Type.COUNTER, labels, family -> new Counter());
+    }
+
+    @NotNull
+    public Gauge gauge(@NotNull String name, @NotNull String help, @NotNull String... labels) {
+        return get(name, help, Type.GAUGE, labels, family -> new Gauge());
+    }
+
+    /**
+     * @param buckets The upper bounds of the buckets, in increasing order. Only the first registration defines them.
+     */
+    @NotNull
+    public Histogram histogram(@NotNull String name, @NotNull String help, @NotNull double[] buckets, @NotNull String... labels) {
+        return get(name, help, Type.HISTOGRAM, labels, family -> {
+            if (family.buckets == null) family.buckets = buckets.clone();
+            return new Histogram(family.buckets);
+        });
+    }
+
+    /**
+     * Writes all the metrics in the Prometheus text exposition format.
+     */
+    public void writePrometheus(@NotNull Appendable out) throws IOException {
+        List<Family> sorted = new ArrayList<>(families.values());
+        sorted.sort(Comparator.comparing(family -> family.name));
+
+        for (Family family : sorted) {
+            out.append("# HELP ").append(family.name).append(' ').append(escape(family.help, false)).append('\n');
+            out.append("# TYPE ").append(family.name).append(' ').append(family.type.name().toLowerCase(Locale.ROOT)).append('\n');
+
+            for (Map.Entry<Labels, Object> entry : family.children.entrySet()) {
+                Labels labels = entry.getKey();
+                Object metric = entry.getValue();
+                if (metric instanceof Counter) {
+                    writeSample(out, family.name, labels, null, ((Counter) metric).get());
+                } else if (metric instanceof Gauge) {
+                    writeSample(out, family.name, labels, null, ((Gauge) metric).get());
+                } else if (metric instanceof Histogram) {
+                    Histogram histogram = (Histogram) metric;
+                    long[] counts = histogram.cumulativeCounts();
+                    for (int i = 0; i < histogram.buckets.length; i++)
+                        writeSample(out, family.name + "_bucket", labels, format(histogram.buckets[i]), counts[i]);
+
+                    writeSample(out, family.name + "_bucket", labels, "+Inf", counts[counts.length - 1]);
+                    writeSample(out, family.name + "_sum", labels, null, histogram.sum());
+                    writeSample(out, family.name + "_count", labels, null, counts[counts.length - 1]);
+                }
+            }
+        }
+    }
+
+    @NotNull
+    public String toPrometheus() {
+        StringBuilder builder = new StringBuilder(4096);
+        try {
+            writePrometheus(builder);
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex); // Cannot happen with a StringBuilder
+        }
+
+        return builder.toString();
+    }
+
+    private static void writeSample(@NotNull Appendable out, @NotNull String name, @NotNull Labels labels, String le, double value) throws IOException {
+        out.append(name);
+        if (!labels.pairs.isEmpty() || le != null) {
+            out.append('{');
+            for (int i = 0; i < labels.pairs.size(); i += 2) {
+                if (i > 0) out.append(',');
+                out.append(labels.pairs.get(i)).append("=\"").append(escape(labels.pairs.get(i + 1), true)).append('"');
+            }
+
+            if (le != null) {
+                if (!labels.pairs.isEmpty()) out.append(',');
+                out.append("le=\"").append(le).append('"');
+            }
+
+            out.append('}');
+        }
+
+        out.append(' ').append(format(value)).append('\n');
+    }
+
+    private enum Type {
+        COUNTER, GAUGE, HISTOGRAM
+    }
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final Type type;
+        final ConcurrentMap<Labels, Object> children = new ConcurrentHashMap<>();
+        volatile double[] buckets = null;
+
+        Family(@NotNull String name, @NotNull String help, @NotNull Type type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+    }
+
+    private static final class Labels {
+        final List<String> pairs;
+
+        private Labels(@NotNull List<String> pairs) {
+            this.pairs = pairs;
+        }
+
+        @NotNull
+        static Labels of(@NotNull String[] pairs) {
+            for (int i = 0; i < pairs.length; i += 2)
+                if (!NAME_PATTERN.matcher(pairs[i]).matches()) throw new IllegalArgumentException("Invalid label name: " + pairs[i]);
+
+            return new Labels(Collections.unmodifiableList(Arrays.asList(pairs.clone())));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return pairs.equals(((Labels) o).pairs);
+        }
+
+        @Override
+        public int hashCode() {
+            return pairs.hashCode();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class SessionPoolTest {
+
+    @Test
+    void keyDependsOnCredentials() {
+        byte[] credentials = "credentials".getBytes(StandardCharsets.UTF_8);
+        String key = SessionPool.key("user", credentials);
+
+        assertTrue(SessionPool.sameKey(key, SessionPool.key("user", credentials.clone())));
+        assertFalse(SessionPool.sameKey(key, SessionPool.key("user", "forged".getBytes(StandardCharsets.UTF_8))));
+        assertFalse(SessionPool.sameKey(key, SessionPool.key("other", credentials)));
+        assertFalse(SessionPool.sameKey(key, null));
+    }
+
+    @Test
+    void disabledPoolHasNothingToTake() {
+        try (SessionPool pool = new SessionPool(0)) {
+            assertFalse(pool.enabled());
+            assertNull(pool.take(SessionPool.key("user", new byte[0])));
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.audio;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static xyz.gianlu.librespot.audio.storage.ChannelManager.CHUNK_SIZE;
+
+/**
+ * @author devgianlu
+ */
+class AbsChunkedInputStreamTest {
+    private static final int CHUNKS = 2;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    void testReaderWakesWhenChunkLands() throws Exception {
+        TestStream stream = new TestStream(scheduler);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> read = executor.submit(() -> {
+                stream.seek(CHUNK_SIZE);
+                return stream.read();
+            });
+
+            assertTrue(stream.halted.await(1, TimeUnit.SECONDS));
+            assertFalse(read.isDone());
+
+            stream.deliver(1);
+            assertEquals(1, (int) read.get(1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFailedChunkIsRetried() throws Exception {
+        TestStream stream = new TestStream(scheduler);
+        stream.failures.set(1);
+
+        assertEquals(0, stream.read());
+        assertEquals(2, stream.requests.get());
+    }
+
+    @Test
+    void testCloseWakesReader() throws Exception {
+        TestStream stream = new TestStream(scheduler);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> read = executor.submit(() -> {
+                stream.seek(CHUNK_SIZE);
+                return stream.read();
+            });
+
+            assertTrue(stream.halted.await(1, TimeUnit.SECONDS));
+            stream.close();
+
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> read.get(1, TimeUnit.SECONDS));
+            assertTrue(ex.getCause() instanceof IOException);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Chunk {@code i} is filled with {@code i}. Chunk 0 is delivered on request, failing as many times as {@link #failures} says,
+     * the others only when {@link #deliver(int)} is called.
+     */
+    private static class TestStream extends AbsChunkedInputStream {
+        final AtomicInteger failures = new AtomicInteger();
+        final AtomicInteger requests = new AtomicInteger();
+        final CountDownLatch halted = new CountDownLatch(1);
+        private final byte[][] buffer;
+        private final boolean[] available;
+        private final boolean[] requested;
+
+        TestStream(@NotNull ScheduledExecutorService scheduler) {
+            super(scheduler, false);
+            this.buffer = new byte[CHUNKS][];
+            this.available = new boolean[CHUNKS];
+            this.requested = new boolean[CHUNKS];
+        }
+
+        void deliver(int index) {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            Arrays.fill(chunk, (byte) index);
+            buffer[index] = chunk;
+            notifyChunkAvailable(index);
+        }
+
+        @Override
+        protected byte[][] buffer() {
+            return buffer;
+        }
+
+        @Override
+        public int size() {
+            return CHUNKS * CHUNK_SIZE;
+        }
+
+        @Override
+        protected boolean[] requestedChunks() {
+            return requested;
+        }
+
+        @Override
+        protected boolean[] availableChunks() {
+            return available;
+        }
+
+        @Override
+        protected int chunks() {
+            return CHUNKS;
+        }
+
+        @Override
+        protected void requestChunkFromStream(int index) {
+            if (index != 0) return;
+
+            requests.incrementAndGet();
+            ForkJoinPool.commonPool().execute(() -> {
+                if (failures.getAndDecrement() > 0) notifyChunkError(index, new ChunkException(new IOException("Test failure")));
+                else deliver(index);
+            });
+        }
+
+        @Override
+        public void streamReadHalted(int chunk, long time) {
+            halted.countDown();
+        }
+
+        @Override
+        public void streamReadResumed(int chunk, long time) {
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.audio.decoders;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class Mp3SeekTableTest {
+    private static final int MPEG1_128K_44100_STEREO = 0xFFFB9000;
+    private static final int PADDING = 1 << 9;
+
+    private static int withBitrate(int header, int bitrateIndex) {
+        return (header & ~0xF000) | (bitrateIndex << 12);
+    }
+
+    @NotNull
+    private static byte[] frame(int header, @NotNull String tag, int... fields) {
+        byte[] frame = new byte[Mp3SeekTable.frameLength(header)];
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.putInt(header);
+        buffer.position(4 + 32);
+        buffer.put(tag.getBytes());
+        for (int field : fields) buffer.putInt(field);
+        return frame;
+    }
+
+    @Test
+    void testHeader() {
+        assertTrue(Mp3SeekTable.isValidHeader(MPEG1_128K_44100_STEREO));
+        assertEquals(44100, Mp3SeekTable.sampleRate(MPEG1_128K_44100_STEREO));
+        assertEquals(1152, Mp3SeekTable.samplesPerFrame(MPEG1_128K_44100_STEREO));
+        assertEquals(128, Mp3SeekTable.bitrate(MPEG1_128K_44100_STEREO));
+        assertEquals(417, Mp3SeekTable.frameLength(MPEG1_128K_44100_STEREO));
+        assertEquals(418, Mp3SeekTable.frameLength(MPEG1_128K_44100_STEREO | PADDING));
+
+        assertFalse(Mp3SeekTable.isValidHeader(0));
+        assertFalse(Mp3SeekTable.isValidHeader(withBitrate(MPEG1_128K_44100_STEREO, 15)));
+        assertNull(Mp3SeekTable.parse(new byte[]{0, 0, 0, 0}, 4, 1000, 1000));
+    }
+
+    @Test
+    void testGeneratedVbrStreamWalk() {
+        Random random = new Random(3);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        List<Integer> offsets = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int header = withBitrate(MPEG1_128K_44100_STEREO, 1 + random.nextInt(14));
+            if (random.nextBoolean()) header |= PADDING;
+
+            byte[] frame = new byte[Mp3SeekTable.frameLength(header)];
+            random.nextBytes(frame);
+            ByteBuffer.wrap(frame).putInt(header);
+
+            offsets.add(out.size());
+            out.write(frame, 0, frame.length);
+        }
+
+        ByteBuffer data = ByteBuffer.wrap(out.toByteArray());
+        int offset = 0;
+        for (int expected : offsets) {
+            assertEquals(expected, offset);
+
+            int header = data.getInt(offset);
+            assertTrue(Mp3SeekTable.isValidHeader(header));
+            offset += Mp3SeekTable.frameLength(header);
+        }
+
+        assertEquals(data.capacity(), offset);
+    }
+
+    @Test
+    void testCbr() {
+        byte[] frame = frame(MPEG1_128K_44100_STEREO, "\0\0\0\0");
+        long streamBytes = 417960;
+
+        Mp3SeekTable table = Mp3SeekTable.parse(frame, frame.length, streamBytes, 0);
+        assertNotNull(table);
+        assertEquals(1000, table.frames());
+        assertEquals(0, table.offsetFor(0));
+        assertEquals(417.96 * 500, table.offsetFor(500), 1);
+    }
+
+    @Test
+    void testXingToc() {
+        int[] fields = new int[3 + 25];
+        fields[0] = 0x7; // Frames, bytes, TOC
+        fields[1] = 2000;
+        fields[2] = 1_000_000;
+
+        byte[] toc = new byte[100];
+        for (int i = 0; i < 100; i++) toc[i] = (byte) (256 * (i / 100.0) * (i / 100.0));
+        ByteBuffer tocBuffer = ByteBuffer.wrap(toc);
+        for (int i = 0; i < 25; i++) fields[3 + i] = tocBuffer.getInt();
+
+        byte[] frame = frame(MPEG1_128K_44100_STEREO, "Xing", fields);
+        Mp3SeekTable table = Mp3SeekTable.parse(frame, frame.length, 2_000_000, 0);
+        assertNotNull(table);
+        assertEquals(2000, table.frames());
+        assertEquals((toc[50] & 0xFF) / 256.0 * 1_000_000, table.offsetFor(1000), 1);
+        assertEquals((toc[10] & 0xFF) / 256.0 * 1_000_000, table.offsetFor(200), 1);
+        assertTrue(table.offsetFor(1999) < 1_000_000);
+    }
+
+    @Test
+    void testInfoIsLinear() {
+        byte[] frame = frame(MPEG1_128K_44100_STEREO, "Info", 0x3, 1000, 400_000);
+        Mp3SeekTable table = Mp3SeekTable.parse(frame, frame.length, 500_000, 0);
+        assertNotNull(table);
+        assertEquals(1000, table.frames());
+        assertEquals(200_000, table.offsetFor(500));
+    }
+
+    @Test
+    void testVbri() {
+        byte[] frame = new byte[Mp3SeekTable.frameLength(MPEG1_128K_44100_STEREO)];
+        ByteBuffer buffer = ByteBuffer.wrap(frame);
+        buffer.putInt(MPEG1_128K_44100_STEREO);
+        buffer.position(4 + 32);
+        buffer.put("VBRI".getBytes());
+        buffer.putShort((short) 1); // Version
+        buffer.putShort((short) 0); // Delay
+        buffer.putShort((short) 75); // Quality
+        buffer.putInt(10_000); // Bytes
+        buffer.putInt(1000); // Frames
+        buffer.putShort((short) 10); // Entries
+        buffer.putShort((short) 2); // Scale
+        buffer.putShort((short) 2); // Entry size
+        buffer.putShort((short) 100); // Frames per entry
+        for (int i = 0; i < 10; i++) buffer.putShort((short) (250 + i * 10));
+
+        Mp3SeekTable table = Mp3SeekTable.parse(frame, frame.length, 20_000, 0);
+        assertNotNull(table);
+        assertEquals(1000, table.frames());
+        assertEquals(0, table.offsetFor(0));
+        assertEquals(500, table.offsetFor(100));
+        assertEquals(500 + 520 + 270, table.offsetFor(250));
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.audio.decoders;
+
+import com.jcraft.jogg.Packet;
+import com.jcraft.jogg.Page;
+import com.jcraft.jogg.StreamState;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.player.decoders.SeekableInputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class OggPageIndexTest {
+    private static final int SERIAL = 0x1234;
+    private static final int SAMPLES_PER_PACKET = 1024;
+    private static final int CHUNK_SIZE = 128 * 1024;
+    private static final List<OggPageIndex.Entry> truth = new ArrayList<>();
+    private static byte[] data;
+
+    /**
+     * Generates an Ogg stream with random packets, {@link #SAMPLES_PER_PACKET} samples per packet and records where each page is.
+     */
+    @BeforeAll
+    static void generate() {
+        Random random = new Random(42);
+        StreamState stream = new StreamState();
+        stream.init(SERIAL);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Page page = new Page();
+        Packet packet = new Packet();
+        for (int i = 0; i < 6000; i++) {
+            byte[] payload = new byte[100 + random.nextInt(600)];
+            random.nextBytes(payload);
+
+            packet.packet_base = payload;
+            packet.packet = 0;
+            packet.bytes = payload.length;
+            packet.b_o_s = i == 0 ? 1 : 0;
+            packet.e_o_s = i == 5999 ? 1 : 0;
+            packet.granulepos = (long) (i + 1) * SAMPLES_PER_PACKET;
+            packet.packetno = i;
+            stream.packetin(packet);
+
+            while (stream.pageout(page) != 0) writePage(out, page);
+        }
+
+        while (stream.flush(page) != 0) writePage(out, page);
+        data = out.toByteArray();
+    }
+
+    private static void writePage(@NotNull ByteArrayOutputStream out, @NotNull Page page) {
+        truth.add(new OggPageIndex.Entry(page.granulepos(), out.size(), page.header_len + page.body_len));
+        out.write(page.header_base, page.header, page.header_len);
+        out.write(page.body_base, page.body, page.body_len);
+    }
+
+    private static long expectedStart(long target) {
+        long expected = -1;
+        for (OggPageIndex.Entry entry : truth) {
+            if (entry.granule > 0 && entry.granule < target) expected = entry.offset;
+        }
+
+        return expected;
+    }
+
+    @Test
+    void testBisection() throws IOException {
+        long total = truth.get(truth.size() - 1).granule;
+        OggPageIndex index = new OggPageIndex(SERIAL, 0, total);
+        Random random = new Random(7);
+
+        for (int i = 0; i < 200; i++) {
+            long target = (long) (random.nextDouble() * total);
+            OggPageIndex.Entry entry = index.find(new ByteArraySeekableStream(data), target);
+            assertEquals(expectedStart(target), entry == null ? -1 : entry.offset, "target: " + target);
+        }
+    }
+
+    @Test
+    void testFetchesFewChunks() throws IOException {
+        long total = truth.get(truth.size() - 1).granule;
+        long target = total * 3 / 4;
+
+        OggPageIndex index = new OggPageIndex(SERIAL, 0, total);
+        ByteArraySeekableStream stream = new ByteArraySeekableStream(data);
+        OggPageIndex.Entry entry = index.find(stream, target);
+
+        assertNotNull(entry);
+        assertEquals(expectedStart(target), entry.offset);
+        assertTrue(stream.chunks.size() <= 4, "Touched chunks: " + stream.chunks + " of " + (data.length / CHUNK_SIZE + 1));
+    }
+
+    @Test
+    void testKnownPagesNeedNoRead() throws IOException {
+        OggPageIndex index = new OggPageIndex(SERIAL, 0, truth.get(truth.size() - 1).granule);
+        for (OggPageIndex.Entry entry : truth) index.add(entry.granule, entry.offset, entry.length);
+
+        ByteArraySeekableStream stream = new ByteArraySeekableStream(data);
+        OggPageIndex.Entry last = truth.get(truth.size() / 2);
+        OggPageIndex.Entry entry = index.find(stream, last.granule + 1);
+
+        assertNotNull(entry);
+        assertEquals(last.offset, entry.offset);
+        assertTrue(stream.chunks.size() <= 1, "Touched chunks: " + stream.chunks);
+    }
+
+    @Test
+    void testStartOfStream() throws IOException {
+        OggPageIndex index = new OggPageIndex(SERIAL, 0, truth.get(truth.size() - 1).granule);
+        assertNull(index.find(new ByteArraySeekableStream(data), 0));
+        assertNull(index.find(new ByteArraySeekableStream(data), 1));
+    }
+
+    private static class ByteArraySeekableStream extends SeekableInputStream {
+        private final byte[] data;
+        private final Set<Integer> chunks = new TreeSet<>();
+        private int pos = 0;
+
+        ByteArraySeekableStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int size() {
+            return data.length;
+        }
+
+        @Override
+        public int position() {
+            return pos;
+        }
+
+        @Override
+        public void seek(int seekZero) {
+            pos = seekZero;
+        }
+
+        @Override
+        public long skip(long skip) {
+            long k = Math.min(skip, data.length - pos);
+            pos += k;
+            return k;
+        }
+
+        @Override
+        public int read(byte[] buffer, int index, int length) {
+            if (pos >= data.length) return -1;
+
+            int count = Math.min(length, data.length - pos);
+            System.arraycopy(data, pos, buffer, index, count);
+            for (int i = pos / CHUNK_SIZE; i <= (pos + count - 1) / CHUNK_SIZE; i++) chunks.add(i);
+            pos += count;
+            return count;
+        }
+
+        @Override
+        public int read() {
+            if (pos >= data.length) return -1;
+            chunks.add(pos / CHUNK_SIZE);
+            return data[pos++] & 0xFF;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int decodedLength() {
+            return data.length;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.common;
+
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.metrics.Gauge;
+import xyz.gianlu.librespot.metrics.MetricsRegistry;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class ExecutorProviderTest {
+
+    @Test
+    void testPlatformIsBounded() throws InterruptedException {
+        Gauge gauge = new MetricsRegistry().gauge("test_threads", "Test");
+        ExecutorService executor = ExecutorProvider.platform().newExecutor("test-bounded", 2, gauge);
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(6);
+        for (int i = 0; i < 6; i++) {
+            executor.execute(() -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+
+                running.decrementAndGet();
+                done.countDown();
+            });
+        }
+
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertEquals(2.0, gauge.get());
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(2, maxRunning.get());
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testUnboundedNeverQueues() throws InterruptedException {
+        Gauge gauge = new MetricsRegistry().gauge("test_threads", "Test");
+        ExecutorService executor = ExecutorProvider.platform().newExecutor("test-unbounded", ExecutorProvider.UNBOUNDED, gauge);
+
+        CountDownLatch started = new CountDownLatch(32);
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 32; i++) {
+            executor.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ignored) {
+                }
+            });
+        }
+
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+        assertEquals(32.0, gauge.get());
+        release.countDown();
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testSingleThreadIsOrdered() throws InterruptedException {
+        for (ExecutorProvider.Backend backend : ExecutorProvider.Backend.values()) {
+            ExecutorService executor = ExecutorProvider.forBackend(backend).newSingleThreadExecutor("test-ordered");
+
+            StringBuilder order = new StringBuilder();
+            for (int i = 0; i < 10; i++) {
+                int j = i;
+                executor.execute(() -> order.append(j));
+            }
+
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(1, TimeUnit.SECONDS));
+            assertEquals("0123456789", order.toString(), "backend: " + backend);
+        }
+    }
+}
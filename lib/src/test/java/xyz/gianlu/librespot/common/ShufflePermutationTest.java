@@ -0,0 +1,91 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class ShufflePermutationTest {
+
+    private static void assertBijection(ShufflePermutation perm, int from, int to) {
+        boolean[] seen = new boolean[to - from];
+        for (int i = from; i < to; i++) {
+            int mapped = perm.map(i);
+            assertTrue(mapped >= from && mapped < to, "Mapped " + i + " to " + mapped);
+            assertFalse(seen[mapped - from], "Duplicate " + mapped);
+            seen[mapped - from] = true;
+            assertEquals(i, perm.unmap(mapped));
+        }
+    }
+
+    @Test
+    void testFiniteSizes() {
+        for (int size = 0; size < 300; size++)
+            assertBijection(ShufflePermutation.finite(size, size * 31L), 0, size);
+
+        assertBijection(ShufflePermutation.finite(100_003, 42), 0, 100_003);
+    }
+
+    @Test
+    void testSeeded() {
+        ShufflePermutation a = ShufflePermutation.finite(1000, 7);
+        ShufflePermutation b = ShufflePermutation.finite(1000, 7);
+        ShufflePermutation c = ShufflePermutation.finite(1000, 8);
+
+        int fixed = 0, different = 0;
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(a.map(i), b.map(i));
+            if (a.map(i) == i) fixed++;
+            if (a.map(i) != c.map(i)) different++;
+        }
+
+        assertTrue(fixed < 20, "Fixed points: " + fixed);
+        assertTrue(different > 900, "Same as other seed: " + (1000 - different));
+    }
+
+    @Test
+    void testUniformFirst() {
+        int size = 10;
+        int[] counts = new int[size];
+        for (long seed = 0; seed < 20_000; seed++)
+            counts[ShufflePermutation.finite(size, seed).map(0)]++;
+
+        for (int count : counts) assertEquals(2000, count, 300);
+    }
+
+    @Test
+    void testBlocks() {
+        ShufflePermutation perm = ShufflePermutation.blocks(50, 3);
+        assertEquals(-1, perm.size());
+        for (int block = 0; block < 20; block++)
+            assertBijection(perm, block * 50, block * 50 + 50);
+
+        assertEquals(1_000_000_007, perm.map(perm.unmap(1_000_000_007)));
+    }
+
+    @Test
+    void testBounds() {
+        ShufflePermutation perm = ShufflePermutation.finite(10, 1);
+        assertThrows(IndexOutOfBoundsException.class, () -> perm.map(10));
+        assertThrows(IndexOutOfBoundsException.class, () -> perm.unmap(-1));
+        assertThrows(IllegalArgumentException.class, () -> ShufflePermutation.blocks(0, 1));
+    }
+}
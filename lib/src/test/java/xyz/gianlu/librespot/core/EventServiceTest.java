@@ -0,0 +1,206 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.gianlu.librespot.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class EventServiceTest {
+
+    private static byte[] body(int i) {
+        return ("event" + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(EventSpool.Entry entry) {
+        return new String(entry.body, StandardCharsets.UTF_8);
+    }
+
+    private static void await(EventService service, int sent) throws InterruptedException {
+        for (int i = 0; i < 500; i++) {
+            if (service.stats().sent + service.stats().rejected >= sent) return;
+            Thread.sleep(10);
+        }
+
+        fail("Events not sent: " + service.stats());
+    }
+
+    @Test
+    void testSpoolSurvivesRestart(@TempDir File dir) throws IOException {
+        File file = new File(dir, "events.spool");
+        EventSpool spool = new EventSpool(file, 1024 * 1024);
+        for (int i = 0; i < 10; i++) spool.append(body(i), i);
+        spool.remove(spool.peek(3));
+        spool.close();
+
+        spool = new EventSpool(file, 1024 * 1024);
+        List<EventSpool.Entry> entries = spool.peek(100);
+        assertEquals(7, entries.size());
+        assertEquals("event3", string(entries.get(0)));
+        assertEquals(3, entries.get(0).enqueuedAt);
+        spool.close();
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2); // Partially written record
+        }
+
+        spool = new EventSpool(file, 1024 * 1024);
+        assertEquals(6, spool.size());
+        spool.close();
+
+        spool = new EventSpool(file, 1024 * 1024);
+        assertEquals(6, spool.size());
+        spool.remove(spool.peek(100));
+        assertTrue(spool.isEmpty());
+        assertEquals(0, file.length());
+    }
+
+    @Test
+    void testSpoolIsBounded(@TempDir File dir) {
+        File file = new File(dir, "events.spool");
+        EventSpool spool = new EventSpool(file, 200);
+        for (int i = 0; i < 100; i++) spool.append(body(i), i);
+
+        assertTrue(spool.size() < 100);
+        assertEquals(100 - spool.size(), spool.dropped());
+        assertEquals("event99", string(spool.peek(100).get(spool.size() - 1)));
+        assertTrue(file.length() <= 200);
+    }
+
+    @Test
+    void testSpoolHasSingleWriter(@TempDir File dir) {
+        File file = new File(dir, "events.spool");
+        EventSpool owner = new EventSpool(file, 1024 * 1024);
+        for (int i = 0; i < 3; i++) owner.append(body(i), i);
+        long length = file.length();
+
+        EventSpool other = new EventSpool(file, 1024 * 1024);
+        assertTrue(other.isEmpty());
+        other.append(body(100), 100);
+        assertEquals(1, other.size());
+        assertEquals(length, file.length());
+        other.close();
+
+        owner.close();
+        EventSpool next = new EventSpool(file, 1024 * 1024);
+        assertEquals(3, next.size());
+        next.close();
+    }
+
+    @Test
+    void testSpoolFileIsPerUser(@TempDir File dir) {
+        File file = EventService.spoolFile(dir, "alice", "device");
+        assertNotNull(file);
+        assertEquals(file, EventService.spoolFile(dir, "alice", "device"));
+        assertNotEquals(file, EventService.spoolFile(dir, "bob", "device"));
+        assertNotEquals(file, EventService.spoolFile(dir, "alice", "other"));
+    }
+
+    @Test
+    void testUnansweredRequestIsCancelled() throws InterruptedException {
+        List<CompletableFuture<Integer>> requests = Collections.synchronizedList(new ArrayList<>());
+        EventService service = new EventService(body -> {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            requests.add(future);
+            return future;
+        }, new EventSpool(null, 1024 * 1024));
+
+        try {
+            service.sendEvent(new EventService.EventBuilder(EventService.Type.NEW_SESSION_ID));
+            for (int i = 0; i < 500 && service.stats().failedAttempts == 0; i++) Thread.sleep(10);
+
+            assertEquals(1, service.stats().failedAttempts);
+            assertEquals(1, service.stats().pending);
+            assertTrue(requests.get(0).isCancelled());
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    void testBatchesAndRetries() throws InterruptedException {
+        long sent = Metrics.EVENTS_SENT.get();
+        long failedAttempts = Metrics.EVENT_FAILED_ATTEMPTS.get();
+        AtomicInteger calls = new AtomicInteger(0);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        EventService service = new EventService(body -> {
+            if (calls.incrementAndGet() <= 2) {
+                CompletableFuture<Integer> future = new CompletableFuture<>();
+                future.completeExceptionally(new IOException("Connection dropped"));
+                return future;
+            }
+
+            delivered.add(new String(body, StandardCharsets.UTF_8));
+            return CompletableFuture.completedFuture(200);
+        }, new EventSpool(null, 1024 * 1024));
+
+        try {
+            for (int i = 0; i < 2; i++) service.sendEvent(new EventService.EventBuilder(EventService.Type.NEW_SESSION_ID).append(String.valueOf(i)));
+            Thread.sleep(100);
+            assertEquals(0, service.stats().sent);
+            assertEquals(2, service.stats().pending);
+            assertEquals(1, service.stats().failedAttempts);
+            assertEquals(failedAttempts + 1, Metrics.EVENT_FAILED_ATTEMPTS.get());
+
+            service.onConnectionEstablished();
+            await(service, 2);
+
+            EventService.Stats stats = service.stats();
+            assertEquals(0, stats.pending);
+            assertEquals(2, delivered.size());
+            assertEquals(sent + 2, Metrics.EVENTS_SENT.get());
+            assertTrue(delivered.stream().anyMatch(body -> body.endsWith("\t0")));
+            assertTrue(delivered.stream().anyMatch(body -> body.endsWith("\t1")));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    void testRejectedAreDropped() throws InterruptedException {
+        long rejected = Metrics.EVENTS_REJECTED.get();
+        EventService service = new EventService(body -> CompletableFuture.completedFuture(400), new EventSpool(null, 1024 * 1024));
+        try {
+            service.sendEvent(new EventService.EventBuilder(EventService.Type.NEW_PLAYBACK_ID));
+            await(service, 1);
+
+            EventService.Stats stats = service.stats();
+            assertEquals(1, stats.rejected);
+            assertEquals(0, stats.pending);
+            assertEquals(0, stats.failedAttempts);
+            assertEquals(rejected + 1, Metrics.EVENTS_REJECTED.get());
+        } finally {
+            service.close();
+        }
+    }
+}
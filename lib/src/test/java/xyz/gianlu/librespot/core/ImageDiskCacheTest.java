@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class ImageDiskCacheTest {
+
+    private static String hex(int i) {
+        return String.format("ab%038x", i);
+    }
+
+    private static byte[] image(int i) {
+        byte[] data = new byte[100];
+        byte[] id = String.valueOf(i).getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(id, 0, data, 0, id.length);
+        return data;
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed(@TempDir File dir) {
+        ImageDiskCache cache = new ImageDiskCache(dir, 350);
+        for (int i = 0; i < 3; i++) cache.write(hex(i), image(i));
+        assertEquals(300, cache.size());
+
+        assertArrayEquals(image(0), cache.read(hex(0)));
+        cache.write(hex(3), image(3));
+        cache.write(hex(4), image(4));
+
+        assertEquals(300, cache.size());
+        assertNull(cache.read(hex(1)));
+        assertNull(cache.read(hex(2)));
+        assertArrayEquals(image(0), cache.read(hex(0)));
+        assertArrayEquals(image(4), cache.read(hex(4)));
+        assertFalse(new File(new File(dir, "ab"), hex(1)).exists());
+    }
+
+    @Test
+    void testBoundSurvivesRestart(@TempDir File dir) {
+        ImageDiskCache cache = new ImageDiskCache(dir, 1000);
+        for (int i = 0; i < 5; i++) {
+            cache.write(hex(i), image(i));
+            new File(new File(dir, "ab"), hex(i)).setLastModified(1_000_000L * (i + 1));
+        }
+
+        cache = new ImageDiskCache(dir, 250);
+        assertEquals(200, cache.size());
+        assertNull(cache.read(hex(2)));
+        assertArrayEquals(image(3), cache.read(hex(3)));
+        assertArrayEquals(image(4), cache.read(hex(4)));
+    }
+
+    @Test
+    void testMissingFileIsForgotten(@TempDir File dir) {
+        ImageDiskCache cache = new ImageDiskCache(dir, 1000);
+        cache.write(hex(0), image(0));
+        assertTrue(new File(new File(dir, "ab"), hex(0)).delete());
+
+        assertNull(cache.read(hex(0)));
+        assertEquals(0, cache.size());
+    }
+}
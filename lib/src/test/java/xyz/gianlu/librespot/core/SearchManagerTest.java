@@ -0,0 +1,125 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.core;
+
+import com.google.gson.JsonObject;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class SearchManagerTest {
+
+    @NotNull
+    private static SearchManager.SearchRequest request(@NotNull String query) {
+        return new SearchManager.SearchRequest(query).username("user").country("IT").locale("en");
+    }
+
+    @NotNull
+    private static JsonObject result(@NotNull String url) {
+        JsonObject obj = new JsonObject();
+        obj.addProperty("url", url);
+        return obj;
+    }
+
+    @Test
+    void testCachedAndNormalized() throws IOException {
+        List<String> urls = new ArrayList<>();
+        SearchManager manager = new SearchManager(null, url -> {
+            urls.add(url);
+            return CompletableFuture.completedFuture(result(url));
+        });
+
+        JsonObject first = manager.request(request("Daft  Punk"));
+        first.addProperty("modified", true);
+
+        JsonObject second = manager.request(request(" daft punk "));
+        assertEquals(1, urls.size());
+        assertFalse(second.has("modified"));
+
+        manager.request(request("daft punk").limit(20));
+        assertEquals(2, urls.size());
+    }
+
+    @Test
+    void testDeduplicated() throws Exception {
+        List<CompletableFuture<JsonObject>> pending = new ArrayList<>();
+        SearchManager manager = new SearchManager(null, url -> {
+            CompletableFuture<JsonObject> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        });
+
+        CompletableFuture<JsonObject> a = manager.requestAsync(request("query"), null);
+        CompletableFuture<JsonObject> b = manager.requestAsync(request("query"), null);
+        assertEquals(1, pending.size());
+
+        pending.get(0).complete(result("query"));
+        assertEquals(a.get(), b.get());
+        assertNotSame(a.get(), b.get());
+    }
+
+    @Test
+    void testSupersededOnChannel() throws Exception {
+        List<CompletableFuture<JsonObject>> pending = new ArrayList<>();
+        SearchManager manager = new SearchManager(null, url -> {
+            CompletableFuture<JsonObject> future = new CompletableFuture<>();
+            pending.add(future);
+            return future;
+        });
+
+        CompletableFuture<JsonObject> first = manager.requestAsync(request("da"), "field");
+        CompletableFuture<JsonObject> second = manager.requestAsync(request("daf"), "field");
+        CompletableFuture<JsonObject> other = manager.requestAsync(request("da"), "other");
+        assertTrue(first.isCancelled());
+        assertFalse(second.isCancelled());
+
+        pending.get(0).complete(result("da"));
+        pending.get(1).complete(result("daf"));
+        assertNotNull(second.get());
+        assertNotNull(other.get());
+
+        // The superseded request still populated the cache
+        assertNotNull(manager.requestAsync(request("da"), "field").get());
+        assertEquals(2, pending.size());
+    }
+
+    @Test
+    void testFailureNotCached() {
+        List<String> urls = new ArrayList<>();
+        SearchManager manager = new SearchManager(null, url -> {
+            urls.add(url);
+            CompletableFuture<JsonObject> future = new CompletableFuture<>();
+            future.completeExceptionally(new SearchManager.SearchException(500));
+            return future;
+        });
+
+        assertThrows(SearchManager.SearchException.class, () -> manager.request(request("query")));
+        assertThrows(ExecutionException.class, () -> manager.requestAsync(request("query"), null).get());
+        assertEquals(2, urls.size());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.core;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.net.Proxy;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class SharedResourcesTest {
+
+    @Test
+    void testLaneLimitsRunningTasks() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            SharedResources.Lane lane = new SharedResources.Lane(pool, 2);
+            AtomicInteger running = new AtomicInteger();
+            AtomicInteger maxRunning = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(10);
+            for (int i = 0; i < 10; i++) {
+                lane.execute(() -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException ignored) {
+                    }
+
+                    running.decrementAndGet();
+                    done.countDown();
+                });
+            }
+
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(2, maxRunning.get());
+
+            lane.shutdown();
+            assertTrue(lane.awaitTermination(1, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void testBusyLaneDoesNotStarveOthers() {
+        ManualExecutor pool = new ManualExecutor();
+        SharedResources.Lane busy = new SharedResources.Lane(pool, 1);
+        SharedResources.Lane idle = new SharedResources.Lane(pool, 1);
+
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        for (int i = 0; i < 3; i++) {
+            String name = "busy " + i;
+            busy.execute(() -> order.add(name));
+        }
+
+        idle.execute(() -> order.add("idle"));
+        pool.runAll();
+
+        assertEquals(Arrays.asList("busy 0", "idle", "busy 1", "busy 2"), order);
+    }
+
+    @Test
+    void testShutdownLaneRejects() {
+        ManualExecutor pool = new ManualExecutor();
+        SharedResources.Lane lane = new SharedResources.Lane(pool, 1);
+        lane.execute(() -> {
+        });
+        lane.execute(() -> fail("Queued task ran after shutdown"));
+
+        assertEquals(1, lane.shutdownNow().size());
+        assertThrows(RejectedExecutionException.class, () -> lane.execute(() -> {
+        }));
+
+        assertFalse(lane.isTerminated());
+        pool.runAll();
+        assertTrue(lane.isTerminated());
+    }
+
+    @Test
+    void testConflicts() {
+        Session.Configuration shared = new Session.Configuration.Builder()
+                .setCacheEnabled(true)
+                .setCacheDir(new File("cache"))
+                .build();
+
+        assertEquals(Collections.emptyList(), SharedResources.conflicts(shared, new Session.Configuration.Builder()
+                .setCacheEnabled(true)
+                .setCacheDir(new File("cache").getAbsoluteFile())
+                .build()));
+
+        assertEquals(Collections.singletonList("cache.dir"), SharedResources.conflicts(shared, new Session.Configuration.Builder()
+                .setCacheEnabled(true)
+                .setCacheDir(new File("other-cache"))
+                .build()));
+
+        assertEquals(Collections.singletonList("proxy.enabled"), SharedResources.conflicts(shared, new Session.Configuration.Builder()
+                .setCacheEnabled(true)
+                .setCacheDir(new File("cache"))
+                .setProxyEnabled(true)
+                .setProxyType(Proxy.Type.HTTP)
+                .setProxyAddress("localhost")
+                .setProxyPort(8080)
+                .build()));
+    }
+
+    /**
+     * Runs the tasks in submission order on the calling thread.
+     */
+    private static final class ManualExecutor implements Executor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) task.run();
+        }
+    }
+}
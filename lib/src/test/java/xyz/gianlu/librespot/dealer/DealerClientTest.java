@@ -0,0 +1,79 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.dealer;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class DealerClientTest {
+
+    @NotNull
+    private static JsonObject message(@NotNull String uri, @NotNull String connectionId) {
+        return JsonParser.parseString(String.format("{\"type\":\"message\",\"uri\":\"%s\",\"headers\":{\"Spotify-Connection-Id\":\"%s\"}}", uri, connectionId)).getAsJsonObject();
+    }
+
+    @Test
+    void testConnectionIdReplayedToLateListener() throws InterruptedException {
+        DealerClient dealer = new DealerClient(new OrderedDispatcher("test-dealer"));
+        CountDownLatch early = new CountDownLatch(1);
+        dealer.addMessageListener((uri, headers, payload) -> early.countDown(), "hm://connect-state/v1/connect/logout");
+
+        dealer.handleMessage(message("hm://pusher/v1/connections/first", "first"));
+        dealer.handleMessage(message("hm://pusher/v1/connections/second", "second"));
+        dealer.handleMessage(message("hm://connect-state/v1/connect/logout", ""));
+        assertTrue(early.await(1, TimeUnit.SECONDS));
+
+        // Registered after the connection ID has been delivered, as a player on a pooled session is
+        List<String> ids = new CopyOnWriteArrayList<>();
+        CountDownLatch late = new CountDownLatch(1);
+        dealer.addMessageListener((uri, headers, payload) -> {
+            ids.add(headers.get("Spotify-Connection-Id"));
+            late.countDown();
+        }, "hm://pusher/v1/connections/", "hm://connect-state/v1/cluster");
+        assertTrue(late.await(1, TimeUnit.SECONDS));
+        assertEquals(1, ids.size());
+        assertEquals("second", ids.get(0));
+
+        // Not interested in the connection ID
+        List<String> others = new CopyOnWriteArrayList<>();
+        dealer.addMessageListener((uri, headers, payload) -> others.add(uri), "hm://connect-state/v1/cluster");
+
+        dealer.disconnect();
+        List<String> afterDisconnect = new CopyOnWriteArrayList<>();
+        dealer.addMessageListener((uri, headers, payload) -> afterDisconnect.add(uri), "hm://pusher/v1/connections/");
+
+        Thread.sleep(100);
+        assertTrue(others.isEmpty());
+        assertTrue(afterDisconnect.isEmpty());
+        assertEquals(1, ids.size());
+
+        dealer.close();
+    }
+}
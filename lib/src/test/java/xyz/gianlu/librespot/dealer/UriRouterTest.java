@@ -0,0 +1,121 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.dealer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class UriRouterTest {
+
+    @Test
+    void testMatch() {
+        UriRouter<String> router = new UriRouter<>();
+        assertTrue(router.isEmpty());
+
+        router.add("state", "hm://pusher/v1/connections/", "hm://connect-state/v1/connect/volume", "hm://connect-state/v1/cluster");
+        router.add("wrapper", "spotify:user:attributes:update", "hm://playlist/");
+        router.add("all", "hm://");
+
+        assertEquals(Arrays.asList("all", "state"), router.match("hm://connect-state/v1/cluster"));
+        assertEquals(Arrays.asList("all", "state"), router.match("hm://pusher/v1/connections/abc%3D"));
+        assertEquals(Arrays.asList("all", "wrapper"), router.match("hm://playlist/v2/playlist/xyz"));
+        assertEquals(Collections.singletonList("all"), router.match("hm://connect-state/v1/connect/logout"));
+        assertEquals(Collections.singletonList("wrapper"), router.match("spotify:user:attributes:update"));
+        assertTrue(router.match("spotify:user:attributes").isEmpty());
+        assertTrue(router.match("").isEmpty());
+
+        assertTrue(router.containsPrefix("hm://playlist/"));
+        assertTrue(router.remove("all"));
+        assertFalse(router.remove("all"));
+        assertTrue(router.match("hm://connect-state/v1/connect/logout").isEmpty());
+        assertEquals(Collections.singletonList("state"), router.match("hm://connect-state/v1/cluster"));
+    }
+
+    @Test
+    void testListenerMatchedOnce() {
+        UriRouter<String> router = new UriRouter<>();
+        router.add("a", "hm://connect-state/", "hm://connect-state/v1/");
+        router.add("a", "hm://connect-state/v1/cluster");
+        assertEquals(Collections.singletonList("a"), router.match("hm://connect-state/v1/cluster"));
+    }
+
+    @Test
+    void testOrderedDispatch() throws InterruptedException {
+        OrderedDispatcher dispatcher = new OrderedDispatcher("test-dispatcher");
+        List<Integer> first = new CopyOnWriteArrayList<>();
+        List<Integer> second = new CopyOnWriteArrayList<>();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2000);
+
+        dispatcher.dispatch("first", () -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException ignored) {
+            }
+        });
+
+        for (int i = 0; i < 1000; i++) {
+            int index = i;
+            dispatcher.dispatch("first", () -> {
+                first.add(index);
+                done.countDown();
+            });
+            dispatcher.dispatch("second", () -> {
+                second.add(index);
+                done.countDown();
+            });
+        }
+
+        // The second key isn't held back by the first one
+        long deadline = System.currentTimeMillis() + 5000;
+        while (second.size() < 1000 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(1000, second.size());
+        assertTrue(first.isEmpty());
+
+        blocked.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(i, (int) first.get(i));
+            assertEquals(i, (int) second.get(i));
+        }
+
+        dispatcher.close();
+    }
+
+    @Test
+    void testDispatchAfterCloseIsDropped() {
+        OrderedDispatcher dispatcher = new OrderedDispatcher("test-dispatcher");
+        dispatcher.close();
+
+        AtomicBoolean ran = new AtomicBoolean();
+        dispatcher.dispatch("key", () -> ran.set(true));
+        assertTrue(dispatcher.idle());
+        assertFalse(ran.get());
+    }
+}
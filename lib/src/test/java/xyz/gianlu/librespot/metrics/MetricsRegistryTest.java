@@ -0,0 +1,102 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class MetricsRegistryTest {
+
+    @Test
+    void testSameMetricIsShared() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter a = registry.counter("test_total", "Test", "result", "ok");
+        Counter b = registry.counter("test_total", "Test", "result", "ok");
+        Counter c = registry.counter("test_total", "Test", "result", "failed");
+
+        assertSame(a, b);
+        assertNotSame(a, c);
+        assertThrows(IllegalArgumentException.class, () -> registry.gauge("test_total", "Test"));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("test-total", "Test"));
+        assertThrows(IllegalArgumentException.class, () -> registry.counter("test_total", "Test", "result"));
+    }
+
+    @Test
+    void testCounterAndGauge() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("requests_total", "Requests", "result", "ok");
+        counter.inc();
+        counter.inc(2);
+
+        Gauge gauge = registry.gauge("fill_ratio", "Fill \"ratio\"\nof the buffer");
+        gauge.set(0.25);
+
+        assertEquals("# HELP fill_ratio Fill \"ratio\"\\nof the buffer\n" +
+                "# TYPE fill_ratio gauge\n" +
+                "fill_ratio 0.25\n" +
+                "# HELP requests_total Requests\n" +
+                "# TYPE requests_total counter\n" +
+                "requests_total{result=\"ok\"} 3\n", registry.toPrometheus());
+    }
+
+    @Test
+    void testHistogram() {
+        MetricsRegistry registry = new MetricsRegistry();
+        Histogram histogram = registry.histogram("latency_seconds", "Latency", new double[]{0.1, 1}, "source", "cdn");
+        histogram.observe(0.05);
+        histogram.observe(0.1);
+        histogram.observe(0.5);
+        histogram.observe(5);
+
+        assertEquals(4, histogram.count());
+        assertEquals(5.65, histogram.sum(), 1e-9);
+        assertEquals("# HELP latency_seconds Latency\n" +
+                "# TYPE latency_seconds histogram\n" +
+                "latency_seconds_bucket{source=\"cdn\",le=\"0.1\"} 2\n" +
+                "latency_seconds_bucket{source=\"cdn\",le=\"1\"} 3\n" +
+                "latency_seconds_bucket{source=\"cdn\",le=\"+Inf\"} 4\n" +
+                "latency_seconds_sum{source=\"cdn\"} 5.65\n" +
+                "latency_seconds_count{source=\"cdn\"} 4\n", registry.toPrometheus());
+    }
+
+    @Test
+    void testConcurrentUpdates() throws InterruptedException {
+        MetricsRegistry registry = new MetricsRegistry();
+        Counter counter = registry.counter("concurrent_total", "Concurrent");
+        Histogram histogram = registry.histogram("concurrent_seconds", "Concurrent", Histogram.LATENCY_BUCKETS);
+
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    counter.inc();
+                    histogram.observe(0.001);
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) thread.join();
+        assertEquals(80_000, counter.get());
+        assertEquals(80_000, histogram.count());
+    }
+}
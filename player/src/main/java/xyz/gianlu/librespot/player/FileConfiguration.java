@@ -35,9 +35,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.ZeroconfServer;
 import xyz.gianlu.librespot.audio.decoders.AudioQuality;
+import xyz.gianlu.librespot.common.ExecutorProvider;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.core.SharedResources;
 import xyz.gianlu.librespot.core.TimeProvider;
+import xyz.gianlu.librespot.player.render.OfflineRenderer;
 
 import java.io.File;
 import java.io.FileReader;
@@ -335,11 +338,26 @@ public final class FileConfiguration {
         return config.get("api.host");
     }
 
+    public int apiWebApiCacheSize() {
+        return config.get("api.webApiCacheSize");
+    }
+
+    @Nullable
+    public File apiInstancesDir() {
+        return getFile("api.instancesDir");
+    }
+
+    public int apiSharedAudioThreads() {
+        return config.get("api.sharedAudioThreads");
+    }
+
     @NotNull
     public ShellEvents.Configuration toEventsShell() {
         return new ShellEvents.Configuration.Builder()
                 .setEnabled(config.get("shell.enabled"))
                 .setExecuteWithBash(config.get("shell.executeWithBash"))
+                .setQueueSize(config.get("shell.queueSize"))
+                .setTimeoutSeconds(config.get("shell.timeout"))
                 .setOnContextChanged(config.get("shell.onContextChanged"))
                 .setOnTrackChanged(config.get("shell.onTrackChanged"))
                 .setOnPlaybackEnded(config.get("shell.onPlaybackEnded"))
@@ -355,14 +373,41 @@ public final class FileConfiguration {
                 .build();
     }
 
+    @NotNull
+    public OfflineRenderer.Configuration toRender() {
+        OfflineRenderer.Configuration.Builder builder = new OfflineRenderer.Configuration.Builder()
+                .setEnabled(config.get("render.enabled"))
+                .setFormat(config.getEnum("render.format", OfflineRenderer.Format.class))
+                .setNormalisation(config.get("render.normalisation"))
+                .setCrossfade(config.get("render.crossfade"))
+                .setThreads(config.get("render.threads"));
+
+        String dir = config.get("render.outputDir");
+        if (dir != null && !dir.isEmpty()) builder.setOutputDir(new File(dir));
+
+        String uris = config.get("render.uris");
+        if (uris != null) {
+            for (String uri : Utils.split(uris, ','))
+                if (!uri.trim().isEmpty()) builder.addUri(uri.trim());
+        }
+
+        return builder.build();
+    }
+
     @NotNull
     public ZeroconfServer.Builder initZeroconfBuilder() {
-        ZeroconfServer.Builder builder = new ZeroconfServer.Builder(toSession())
+        return initZeroconfBuilder(null);
+    }
+
+    @NotNull
+    public ZeroconfServer.Builder initZeroconfBuilder(@Nullable SharedResources shared) {
+        ZeroconfServer.Builder builder = new ZeroconfServer.Builder(toSession(shared))
                 .setPreferredLocale(preferredLocale())
                 .setDeviceType(deviceType())
                 .setDeviceName(deviceName())
                 .setDeviceId(deviceId())
-                .setListenPort(config.get("zeroconf.listenPort"));
+                .setListenPort(config.get("zeroconf.listenPort"))
+                .setSessionKeepWarm(config.get("zeroconf.sessionKeepWarm"));
 
         if (config.get("zeroconf.listenAll")) builder.setListenAll(true);
         else builder.setListenInterfaces(getStringArray("zeroconf.interfaces", ','));
@@ -372,7 +417,12 @@ public final class FileConfiguration {
 
     @NotNull
     public Session.Builder initSessionBuilder() throws IOException, GeneralSecurityException {
-        Session.Builder builder = new Session.Builder(toSession())
+        return initSessionBuilder(null);
+    }
+
+    @NotNull
+    public Session.Builder initSessionBuilder(@Nullable SharedResources shared) throws IOException, GeneralSecurityException {
+        Session.Builder builder = new Session.Builder(toSession(shared))
                 .setPreferredLocale(preferredLocale())
                 .setDeviceType(deviceType())
                 .setDeviceName(deviceName())
@@ -401,6 +451,14 @@ public final class FileConfiguration {
 
     @NotNull
     public Session.Configuration toSession() {
+        return toSession(null);
+    }
+
+    /**
+     * @param shared The resources shared with other sessions in the same process, if any
+     */
+    @NotNull
+    public Session.Configuration toSession(@Nullable SharedResources shared) {
         return new Session.Configuration.Builder()
                 .setCacheEnabled(config.get("cache.enabled"))
                 .setCacheDir(getFile("cache.dir"))
@@ -418,6 +476,8 @@ public final class FileConfiguration {
                 .setProxyPassword(config.get("proxy.password"))
                 .setRetryOnChunkError(config.get("player.retryOnChunkError"))
                 .setConnectionTimeout(config.get("network.connectionTimeout"))
+                .setSharedResources(shared)
+                .setExecutorProvider(ExecutorProvider.forBackend(config.getEnum("threads", ExecutorProvider.Backend.class)))
                 .build();
     }
 
@@ -437,10 +497,13 @@ public final class FileConfiguration {
                 .setOutputPipe(outputPipe())
                 .setPreferredQuality(preferredQuality())
                 .setPreloadEnabled(config.get("preload.enabled"))
+                .setDecodeAheadSeconds(config.get("player.decodeAheadSeconds"))
                 .setReleaseLineDelay(config.get("player.releaseLineDelay"))
                 .setVolumeSteps(config.get("player.volumeSteps"))
                 .setBypassSinkVolume(config.get("player.bypassSinkVolume"))
                 .setLocalFilesPath(getFile("player.localFilesPath"))
+                .setStateSnapshotFile(getFile("player.stateSnapshotFile"))
+                .setStateSnapshotDebounceMs(config.get("player.stateSnapshotDebounce"))
                 .build();
     }
 
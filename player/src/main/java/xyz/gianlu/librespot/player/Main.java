@@ -23,6 +23,7 @@ import xyz.gianlu.librespot.ZeroconfServer;
 import xyz.gianlu.librespot.common.Log4JUncaughtExceptionHandler;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.mercury.MercuryClient;
+import xyz.gianlu.librespot.player.render.OfflineRenderer;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
@@ -37,6 +38,22 @@ public class Main {
         Configurator.setRootLevel(conf.loggingLevel());
         Thread.setDefaultUncaughtExceptionHandler(new Log4JUncaughtExceptionHandler());
 
+        OfflineRenderer.Configuration renderConf = conf.toRender();
+        if (renderConf.enabled) {
+            if (conf.authStrategy() == FileConfiguration.AuthStrategy.ZEROCONF)
+                throw new IllegalArgumentException("Offline render requires a non-Zeroconf authentication strategy.");
+
+            OfflineRenderer.Report report;
+            try (Session session = conf.initSessionBuilder().create();
+                 OfflineRenderer renderer = new OfflineRenderer(session, conf.toPlayer(), renderConf)) {
+                report = renderer.renderAll(renderConf.uris, renderConf.outputDir);
+            }
+
+            if (report.succeeded() != report.results.size()) System.exit(1);
+
+            return;
+        }
+
         if (conf.authStrategy() == FileConfiguration.AuthStrategy.ZEROCONF) {
             ShellEvents shellEvents;
             ShellEvents.Configuration eventsShellConf = conf.toEventsShell();
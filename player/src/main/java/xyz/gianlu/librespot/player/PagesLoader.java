@@ -21,6 +21,9 @@ import com.google.gson.JsonParser;
 import com.spotify.context.ContextOuterClass.Context;
 import com.spotify.context.ContextTrackOuterClass.ContextTrack;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.common.ProtoUtils;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.mercury.MercuryClient;
@@ -32,41 +35,92 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
 
 import static com.spotify.context.ContextPageOuterClass.ContextPage;
 
 /**
+ * Loads the pages of a context in order. Pages whose URL is already known are fetched ahead of time on the given executor,
+ * at most {@link #FETCH_WINDOW} at once, so that walking a long context doesn't take one round trip after the other.
+ *
  * @author Gianlu
  */
 public final class PagesLoader {
+    /**
+     * The maximum number of pages being fetched in the background at the same time.
+     */
+    static final int FETCH_WINDOW = 4;
+    private static final Logger LOGGER = LoggerFactory.getLogger(PagesLoader.class);
     private final List<ContextPage> pages;
-    private final Session session;
+    private final Fetcher fetcher;
+    private final Executor executor;
+    private final Map<Integer, FutureTask<List<ContextTrack>>> fetching = new HashMap<>();
+    private final Map<String, Integer> pageByUri = new ConcurrentHashMap<>();
+    private final Map<String, Integer> pageByUid = new ConcurrentHashMap<>();
     private String resolveUrl = null;
     private int currentPage = -1;
 
-    private PagesLoader(@NotNull Session session) {
-        this.session = session;
+    PagesLoader(@NotNull Fetcher fetcher, @Nullable Executor executor) {
+        this.fetcher = fetcher;
+        this.executor = executor;
         this.pages = new ArrayList<>();
     }
 
     @NotNull
     public static PagesLoader from(@NotNull Session session, @NotNull String context) {
-        PagesLoader loader = new PagesLoader(session);
+        return from(session, null, context);
+    }
+
+    @NotNull
+    public static PagesLoader from(@NotNull Session session, @NotNull Context context) {
+        return from(session, null, context);
+    }
+
+    /**
+     * @param executor The executor used to prefetch pages, {@code null} to load them only when requested
+     */
+    @NotNull
+    public static PagesLoader from(@NotNull Session session, @Nullable Executor executor, @NotNull String context) {
+        PagesLoader loader = new PagesLoader(new SessionFetcher(session), executor);
         loader.resolveUrl = context;
         return loader;
     }
 
+    /**
+     * @param executor The executor used to prefetch pages, {@code null} to load them only when requested
+     */
     @NotNull
-    public static PagesLoader from(@NotNull Session session, @NotNull Context context) {
+    public static PagesLoader from(@NotNull Session session, @Nullable Executor executor, @NotNull Context context) {
         List<ContextPage> pages = context.getPagesList();
-        if (pages.isEmpty()) return from(session, context.getUri());
+        if (pages.isEmpty()) return from(session, executor, context.getUri());
 
-        PagesLoader loader = new PagesLoader(session);
+        PagesLoader loader = new PagesLoader(new SessionFetcher(session), executor);
         loader.putFirstPages(pages, PlayableId.inferUriPrefix(context.getUri()));
         return loader;
     }
 
+    /**
+     * Recreates a loader from {@link #pendingPages()} and {@link #nextPageUrl()}, as if all the previous pages had been consumed.
+     */
+    @NotNull
+    static PagesLoader restore(@NotNull Session session, @Nullable Executor executor, @NotNull List<ContextPage> pendingPages, @Nullable String nextPageUrl) {
+        PagesLoader loader = new PagesLoader(new SessionFetcher(session), executor);
+        ContextPage.Builder consumed = ContextPage.newBuilder();
+        if (nextPageUrl != null) consumed.setNextPageUrl(nextPageUrl);
+
+        loader.pages.add(consumed.build());
+        for (ContextPage page : pendingPages) {
+            loader.indexTracks(loader.pages.size(), page.getTracksList());
+            loader.pages.add(page);
+        }
+
+        loader.currentPage = 0;
+        return loader;
+    }
+
     private static void sanitizeTracks(List<ContextTrack> tracks, String uriPrefix) {
         for (int i = 0; i < tracks.size(); i++) {
             ContextTrack.Builder builder = tracks.get(i).toBuilder();
@@ -77,24 +131,93 @@ public final class PagesLoader {
         }
     }
 
+    private void indexTracks(int page, @NotNull List<ContextTrack> tracks) {
+        for (ContextTrack track : tracks) {
+            if (track.hasUri() && !track.getUri().isEmpty()) pageByUri.merge(track.getUri(), page, Math::min);
+            if (track.hasUid() && !track.getUid().isEmpty()) pageByUid.merge(track.getUid(), page, Math::min);
+        }
+    }
+
+    /**
+     * Looks for a track in the pages that have been loaded or prefetched so far.
+     *
+     * @return The index of the first page containing the track or {@code -1} if it hasn't been seen yet
+     */
+    int pageOf(@Nullable String uri, @Nullable String uid) {
+        Integer page = null;
+        if (uid != null && !uid.isEmpty()) page = pageByUid.get(uid);
+        if (page == null && uri != null && !uri.isEmpty()) page = pageByUri.get(uri);
+        return page == null ? -1 : page;
+    }
+
+    private void startFetching(int index, @NotNull String url) {
+        FutureTask<List<ContextTrack>> task = new FutureTask<>(() -> {
+            List<ContextTrack> tracks = fetcher.fetchTracks(url);
+            indexTracks(index, tracks);
+            return tracks;
+        });
+
+        fetching.put(index, task);
+        try {
+            executor.execute(task);
+            LOGGER.trace("Prefetching page {}.", index);
+        } catch (RejectedExecutionException ex) {
+            fetching.remove(index);
+        }
+    }
+
+    /**
+     * Starts fetching in the background up to {@param count} pages after the current one, if their URL is known.
+     * Nothing happens if there is no executor or {@link #FETCH_WINDOW} pages are already being fetched.
+     */
+    synchronized void prefetch(int count) {
+        if (executor == null || resolveUrl != null) return;
+
+        for (int i = currentPage + 1; i <= currentPage + count && fetching.size() < FETCH_WINDOW; i++) {
+            if (fetching.containsKey(i)) continue;
+
+            if (i < pages.size()) {
+                ContextPage page = pages.get(i);
+                if (page.getTracksCount() == 0 && page.hasPageUrl()) startFetching(i, page.getPageUrl());
+            } else if (i == pages.size() && i > 0 && pages.get(i - 1).hasNextPageUrl()) {
+                startFetching(i, pages.get(i - 1).getNextPageUrl());
+                break;
+            } else {
+                break;
+            }
+        }
+    }
+
     @NotNull
-    private List<ContextTrack> fetchTracks(@NotNull String url) throws IOException {
-        MercuryClient.Response resp = session.mercury().sendSync(RawMercuryRequest.newBuilder()
-                .setUri(url).setMethod("GET").build());
+    private List<ContextTrack> fetchTracks(int index, @NotNull String url) throws IOException {
+        FutureTask<List<ContextTrack>> task = fetching.remove(index);
+        if (task == null) {
+            List<ContextTrack> tracks = fetcher.fetchTracks(url);
+            indexTracks(index, tracks);
+            return tracks;
+        }
 
-        try (Reader reader = new InputStreamReader(resp.payload.stream())) {
-            JsonObject obj = JsonParser.parseReader(reader).getAsJsonObject();
-            return ProtoUtils.jsonToContextTracks(obj.getAsJsonArray("tracks"));
+        try {
+            return task.get();
+        } catch (InterruptedException ex) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while loading page " + index, ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            else if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            else throw new IOException(cause);
         }
     }
 
     @NotNull
-    private List<ContextTrack> resolvePage(@NotNull ContextPage page) throws IOException {
+    private List<ContextTrack> resolvePage(int index, @NotNull ContextPage page) throws IOException {
         if (page.getTracksCount() > 0) {
             return page.getTracksList();
         } else {
             if (page.hasPageUrl()) {
-                return fetchTracks(page.getPageUrl());
+                return fetchTracks(index, page.getPageUrl());
             } else if (page.hasLoading() && page.getLoading()) {
                 throw new UnsupportedOperationException("What does loading even mean?");
             } else {
@@ -104,18 +227,25 @@ public final class PagesLoader {
     }
 
     @NotNull
-    private List<ContextTrack> getPage(int index) throws IOException, IllegalStateException, MercuryClient.MercuryException {
+    private synchronized List<ContextTrack> getPage(int index) throws IOException, IllegalStateException, MercuryClient.MercuryException {
         if (index == -1) throw new IllegalStateException("You must call nextPage() first!");
 
-        if (index == 0 && pages.isEmpty() && resolveUrl != null)
-            pages.addAll(session.mercury().sendSync(MercuryRequests.resolveContext(resolveUrl)).pages());
+        if (index == 0 && pages.isEmpty() && resolveUrl != null) {
+            for (ContextPage page : fetcher.resolveContext(resolveUrl)) {
+                indexTracks(pages.size(), page.getTracksList());
+                pages.add(page);
+            }
+        }
 
         resolveUrl = null;
 
         if (index < pages.size()) {
             ContextPage page = pages.get(index);
-            List<ContextTrack> tracks = resolvePage(page);
+            if (page.getTracksCount() > 0) return page.getTracksList();
+
+            List<ContextTrack> tracks = resolvePage(index, page);
             pages.set(index, page.toBuilder().clearPageUrl().clearTracks().addAllTracks(tracks).build());
+            indexTracks(index, tracks);
             return tracks;
         } else {
             if (index > pages.size()) throw new IndexOutOfBoundsException();
@@ -124,9 +254,8 @@ public final class PagesLoader {
             if (!prev.hasNextPageUrl()) throw new IllegalStateException();
 
             String nextPageUrl = prev.getNextPageUrl();
+            List<ContextTrack> tracks = fetchTracks(index, nextPageUrl);
             pages.set(index - 1, prev.toBuilder().clearNextPageUrl().build());
-
-            List<ContextTrack> tracks = fetchTracks(nextPageUrl);
             pages.add(ContextPage.newBuilder()
                     .addAllTracks(tracks)
                     .build());
@@ -140,7 +269,7 @@ public final class PagesLoader {
         return getPage(currentPage);
     }
 
-    boolean nextPage() throws IOException, MercuryClient.MercuryException {
+    synchronized boolean nextPage() throws IOException, MercuryClient.MercuryException {
         try {
             getPage(currentPage + 1);
             currentPage++;
@@ -150,18 +279,80 @@ public final class PagesLoader {
         }
     }
 
-    void putFirstPages(@NotNull List<ContextPage> pages, String contextUri) {
+    synchronized void putFirstPages(@NotNull List<ContextPage> pages, String contextUri) {
         if (currentPage != -1 || !this.pages.isEmpty()) throw new IllegalStateException();
         for (ContextPage page : pages) {
             List<ContextTrack> tracks = new ArrayList<>(page.getTracksList());
             sanitizeTracks(tracks, contextUri == null ? null : PlayableId.inferUriPrefix(contextUri));
+            indexTracks(this.pages.size(), tracks);
             this.pages.add(page.toBuilder().clearTracks().addAllTracks(tracks).build());
         }
     }
 
-    void putFirstPage(@NotNull List<ContextTrack> tracks, String contextUri) {
+    synchronized void putFirstPage(@NotNull List<ContextTrack> tracks, String contextUri) {
         if (currentPage != -1 || !pages.isEmpty()) throw new IllegalStateException();
         sanitizeTracks(tracks, contextUri == null ? null : PlayableId.inferUriPrefix(contextUri));
+        indexTracks(0, tracks);
         pages.add(ContextPage.newBuilder().addAllTracks(tracks).build());
     }
+
+    /**
+     * @return The pages after the current one, loaded or not
+     */
+    @NotNull
+    synchronized List<ContextPage> pendingPages() {
+        if (currentPage + 1 >= pages.size()) return new ArrayList<>();
+        else return new ArrayList<>(pages.subList(currentPage + 1, pages.size()));
+    }
+
+    /**
+     * @return The URL of the page after the last known one, if any
+     */
+    @Nullable
+    synchronized String nextPageUrl() {
+        if (pages.isEmpty()) return null;
+
+        ContextPage last = pages.get(pages.size() - 1);
+        return last.hasNextPageUrl() ? last.getNextPageUrl() : null;
+    }
+
+    /**
+     * Cancels the pages still being fetched.
+     */
+    synchronized void cancel() {
+        for (FutureTask<?> task : fetching.values()) task.cancel(true);
+        fetching.clear();
+    }
+
+    interface Fetcher {
+        @NotNull
+        List<ContextPage> resolveContext(@NotNull String uri) throws IOException, MercuryClient.MercuryException;
+
+        @NotNull
+        List<ContextTrack> fetchTracks(@NotNull String url) throws IOException;
+    }
+
+    private static final class SessionFetcher implements Fetcher {
+        private final Session session;
+
+        SessionFetcher(@NotNull Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public @NotNull List<ContextPage> resolveContext(@NotNull String uri) throws IOException, MercuryClient.MercuryException {
+            return session.mercury().sendSync(MercuryRequests.resolveContext(uri)).pages();
+        }
+
+        @Override
+        public @NotNull List<ContextTrack> fetchTracks(@NotNull String url) throws IOException {
+            MercuryClient.Response resp = session.mercury().sendSync(RawMercuryRequest.newBuilder()
+                    .setUri(url).setMethod("GET").build());
+
+            try (Reader reader = new InputStreamReader(resp.payload.stream())) {
+                JsonObject obj = JsonParser.parseReader(reader).getAsJsonObject();
+                return ProtoUtils.jsonToContextTracks(obj.getAsJsonArray("tracks"));
+            }
+        }
+    }
 }
@@ -21,9 +21,6 @@ import com.google.protobuf.InvalidProtocolBufferException;
 import com.spotify.context.ContextTrackOuterClass.ContextTrack;
 import com.spotify.metadata.Metadata;
 import com.spotify.transfer.TransferStateOuterClass;
-import okhttp3.Request;
-import okhttp3.Response;
-import okhttp3.ResponseBody;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Range;
@@ -52,6 +49,7 @@ import xyz.gianlu.librespot.player.state.DeviceStateHandler;
 import xyz.gianlu.librespot.player.state.DeviceStateHandler.PlayCommandHelper;
 
 import java.io.Closeable;
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.*;
@@ -83,6 +81,7 @@ public class Player implements Closeable {
         });
 
         initState();
+        if (conf.stateSnapshotFile != null) restoreSnapshot(conf.stateSnapshotFile);
     }
 
     public void addEventsListener(@NotNull EventsListener listener) {
@@ -93,6 +92,29 @@ public class Player implements Closeable {
         events.listeners.remove(listener);
     }
 
+    /**
+     * Resumes the playback from a previously saved state, the network state is updated once the device is ready.
+     */
+    private void restoreSnapshot(@NotNull File file) {
+        StateSnapshot snapshot = StateSnapshotStore.read(file);
+        if (snapshot == null) return;
+
+        if (!snapshot.isFor(session.username(), session.deviceId())) {
+            LOGGER.info("Ignoring state snapshot of another user or device. {context: {}}", snapshot.contextUri);
+            return;
+        }
+
+        try {
+            String sessionId = state.restore(snapshot);
+            events.contextChanged();
+            loadSession(sessionId, !snapshot.paused, true);
+            LOGGER.info("Restored state snapshot. {context: {}, position: {}}", snapshot.contextUri, snapshot.position);
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Failed restoring state snapshot, discarding it.", ex);
+            state.notActive();
+        }
+    }
+
     private void initState() {
         this.state = new StateWrapper(session, this, conf);
         state.addListener(deviceStateListener = new DeviceStateHandler.Listener() {
@@ -782,9 +804,16 @@ public class Player implements Closeable {
     /**
      * @return The cover image bytes for the current entry or {@code null} if not available.
      * @throws IOException If an error occurred while downloading the image
+     * @see xyz.gianlu.librespot.core.ImageService
      */
     @Nullable
     public byte[] currentCoverImage() throws IOException {
+        ImageId image = currentCoverImageId();
+        return image == null ? null : session.images().getSync(image);
+    }
+
+    @Nullable
+    private ImageId currentCoverImageId() {
         MetadataWrapper metadata = currentMetadata();
         if (metadata == null) return null;
 
@@ -807,18 +836,7 @@ public class Player implements Closeable {
             image = ImageId.biggestImage(group);
         }
 
-        if (image == null)
-            return null;
-
-        try (Response resp = session.client().newCall(new Request.Builder()
-                .url(session.getUserAttribute("image-url", "https://i.scdn.co/image/{file_id}").replace("{file_id}", image.hexId())).build())
-                .execute()) {
-            ResponseBody body;
-            if (resp.code() == 200 && (body = resp.body()) != null)
-                return body.bytes();
-            else
-                throw new IOException(String.format("Bad response code. {id: %s, code: %d}", image.hexId(), resp.code()));
-        }
+        return image;
     }
 
     /**
@@ -839,6 +857,8 @@ public class Player implements Closeable {
 
     @Override
     public void close() {
+        state.flushSnapshot();
+
         if (playerSession != null) {
             endMetrics(playerSession.currentPlaybackId(), PlaybackMetrics.Reason.LOGOUT, playerSession.currentMetrics(), state.getPosition());
             playerSession.close();
@@ -961,7 +981,7 @@ public class Player implements Closeable {
     }
 
     private class EventsDispatcher {
-        private final ExecutorService executorService = Executors.newSingleThreadExecutor(new NameThreadFactory((r) -> "player-events-" + r.hashCode()));
+        private final ExecutorService executorService = session.executors().newSingleThreadExecutor("player-events");
         private final List<EventsListener> listeners = new ArrayList<>();
 
         EventsDispatcher(@NotNull PlayerConfiguration conf) {
@@ -1015,10 +1035,12 @@ public class Player implements Closeable {
                         if (playerMetrics != null)
                             dacpPipe.sendProgress(player.time(), metadata.duration(), playerMetrics.sampleRate);
 
-                        try {
-                            dacpPipe.sendImage(currentCoverImage());
-                        } catch (IOException ex) {
-                            LOGGER.error("Failed getting cover image.", ex);
+                        ImageId image = currentCoverImageId();
+                        if (image != null) {
+                            session.images().get(image).whenComplete((data, ex) -> {
+                                if (ex != null) LOGGER.error("Failed getting cover image.", ex);
+                                else dacpPipe.sendImage(data);
+                            });
                         }
                     }
 
@@ -33,6 +33,7 @@ public final class PlayerConfiguration {
     public final boolean autoplayEnabled;
     public final int crossfadeDuration;
     public final boolean preloadEnabled;
+    public final int decodeAheadSeconds;
 
     // Output
     public final AudioOutput output;
@@ -52,9 +53,14 @@ public final class PlayerConfiguration {
     // Local files
     public final File localFilesPath;
 
-    private PlayerConfiguration(AudioQuality preferredQuality, boolean enableNormalisation, float normalisationPregain, boolean autoplayEnabled, int crossfadeDuration, boolean preloadEnabled,
+    // State snapshot
+    public final File stateSnapshotFile;
+    public final int stateSnapshotDebounceMs;
+
+    private PlayerConfiguration(AudioQuality preferredQuality, boolean enableNormalisation, float normalisationPregain, boolean autoplayEnabled, int crossfadeDuration, boolean preloadEnabled, int decodeAheadSeconds,
                                 AudioOutput output, String outputClass, Object[] outputClassParams, File outputPipe, File metadataPipe, String[] mixerSearchKeywords, boolean logAvailableMixers, int releaseLineDelay,
-                                int initialVolume, int volumeSteps, boolean bypassSinkVolume, File localFilesPath) {
+                                int initialVolume, int volumeSteps, boolean bypassSinkVolume, File localFilesPath,
+                                File stateSnapshotFile, int stateSnapshotDebounceMs) {
         this.preferredQuality = preferredQuality;
         this.enableNormalisation = enableNormalisation;
         this.normalisationPregain = normalisationPregain;
@@ -71,8 +77,11 @@ public final class PlayerConfiguration {
         this.initialVolume = initialVolume;
         this.volumeSteps = volumeSteps;
         this.preloadEnabled = preloadEnabled;
+        this.decodeAheadSeconds = decodeAheadSeconds;
         this.bypassSinkVolume = bypassSinkVolume;
         this.localFilesPath = localFilesPath;
+        this.stateSnapshotFile = stateSnapshotFile;
+        this.stateSnapshotDebounceMs = stateSnapshotDebounceMs;
     }
 
     public enum AudioOutput {
@@ -87,6 +96,7 @@ public final class PlayerConfiguration {
         private boolean autoplayEnabled = true;
         private int crossfadeDuration = 0;
         private boolean preloadEnabled = true;
+        private int decodeAheadSeconds = 0;
 
         // Output
         private AudioOutput output = AudioOutput.MIXER;
@@ -106,6 +116,10 @@ public final class PlayerConfiguration {
         // Local files
         private File localFilesPath;
 
+        // State snapshot
+        private File stateSnapshotFile;
+        private int stateSnapshotDebounceMs = 2000;
+
         public Builder() {
         }
 
@@ -195,6 +209,14 @@ public final class PlayerConfiguration {
             return this;
         }
 
+        public Builder setDecodeAheadSeconds(int decodeAheadSeconds) {
+            if (decodeAheadSeconds < 0)
+                throw new IllegalArgumentException("Invalid decode ahead seconds: " + decodeAheadSeconds);
+
+            this.decodeAheadSeconds = decodeAheadSeconds;
+            return this;
+        }
+
         public Builder setBypassSinkVolume(boolean bypassSinkVolume) {
             this.bypassSinkVolume = bypassSinkVolume;
             return this;
@@ -205,11 +227,25 @@ public final class PlayerConfiguration {
             return this;
         }
 
+        public Builder setStateSnapshotFile(File stateSnapshotFile) {
+            this.stateSnapshotFile = stateSnapshotFile;
+            return this;
+        }
+
+        public Builder setStateSnapshotDebounceMs(int stateSnapshotDebounceMs) {
+            if (stateSnapshotDebounceMs < 0)
+                throw new IllegalArgumentException("Invalid state snapshot debounce: " + stateSnapshotDebounceMs);
+
+            this.stateSnapshotDebounceMs = stateSnapshotDebounceMs;
+            return this;
+        }
+
         @Contract(value = " -> new", pure = true)
         public @NotNull PlayerConfiguration build() {
-            return new PlayerConfiguration(preferredQuality, enableNormalisation, normalisationPregain, autoplayEnabled, crossfadeDuration, preloadEnabled,
+            return new PlayerConfiguration(preferredQuality, enableNormalisation, normalisationPregain, autoplayEnabled, crossfadeDuration, preloadEnabled, decodeAheadSeconds,
                     output, outputClass, outputClassParams, outputPipe, metadataPipe, mixerSearchKeywords, logAvailableMixers, releaseLineDelay,
-                    initialVolume, volumeSteps, bypassSinkVolume, localFilesPath);
+                    initialVolume, volumeSteps, bypassSinkVolume, localFilesPath,
+                    stateSnapshotFile, stateSnapshotDebounceMs);
         }
     }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.spotify.connectstate.Player.ProvidedTrack;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.gianlu.librespot.common.ProtoUtils;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Caches {@link ProtoUtils#toProvidedTrack(ContextTrack, String)} conversions by track identity. {@link ContextTrack}s are immutable,
+ * so a modified track is a different instance and is converted again. Entries that haven't been used for two generations are dropped.
+ *
+ * @author devgianlu
+ */
+final class ProvidedTrackCache {
+    private final int generationSize;
+    private Map<ContextTrack, ProvidedTrack> current = new IdentityHashMap<>();
+    private Map<ContextTrack, ProvidedTrack> previous = new IdentityHashMap<>();
+    private String contextUri = null;
+
+    /**
+     * @param generationSize The number of entries after which a new generation is started
+     */
+    ProvidedTrackCache(int generationSize) {
+        this.generationSize = generationSize;
+    }
+
+    @NotNull
+    ProvidedTrack get(@NotNull ContextTrack track, @Nullable String contextUri) {
+        if (!Objects.equals(this.contextUri, contextUri)) {
+            clear();
+            this.contextUri = contextUri;
+        }
+
+        ProvidedTrack provided = current.get(track);
+        if (provided != null) return provided;
+
+        provided = previous.remove(track);
+        if (provided == null) provided = ProtoUtils.toProvidedTrack(track, contextUri);
+
+        if (current.size() >= generationSize) {
+            previous = current;
+            current = new IdentityHashMap<>();
+        }
+
+        current.put(track, provided);
+        return provided;
+    }
+
+    int size() {
+        return current.size() + previous.size();
+    }
+
+    void clear() {
+        current.clear();
+        previous.clear();
+    }
+}
@@ -19,53 +19,60 @@ package xyz.gianlu.librespot.player;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.Range;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.audio.MetadataWrapper;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.metadata.PlayableId;
 
-import java.io.IOException;
-
 /**
+ * Executes the configured commands when player events happen. Commands run on {@link ShellHookRunner}, so that a slow one
+ * doesn't delay the other listeners.
+ *
  * @author devgianlu
  */
 public final class ShellEvents implements Player.EventsListener, Session.ReconnectionListener {
-    private static final Logger LOGGER = LoggerFactory.getLogger(ShellEvents.class);
     private final Configuration conf;
-    private final Runtime runtime;
+    private final ShellHookRunner runner;
 
     public ShellEvents(@NotNull Configuration conf) {
-        this.runtime = Runtime.getRuntime();
         this.conf = conf;
+
+        Runtime runtime = Runtime.getRuntime();
+        this.runner = new ShellHookRunner((command, envp) -> {
+            if (conf.executeWithBash) return runtime.exec(new String[]{"/bin/bash", "-c", command}, envp);
+            else return runtime.exec(command, envp);
+        }, conf.queueSize, conf.timeoutSeconds);
+    }
+
+    private void exec(@NotNull String key, String command, String... envp) {
+        exec(key, false, command, envp);
     }
 
-    private void exec(String command, String... envp) {
+    private void exec(@NotNull String key, boolean coalesce, String command, String... envp) {
         if (!this.conf.enabled)
             return;
 
         if (command == null || command.trim().isEmpty())
             return;
 
-        try {
-            Process p;
-            if (conf.executeWithBash) p = runtime.exec(new String[]{"/bin/bash", "-c", command.trim()}, envp);
-            else p = runtime.exec(command.trim(), envp);
-            int exitCode = p.waitFor();
-            LOGGER.trace("Executed shell command: {} -> {}", command, exitCode);
-        } catch (IOException | InterruptedException ex) {
-            LOGGER.error("Failed executing command: {}", command, ex);
-        }
+        runner.submit(key, command.trim(), coalesce, envp);
+    }
+
+    /**
+     * @return The statistics of the hooks executed so far
+     */
+    @NotNull
+    public Stats stats() {
+        return runner.stats();
     }
 
     @Override
     public void onContextChanged(@NotNull Player player, @NotNull String newUri) {
-        exec(conf.onContextChanged, "CONTEXT_URI=" + newUri);
+        exec("onContextChanged", conf.onContextChanged, "CONTEXT_URI=" + newUri);
     }
 
     @Override
     public void onTrackChanged(@NotNull Player player, @NotNull PlayableId id, @Nullable MetadataWrapper metadata, boolean userInitiated) {
-        exec(conf.onTrackChanged, "TRACK_URI=" + id.toSpotifyUri(),
+        exec("onTrackChanged", conf.onTrackChanged, "TRACK_URI=" + id.toSpotifyUri(),
                 "NAME=" + (metadata == null ? "" : metadata.getName()),
                 "ARTIST=" + (metadata == null ? "" : metadata.getArtist()),
                 "ALBUM=" + (metadata == null ? "" : metadata.getAlbumName()),
@@ -75,27 +82,27 @@ public final class ShellEvents implements Player.EventsListener, Session.Reconne
 
     @Override
     public void onPlaybackEnded(@NotNull Player player) {
-        exec(conf.onPlaybackEnded);
+        exec("onPlaybackEnded", conf.onPlaybackEnded);
     }
 
     @Override
     public void onPlaybackPaused(@NotNull Player player, long trackTime) {
-        exec(conf.onPlaybackPaused, "POSITION=" + trackTime);
+        exec("onPlaybackPaused", conf.onPlaybackPaused, "POSITION=" + trackTime);
     }
 
     @Override
     public void onPlaybackResumed(@NotNull Player player, long trackTime) {
-        exec(conf.onPlaybackResumed, "POSITION=" + trackTime);
+        exec("onPlaybackResumed", conf.onPlaybackResumed, "POSITION=" + trackTime);
     }
 
     @Override
     public void onTrackSeeked(@NotNull Player player, long trackTime) {
-        exec(conf.onTrackSeeked, "POSITION=" + trackTime);
+        exec("onTrackSeeked", true, conf.onTrackSeeked, "POSITION=" + trackTime);
     }
 
     @Override
     public void onMetadataAvailable(@NotNull Player player, @NotNull MetadataWrapper metadata) {
-        exec(conf.onMetadataAvailable, "TRACK_URI=" + metadata.id.toSpotifyUri(),
+        exec("onMetadataAvailable", conf.onMetadataAvailable, "TRACK_URI=" + metadata.id.toSpotifyUri(),
                 "NAME=" + metadata.getName(), "ARTIST=" + metadata.getArtist(),
                 "ALBUM=" + metadata.getAlbumName(), "DURATION=" + metadata.duration());
     }
@@ -106,32 +113,62 @@ public final class ShellEvents implements Player.EventsListener, Session.Reconne
 
     @Override
     public void onInactiveSession(@NotNull Player player, boolean timeout) {
-        exec(conf.onInactiveSession);
+        exec("onInactiveSession", conf.onInactiveSession);
     }
 
     @Override
     public void onVolumeChanged(@NotNull Player player, @Range(from = 0, to = 1) float volume) {
-        exec(conf.onVolumeChanged, "VOLUME=" + Math.round(volume * 100f));
+        exec("onVolumeChanged", true, conf.onVolumeChanged, "VOLUME=" + Math.round(volume * 100f));
     }
 
     @Override
     public void onPanicState(@NotNull Player player) {
-        exec(conf.onPanicState);
+        exec("onPanicState", conf.onPanicState);
     }
 
     @Override
     public void onConnectionDropped() {
-        exec(conf.onConnectionDropped);
+        exec("onConnectionDropped", conf.onConnectionDropped);
     }
 
     @Override
     public void onConnectionEstablished() {
-        exec(conf.onConnectionEstablished);
+        exec("onConnectionEstablished", conf.onConnectionEstablished);
+    }
+
+    public static final class Stats {
+        public final int queueDepth;
+        public final long executed;
+        public final long failed;
+        public final long timedOut;
+        public final long dropped;
+        public final long coalesced;
+        public final long averageLatencyMs;
+        public final long maxLatencyMs;
+
+        Stats(int queueDepth, long executed, long failed, long timedOut, long dropped, long coalesced, long averageLatencyMs, long maxLatencyMs) {
+            this.queueDepth = queueDepth;
+            this.executed = executed;
+            this.failed = failed;
+            this.timedOut = timedOut;
+            this.dropped = dropped;
+            this.coalesced = coalesced;
+            this.averageLatencyMs = averageLatencyMs;
+            this.maxLatencyMs = maxLatencyMs;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{queueDepth=" + queueDepth + ", executed=" + executed + ", failed=" + failed + ", timedOut=" + timedOut +
+                    ", dropped=" + dropped + ", coalesced=" + coalesced + ", averageLatencyMs=" + averageLatencyMs + ", maxLatencyMs=" + maxLatencyMs + '}';
+        }
     }
 
     public static class Configuration {
         public final boolean enabled;
         public final boolean executeWithBash;
+        public final int queueSize;
+        public final int timeoutSeconds;
         public final String onContextChanged;
         public final String onTrackChanged;
         public final String onPlaybackEnded;
@@ -145,11 +182,13 @@ public final class ShellEvents implements Player.EventsListener, Session.Reconne
         public final String onConnectionDropped;
         public final String onConnectionEstablished;
 
-        public Configuration(boolean enabled, boolean executeWithBash, String onContextChanged, String onTrackChanged, String onPlaybackEnded, String onPlaybackPaused,
+        public Configuration(boolean enabled, boolean executeWithBash, int queueSize, int timeoutSeconds, String onContextChanged, String onTrackChanged, String onPlaybackEnded, String onPlaybackPaused,
                              String onPlaybackResumed, String onTrackSeeked, String onMetadataAvailable, String onVolumeChanged,
                              String onInactiveSession, String onPanicState, String onConnectionDropped, String onConnectionEstablished) {
             this.enabled = enabled;
             this.executeWithBash = executeWithBash;
+            this.queueSize = queueSize;
+            this.timeoutSeconds = timeoutSeconds;
             this.onContextChanged = onContextChanged;
             this.onTrackChanged = onTrackChanged;
             this.onPlaybackEnded = onPlaybackEnded;
@@ -167,6 +206,8 @@ public final class ShellEvents implements Player.EventsListener, Session.Reconne
         public static class Builder {
             private boolean enabled = false;
             private boolean executeWithBash = false;
+            private int queueSize = 32;
+            private int timeoutSeconds = 10;
             private String onContextChanged = "";
             private String onTrackChanged = "";
             private String onPlaybackEnded = "";
@@ -193,6 +234,24 @@ public final class ShellEvents implements Player.EventsListener, Session.Reconne
                 return this;
             }
 
+            /**
+             * @param queueSize The maximum number of commands waiting to be executed, more are dropped
+             */
+            public Builder setQueueSize(int queueSize) {
+                if (queueSize < 1) throw new IllegalArgumentException("Invalid queue size: " + queueSize);
+                this.queueSize = queueSize;
+                return this;
+            }
+
+            /**
+             * @param timeoutSeconds The maximum time a command can run before being killed, {@code 0} to wait indefinitely
+             */
+            public Builder setTimeoutSeconds(int timeoutSeconds) {
+                if (timeoutSeconds < 0) throw new IllegalArgumentException("Invalid timeout: " + timeoutSeconds);
+                this.timeoutSeconds = timeoutSeconds;
+                return this;
+            }
+
             public Builder setOnContextChanged(String command) {
                 this.onContextChanged = command;
                 return this;
@@ -255,7 +314,7 @@ public final class ShellEvents implements Player.EventsListener, Session.Reconne
 
             @NotNull
             public Configuration build() {
-                return new Configuration(enabled, executeWithBash, onContextChanged, onTrackChanged, onPlaybackEnded, onPlaybackPaused, onPlaybackResumed,
+                return new Configuration(enabled, executeWithBash, queueSize, timeoutSeconds, onContextChanged, onTrackChanged, onPlaybackEnded, onPlaybackPaused, onPlaybackResumed,
                         onTrackSeeked, onMetadataAvailable, onVolumeChanged, onInactiveSession, onPanicState, onConnectionDropped, onConnectionEstablished);
             }
         }
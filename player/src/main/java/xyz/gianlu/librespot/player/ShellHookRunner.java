@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.player;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.metrics.Counter;
+import xyz.gianlu.librespot.metrics.Gauge;
+import xyz.gianlu.librespot.metrics.Histogram;
+import xyz.gianlu.librespot.metrics.MetricsRegistry;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the shell hooks on a dedicated thread, one at a time and in order. The queue is bounded, hooks that don't fit are dropped.
+ * A coalescing hook replaces the one with the same key that is still waiting in the queue, if any.
+ *
+ * @author devgianlu
+ */
+final class ShellHookRunner implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShellHookRunner.class);
+    private static final String HOOKS = "librespot_shell_hooks_total";
+    private static final String HOOKS_HELP = "Shell hooks submitted, by result";
+    private static final Counter HOOKS_EXECUTED = MetricsRegistry.global().counter(HOOKS, HOOKS_HELP, "result", "executed");
+    private static final Counter HOOKS_FAILED = MetricsRegistry.global().counter(HOOKS, HOOKS_HELP, "result", "failed");
+    private static final Counter HOOKS_TIMED_OUT = MetricsRegistry.global().counter(HOOKS, HOOKS_HELP, "result", "timed_out");
+    private static final Counter HOOKS_DROPPED = MetricsRegistry.global().counter(HOOKS, HOOKS_HELP, "result", "dropped");
+    private static final Counter HOOKS_COALESCED = MetricsRegistry.global().counter(HOOKS, HOOKS_HELP, "result", "coalesced");
+    private static final Gauge HOOKS_QUEUED = MetricsRegistry.global().gauge("librespot_shell_hooks_queued", "Shell hooks waiting to be executed");
+    private static final Histogram HOOK_LATENCY = MetricsRegistry.global().histogram("librespot_shell_hook_seconds", "Time to execute a shell hook", Histogram.LATENCY_BUCKETS);
+    private final Launcher launcher;
+    private final int queueSize;
+    private final int timeoutSeconds;
+    private final Deque<Hook> queue = new ArrayDeque<>();
+    private final Thread thread;
+    private volatile boolean closed = false;
+    private long executed = 0;
+    private long failed = 0;
+    private long timedOut = 0;
+    private long dropped = 0;
+    private long coalesced = 0;
+    private long totalLatencyMs = 0;
+    private long maxLatencyMs = 0;
+
+    /**
+     * @param queueSize      The maximum number of hooks waiting to be executed
+     * @param timeoutSeconds The maximum time a hook can run before being killed, {@code 0} to wait indefinitely
+     */
+    ShellHookRunner(@NotNull Launcher launcher, int queueSize, int timeoutSeconds) {
+        this.launcher = launcher;
+        this.queueSize = queueSize;
+        this.timeoutSeconds = timeoutSeconds;
+
+        this.thread = new Thread(this::run, "shell-events");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Enqueues a hook, this never blocks.
+     *
+     * @param key      Identifies the event that triggered the hook
+     * @param command  The command to execute
+     * @param coalesce Whether this hook supersedes a pending one with the same key
+     * @param envp     The environment of the command
+     * @return Whether the hook has been enqueued or coalesced
+     */
+    synchronized boolean submit(@NotNull String key, @NotNull String command, boolean coalesce, @NotNull String... envp) {
+        if (closed) return false;
+
+        if (coalesce) {
+            for (Hook hook : queue) {
+                if (hook.coalesce && hook.key.equals(key)) {
+                    hook.command = command;
+                    hook.envp = envp;
+                    coalesced++;
+                    HOOKS_COALESCED.inc();
+                    LOGGER.trace("Coalesced shell hook: {}", key);
+                    return true;
+                }
+            }
+        }
+
+        if (queue.size() >= queueSize) {
+            dropped++;
+            HOOKS_DROPPED.inc();
+            LOGGER.warn("Shell hooks queue is full, dropping {}. {queueSize: {}}", key, queueSize);
+            return false;
+        }
+
+        queue.add(new Hook(key, command, coalesce, envp));
+        HOOKS_QUEUED.add(1);
+        notifyAll();
+        return true;
+    }
+
+    private void run() {
+        while (!closed) {
+            Hook hook;
+            synchronized (this) {
+                while (queue.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+
+                if (closed) return;
+                hook = queue.poll();
+                HOOKS_QUEUED.add(-1);
+            }
+
+            execute(hook);
+        }
+    }
+
+    private void execute(@NotNull Hook hook) {
+        long start = System.nanoTime();
+        boolean success = false, timeout = false;
+        try {
+            Process p = launcher.launch(hook.command, hook.envp);
+            if (timeoutSeconds == 0) {
+                int exitCode = p.waitFor();
+                LOGGER.trace("Executed shell command: {} -> {}", hook.command, exitCode);
+                success = true;
+            } else if (p.waitFor(timeoutSeconds, TimeUnit.SECONDS)) {
+                LOGGER.trace("Executed shell command: {} -> {}", hook.command, p.exitValue());
+                success = true;
+            } else {
+                p.destroyForcibly();
+                timeout = true;
+                LOGGER.warn("Shell command timed out after {}s: {}", timeoutSeconds, hook.command);
+            }
+        } catch (IOException ex) {
+            LOGGER.error("Failed executing command: {}", hook.command, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        synchronized (this) {
+            if (success) executed++;
+            else if (timeout) timedOut++;
+            else failed++;
+
+            totalLatencyMs += latency;
+            if (latency > maxLatencyMs) maxLatencyMs = latency;
+        }
+
+        if (success) HOOKS_EXECUTED.inc();
+        else if (timeout) HOOKS_TIMED_OUT.inc();
+        else HOOKS_FAILED.inc();
+        HOOK_LATENCY.observeSince(start);
+    }
+
+    @NotNull
+    synchronized ShellEvents.Stats stats() {
+        long finished = executed + failed + timedOut;
+        return new ShellEvents.Stats(queue.size(), executed, failed, timedOut, dropped, coalesced,
+                finished == 0 ? 0 : totalLatencyMs / finished, maxLatencyMs);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            HOOKS_QUEUED.add(-queue.size());
+            queue.clear();
+            notifyAll();
+        }
+
+        thread.interrupt();
+    }
+
+    interface Launcher {
+        @NotNull
+        Process launch(@NotNull String command, @Nullable String[] envp) throws IOException;
+    }
+
+    private static class Hook {
+        final String key;
+        final boolean coalesce;
+        String command;
+        String[] envp;
+
+        Hook(@NotNull String key, @NotNull String command, boolean coalesce, @NotNull String[] envp) {
+            this.key = key;
+            this.command = command;
+            this.coalesce = coalesce;
+            this.envp = envp;
+        }
+    }
+}
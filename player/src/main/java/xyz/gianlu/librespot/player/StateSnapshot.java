@@ -0,0 +1,274 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.google.protobuf.MessageLite;
+import com.google.protobuf.Parser;
+import com.spotify.connectstate.Player.ContextPlayerOptions;
+import com.spotify.connectstate.Player.PlayOrigin;
+import com.spotify.context.ContextPageOuterClass.ContextPage;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A compact copy of the playback state, enough to resume the same context, track and position without resolving it again.
+ * The snapshot belongs to the user and device that took it and must not be restored by anyone else.
+ *
+ * @author devgianlu
+ */
+final class StateSnapshot {
+    private static final int VERSION = 3;
+    final String username;
+    final String deviceId;
+    final String contextUri;
+    final String contextUrl;
+    final Map<String, String> contextMetadata;
+    final PlayOrigin playOrigin;
+    final ContextPlayerOptions options;
+    final List<ContextPage> pendingPages;
+    final String nextPageUrl;
+    final List<ContextTrack> tracks;
+    final int index;
+    final boolean cannotLoadMore;
+    final int contextTrackCount;
+    final List<ContextTrack> queue;
+    final boolean isPlayingQueue;
+    final Shuffle shuffle;
+    final int position;
+    final boolean paused;
+
+    StateSnapshot(@NotNull String username, @NotNull String deviceId, @NotNull String contextUri, @Nullable String contextUrl,
+                  @NotNull Map<String, String> contextMetadata, @NotNull PlayOrigin playOrigin, @NotNull ContextPlayerOptions options,
+                  @NotNull List<ContextPage> pendingPages, @Nullable String nextPageUrl, @NotNull List<ContextTrack> tracks, int index,
+                  boolean cannotLoadMore, int contextTrackCount, @NotNull List<ContextTrack> queue, boolean isPlayingQueue,
+                  @Nullable Shuffle shuffle, int position, boolean paused) {
+        this.username = username;
+        this.deviceId = deviceId;
+        this.contextUri = contextUri;
+        this.contextUrl = contextUrl;
+        this.contextMetadata = contextMetadata;
+        this.playOrigin = playOrigin;
+        this.options = options;
+        this.pendingPages = pendingPages;
+        this.nextPageUrl = nextPageUrl;
+        this.tracks = tracks;
+        this.index = index;
+        this.cannotLoadMore = cannotLoadMore;
+        this.contextTrackCount = contextTrackCount;
+        this.queue = queue;
+        this.isPlayingQueue = isPlayingQueue;
+        this.shuffle = shuffle;
+        this.position = position;
+        this.paused = paused;
+    }
+
+    /**
+     * @return Whether this snapshot has been taken by the given user on the given device
+     */
+    boolean isFor(@NotNull String username, @NotNull String deviceId) {
+        return this.username.equals(username) && this.deviceId.equals(deviceId);
+    }
+
+    @Nullable
+    private static String readString(@NotNull DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) return null;
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeString(@NotNull DataOutputStream out, @Nullable String str) throws IOException {
+        if (str == null) {
+            out.writeInt(-1);
+            return;
+        }
+
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @NotNull
+    private static <M extends MessageLite> M readMessage(@NotNull DataInputStream in, @NotNull Parser<M> parser) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return parser.parseFrom(bytes);
+    }
+
+    private static void writeMessage(@NotNull DataOutputStream out, @NotNull MessageLite message) throws IOException {
+        out.writeInt(message.getSerializedSize());
+        message.writeTo(out);
+    }
+
+    @NotNull
+    private static <M extends MessageLite> List<M> readMessages(@NotNull DataInputStream in, @NotNull Parser<M> parser) throws IOException {
+        int count = in.readInt();
+        List<M> list = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) list.add(readMessage(in, parser));
+        return list;
+    }
+
+    private static void writeMessages(@NotNull DataOutputStream out, @NotNull List<? extends MessageLite> messages) throws IOException {
+        out.writeInt(messages.size());
+        for (MessageLite message : messages) writeMessage(out, message);
+    }
+
+    @NotNull
+    private static int[] readInts(@NotNull DataInputStream in) throws IOException {
+        int[] array = new int[in.readInt()];
+        for (int i = 0; i < array.length; i++) array[i] = in.readInt();
+        return array;
+    }
+
+    private static void writeInts(@NotNull DataOutputStream out, @NotNull int[] array) throws IOException {
+        out.writeInt(array.length);
+        for (int val : array) out.writeInt(val);
+    }
+
+    /**
+     * @return The snapshot or {@code null} if the stream was written by a different version
+     */
+    @Nullable
+    static StateSnapshot read(@NotNull InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(stream)));
+        if (in.readInt() != VERSION) return null;
+
+        String username = readString(in);
+        String deviceId = readString(in);
+        if (username == null || deviceId == null) throw new IOException("Missing owner");
+
+        String contextUri = readString(in);
+        if (contextUri == null) throw new IOException("Missing context URI");
+
+        String contextUrl = readString(in);
+        int metadataCount = in.readInt();
+        Map<String, String> contextMetadata = new HashMap<>(metadataCount);
+        for (int i = 0; i < metadataCount; i++) contextMetadata.put(readString(in), readString(in));
+
+        PlayOrigin playOrigin = readMessage(in, PlayOrigin.parser());
+        ContextPlayerOptions options = readMessage(in, ContextPlayerOptions.parser());
+        List<ContextPage> pendingPages = readMessages(in, ContextPage.parser());
+        String nextPageUrl = readString(in);
+        List<ContextTrack> tracks = readMessages(in, ContextTrack.parser());
+        int index = in.readInt();
+        boolean cannotLoadMore = in.readBoolean();
+        int contextTrackCount = in.readInt();
+        List<ContextTrack> queue = readMessages(in, ContextTrack.parser());
+        boolean isPlayingQueue = in.readBoolean();
+
+        Shuffle shuffle = null;
+        if (in.readBoolean()) {
+            boolean lazy = in.readBoolean();
+            long seed = in.readLong();
+            int size = in.readInt();
+            int keep = in.readInt();
+            if (lazy) {
+                shuffle = new Shuffle(true, seed, size, keep, in.readInt(), readInts(in), readInts(in), in.readBoolean(), readMessages(in, ContextTrack.parser()));
+            } else {
+                shuffle = new Shuffle(false, seed, size, keep, 0, new int[0], new int[0], false, Collections.emptyList());
+            }
+        }
+
+        int position = in.readInt();
+        boolean paused = in.readBoolean();
+        return new StateSnapshot(username, deviceId, contextUri, contextUrl, contextMetadata, playOrigin, options, pendingPages, nextPageUrl,
+                tracks, index, cannotLoadMore, contextTrackCount, queue, isPlayingQueue, shuffle, position, paused);
+    }
+
+    void write(@NotNull OutputStream stream) throws IOException {
+        GZIPOutputStream gzip = new GZIPOutputStream(stream);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(gzip));
+        out.writeInt(VERSION);
+
+        writeString(out, username);
+        writeString(out, deviceId);
+        writeString(out, contextUri);
+        writeString(out, contextUrl);
+        out.writeInt(contextMetadata.size());
+        for (Map.Entry<String, String> entry : contextMetadata.entrySet()) {
+            writeString(out, entry.getKey());
+            writeString(out, entry.getValue());
+        }
+
+        writeMessage(out, playOrigin);
+        writeMessage(out, options);
+        writeMessages(out, pendingPages);
+        writeString(out, nextPageUrl);
+        writeMessages(out, tracks);
+        out.writeInt(index);
+        out.writeBoolean(cannotLoadMore);
+        out.writeInt(contextTrackCount);
+        writeMessages(out, queue);
+        out.writeBoolean(isPlayingQueue);
+
+        out.writeBoolean(shuffle != null);
+        if (shuffle != null) {
+            out.writeBoolean(shuffle.lazy);
+            out.writeLong(shuffle.seed);
+            out.writeInt(shuffle.size);
+            out.writeInt(shuffle.keep);
+            if (shuffle.lazy) {
+                out.writeInt(shuffle.position);
+                writeInts(out, shuffle.originals);
+                writeInts(out, shuffle.pinned);
+                out.writeBoolean(shuffle.exhausted);
+                writeMessages(out, shuffle.loaded);
+            }
+        }
+
+        out.writeInt(position);
+        out.writeBoolean(paused);
+        out.flush();
+        gzip.finish();
+    }
+
+    /**
+     * The state of the shuffle: the Fisher-Yates seed for a fully loaded context or the lazy permutation and the tracks it is drawn from.
+     */
+    static final class Shuffle {
+        final boolean lazy;
+        final long seed;
+        final int size;
+        final int keep;
+        final int position;
+        final int[] originals;
+        final int[] pinned;
+        final boolean exhausted;
+        final List<ContextTrack> loaded;
+
+        Shuffle(boolean lazy, long seed, int size, int keep, int position, @NotNull int[] originals, @NotNull int[] pinned, boolean exhausted, @NotNull List<ContextTrack> loaded) {
+            this.lazy = lazy;
+            this.seed = seed;
+            this.size = size;
+            this.keep = keep;
+            this.position = position;
+            this.originals = originals;
+            this.pinned = pinned;
+            this.exhausted = exhausted;
+            this.loaded = loaded;
+        }
+    }
+}
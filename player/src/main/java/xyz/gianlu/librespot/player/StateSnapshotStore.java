@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Persists {@link StateSnapshot}s to disk. Changes are debounced, so that a burst of updates results in a single write.
+ *
+ * @author devgianlu
+ */
+final class StateSnapshotStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(StateSnapshotStore.class);
+    private final File file;
+    private final int debounceMs;
+    private final ScheduledExecutorService scheduler;
+    private final Supplier<StateSnapshot> supplier;
+    private final Object writeLock = new Object();
+    private ScheduledFuture<?> pending = null;
+
+    /**
+     * @param supplier Called on {@param scheduler} to take the snapshot, may return {@code null} if there's nothing to save
+     */
+    StateSnapshotStore(@NotNull File file, int debounceMs, @NotNull ScheduledExecutorService scheduler, @NotNull Supplier<StateSnapshot> supplier) {
+        this.file = file;
+        this.debounceMs = debounceMs;
+        this.scheduler = scheduler;
+        this.supplier = supplier;
+    }
+
+    /**
+     * @return The snapshot stored in {@param file} or {@code null} if there isn't a valid one
+     */
+    @Nullable
+    static StateSnapshot read(@NotNull File file) {
+        if (!file.exists()) return null;
+
+        try (InputStream in = new FileInputStream(file)) {
+            StateSnapshot snapshot = StateSnapshot.read(in);
+            if (snapshot == null) LOGGER.info("Ignoring state snapshot from a different version: {}", file);
+            return snapshot;
+        } catch (IOException | RuntimeException ex) {
+            LOGGER.warn("Failed reading state snapshot: {}", file, ex);
+            return null;
+        }
+    }
+
+    /**
+     * Schedules a write, unless one is already pending.
+     */
+    synchronized void changed() {
+        if (pending != null) return;
+
+        try {
+            pending = scheduler.schedule(() -> {
+                synchronized (this) {
+                    pending = null;
+                }
+
+                write();
+            }, debounceMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException ignored) {
+        }
+    }
+
+    /**
+     * Writes the snapshot immediately, cancelling the pending write.
+     */
+    void flush() {
+        synchronized (this) {
+            if (pending != null) pending.cancel(false);
+            pending = null;
+        }
+
+        write();
+    }
+
+    /**
+     * Deletes the stored snapshot, cancelling the pending write.
+     */
+    void clear() {
+        synchronized (this) {
+            if (pending != null) pending.cancel(false);
+            pending = null;
+        }
+
+        synchronized (writeLock) {
+            if (file.exists() && !file.delete())
+                LOGGER.warn("Failed deleting state snapshot: {}", file);
+        }
+    }
+
+    private void write() {
+        synchronized (writeLock) {
+            writeSnapshot();
+        }
+    }
+
+    private void writeSnapshot() {
+        StateSnapshot snapshot;
+        try {
+            snapshot = supplier.get();
+        } catch (RuntimeException ex) {
+            LOGGER.warn("Failed taking state snapshot.", ex);
+            return;
+        }
+
+        if (snapshot == null) return;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                snapshot.write(out);
+            }
+
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            LOGGER.trace("Saved state snapshot. {context: {}, index: {}, position: {}}", snapshot.contextUri, snapshot.index, snapshot.position);
+        } catch (IOException ex) {
+            LOGGER.warn("Failed writing state snapshot: {}", file, ex);
+        }
+    }
+}
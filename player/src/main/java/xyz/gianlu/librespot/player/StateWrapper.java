@@ -42,11 +42,13 @@ import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.audio.MetadataWrapper;
 import xyz.gianlu.librespot.common.FisherYatesShuffle;
 import xyz.gianlu.librespot.common.ProtoUtils;
+import xyz.gianlu.librespot.common.ShufflePermutation;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.core.TimeProvider;
 import xyz.gianlu.librespot.dealer.DealerClient;
 import xyz.gianlu.librespot.mercury.MercuryClient;
+import xyz.gianlu.librespot.mercury.MercuryRequests;
 import xyz.gianlu.librespot.metadata.*;
 import xyz.gianlu.librespot.player.contexts.AbsSpotifyContext;
 import xyz.gianlu.librespot.player.state.DeviceStateHandler;
@@ -57,6 +59,7 @@ import xyz.gianlu.librespot.player.state.RestrictionsManager.Action;
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
@@ -68,6 +71,7 @@ import java.util.function.Function;
  */
 public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.MessageListener, Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(StateWrapper.class);
+    private static final int SNAPSHOT_REFRESH_SECONDS = 15;
 
     static {
         try {
@@ -82,21 +86,32 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     }
 
     private final PlayerState.Builder state;
+    private volatile PlayerState builtState = null;
     private final Session session;
     private final Player player;
     private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService pagesExecutor;
     private final DeviceStateHandler device;
     private AbsSpotifyContext context;
     private PagesLoader pages;
-    private TracksKeeper tracksKeeper;
+    private volatile TracksKeeper tracksKeeper;
+    private final StateSnapshotStore snapshots;
     private Future<?> volumeChangedFuture = null;
 
     StateWrapper(@NotNull Session session, @NotNull Player player, @NotNull PlayerConfiguration conf) {
         this.session = session;
         this.player = player;
+        this.pagesExecutor = session.executors().newExecutor("pages-loader", PagesLoader.FETCH_WINDOW);
         this.device = new DeviceStateHandler(session, conf);
         this.state = initState(PlayerState.newBuilder());
 
+        if (conf.stateSnapshotFile != null) {
+            this.snapshots = new StateSnapshotStore(conf.stateSnapshotFile, conf.stateSnapshotDebounceMs, scheduler, this::snapshot);
+            scheduler.scheduleAtFixedRate(this::refreshSnapshot, SNAPSHOT_REFRESH_SECONDS, SNAPSHOT_REFRESH_SECONDS, TimeUnit.SECONDS);
+        } else {
+            this.snapshots = null;
+        }
+
         device.addListener(this);
         session.dealer().addMessageListener(this, "spotify:user:attributes:update", "hm://playlist/", "hm://collection/collection/" + session.username() + "/json");
     }
@@ -166,7 +181,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         else if (buffering && !playing) throw new IllegalStateException();
 
         boolean wasPaused = isPaused();
-        state.setIsPlaying(playing).setIsPaused(paused).setIsBuffering(buffering);
+        editState().setIsPlaying(playing).setIsPaused(paused).setIsBuffering(buffering);
 
         if (wasPaused && !paused) // Assume the position was set immediately before pausing
             setPosition(state.getPositionAsOfTimestamp());
@@ -188,7 +203,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         if (context == null || tracksKeeper == null) return;
 
         boolean old = isShufflingContext();
-        state.getOptionsBuilder().setShufflingContext(value && context.restrictions.can(Action.SHUFFLE));
+        editState().getOptionsBuilder().setShufflingContext(value && context.restrictions.can(Action.SHUFFLE));
 
         if (old != isShufflingContext()) tracksKeeper.toggleShuffle(isShufflingContext());
     }
@@ -200,7 +215,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     void setRepeatingContext(boolean value) {
         if (context == null) return;
 
-        state.getOptionsBuilder().setRepeatingContext(value && context.restrictions.can(Action.REPEAT_CONTEXT));
+        editState().getOptionsBuilder().setRepeatingContext(value && context.restrictions.can(Action.REPEAT_CONTEXT));
     }
 
     private boolean isRepeatingTrack() {
@@ -210,7 +225,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     void setRepeatingTrack(boolean value) {
         if (context == null) return;
 
-        state.getOptionsBuilder().setRepeatingTrack(value && context.restrictions.can(Action.REPEAT_TRACK));
+        editState().getOptionsBuilder().setRepeatingTrack(value && context.restrictions.can(Action.REPEAT_TRACK));
     }
 
     @NotNull
@@ -262,19 +277,20 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     @NotNull
     private String setContext(@NotNull String uri) {
         this.context = AbsSpotifyContext.from(uri);
-        this.state.setContextUri(uri);
+        editState().setContextUri(uri);
 
         if (!context.isFinite()) {
             setRepeatingContext(false);
             setShufflingContext(false);
         }
 
-        this.state.clearContextUrl();
-        this.state.clearRestrictions();
-        this.state.clearContextRestrictions();
-        this.state.clearContextMetadata();
+        editState().clearContextUrl();
+        editState().clearRestrictions();
+        editState().clearContextRestrictions();
+        editState().clearContextMetadata();
 
-        this.pages = PagesLoader.from(session, uri);
+        if (pages != null) pages.cancel();
+        this.pages = PagesLoader.from(session, pagesExecutor, uri);
         this.tracksKeeper = new TracksKeeper();
 
         this.device.setIsActive(true);
@@ -286,20 +302,21 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     private String setContext(@NotNull Context ctx) {
         String uri = ctx.getUri();
         this.context = AbsSpotifyContext.from(uri);
-        this.state.setContextUri(uri);
+        editState().setContextUri(uri);
 
         if (!context.isFinite()) {
             setRepeatingContext(false);
             setShufflingContext(false);
         }
 
-        if (ctx.hasUrl()) this.state.setContextUrl(ctx.getUrl());
-        else this.state.clearContextUrl();
+        if (ctx.hasUrl()) editState().setContextUrl(ctx.getUrl());
+        else editState().clearContextUrl();
 
-        state.clearContextMetadata();
-        ProtoUtils.copyOverMetadata(ctx, state);
+        editState().clearContextMetadata();
+        ProtoUtils.copyOverMetadata(ctx, editState());
 
-        this.pages = PagesLoader.from(session, ctx);
+        if (pages != null) pages.cancel();
+        this.pages = PagesLoader.from(session, pagesExecutor, ctx);
         this.tracksKeeper = new TracksKeeper();
 
         this.device.setIsActive(true);
@@ -320,13 +337,47 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         else
             context.restrictions.allow(Action.SKIP_NEXT);
 
-        state.setRestrictions(context.restrictions.toProto());
-        state.setContextRestrictions(context.restrictions.toProto());
+        Restrictions restrictions = context.restrictions.toProto();
+        if (!restrictions.equals(state.getRestrictions())) editState().setRestrictions(restrictions);
+        if (!restrictions.equals(state.getContextRestrictions())) editState().setContextRestrictions(restrictions);
+    }
+
+    /**
+     * Returns the state builder for modification, the next {@link #buildState()} will build it again.
+     */
+    @NotNull
+    private PlayerState.Builder editState() {
+        builtState = null;
+        return state;
+    }
+
+    /**
+     * @return The built state, reused if it hasn't been modified since the last call. The {@link TracksKeeper} edits the
+     * state holding its own lock, so that is held too, otherwise a state built halfway through its edits would be cached.
+     */
+    @NotNull
+    private synchronized PlayerState buildState() {
+        TracksKeeper keeper = tracksKeeper;
+        if (keeper == null) return buildStateLocked();
+
+        synchronized (keeper) {
+            return buildStateLocked();
+        }
+    }
+
+    @NotNull
+    private PlayerState buildStateLocked() {
+        PlayerState built = builtState;
+        if (built == null) builtState = built = state.build();
+        return built;
     }
 
     synchronized void updated() {
         updateRestrictions();
-        device.updateState(Connect.PutStateReason.PLAYER_STATE_CHANGED, player.time(), state.build());
+        if (snapshots != null) snapshots.changed();
+
+        if (device.isReady())
+            device.updateState(Connect.PutStateReason.PLAYER_STATE_CHANGED, player.time(), buildState());
     }
 
     void addListener(@NotNull DeviceStateHandler.Listener listener) {
@@ -339,8 +390,8 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
     @Override
     public synchronized void ready() {
-        state.setIsSystemInitiated(true);
-        device.updateState(Connect.PutStateReason.NEW_DEVICE, player.time(), state.build());
+        editState().setIsSystemInitiated(true);
+        device.updateState(Connect.PutStateReason.NEW_DEVICE, player.time(), buildState());
         LOGGER.info("Notified new device (us)!");
     }
 
@@ -352,16 +403,23 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     @Override
     public synchronized void volumeChanged() {
         if (volumeChangedFuture != null) volumeChangedFuture.cancel(false);
-        volumeChangedFuture = scheduler.schedule(() -> device.updateState(Connect.PutStateReason.VOLUME_CHANGED, player.time(), state.build()), 500, TimeUnit.MILLISECONDS);
+        volumeChangedFuture = scheduler.schedule(() -> {
+            if (device.isReady())
+                device.updateState(Connect.PutStateReason.VOLUME_CHANGED, player.time(), buildState());
+        }, 500, TimeUnit.MILLISECONDS);
     }
 
     @Override
     public synchronized void notActive() {
-        state.clear();
+        editState().clear();
         initState(state);
 
+        if (snapshots != null) snapshots.clear();
+
         device.setIsActive(false);
-        device.updateState(Connect.PutStateReason.BECAME_INACTIVE, player.time(), state.build());
+        if (!device.isReady()) return;
+
+        device.updateState(Connect.PutStateReason.BECAME_INACTIVE, player.time(), buildState());
         LOGGER.info("Notified inactivity!");
     }
 
@@ -387,7 +445,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
         if (track.hasDuration()) tracksKeeper.updateTrackDuration(track.getDuration());
 
-        ProvidedTrack.Builder builder = state.getTrackBuilder();
+        ProvidedTrack.Builder builder = editState().getTrackBuilder();
         if (track.hasPopularity()) builder.putMetadata("popularity", String.valueOf(track.getPopularity()));
         if (track.hasExplicit()) builder.putMetadata("is_explicit", String.valueOf(track.getExplicit()));
         if (track.hasHasLyrics()) builder.putMetadata("has_lyrics", String.valueOf(track.getHasLyrics()));
@@ -436,7 +494,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         }
 
         ProtoUtils.putFilesAsMetadata(builder, track.getFileList());
-        state.setTrack(builder.build());
+        editState().setTrack(builder.build());
     }
 
     private synchronized void enrichWithMetadata(@NotNull Metadata.Episode episode) {
@@ -448,7 +506,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
         if (episode.hasDuration()) tracksKeeper.updateTrackDuration(episode.getDuration());
 
-        ProvidedTrack.Builder builder = state.getTrackBuilder();
+        ProvidedTrack.Builder builder = editState().getTrackBuilder();
         if (episode.hasExplicit()) builder.putMetadata("is_explicit", String.valueOf(episode.getExplicit()));
         if (episode.hasName()) builder.putMetadata("title", episode.getName());
 
@@ -466,7 +524,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         }
 
         ProtoUtils.putFilesAsMetadata(builder, episode.getAudioList());
-        state.setTrack(builder.build());
+        editState().setTrack(builder.build());
     }
 
     synchronized int getPosition() {
@@ -475,15 +533,15 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     }
 
     synchronized void setPosition(long pos) {
-        state.setTimestamp(TimeProvider.currentTimeMillis());
-        state.setPositionAsOfTimestamp(pos);
-        state.clearPosition();
+        editState().setTimestamp(TimeProvider.currentTimeMillis());
+        editState().setPositionAsOfTimestamp(pos);
+        editState().clearPosition();
     }
 
     @NotNull
     String loadContextWithTracks(@NotNull String uri, @NotNull List<ContextTrack> tracks) throws MercuryClient.MercuryException, IOException, AbsSpotifyContext.UnsupportedContextException {
-        state.setPlayOrigin(PlayOrigin.newBuilder().build());
-        state.setOptions(ContextPlayerOptions.newBuilder().build());
+        editState().setPlayOrigin(PlayOrigin.newBuilder().build());
+        editState().setOptions(ContextPlayerOptions.newBuilder().build());
 
         String sessionId = setContext(uri);
         pages.putFirstPage(tracks, uri);
@@ -496,8 +554,8 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
     @NotNull
     String loadContext(@NotNull String uri) throws MercuryClient.MercuryException, IOException, AbsSpotifyContext.UnsupportedContextException {
-        state.setPlayOrigin(PlayOrigin.newBuilder().build());
-        state.setOptions(ContextPlayerOptions.newBuilder().build());
+        editState().setPlayOrigin(PlayOrigin.newBuilder().build());
+        editState().setOptions(ContextPlayerOptions.newBuilder().build());
 
         String sessionId = setContext(uri);
         tracksKeeper.initializeStart();
@@ -511,8 +569,8 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     String transfer(@NotNull TransferStateOuterClass.TransferState cmd) throws AbsSpotifyContext.UnsupportedContextException, IOException, MercuryClient.MercuryException {
         SessionOuterClass.Session ps = cmd.getCurrentSession();
 
-        state.setPlayOrigin(ProtoUtils.convertPlayOrigin(ps.getPlayOrigin()));
-        state.setOptions(ProtoUtils.convertPlayerOptions(cmd.getOptions()));
+        editState().setPlayOrigin(ProtoUtils.convertPlayOrigin(ps.getPlayOrigin()));
+        editState().setOptions(ProtoUtils.convertPlayerOptions(cmd.getOptions()));
         String sessionId = setContext(ps.getContext());
 
         PlaybackOuterClass.Playback pb = cmd.getPlayback();
@@ -531,9 +589,9 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             tracksKeeper.initializeStart();
         }
 
-        state.setPositionAsOfTimestamp(pb.getPositionAsOfTimestamp());
-        if (pb.getIsPaused()) state.setTimestamp(TimeProvider.currentTimeMillis());
-        else state.setTimestamp(pb.getTimestamp());
+        editState().setPositionAsOfTimestamp(pb.getPositionAsOfTimestamp());
+        if (pb.getIsPaused()) editState().setTimestamp(TimeProvider.currentTimeMillis());
+        else editState().setTimestamp(pb.getTimestamp());
 
         loadTransforming();
         return sessionId;
@@ -541,8 +599,8 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
     @NotNull
     String load(@NotNull JsonObject obj) throws AbsSpotifyContext.UnsupportedContextException, IOException, MercuryClient.MercuryException {
-        state.setPlayOrigin(ProtoUtils.jsonToPlayOrigin(PlayCommandHelper.getPlayOrigin(obj)));
-        state.setOptions(ProtoUtils.jsonToPlayerOptions(PlayCommandHelper.getPlayerOptionsOverride(obj), state.getOptions()));
+        editState().setPlayOrigin(ProtoUtils.jsonToPlayOrigin(PlayCommandHelper.getPlayOrigin(obj)));
+        editState().setOptions(ProtoUtils.jsonToPlayerOptions(PlayCommandHelper.getPlayerOptionsOverride(obj), state.getOptions()));
         String sessionId = setContext(ProtoUtils.jsonToContext(PlayCommandHelper.getContext(obj)));
 
         String trackUid = PlayCommandHelper.getSkipToUid(obj);
@@ -575,6 +633,78 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         return sessionId;
     }
 
+    /**
+     * Restores the state from a snapshot taken with {@link #snapshot()}. The context is resolved again in the background
+     * to pick up changes that happened in the meantime, the pages that had already been loaded are not fetched again.
+     *
+     * @throws IllegalStateException If the snapshot is not consistent
+     */
+    @NotNull
+    synchronized String restore(@NotNull StateSnapshot snapshot) {
+        editState().setPlayOrigin(snapshot.playOrigin);
+        String sessionId = setContext(snapshot.contextUri);
+        editState().setOptions(snapshot.options);
+
+        if (snapshot.contextUrl != null) editState().setContextUrl(snapshot.contextUrl);
+        editState().putAllContextMetadata(snapshot.contextMetadata);
+
+        pages.cancel();
+        pages = PagesLoader.restore(session, pagesExecutor, snapshot.pendingPages, snapshot.nextPageUrl);
+        tracksKeeper.restore(snapshot);
+        setPosition(snapshot.position);
+
+        String uri = snapshot.contextUri;
+        pagesExecutor.execute(() -> {
+            try {
+                List<ContextPage> updatedPages = session.mercury().sendSync(MercuryRequests.resolveContext(uri)).pages();
+                synchronized (this) {
+                    if (context == null || !context.uri().equals(uri)) return;
+                    tracksKeeper.updateContext(updatedPages);
+                }
+
+                updated();
+                LOGGER.debug("Reconciled restored context. {uri: {}}", uri);
+            } catch (IOException | MercuryClient.MercuryException | RuntimeException ex) {
+                LOGGER.warn("Failed reconciling restored context. {uri: {}}", uri, ex);
+            }
+        });
+
+        return sessionId;
+    }
+
+    /**
+     * Saves the position while playing, which otherwise only changes with the state.
+     */
+    private void refreshSnapshot() {
+        boolean playing;
+        synchronized (this) {
+            playing = state.getIsPlaying() && !state.getIsPaused();
+        }
+
+        if (playing) snapshots.changed();
+    }
+
+    /**
+     * Writes the snapshot now, must be called before the playback stops so that the position is accurate.
+     */
+    void flushSnapshot() {
+        if (snapshots != null) snapshots.flush();
+    }
+
+    /**
+     * @return A snapshot of the current state or {@code null} if nothing is loaded
+     */
+    @Nullable
+    synchronized StateSnapshot snapshot() {
+        if (context == null || tracksKeeper == null || pages == null || !device.isActive())
+            return null;
+
+        int position = player.time();
+        if (position == -1) position = getPosition();
+
+        return tracksKeeper.snapshot(position);
+    }
+
     synchronized void updateContext(@NotNull JsonObject obj) {
         String uri = obj.get("uri").getAsString();
         if (!context.uri().equals(uri)) {
@@ -582,7 +712,10 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             return;
         }
 
-        ProtoUtils.copyOverMetadata(obj.getAsJsonObject("metadata"), state);
+        JsonObject metadata = obj.getAsJsonObject("metadata");
+        ProtoUtils.copyOverMetadata(metadata, editState());
+        if (metadata.has("track_count")) tracksKeeper.setContextTrackCount(metadata.get("track_count").getAsInt());
+
         tracksKeeper.updateContext(ProtoUtils.jsonToContextPages(obj.getAsJsonArray("pages")));
     }
 
@@ -656,7 +789,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         if (current != null && id.matches(current))
             return Optional.of(current.getMetadataMap());
 
-        int index = PlayableId.indexOfTrack(tracksKeeper.tracks, id);
+        int index = tracksKeeper.tracks.indexOfPlayable(id);
         if (index == -1) {
             index = PlayableId.indexOfTrack(tracksKeeper.queue, id);
             if (index == -1) return Optional.empty();
@@ -818,8 +951,8 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     }
 
     public void setContextMetadata(@NotNull String key, @Nullable String value) {
-        if (value == null) state.removeContextMetadata(key);
-        else state.putContextMetadata(key, value);
+        if (value == null) editState().removeContextMetadata(key);
+        else editState().putContextMetadata(key, value);
     }
 
     @NotNull
@@ -858,7 +991,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     @NotNull
     private String renewSessionId() {
         String sessionId = generateSessionId(session.random());
-        state.setSessionId(sessionId);
+        editState().setSessionId(sessionId);
         return sessionId;
     }
 
@@ -868,7 +1001,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     }
 
     public void setPlaybackId(@NotNull String playbackId) {
-        state.setPlaybackId(playbackId);
+        editState().setPlaybackId(playbackId);
     }
 
     @NotNull
@@ -879,9 +1012,13 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
     @Override
     public void close() {
         session.dealer().removeMessageListener(this);
+        scheduler.shutdownNow();
 
         device.removeListener(this);
         device.close();
+
+        if (pages != null) pages.cancel();
+        pagesExecutor.shutdownNow();
     }
 
     public enum PreviousPlayable {
@@ -911,37 +1048,73 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         }
     }
 
+    /**
+     * @param contextTrackCount The number of tracks according to the server or {@code -1} if unknown
+     * @param loaded            The number of tracks loaded so far
+     * @param complete          Whether all the tracks have been loaded
+     * @param lazyShuffleSize   The size of the lazy shuffle or {@code -1} if there is none
+     * @return The number of tracks in the context, without the queue
+     */
+    static int trackCount(int contextTrackCount, int loaded, boolean complete, int lazyShuffleSize) {
+        if (lazyShuffleSize != -1) return lazyShuffleSize;
+        else if (complete || contextTrackCount == -1) return loaded;
+        else return Math.max(contextTrackCount, loaded);
+    }
+
+    /**
+     * @param index    The index of the track in the original order
+     * @param loaded   The number of tracks loaded so far
+     * @param pageSize The size of the last page loaded
+     * @return An estimate of how many pages must still be loaded to reach {@param index}
+     */
+    static int pagesNeeded(int index, int loaded, int pageSize) {
+        if (index < loaded) return 0;
+        else return (index - loaded) / Math.max(1, pageSize) + 1;
+    }
+
     private class TracksKeeper {
         private static final int MAX_PREV_TRACKS = 16;
         private static final int MAX_NEXT_TRACKS = 48;
+        private static final int PREFETCH_PAGE_THRESHOLD = 10;
+        private static final int INFINITE_SHUFFLE_BLOCK = 100;
         private final LinkedList<ContextTrack> queue = new LinkedList<>();
-        private final List<ContextTrack> tracks = new ArrayList<>();
+        private final TrackStore tracks = new TrackStore();
         private final FisherYatesShuffle<ContextTrack> shuffle = new FisherYatesShuffle<>(session.random());
         private volatile boolean isPlayingQueue = false;
         private volatile boolean cannotLoadMore = false;
         private volatile int shuffleKeepIndex = -1;
+        private final ProvidedTrackCache providedTracks = new ProvidedTrackCache(4 * (MAX_PREV_TRACKS + MAX_NEXT_TRACKS));
+        private LazyShuffle lazyShuffle = null;
+        /**
+         * The number of tracks in the context according to the server or {@code -1} if unknown. The published
+         * {@code track_count} also counts the queue, so it cannot be read back.
+         */
+        private int contextTrackCount;
 
         private TracksKeeper() {
+            contextTrackCount = Integer.parseInt(state.getContextMetadataOrDefault("track_count", "-1"));
             checkComplete();
         }
 
+        synchronized void setContextTrackCount(int count) {
+            contextTrackCount = count;
+            updateTrackCount();
+        }
+
         private void updateTrackCount() {
-            if (context.isFinite())
-                state.putContextMetadata("track_count", String.valueOf(tracks.size() + queue.size()));
-            else
-                state.removeContextMetadata("track_count");
+            if (context.isFinite()) {
+                int count = trackCount(contextTrackCount, tracks.size(), cannotLoadMore, lazyShuffle == null ? -1 : lazyShuffle.size());
+                editState().putContextMetadata("track_count", String.valueOf(count + queue.size()));
+            } else {
+                editState().removeContextMetadata("track_count");
+            }
         }
 
         private void checkComplete() {
             if (cannotLoadMore) return;
 
-            if (context.isFinite()) {
-                int total_tracks = Integer.parseInt(state.getContextMetadataOrDefault("track_count", "-1"));
-                if (total_tracks == -1) cannotLoadMore = false;
-                else cannotLoadMore = total_tracks == tracks.size();
-            } else {
-                cannotLoadMore = false;
-            }
+            if (context.isFinite()) cannotLoadMore = contextTrackCount == tracks.size();
+            else cannotLoadMore = false;
         }
 
         @NotNull
@@ -961,56 +1134,105 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
          */
         private void setCurrentTrackIndex(int index) {
             if (isPlayingQueue) throw new IllegalStateException();
-            state.setIndex(ContextIndex.newBuilder().setTrack(index).build());
+            editState().setIndex(ContextIndex.newBuilder().setTrack(index).build());
             updateState();
         }
 
         private void shiftCurrentTrackIndex(int delta) {
-            state.getIndexBuilder().setTrack(state.getIndex().getTrack() + delta);
+            editState().getIndexBuilder().setTrack(state.getIndex().getTrack() + delta);
+        }
+
+        @NotNull
+        private ProvidedTrack toProvidedTrack(@NotNull ContextTrack track) {
+            return providedTracks.get(track, getContextUri());
+        }
+
+        /**
+         * Finds how many elements must be dropped from the head of {@param current} so that what's left is a prefix of {@param desired}.
+         * Elements are compared by reference, which works because conversions are cached.
+         *
+         * @return The number of elements to drop or {@code -1} if the window must be rebuilt
+         */
+        private int windowOffset(@NotNull List<ProvidedTrack> current, @NotNull List<ProvidedTrack> desired) {
+            if (desired.isEmpty()) return current.size();
+
+            ProvidedTrack first = desired.get(0);
+            outer:
+            for (int offset = 0; offset < current.size(); offset++) {
+                if (current.get(offset) != first) continue;
+
+                int kept = current.size() - offset;
+                if (kept > desired.size()) continue;
+
+                for (int i = 1; i < kept; i++)
+                    if (current.get(offset + i) != desired.get(i)) continue outer;
+
+                return offset;
+            }
+
+            return current.isEmpty() ? 0 : -1;
         }
 
         private void updatePrevNextTracks() {
             int index = getCurrentTrackIndex();
 
-            state.clearPrevTracks();
+            List<ProvidedTrack> prev = new ArrayList<>(MAX_PREV_TRACKS);
             for (int i = Math.max(0, index - MAX_PREV_TRACKS); i < index; i++)
-                state.addPrevTracks(ProtoUtils.toProvidedTrack(tracks.get(i), getContextUri()));
+                prev.add(toProvidedTrack(tracks.get(i)));
 
-            state.clearNextTracks();
+            List<ProvidedTrack> next = new ArrayList<>(queue.size() + MAX_NEXT_TRACKS);
             for (ContextTrack track : queue)
-                state.addNextTracks(ProtoUtils.toProvidedTrack(track, getContextUri()));
+                next.add(toProvidedTrack(track));
 
             for (int i = index + 1; i < Math.min(tracks.size(), index + 1 + MAX_NEXT_TRACKS); i++)
-                state.addNextTracks(ProtoUtils.toProvidedTrack(tracks.get(i), getContextUri()));
+                next.add(toProvidedTrack(tracks.get(i)));
+
+            int offset = windowOffset(state.getPrevTracksList(), prev);
+            if (offset == -1) {
+                editState().clearPrevTracks().addAllPrevTracks(prev);
+            } else {
+                int kept = state.getPrevTracksCount() - offset;
+                for (int i = 0; i < offset; i++) editState().removePrevTracks(0);
+                for (int i = kept; i < prev.size(); i++) editState().addPrevTracks(prev.get(i));
+            }
+
+            offset = windowOffset(state.getNextTracksList(), next);
+            if (offset == -1) {
+                editState().clearNextTracks().addAllNextTracks(next);
+            } else {
+                int kept = state.getNextTracksCount() - offset;
+                for (int i = 0; i < offset; i++) editState().removeNextTracks(0);
+                for (int i = kept; i < next.size(); i++) editState().addNextTracks(next.get(i));
+            }
         }
 
         void updateTrackDuration(int duration) {
-            state.setDuration(duration);
-            state.getTrackBuilder().putMetadata("duration", String.valueOf(duration));
+            editState().setDuration(duration);
+            editState().getTrackBuilder().putMetadata("duration", String.valueOf(duration));
             updateMetadataFor(getCurrentTrackIndex(), "duration", String.valueOf(duration));
         }
 
         private void updateTrackDuration() {
             ProvidedTrack current = getCurrentTrack();
             if (current.containsMetadata("duration"))
-                state.setDuration(Long.parseLong(current.getMetadataOrThrow("duration")));
+                editState().setDuration(Long.parseLong(current.getMetadataOrThrow("duration")));
             else
-                state.clearDuration();
+                editState().clearDuration();
         }
 
         private void updateLikeDislike() {
             if (Objects.equals(state.getContextMetadataOrDefault("like-feedback-enabled", "0"), "1")) {
-                state.putContextMetadata("like-feedback-selected",
+                editState().putContextMetadata("like-feedback-selected",
                         state.getTrack().getMetadataOrDefault("like-feedback-selected", "0"));
             } else {
-                state.removeContextMetadata("like-feedback-selected");
+                editState().removeContextMetadata("like-feedback-selected");
             }
 
             if (Objects.equals(state.getContextMetadataOrDefault("dislike-feedback-enabled", "0"), "1")) {
-                state.putContextMetadata("dislike-feedback-selected",
+                editState().putContextMetadata("dislike-feedback-selected",
                         state.getTrack().getMetadataOrDefault("dislike-feedback-selected", "0"));
             } else {
-                state.removeContextMetadata("dislike-feedback-selected");
+                editState().removeContextMetadata("dislike-feedback-selected");
             }
         }
 
@@ -1020,8 +1242,8 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
          * <b>This will also REMOVE a track from the queue if needed. Calling this twice will break the queue.</b>
          */
         private void updateState() {
-            if (isPlayingQueue) state.setTrack(ProtoUtils.toProvidedTrack(queue.remove(), getContextUri()));
-            else state.setTrack(ProtoUtils.toProvidedTrack(tracks.get(getCurrentTrackIndex()), getContextUri()));
+            if (isPlayingQueue) editState().setTrack(toProvidedTrack(queue.remove()));
+            else editState().setTrack(toProvidedTrack(tracks.get(getCurrentTrackIndex())));
 
             updateLikeDislike();
 
@@ -1057,6 +1279,11 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         synchronized void setQueue(@Nullable List<ContextTrack> prevTracks, @Nullable List<ContextTrack> nextTracks) {
             ContextTrack current = tracks.get(getCurrentTrackIndex());
 
+            if (lazyShuffle != null) {
+                lazyShuffle = null;
+                cannotLoadMore = true;
+            }
+
             queue.clear();
             tracks.clear();
 
@@ -1074,10 +1301,71 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             updatePrevNextTracks();
         }
 
+        synchronized void restore(@NotNull StateSnapshot snapshot) {
+            if (snapshot.isPlayingQueue ? snapshot.queue.isEmpty() : snapshot.index < 0 || snapshot.index >= snapshot.tracks.size())
+                throw new IllegalStateException("Invalid index in snapshot: " + snapshot.index);
+
+            tracks.clear();
+            tracks.addAll(snapshot.tracks);
+            queue.clear();
+            queue.addAll(snapshot.queue);
+            isPlayingQueue = snapshot.isPlayingQueue;
+            cannotLoadMore = snapshot.cannotLoadMore;
+            contextTrackCount = snapshot.contextTrackCount;
+
+            StateSnapshot.Shuffle snapshotShuffle = snapshot.shuffle;
+            if (snapshotShuffle != null && snapshotShuffle.lazy) {
+                lazyShuffle = new LazyShuffle(snapshotShuffle);
+            } else if (snapshotShuffle != null) {
+                shuffle.restoreSeed(snapshotShuffle.seed, snapshotShuffle.size);
+                shuffleKeepIndex = snapshotShuffle.keep;
+            }
+
+            editState().setIndex(ContextIndex.newBuilder().setTrack(snapshot.index).build());
+            updateState();
+            LOGGER.debug("Restored tracks from snapshot. {tracks: {}, queue: {}, index: {}}", tracks.size(), queue.size(), snapshot.index);
+        }
+
+        @NotNull
+        synchronized StateSnapshot snapshot(int position) {
+            List<ContextTrack> queue = new ArrayList<>(this.queue.size() + 1);
+            if (isPlayingQueue) {
+                ProvidedTrack current = getCurrentTrack();
+                queue.add(ContextTrack.newBuilder()
+                        .setUri(current.getUri())
+                        .setUid(current.getUid())
+                        .putAllMetadata(current.getMetadataMap())
+                        .build());
+            }
+
+            queue.addAll(this.queue);
+
+            StateSnapshot.Shuffle snapshotShuffle = null;
+            if (lazyShuffle != null)
+                snapshotShuffle = lazyShuffle.snapshot();
+            else if (isShufflingContext() && shuffle.canUnshuffle(tracks.size()))
+                snapshotShuffle = new StateSnapshot.Shuffle(false, shuffle.currentSeed(), shuffle.sizeForSeed(), shuffleKeepIndex,
+                        0, new int[0], new int[0], false, Collections.emptyList());
+
+            return new StateSnapshot(session.username(), session.deviceId(), state.getContextUri(), state.getContextUrl().isEmpty() ? null : state.getContextUrl(),
+                    new HashMap<>(state.getContextMetadataMap()), state.getPlayOrigin(), state.getOptions(),
+                    pages.pendingPages(), pages.nextPageUrl(), new ArrayList<>(tracks), getCurrentTrackIndex(),
+                    cannotLoadMore, contextTrackCount, queue, isPlayingQueue, snapshotShuffle, position, isPaused());
+        }
+
         synchronized void updateContext(@NotNull List<ContextPage> updatedPages) {
             List<ContextTrack> updatedTracks = ProtoUtils.join(updatedPages);
             for (ContextTrack track : updatedTracks) {
-                int index = ProtoUtils.indexOfTrack(tracks, track);
+                if (lazyShuffle != null) {
+                    int loadedIndex = lazyShuffle.loaded.indexOfTrack(track);
+                    if (loadedIndex != -1) {
+                        ContextTrack.Builder builder = lazyShuffle.loaded.get(loadedIndex).toBuilder();
+                        ProtoUtils.copyOverMetadata(track, builder);
+                        lazyShuffle.loaded.set(loadedIndex, builder.build());
+                    }
+                }
+
+                int index = tracks.indexOfTrack(track);
                 if (index == -1) continue;
 
                 ContextTrack.Builder builder = tracks.get(index).toBuilder();
@@ -1085,7 +1373,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
                 tracks.set(index, builder.build());
 
                 if (index == getCurrentTrackIndex()) {
-                    ProtoUtils.copyOverMetadata(track, state.getTrackBuilder());
+                    ProtoUtils.copyOverMetadata(track, editState().getTrackBuilder());
                     tracksKeeper.updateLikeDislike();
                 }
             }
@@ -1105,16 +1393,16 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
             boolean transformingShuffle = Boolean.parseBoolean(state.getContextMetadataOrDefault("transforming.shuffle", "true"));
             if (context.isFinite() && isShufflingContext() && transformingShuffle) shuffleEntirely();
-            else state.getOptionsBuilder().setShufflingContext(false); // Must do this directly!
+            else editState().getOptionsBuilder().setShufflingContext(false); // Must do this directly!
 
             setCurrentTrackIndex(0);
             if (!shouldPlay(tracks.get(getCurrentTrackIndex()))) {
                 LOGGER.debug("Cannot play currently selected track, skipping: {}", getCurrentPlayable());
 
                 boolean repeatTrack = isRepeatingTrack();
-                if (repeatTrack) state.getOptionsBuilder().setRepeatingTrack(false);
+                if (repeatTrack) editState().getOptionsBuilder().setRepeatingTrack(false);
                 nextPlayable(false);
-                state.getOptionsBuilder().setRepeatingTrack(repeatTrack);
+                editState().getOptionsBuilder().setRepeatingTrack(repeatTrack);
             }
         }
 
@@ -1123,6 +1411,9 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             queue.clear();
 
             while (true) {
+                if (track == null || pages.pageOf(track.getUri(), track.getUid()) == -1)
+                    pages.prefetch(PagesLoader.FETCH_WINDOW);
+
                 if (pages.nextPage()) {
                     List<ContextTrack> newTracks = pages.currentPage();
                     int index = finder.apply(newTracks);
@@ -1165,22 +1456,22 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
                 LOGGER.debug("Cannot play currently selected track, skipping: {}", getCurrentPlayable());
 
                 boolean repeatTrack = isRepeatingTrack();
-                if (repeatTrack) state.getOptionsBuilder().setRepeatingTrack(false);
+                if (repeatTrack) editState().getOptionsBuilder().setRepeatingTrack(false);
                 nextPlayable(false);
-                state.getOptionsBuilder().setRepeatingTrack(repeatTrack);
+                editState().getOptionsBuilder().setRepeatingTrack(repeatTrack);
             }
         }
 
         private void enrichCurrentTrack(@NotNull ContextTrack track) {
             if (isPlayingQueue) {
-                ProvidedTrack.Builder builder = state.getTrackBuilder();
+                ProvidedTrack.Builder builder = editState().getTrackBuilder();
                 ProtoUtils.enrichTrack(builder, track);
             } else {
                 int index = getCurrentTrackIndex();
                 ContextTrack.Builder current = tracks.get(index).toBuilder();
                 ProtoUtils.enrichTrack(current, track);
                 tracks.set(index, current.build());
-                state.setTrack(ProtoUtils.toProvidedTrack(current.build(), getContextUri()));
+                editState().setTrack(toProvidedTrack(current.build()));
             }
         }
 
@@ -1203,12 +1494,12 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
                 queue.addAll(queueCopy);
             }
 
-            for (int i = 0; i < tracks.size(); i++) {
-                if (ProtoUtils.trackEquals(tracks.get(i), track)) {
-                    setCurrentTrackIndex(i);
-                    enrichCurrentTrack(track);
-                    return;
-                }
+            int index = tracks.indexOfTrack(track);
+            if (index == -1 && lazyShuffle != null) index = lazyShuffle.pin(track);
+            if (index != -1) {
+                setCurrentTrackIndex(index);
+                enrichCurrentTrack(track);
+                return;
             }
 
             throw new IllegalStateException("Did not find track to skip to: " + ProtoUtils.toString(track));
@@ -1229,29 +1520,43 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
                 return new PlayableIdWithIndex(PlayableId.from(queue.peek()), -1);
 
             int current = getCurrentTrackIndex();
-            if (current == tracks.size() - 1) {
-                if (isShufflingContext() || cannotLoadMore) return null;
+            if (lazyShuffle != null) {
+                if (tracks.size() - current <= PREFETCH_PAGE_THRESHOLD) {
+                    lazyShuffle.fill();
+                    lazyShuffle.prefetch();
+                }
 
-                if (pages.nextPage()) {
-                    tracks.addAll(pages.currentPage());
-                } else {
-                    cannotLoadMore = true;
-                    updateTrackCount();
-                    return null;
+                if (current == tracks.size() - 1 && !lazyShuffle.loadMore()) return null;
+            } else {
+                if (!isShufflingContext() && !cannotLoadMore && tracks.size() - current <= PREFETCH_PAGE_THRESHOLD)
+                    pages.prefetch(1);
+
+                if (current == tracks.size() - 1) {
+                    if (isShufflingContext() || cannotLoadMore) return null;
+
+                    if (pages.nextPage()) {
+                        tracks.addAll(pages.currentPage());
+                    } else {
+                        cannotLoadMore = true;
+                        updateTrackCount();
+                        return null;
+                    }
                 }
-            }
 
-            if (!context.isFinite() && tracks.size() - current <= 5) {
-                if (pages.nextPage()) {
-                    tracks.addAll(pages.currentPage());
-                    LOGGER.trace("Preloaded next page due to infinite context.");
-                } else {
-                    LOGGER.warn("Couldn't (pre)load next page of context!");
+                if (!context.isFinite() && tracks.size() - current <= 5) {
+                    if (pages.nextPage()) {
+                        tracks.addAll(pages.currentPage());
+                        LOGGER.trace("Preloaded next page due to infinite context.");
+                    } else {
+                        LOGGER.warn("Couldn't (pre)load next page of context!");
+                    }
                 }
             }
 
             int add = 1;
             while (true) {
+                if (lazyShuffle != null && current + add >= tracks.size() && !lazyShuffle.loadMore()) return null;
+
                 ContextTrack track = tracks.get(current + add);
                 if (shouldPlay(track)) break;
                 else add++;
@@ -1342,6 +1647,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
             try {
                 while (true) {
+                    pages.prefetch(PagesLoader.FETCH_WINDOW);
                     if (pages.nextPage()) tracks.addAll(pages.currentPage());
                     else break;
                 }
@@ -1365,7 +1671,10 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             if (isPlayingQueue) return;
 
             if (!cannotLoadMore) {
-                if (loadAllTracks()) {
+                if (startLazyShuffle(session.random().nextInt(tracks.size()))) {
+                    LOGGER.trace("Shuffled context entirely without loading all tracks! {size: {}}", lazyShuffle.size());
+                    return;
+                } else if (loadAllTracks()) {
                     LOGGER.trace("Loaded all tracks before shuffling (entirely).");
                 } else {
                     LOGGER.error("Cannot shuffle entire context!");
@@ -1377,14 +1686,38 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
             LOGGER.trace("Shuffled context entirely!");
         }
 
+        /**
+         * Shuffles over the whole context without loading all of its pages, the shuffled order is materialized as pages come in.
+         * Finite contexts need to know their size, infinite ones are shuffled in blocks of {@link #INFINITE_SHUFFLE_BLOCK} tracks.
+         *
+         * @param first The index of the track that should be played first
+         * @return Whether the context has been shuffled
+         */
+        private boolean startLazyShuffle(int first) {
+            int size = -1;
+            if (context.isFinite()) {
+                size = contextTrackCount;
+                if (size <= tracks.size()) return false;
+            }
+
+            lazyShuffle = new LazyShuffle(size, first);
+            lazyShuffle.prefetch();
+            return true;
+        }
+
         synchronized void toggleShuffle(boolean value) {
-            if (!context.isFinite()) throw new IllegalStateException("Cannot shuffle infinite context!");
-            if (tracks.size() <= 1) return;
+            if (tracks.size() <= 1 && lazyShuffle == null) return;
             if (isPlayingQueue) return;
 
             if (value) {
+                if (lazyShuffle != null) return;
+
                 if (!cannotLoadMore) {
-                    if (loadAllTracks()) {
+                    if (startLazyShuffle(getCurrentTrackIndex())) {
+                        setCurrentTrackIndex(0);
+                        LOGGER.trace("Shuffled context without loading all tracks! {size: {}}", lazyShuffle.size());
+                        return;
+                    } else if (loadAllTracks()) {
                         LOGGER.trace("Loaded all tracks before shuffling.");
                     } else {
                         LOGGER.error("Cannot shuffle context!");
@@ -1394,28 +1727,38 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
 
                 PlayableId currentlyPlaying = getCurrentPlayableOrThrow();
                 shuffle.shuffle(tracks, true);
-                shuffleKeepIndex = PlayableId.indexOfTrack(tracks, currentlyPlaying);
+                shuffleKeepIndex = tracks.indexOfPlayable(currentlyPlaying);
                 Collections.swap(tracks, 0, shuffleKeepIndex);
                 setCurrentTrackIndex(0);
 
                 LOGGER.trace("Shuffled context! {keepIndex: {}}", shuffleKeepIndex);
             } else {
-                if (shuffle.canUnshuffle(tracks.size())) {
+                if (lazyShuffle != null) {
+                    int index = lazyShuffle.originalIndex(getCurrentTrackIndex());
+                    tracks.clear();
+                    tracks.addAll(lazyShuffle.loaded);
+                    cannotLoadMore = lazyShuffle.exhausted;
+                    lazyShuffle = null;
+
+                    setCurrentTrackIndex(index);
+                    LOGGER.trace("Unshuffled lazily shuffled context.");
+                } else if (shuffle.canUnshuffle(tracks.size())) {
                     PlayableId currentlyPlaying = getCurrentPlayableOrThrow();
                     if (shuffleKeepIndex != -1) Collections.swap(tracks, 0, shuffleKeepIndex);
 
                     shuffle.unshuffle(tracks);
-                    setCurrentTrackIndex(PlayableId.indexOfTrack(tracks, currentlyPlaying));
+                    setCurrentTrackIndex(tracks.indexOfPlayable(currentlyPlaying));
 
                     LOGGER.trace("Unshuffled using Fisher-Yates.");
                 } else {
                     PlayableId id = getCurrentPlayableOrThrow();
 
                     tracks.clear();
-                    pages = PagesLoader.from(session, context.uri());
+                    pages.cancel();
+                    pages = PagesLoader.from(session, pagesExecutor, context.uri());
                     loadAllTracks();
 
-                    setCurrentTrackIndex(PlayableId.indexOfTrack(tracks, id));
+                    setCurrentTrackIndex(tracks.indexOfPlayable(id));
                     LOGGER.trace("Unshuffled by reloading context.");
                 }
             }
@@ -1476,8 +1819,7 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
                 removeCurrent = true;
 
             ContextTrack current = tracks.get(curr);
-            for (int i = 0; i < length; i++)
-                tracks.remove(from);
+            tracks.subList(from, from + length).clear();
 
             if (!removeCurrent && from <= curr)
                 shiftCurrentTrackIndex(-length);
@@ -1535,10 +1877,184 @@ public class StateWrapper implements DeviceStateHandler.Listener, DealerClient.M
         }
 
         synchronized void updateMetadataFor(@NotNull String uri, @NotNull String key, @NotNull String value) {
-            int index = ProtoUtils.indexOfTrackByUri(tracks, uri);
+            int index = tracks.indexOfUri(uri);
             if (index == -1) return;
 
             updateMetadataFor(index, key, value);
         }
+
+        /**
+         * A shuffle started with {@link #startLazyShuffle(int)}. {@link #tracks} holds the shuffled positions materialized so far,
+         * {@link #loaded} holds the tracks loaded from the pages in their original order.
+         */
+        private class LazyShuffle {
+            final TrackStore loaded = new TrackStore();
+            private final ShufflePermutation permutation;
+            private final List<Integer> originals = new ArrayList<>();
+            private final Set<Integer> pinned = new HashSet<>();
+            private final long seed;
+            private final int swap;
+            boolean exhausted = false;
+            private int position = 0;
+            private int pageSize;
+
+            LazyShuffle(int size, int first) {
+                loaded.addAll(tracks);
+                pageSize = loaded.size();
+
+                seed = session.random().nextLong();
+                permutation = permutation(size, seed);
+
+                swap = permutation.unmap(first);
+                tracks.clear();
+                fill();
+            }
+
+            /**
+             * Restores a shuffle from {@link #snapshot()}, {@link #tracks} must already hold the materialized positions.
+             */
+            LazyShuffle(@NotNull StateSnapshot.Shuffle snapshot) {
+                loaded.addAll(snapshot.loaded);
+                pageSize = loaded.size();
+
+                seed = snapshot.seed;
+                permutation = permutation(snapshot.size, seed);
+                swap = snapshot.keep;
+                position = snapshot.position;
+                exhausted = snapshot.exhausted;
+                for (int original : snapshot.originals) originals.add(original);
+                for (int original : snapshot.pinned) pinned.add(original);
+
+                if (originals.size() != tracks.size())
+                    throw new IllegalStateException("Shuffle doesn't match tracks: " + originals.size() + " != " + tracks.size());
+            }
+
+            @NotNull
+            private ShufflePermutation permutation(int size, long seed) {
+                if (size == -1) return ShufflePermutation.blocks(INFINITE_SHUFFLE_BLOCK, seed);
+                else return ShufflePermutation.finite(size, seed);
+            }
+
+            @NotNull
+            StateSnapshot.Shuffle snapshot() {
+                int[] originals = new int[this.originals.size()];
+                for (int i = 0; i < originals.length; i++) originals[i] = this.originals.get(i);
+
+                int[] pinned = new int[this.pinned.size()];
+                int i = 0;
+                for (int original : this.pinned) pinned[i++] = original;
+
+                return new StateSnapshot.Shuffle(true, seed, permutation.size(), swap, position, originals, pinned, exhausted, new ArrayList<>(loaded));
+            }
+
+            int size() {
+                return permutation.size();
+            }
+
+            /**
+             * Maps a shuffled position to the original index, position 0 is swapped with the one of the track that should be played first.
+             */
+            private int map(int position) {
+                if (position == 0) position = swap;
+                else if (position == swap) position = 0;
+                return permutation.map(position);
+            }
+
+            private int limit() {
+                if (permutation.size() != -1) return permutation.size();
+                else if (exhausted) return (loaded.size() + INFINITE_SHUFFLE_BLOCK - 1) / INFINITE_SHUFFLE_BLOCK * INFINITE_SHUFFLE_BLOCK;
+                else return Integer.MAX_VALUE;
+            }
+
+            /**
+             * @param index The index inside {@link #tracks}
+             * @return The index of the same track in the original order
+             */
+            int originalIndex(int index) {
+                return originals.get(index);
+            }
+
+            /**
+             * Materializes the following shuffled positions whose track has already been loaded.
+             *
+             * @return Whether any track has been added to {@link #tracks}
+             */
+            boolean fill() {
+                boolean added = false;
+                int limit = limit();
+                while (position < limit) {
+                    int original = map(position);
+                    if (original >= loaded.size()) {
+                        if (!exhausted) break;
+
+                        position++; // The context is shorter than expected
+                        continue;
+                    }
+
+                    position++;
+                    if (pinned.remove(original)) continue;
+
+                    tracks.add(loaded.get(original));
+                    originals.add(original);
+                    added = true;
+                }
+
+                return added;
+            }
+
+            /**
+             * Starts fetching in the background the pages needed by the next shuffled position, but no more than that.
+             * Pages are chained by their next page URL, so they cannot be skipped.
+             */
+            void prefetch() {
+                if (exhausted || position >= limit()) return;
+
+                int needed = pagesNeeded(map(position), loaded.size(), pageSize);
+                if (needed > 0) pages.prefetch(Math.min(needed, PagesLoader.FETCH_WINDOW));
+            }
+
+            /**
+             * Loads pages until at least one more track has been added to {@link #tracks}.
+             *
+             * @return Whether a track has been added, {@code false} if all the shuffled positions have been materialized
+             */
+            boolean loadMore() throws IOException, MercuryClient.MercuryException {
+                while (true) {
+                    if (fill()) {
+                        prefetch();
+                        return true;
+                    }
+
+                    if (position >= limit()) {
+                        cannotLoadMore = true;
+                        return false;
+                    }
+
+                    prefetch();
+                    if (pages.nextPage()) {
+                        List<ContextTrack> page = pages.currentPage();
+                        loaded.addAll(page);
+                        if (!page.isEmpty()) pageSize = page.size();
+                    } else {
+                        exhausted = true;
+                    }
+                }
+            }
+
+            /**
+             * Moves a loaded track that hasn't been materialized yet at the end of {@link #tracks}, it will be skipped when its position comes.
+             *
+             * @return The index of the track inside {@link #tracks} or {@code -1} if it hasn't been loaded
+             */
+            int pin(@NotNull ContextTrack track) {
+                int original = loaded.indexOfTrack(track);
+                if (original == -1 || originals.contains(original)) return -1;
+
+                pinned.add(original);
+                tracks.add(loaded.get(original));
+                originals.add(original);
+                return tracks.size() - 1;
+            }
+        }
     }
 }
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.google.protobuf.ByteString;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.gianlu.librespot.common.ProtoUtils;
+import xyz.gianlu.librespot.metadata.PlayableId;
+
+import java.util.*;
+
+/**
+ * A list of {@link ContextTrack}s indexed by URI, UID and GID. Lookups are constant time, positions are recomputed lazily
+ * after tracks have been inserted or removed in the middle of the list.
+ *
+ * @author devgianlu
+ */
+final class TrackStore extends AbstractList<ContextTrack> implements RandomAccess {
+    private final ArrayList<Entry> entries = new ArrayList<>();
+    private final Map<String, Entry> byUri = new HashMap<>();
+    private final Map<String, Entry> byUid = new HashMap<>();
+    private final Map<ByteString, Entry> byGid = new HashMap<>();
+    /**
+     * The number of leading entries whose {@link Entry#index} is correct.
+     */
+    private int validUpTo = 0;
+
+    TrackStore() {
+    }
+
+    @Nullable
+    private static String uriOf(@NotNull ContextTrack track) {
+        return track.hasUri() && !track.getUri().isEmpty() ? track.getUri() : null;
+    }
+
+    @Nullable
+    private static String uidOf(@NotNull ContextTrack track) {
+        return track.hasUid() && !track.getUid().isEmpty() ? track.getUid() : null;
+    }
+
+    @Nullable
+    private static ByteString gidOf(@NotNull ContextTrack track) {
+        return track.hasGid() && !track.getGid().isEmpty() ? track.getGid() : null;
+    }
+
+    private static boolean sameKeys(@NotNull ContextTrack a, @NotNull ContextTrack b) {
+        return Objects.equals(uriOf(a), uriOf(b)) && Objects.equals(uidOf(a), uidOf(b)) && Objects.equals(gidOf(a), gidOf(b));
+    }
+
+    private void index(@NotNull Entry entry) {
+        String uri = uriOf(entry.track);
+        if (uri != null) entry.nextUri = byUri.put(uri, entry);
+
+        String uid = uidOf(entry.track);
+        if (uid != null) entry.nextUid = byUid.put(uid, entry);
+
+        ByteString gid = gidOf(entry.track);
+        if (gid != null) entry.nextGid = byGid.put(gid, entry);
+    }
+
+    private void unindex(@NotNull Entry entry) {
+        String uri = uriOf(entry.track);
+        if (uri != null) {
+            Entry head = byUri.get(uri);
+            if (head == entry) {
+                if (entry.nextUri == null) byUri.remove(uri);
+                else byUri.put(uri, entry.nextUri);
+            } else {
+                while (head != null && head.nextUri != entry) head = head.nextUri;
+                if (head != null) head.nextUri = entry.nextUri;
+            }
+
+            entry.nextUri = null;
+        }
+
+        String uid = uidOf(entry.track);
+        if (uid != null) {
+            Entry head = byUid.get(uid);
+            if (head == entry) {
+                if (entry.nextUid == null) byUid.remove(uid);
+                else byUid.put(uid, entry.nextUid);
+            } else {
+                while (head != null && head.nextUid != entry) head = head.nextUid;
+                if (head != null) head.nextUid = entry.nextUid;
+            }
+
+            entry.nextUid = null;
+        }
+
+        ByteString gid = gidOf(entry.track);
+        if (gid != null) {
+            Entry head = byGid.get(gid);
+            if (head == entry) {
+                if (entry.nextGid == null) byGid.remove(gid);
+                else byGid.put(gid, entry.nextGid);
+            } else {
+                while (head != null && head.nextGid != entry) head = head.nextGid;
+                if (head != null) head.nextGid = entry.nextGid;
+            }
+
+            entry.nextGid = null;
+        }
+    }
+
+    private int position(@NotNull Entry entry) {
+        if (entry.index < validUpTo && entries.get(entry.index) == entry)
+            return entry.index;
+
+        for (int i = validUpTo; i < entries.size(); i++) entries.get(i).index = i;
+        validUpTo = entries.size();
+        return entry.index;
+    }
+
+    @Override
+    public ContextTrack get(int index) {
+        return entries.get(index).track;
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public ContextTrack set(int index, @NotNull ContextTrack track) {
+        Entry entry = entries.get(index);
+        ContextTrack old = entry.track;
+        if (sameKeys(old, track)) {
+            entry.track = track;
+        } else {
+            unindex(entry);
+            entry.track = track;
+            index(entry);
+        }
+
+        return old;
+    }
+
+    @Override
+    public void add(int index, @NotNull ContextTrack track) {
+        Entry entry = new Entry(track);
+        entries.add(index, entry);
+        index(entry);
+        modCount++;
+
+        if (index == validUpTo && index == entries.size() - 1) {
+            entry.index = index;
+            validUpTo++;
+        } else if (index < validUpTo) {
+            validUpTo = index;
+        }
+    }
+
+    @Override
+    public ContextTrack remove(int index) {
+        Entry entry = entries.remove(index);
+        unindex(entry);
+        modCount++;
+
+        if (index < validUpTo) validUpTo = index;
+        return entry.track;
+    }
+
+    @Override
+    protected void removeRange(int fromIndex, int toIndex) {
+        if (fromIndex >= toIndex) return;
+
+        List<Entry> range = entries.subList(fromIndex, toIndex);
+        for (Entry entry : range) unindex(entry);
+        range.clear();
+        modCount++;
+
+        if (fromIndex < validUpTo) validUpTo = fromIndex;
+    }
+
+    @Override
+    public void clear() {
+        entries.clear();
+        byUri.clear();
+        byUid.clear();
+        byGid.clear();
+        validUpTo = 0;
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(@NotNull Collection<? extends ContextTrack> tracks) {
+        entries.ensureCapacity(entries.size() + tracks.size());
+        return super.addAll(tracks);
+    }
+
+    /**
+     * @return The index of the first track with the given URI or {@code -1}
+     */
+    int indexOfUri(@NotNull String uri) {
+        int min = -1;
+        for (Entry entry = byUri.get(uri); entry != null; entry = entry.nextUri) {
+            int pos = position(entry);
+            if (min == -1 || pos < min) min = pos;
+        }
+
+        return min;
+    }
+
+    /**
+     * @return The index of the first track with the given UID or {@code -1}
+     */
+    int indexOfUid(@NotNull String uid) {
+        int min = -1;
+        for (Entry entry = byUid.get(uid); entry != null; entry = entry.nextUid) {
+            int pos = position(entry);
+            if (min == -1 || pos < min) min = pos;
+        }
+
+        return min;
+    }
+
+    /**
+     * @return The index of the first track matching the URI or GID of {@param id} or {@code -1}
+     * @see PlayableId#indexOfTrack(List, PlayableId)
+     */
+    int indexOfPlayable(@NotNull PlayableId id) {
+        int min = indexOfUri(id.toSpotifyUri());
+        if (id.hasGid()) {
+            for (Entry entry = byGid.get(ByteString.copyFrom(id.getGid())); entry != null; entry = entry.nextGid) {
+                int pos = position(entry);
+                if (min == -1 || pos < min) min = pos;
+            }
+        }
+
+        return min;
+    }
+
+    /**
+     * @return The index of the first track equal to {@param track} or {@code -1}
+     * @see ProtoUtils#trackEquals(ContextTrack, ContextTrack)
+     */
+    int indexOfTrack(@NotNull ContextTrack track) {
+        int min = -1;
+
+        String uri = uriOf(track);
+        if (uri != null) {
+            for (Entry entry = byUri.get(uri); entry != null; entry = entry.nextUri) {
+                int pos = position(entry);
+                if ((min == -1 || pos < min) && ProtoUtils.trackEquals(entry.track, track)) min = pos;
+            }
+        }
+
+        ByteString gid = gidOf(track);
+        if (gid != null) {
+            for (Entry entry = byGid.get(gid); entry != null; entry = entry.nextGid) {
+                int pos = position(entry);
+                if ((min == -1 || pos < min) && ProtoUtils.trackEquals(entry.track, track)) min = pos;
+            }
+        }
+
+        String uid = uidOf(track);
+        if (uid != null) {
+            for (Entry entry = byUid.get(uid); entry != null; entry = entry.nextUid) {
+                int pos = position(entry);
+                if ((min == -1 || pos < min) && ProtoUtils.trackEquals(entry.track, track)) min = pos;
+            }
+        }
+
+        return min;
+    }
+
+    private static final class Entry {
+        private ContextTrack track;
+        private int index = -1;
+        private Entry nextUri;
+        private Entry nextUid;
+        private Entry nextGid;
+
+        Entry(@NotNull ContextTrack track) {
+            this.track = track;
+        }
+    }
+}
@@ -25,12 +25,12 @@ import xyz.gianlu.librespot.player.mixing.output.*;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * @author devgianlu
  */
 public final class AudioSink implements Runnable, Closeable {
-    private final Object pauseLock = new Object();
     private final SinkOutput output;
     private final MixingLine mixing = new MixingLine();
     private final Thread thread;
@@ -108,9 +108,7 @@ public final class AudioSink implements Runnable, Closeable {
      */
     public void resume() {
         paused = false;
-        synchronized (pauseLock) {
-            pauseLock.notifyAll();
-        }
+        LockSupport.unpark(thread);
     }
 
     /**
@@ -160,12 +158,10 @@ public final class AudioSink implements Runnable, Closeable {
                 output.stop();
                 started = false;
 
-                synchronized (pauseLock) {
-                    try {
-                        pauseLock.wait();
-                    } catch (InterruptedException ex) {
-                        break;
-                    }
+                // The permit left by #resume() makes this return immediately if it raced with the check above
+                while (paused && !closed) {
+                    LockSupport.park(this);
+                    if (Thread.interrupted()) break;
                 }
             } else {
                 try {
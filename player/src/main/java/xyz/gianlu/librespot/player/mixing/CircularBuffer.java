@@ -21,22 +21,25 @@ import org.jetbrains.annotations.TestOnly;
 import xyz.gianlu.librespot.common.Utils;
 
 import java.io.Closeable;
-import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
+ * Waiters record how many bytes they need, so that they are signalled only once the buffer can satisfy them.
+ *
  * @author Gianlu
  */
 public class CircularBuffer implements Closeable {
     protected final Lock lock = new ReentrantLock();
-    protected final Condition awaitSpace = lock.newCondition();
+    private final Condition awaitSpace = lock.newCondition();
     private final byte[] data;
     private final Condition awaitData = lock.newCondition();
     protected volatile boolean closed = false;
     private int head;
     private int tail;
+    private int spaceWanted = 0;
+    private int dataWanted = 0;
 
     public CircularBuffer(int bufferSize) {
         data = new byte[bufferSize + 1];
@@ -45,13 +48,38 @@ public class CircularBuffer implements Closeable {
     }
 
     private void awaitSpace(int count) throws InterruptedException {
-        while (free() < count && !closed)
-            awaitSpace.await(100, TimeUnit.MILLISECONDS);
+        try {
+            while (free() < count && !closed) {
+                spaceWanted = count;
+                awaitSpace.await();
+            }
+        } finally {
+            spaceWanted = 0;
+        }
     }
 
     protected void awaitData(int count) throws InterruptedException {
-        while (available() < count && !closed)
-            awaitData.await(100, TimeUnit.MILLISECONDS);
+        try {
+            while (available() < count && !closed) {
+                dataWanted = count;
+                awaitData.await();
+            }
+        } finally {
+            dataWanted = 0;
+        }
+    }
+
+    /**
+     * Wakes up the writer if it is waiting and there is now enough space. Must be called holding {@link #lock}.
+     */
+    protected void signalSpace() {
+        if (spaceWanted > 0 && free() >= spaceWanted)
+            awaitSpace.signal();
+    }
+
+    private void signalData() {
+        if (dataWanted > 0 && available() >= dataWanted)
+            awaitData.signal();
     }
 
     public void write(byte[] b, int off, int len) {
@@ -69,7 +97,7 @@ public class CircularBuffer implements Closeable {
                     tail = 0;
             }
 
-            awaitData.signal();
+            signalData();
         } catch (InterruptedException ignored) {
         } finally {
             lock.unlock();
@@ -90,7 +118,7 @@ public class CircularBuffer implements Closeable {
             if (tail == data.length)
                 tail = 0;
 
-            awaitData.signal();
+            signalData();
         } catch (InterruptedException ignored) {
         } finally {
             lock.unlock();
@@ -112,7 +140,7 @@ public class CircularBuffer implements Closeable {
                 b[dest + 1] = (byte) readInternal();
             }
 
-            awaitSpace.signal();
+            signalSpace();
             return dest - off;
         } catch (InterruptedException ignored) {
             if (closed) return -1;
@@ -146,7 +174,7 @@ public class CircularBuffer implements Closeable {
             if (closed) return -1;
 
             int value = readInternal();
-            awaitSpace.signal();
+            signalSpace();
             return value;
         } catch (InterruptedException ignored) {
             return -1;
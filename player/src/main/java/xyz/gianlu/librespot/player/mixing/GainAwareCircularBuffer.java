@@ -49,7 +49,7 @@ class GainAwareCircularBuffer extends CircularBuffer {
                 writeToArray(val, b, dest);
             }
 
-            awaitSpace.signal();
+            signalSpace();
         } catch (InterruptedException ignored) {
         } finally {
             lock.unlock();
@@ -78,7 +78,7 @@ class GainAwareCircularBuffer extends CircularBuffer {
                 writeToArray(result, b, dest);
             }
 
-            awaitSpace.signal();
+            signalSpace();
         } catch (InterruptedException ignored) {
         } finally {
             lock.unlock();
@@ -20,6 +20,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.metrics.Gauge;
+import xyz.gianlu.librespot.metrics.MetricsRegistry;
 import xyz.gianlu.librespot.player.decoders.Decoder;
 import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
 
@@ -31,6 +33,8 @@ import java.io.OutputStream;
  */
 public final class MixingLine extends InputStream {
     private static final Logger LOGGER = LoggerFactory.getLogger(MixingLine.class);
+    private static final int CHANNEL_BUFFER_SIZE = Decoder.BUFFER_SIZE * 4;
+    private static final Gauge BUFFER_FILL = MetricsRegistry.global().gauge("librespot_mixing_buffer_fill_ratio", "Fill ratio of the first mixing channel buffer");
     boolean switchFormat = false;
     private GainAwareCircularBuffer fcb;
     private GainAwareCircularBuffer scb;
@@ -53,6 +57,8 @@ public final class MixingLine extends InputStream {
 
     @Override
     public synchronized int read(@NotNull byte[] b, int off, int len) {
+        if (fcb != null) BUFFER_FILL.set((double) fcb.available() / CHANNEL_BUFFER_SIZE);
+
         if (fe && fcb != null && se && scb != null) {
             int willRead = Math.min(fcb.available(), scb.available());
             willRead = Math.min(willRead, len);
@@ -82,7 +88,7 @@ public final class MixingLine extends InputStream {
     @NotNull
     public MixingOutput firstOut() {
         if (fout == null) {
-            fcb = new GainAwareCircularBuffer(Decoder.BUFFER_SIZE * 4);
+            fcb = new GainAwareCircularBuffer(CHANNEL_BUFFER_SIZE);
             fout = new FirstOutputStream();
         }
 
@@ -92,7 +98,7 @@ public final class MixingLine extends InputStream {
     @NotNull
     public MixingOutput secondOut() {
         if (sout == null) {
-            scb = new GainAwareCircularBuffer(Decoder.BUFFER_SIZE * 4);
+            scb = new GainAwareCircularBuffer(CHANNEL_BUFFER_SIZE);
             sout = new SecondOutputStream();
         }
 
@@ -133,6 +139,7 @@ public final class MixingLine extends InputStream {
 
     public abstract static class MixingOutput extends OutputStream {
         StreamConverter converter = null;
+        private volatile long writeNanos = 0;
 
         @Override
         public final void write(int b) {
@@ -141,12 +148,22 @@ public final class MixingLine extends InputStream {
 
         @Override
         public final void write(@NotNull byte[] b, int off, int len) {
+            long start = System.nanoTime();
             if (converter != null) {
                 converter.write(b, off, len);
                 writeBuffer(converter.convert());
             } else {
                 writeBuffer(b, off, len);
             }
+
+            writeNanos += System.nanoTime() - start;
+        }
+
+        /**
+         * @return The total time spent writing to (and waiting for) this output, in nanoseconds
+         */
+        public long writeNanos() {
+            return writeNanos;
         }
 
         protected void writeBuffer(byte[] b) {
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.playback;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.common.ExecutorProvider;
+import xyz.gianlu.librespot.metrics.Histogram;
+import xyz.gianlu.librespot.player.decoders.Decoder;
+import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes PCM ahead of the mixing line on a dedicated executor, keeping up to a configurable amount of audio ready to be written.
+ * This absorbs stalls of the underlying stream and decoder CPU spikes and lets the next entry be ready before it starts.
+ *
+ * @author devgianlu
+ */
+final class DecodeAheadBuffer implements Closeable, Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DecodeAheadBuffer.class);
+    private static final int MAX_POOLED_BLOCKS = 256;
+    private static final long CLOSE_TIMEOUT_MS = 1000;
+    private static final Queue<Block> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOL_SIZE = new AtomicInteger(0);
+    private final Decoder decoder;
+    private final Histogram decodeTime;
+    private final String playbackId;
+    private final int maxBufferedBytes;
+    private final Queue<Block> filled = new ArrayDeque<>();
+    private final ExecutorService executor;
+    private volatile Thread runner = null;
+    private int bufferedBytes = 0;
+    private int generation = 0;
+    private int pendingSeek = -1;
+    private boolean ended = false;
+    private Exception error = null;
+    private volatile boolean canGetTime = true;
+    private volatile boolean closed = false;
+    private volatile int time = 0;
+
+    /**
+     * @param decodeTime The histogram observing the time spent decoding each packet
+     * @param executors  The provider of the executor decoding runs on, it is shut down on {@link #close()}
+     */
+    DecodeAheadBuffer(@NotNull Decoder decoder, int seconds, @NotNull Histogram decodeTime, @NotNull ExecutorProvider executors, @NotNull String playbackId) {
+        this.decoder = decoder;
+        this.decodeTime = decodeTime;
+        this.playbackId = playbackId;
+
+        OutputAudioFormat format = decoder.getAudioFormat();
+        this.maxBufferedBytes = Math.max(Decoder.BUFFER_SIZE * 4, (int) (format.getFrameRate() * format.getFrameSize() * seconds));
+
+        this.executor = executors.newSingleThreadExecutor("player-decode-ahead");
+        this.executor.execute(this);
+    }
+
+    @NotNull
+    private static Block obtainBlock() {
+        Block block = POOL.poll();
+        if (block == null) return new Block();
+
+        POOL_SIZE.decrementAndGet();
+        return block;
+    }
+
+    private static void releaseBlock(@NotNull Block block) {
+        block.count = 0;
+        if (POOL_SIZE.incrementAndGet() > MAX_POOLED_BLOCKS) POOL_SIZE.decrementAndGet();
+        else POOL.offer(block);
+    }
+
+    /**
+     * Writes the next decoded block to {@param out}, blocking until one is available.
+     *
+     * @return The number of bytes written or {@code -1} if the stream ended
+     * @throws InterruptedIOException If the calling thread is interrupted while waiting, its interrupt flag is kept
+     */
+    int writeSomeTo(@NotNull OutputStream out) throws IOException, Decoder.DecoderException {
+        Block block;
+        synchronized (this) {
+            while (filled.isEmpty() && !ended && error == null && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for decoded data");
+                }
+            }
+
+            if (closed) return -1;
+
+            block = filled.poll();
+            if (block == null) {
+                if (error instanceof IOException) throw (IOException) error;
+                else if (error instanceof Decoder.DecoderException) throw (Decoder.DecoderException) error;
+                else if (error != null) throw new IOException(error);
+                else return -1;
+            }
+
+            bufferedBytes -= block.count;
+            if (block.time != -1) time = block.time;
+            notifyAll();
+        }
+
+        try {
+            out.write(block.data, 0, block.count);
+            out.flush();
+            return block.count;
+        } finally {
+            releaseBlock(block);
+        }
+    }
+
+    /**
+     * @return The time of the last block written out, in milliseconds
+     * @throws Decoder.CannotGetTimeException If the decoder cannot provide the time
+     */
+    int time() throws Decoder.CannotGetTimeException {
+        if (!canGetTime) throw new Decoder.CannotGetTimeException("Decoder cannot provide time");
+        return time;
+    }
+
+    /**
+     * Drops all the decoded data and seeks the decoder to the given position.
+     *
+     * @param pos The time in milliseconds
+     */
+    synchronized void seek(int pos) {
+        clearFilled();
+        generation++;
+        pendingSeek = pos;
+        ended = false;
+        error = null;
+        time = pos;
+        notifyAll();
+    }
+
+    private void clearFilled() {
+        Block block;
+        while ((block = filled.poll()) != null) releaseBlock(block);
+        bufferedBytes = 0;
+    }
+
+    @Override
+    public void run() {
+        runner = Thread.currentThread();
+        while (!closed) {
+            int gen;
+            int seekTo;
+            synchronized (this) {
+                while (!closed && pendingSeek == -1 && (ended || bufferedBytes >= maxBufferedBytes)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+
+                if (closed) break;
+
+                gen = generation;
+                seekTo = pendingSeek;
+                pendingSeek = -1;
+            }
+
+            if (seekTo != -1) decoder.seek(seekTo);
+
+            Block block = obtainBlock();
+            if (canGetTime) {
+                try {
+                    block.time = decoder.time();
+                } catch (Decoder.CannotGetTimeException ex) {
+                    canGetTime = false;
+                    block.time = -1;
+                }
+            } else {
+                block.time = -1;
+            }
+
+            int count;
+            try {
+                long start = System.nanoTime();
+                count = decoder.writeSomeTo(block);
+                decodeTime.observeSince(start);
+            } catch (IOException | Decoder.DecoderException ex) {
+                releaseBlock(block);
+
+                synchronized (this) {
+                    if (gen == generation) {
+                        if (!closed) error = ex;
+                        ended = true;
+                        notifyAll();
+                    }
+                }
+
+                if (!closed) LOGGER.trace("Decode ahead stopped because of an error.", ex);
+                continue;
+            }
+
+            synchronized (this) {
+                if (gen != generation) {
+                    releaseBlock(block);
+                    continue;
+                }
+
+                if (block.count > 0) {
+                    filled.add(block);
+                    bufferedBytes += block.count;
+                } else {
+                    releaseBlock(block);
+                }
+
+                if (count == -1) ended = true;
+
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Stops decoding and waits for the executor to leave the decoder, so that the decoder can be closed right after.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+
+        synchronized (this) {
+            clearFilled();
+            notifyAll();
+        }
+
+        if (Thread.currentThread() == runner) return;
+
+        try {
+            if (!executor.awaitTermination(CLOSE_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+                LOGGER.warn("Decode ahead didn't stop in time. {id: {}}", playbackId);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Block extends OutputStream {
+        private byte[] data = new byte[Decoder.BUFFER_SIZE * 4];
+        private int count = 0;
+        private int time = -1;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(count + 1);
+            data[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(@NotNull byte[] b, int off, int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, data, count, len);
+            count += len;
+        }
+
+        private void ensureCapacity(int min) {
+            if (min > data.length) data = Arrays.copyOf(data, Math.max(min, data.length * 2));
+        }
+    }
+}
@@ -21,11 +21,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import xyz.gianlu.librespot.common.NameThreadFactory;
+import xyz.gianlu.librespot.core.Session;
 
 import java.io.Closeable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Handles the queue of entries. Responsible for next/prev operations and executing each entry on the executor.
@@ -34,10 +33,11 @@ import java.util.concurrent.Executors;
  */
 final class PlayerQueue implements Closeable {
     private static final Logger LOGGER = LoggerFactory.getLogger(PlayerQueue.class);
-    private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "player-queue-" + r.hashCode()));
+    private final ExecutorService executorService;
     private PlayerQueueEntry head = null;
 
-    PlayerQueue() {
+    PlayerQueue(@NotNull Session session) {
+        this.executorService = session.executors().newUnboundedExecutor("player-queue");
     }
 
     /**
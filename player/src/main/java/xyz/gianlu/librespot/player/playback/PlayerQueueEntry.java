@@ -16,6 +16,7 @@
 
 package xyz.gianlu.librespot.player.playback;
 
+import com.spotify.metadata.Metadata;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
@@ -30,8 +31,11 @@ import xyz.gianlu.librespot.audio.decoders.VorbisOnlyAudioQuality;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.mercury.MercuryClient;
+import xyz.gianlu.librespot.metadata.ImageId;
 import xyz.gianlu.librespot.metadata.LocalId;
 import xyz.gianlu.librespot.metadata.PlayableId;
+import xyz.gianlu.librespot.metrics.Histogram;
+import xyz.gianlu.librespot.metrics.MetricsRegistry;
 import xyz.gianlu.librespot.player.PlayerConfiguration;
 import xyz.gianlu.librespot.player.StateWrapper;
 import xyz.gianlu.librespot.player.crossfade.CrossfadeController;
@@ -58,6 +62,7 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
     static final int INSTANT_PRELOAD = 1;
     static final int INSTANT_START_NEXT = 2;
     static final int INSTANT_END = 3;
+    static final Histogram DECODE_TIME = MetricsRegistry.global().histogram("librespot_decode_seconds", "Time to decode a packet, excluding time spent waiting for the output", Histogram.LATENCY_BUCKETS);
     private static final Logger LOGGER = LoggerFactory.getLogger(PlayerQueueEntry.class);
     final PlayableId playable;
     final String playbackId;
@@ -71,6 +76,7 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
     CrossfadeController crossfade;
     PlaybackMetrics.Reason endReason = PlaybackMetrics.Reason.END_PLAY;
     private Decoder decoder;
+    private volatile DecodeAheadBuffer decodeAhead;
     private DecodedAudioStream audioStream;
     private MetadataWrapper metadata;
     private volatile boolean closed = false;
@@ -110,7 +116,7 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
         PlayableContentFeeder.LoadedStream stream;
         if (playable instanceof LocalId)
             stream = PlayableContentFeeder.LoadedStream.forLocalFile((LocalId) playable,
-                    new File(conf.localFilesPath, ((LocalId) playable).name()));
+                    new File(conf.localFilesPath, ((LocalId) playable).name()), session);
         else
             stream = session.contentFeeder().load(playable, new VorbisOnlyAudioQuality(conf.preferredQuality), preload, this);
 
@@ -118,6 +124,11 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
         contentMetrics = stream.metrics;
         audioStream = stream.in;
 
+        Metadata.ImageGroup cover = metadata.getCoverImage();
+        ImageId coverImage;
+        if (cover != null && (coverImage = ImageId.biggestImage(cover)) != null)
+            session.images().prefetch(coverImage); // So that the track change doesn't wait for it
+
         if (metadata.isEpisode() && metadata.episode != null) {
             LOGGER.info("Loaded episode. {name: '{}', duration: {}, uri: {}, id: {}}", metadata.episode.getName(),
                     metadata.episode.getDuration(), playable.toSpotifyUri(), playbackId);
@@ -176,7 +187,8 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
      * @throws Decoder.CannotGetTimeException If the time is unavailable for the codec being used.
      */
     int getTime() throws Decoder.CannotGetTimeException {
-        return decoder == null ? -1 : decoder.time();
+        if (decodeAhead != null) return decodeAhead.time();
+        else return decoder == null ? -1 : decoder.time();
     }
 
     /**
@@ -255,7 +267,7 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
     void notifyInstant(int callbackId, int when) {
         if (decoder != null) {
             try {
-                int time = decoder.time();
+                int time = getTime();
                 if (time >= when) {
                     listener.instantReached(this, callbackId, time);
                     return;
@@ -286,6 +298,9 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
             seekTime = -1;
         }
 
+        if (conf.decodeAheadSeconds > 0 && !closed)
+            decodeAhead = new DecodeAheadBuffer(decoder, conf.decodeAheadSeconds, DECODE_TIME, session.executors(), playbackId);
+
         listener.finishedLoading(this, metadata);
 
         boolean canGetTime = true;
@@ -306,13 +321,14 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
             output.toggle(true, decoder.getAudioFormat());
 
             if (seekTime != -1) {
-                decoder.seek(seekTime);
+                if (decodeAhead != null) decodeAhead.seek(seekTime);
+                else decoder.seek(seekTime);
                 seekTime = -1;
             }
 
             if (canGetTime) {
                 try {
-                    int time = decoder.time();
+                    int time = getTime();
                     if (!notifyInstants.isEmpty()) checkInstants(time);
                     if (output == null)
                         continue;
@@ -324,9 +340,22 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
             }
 
             try {
-                if (decoder.writeSomeTo(output) == -1) {
+                int written;
+                if (decodeAhead != null) {
+                    written = decodeAhead.writeSomeTo(output);
+                } else {
+                    MixingLine.MixingOutput out = output;
+                    if (out == null) continue;
+
+                    long start = System.nanoTime();
+                    long blocked = out.writeNanos();
+                    written = decoder.writeSomeTo(out);
+                    DECODE_TIME.observe(((System.nanoTime() - start) - (out.writeNanos() - blocked)) / 1_000_000_000.0);
+                }
+
+                if (written == -1) {
                     try {
-                        int time = decoder.time();
+                        int time = getTime();
                         LOGGER.debug("Player time offset is {}. {id: {}}", metadata.duration() - time, playbackId);
                     } catch (Decoder.CannotGetTimeException ignored) {
                     }
@@ -378,6 +407,8 @@ class PlayerQueueEntry extends PlayerQueue.Entry implements Closeable, Runnable,
         closed = true;
         clearOutput();
 
+        if (decodeAhead != null) decodeAhead.close();
+
         try {
             if (decoder != null) decoder.close();
         } catch (IOException ignored) {
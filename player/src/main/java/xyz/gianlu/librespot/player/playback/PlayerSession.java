@@ -23,7 +23,6 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.audio.MetadataWrapper;
 import xyz.gianlu.librespot.audio.PlayableContentFeeder;
-import xyz.gianlu.librespot.common.NameThreadFactory;
 import xyz.gianlu.librespot.core.Session;
 import xyz.gianlu.librespot.metadata.PlayableId;
 import xyz.gianlu.librespot.player.PlayerConfiguration;
@@ -38,7 +37,6 @@ import java.io.Closeable;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * Handles a session which is a container for entries (each with its own playback ID). This is responsible for higher level prev/next operations (using {@link PlayerQueue},
@@ -48,7 +46,7 @@ import java.util.concurrent.Executors;
  */
 public class PlayerSession implements Closeable, PlayerQueueEntry.Listener {
     private static final Logger LOGGER = LoggerFactory.getLogger(PlayerSession.class);
-    private final ExecutorService executorService = Executors.newCachedThreadPool(new NameThreadFactory((r) -> "player-session-" + r.hashCode()));
+    private final ExecutorService executorService;
     private final Session session;
     private final AudioSink sink;
     private final PlayerConfiguration conf;
@@ -65,7 +63,8 @@ public class PlayerSession implements Closeable, PlayerQueueEntry.Listener {
         this.conf = conf;
         this.sessionId = sessionId;
         this.listener = listener;
-        this.queue = new PlayerQueue();
+        this.executorService = session.executors().newUnboundedExecutor("player-session");
+        this.queue = new PlayerQueue(session);
         LOGGER.info("Created new session. {id: {}}", sessionId);
 
         sink.clearOutputs();
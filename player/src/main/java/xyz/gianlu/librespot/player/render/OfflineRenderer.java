@@ -0,0 +1,313 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.render;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.audio.PlayableContentFeeder;
+import xyz.gianlu.librespot.audio.cdn.CdnManager;
+import xyz.gianlu.librespot.audio.decoders.Decoders;
+import xyz.gianlu.librespot.audio.decoders.VorbisOnlyAudioQuality;
+import xyz.gianlu.librespot.core.Session;
+import xyz.gianlu.librespot.mercury.MercuryClient;
+import xyz.gianlu.librespot.metadata.LocalId;
+import xyz.gianlu.librespot.metadata.PlayableId;
+import xyz.gianlu.librespot.player.PlayerConfiguration;
+import xyz.gianlu.librespot.player.StateWrapper;
+import xyz.gianlu.librespot.player.crossfade.CrossfadeController;
+import xyz.gianlu.librespot.player.decoders.Decoder;
+import xyz.gianlu.librespot.player.metrics.PlaybackMetrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes content to WAV or raw PCM files as fast as possible, without going through the {@link xyz.gianlu.librespot.player.mixing.AudioSink}.
+ * Multiple items are rendered in parallel.
+ *
+ * @author devgianlu
+ */
+public final class OfflineRenderer implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(OfflineRenderer.class);
+    private final Session session;
+    private final PlayerConfiguration playerConf;
+    private final Configuration conf;
+    private final ExecutorService executorService;
+
+    public OfflineRenderer(@NotNull Session session, @NotNull PlayerConfiguration playerConf, @NotNull Configuration conf) {
+        this.session = session;
+        this.playerConf = playerConf;
+        this.conf = conf;
+
+        int threads = conf.threads > 0 ? conf.threads : Runtime.getRuntime().availableProcessors();
+        this.executorService = session.executors().newExecutor("offline-render", threads);
+    }
+
+    @NotNull
+    private static String fileName(@NotNull PlayableId id) {
+        return id.toSpotifyUri().replaceAll("[^a-zA-Z0-9._-]", "_");
+    }
+
+    /**
+     * Renders the given content to {@param out}. This runs on the calling thread.
+     *
+     * @param id  The content to render
+     * @param out The output file, overwritten if it exists
+     * @return The result of the rendering
+     */
+    @NotNull
+    public Result render(@NotNull PlayableId id, @NotNull File out) throws IOException, Decoder.DecoderException, MercuryClient.MercuryException, CdnManager.CdnException, PlayableContentFeeder.ContentRestrictedException {
+        long start = System.nanoTime();
+
+        PlayableContentFeeder.LoadedStream stream;
+        if (id instanceof LocalId)
+            stream = PlayableContentFeeder.LoadedStream.forLocalFile((LocalId) id, new File(playerConf.localFilesPath, ((LocalId) id).name()), session);
+        else
+            stream = session.contentFeeder().load(id, new VorbisOnlyAudioQuality(playerConf.preferredQuality), false, null);
+
+        float normalizationFactor;
+        if (stream.normalizationData == null || !conf.normalisation) normalizationFactor = 1;
+        else normalizationFactor = stream.normalizationData.getFactor(playerConf.normalisationPregain);
+
+        Decoder decoder = null;
+        Iterator<Decoder> iter = Decoders.initDecoder(stream.in.codec(), stream.in.stream(), normalizationFactor, stream.metadata.duration());
+        while (iter.hasNext()) {
+            decoder = iter.next();
+            if (decoder != null) break;
+        }
+
+        if (decoder == null) {
+            stream.in.stream().close();
+            throw new UnsupportedEncodingException(stream.in.codec().toString());
+        }
+
+        CrossfadeController crossfade = null;
+        if (conf.crossfade) {
+            crossfade = new CrossfadeController(StateWrapper.generatePlaybackId(session.random()), stream.metadata.duration(), Collections.emptyMap(), playerConf);
+            crossfade.selectFadeIn(PlaybackMetrics.Reason.TRACK_DONE, false);
+            crossfade.selectFadeOut(PlaybackMetrics.Reason.TRACK_DONE, false);
+        }
+
+        try (PcmFileWriter writer = new PcmFileWriter(out, decoder.getAudioFormat(), conf.format == Format.WAV, crossfade)) {
+            int count;
+            do {
+                count = decoder.writeSomeTo(writer);
+            } while (count != -1);
+
+            Result result = new Result(id, out, writer.writtenMs(), (System.nanoTime() - start) / 1_000_000, null);
+            LOGGER.info("Rendered {} to {}. {audio: {}ms, took: {}ms, realtimeFactor: {}}", id.toSpotifyUri(), out, result.audioMs, result.elapsedMs, String.format("%.1f", result.realtimeFactor()));
+            return result;
+        } finally {
+            decoder.close();
+        }
+    }
+
+    /**
+     * Renders all the given content in parallel to {@param outDir}, one file per item.
+     *
+     * @param ids    The content to render
+     * @param outDir The output directory
+     * @return The results in the same order as {@param ids}, failed items have {@link Result#error} set
+     */
+    @NotNull
+    public Report renderAll(@NotNull List<PlayableId> ids, @NotNull File outDir) throws IOException {
+        if (!outDir.exists() && !outDir.mkdirs())
+            throw new IOException("Failed creating output directory: " + outDir);
+
+        long start = System.nanoTime();
+        List<Future<Result>> futures = new ArrayList<>(ids.size());
+        for (PlayableId id : ids) {
+            File out = new File(outDir, fileName(id) + (conf.format == Format.WAV ? ".wav" : ".pcm"));
+            futures.add(executorService.submit(() -> {
+                try {
+                    return render(id, out);
+                } catch (IOException | Decoder.DecoderException | MercuryClient.MercuryException | CdnManager.CdnException | PlayableContentFeeder.ContentRestrictedException ex) {
+                    LOGGER.error("Failed rendering {}.", id.toSpotifyUri(), ex);
+                    return new Result(id, out, 0, 0, ex);
+                }
+            }));
+        }
+
+        List<Result> results = new ArrayList<>(ids.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while rendering", ex);
+            } catch (ExecutionException ex) {
+                results.add(new Result(ids.get(i), outDir, 0, 0, ex.getCause()));
+            }
+        }
+
+        Report report = new Report(results, (System.nanoTime() - start) / 1_000_000);
+        LOGGER.info("Rendered {} of {} items. {audio: {}ms, took: {}ms, realtimeFactor: {}}", report.succeeded(), results.size(),
+                report.audioMs(), report.elapsedMs, String.format("%.1f", report.realtimeFactor()));
+        return report;
+    }
+
+    @Override
+    public void close() {
+        executorService.shutdownNow();
+    }
+
+    public enum Format {
+        WAV, RAW
+    }
+
+    public static final class Result {
+        public final PlayableId id;
+        public final File file;
+        public final long audioMs;
+        public final long elapsedMs;
+        public final Throwable error;
+
+        Result(@NotNull PlayableId id, @NotNull File file, long audioMs, long elapsedMs, @Nullable Throwable error) {
+            this.id = id;
+            this.file = file;
+            this.audioMs = audioMs;
+            this.elapsedMs = elapsedMs;
+            this.error = error;
+        }
+
+        /**
+         * @return How many times faster than realtime the content has been rendered
+         */
+        public double realtimeFactor() {
+            return elapsedMs == 0 ? 0 : (double) audioMs / elapsedMs;
+        }
+    }
+
+    public static final class Report {
+        public final List<Result> results;
+        public final long elapsedMs;
+
+        Report(@NotNull List<Result> results, long elapsedMs) {
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedMs = elapsedMs;
+        }
+
+        public int succeeded() {
+            int count = 0;
+            for (Result result : results)
+                if (result.error == null) count++;
+
+            return count;
+        }
+
+        public long audioMs() {
+            long total = 0;
+            for (Result result : results) total += result.audioMs;
+            return total;
+        }
+
+        /**
+         * @return How many times faster than realtime the whole batch has been rendered, wall clock
+         */
+        public double realtimeFactor() {
+            return elapsedMs == 0 ? 0 : (double) audioMs() / elapsedMs;
+        }
+    }
+
+    public static final class Configuration {
+        public final boolean enabled;
+        public final List<PlayableId> uris;
+        public final File outputDir;
+        public final Format format;
+        public final boolean normalisation;
+        public final boolean crossfade;
+        public final int threads;
+
+        private Configuration(boolean enabled, @NotNull List<PlayableId> uris, @NotNull File outputDir, @NotNull Format format, boolean normalisation, boolean crossfade, int threads) {
+            this.enabled = enabled;
+            this.uris = uris;
+            this.outputDir = outputDir;
+            this.format = format;
+            this.normalisation = normalisation;
+            this.crossfade = crossfade;
+            this.threads = threads;
+        }
+
+        public static final class Builder {
+            private final List<PlayableId> uris = new ArrayList<>();
+            private boolean enabled = false;
+            private File outputDir = new File("render");
+            private Format format = Format.WAV;
+            private boolean normalisation = false;
+            private boolean crossfade = false;
+            private int threads = 0;
+
+            public Builder() {
+            }
+
+            public Builder setEnabled(boolean enabled) {
+                this.enabled = enabled;
+                return this;
+            }
+
+            public Builder addUri(@NotNull String uri) {
+                this.uris.add(PlayableId.fromUri(uri));
+                return this;
+            }
+
+            public Builder setOutputDir(@NotNull File outputDir) {
+                this.outputDir = outputDir;
+                return this;
+            }
+
+            public Builder setFormat(@NotNull Format format) {
+                this.format = format;
+                return this;
+            }
+
+            public Builder setNormalisation(boolean normalisation) {
+                this.normalisation = normalisation;
+                return this;
+            }
+
+            public Builder setCrossfade(boolean crossfade) {
+                this.crossfade = crossfade;
+                return this;
+            }
+
+            /**
+             * @param threads The number of items rendered in parallel, {@code 0} to use all available processors
+             */
+            public Builder setThreads(int threads) {
+                if (threads < 0) throw new IllegalArgumentException("Threads must be positive or zero: " + threads);
+                this.threads = threads;
+                return this;
+            }
+
+            @NotNull
+            public Configuration build() {
+                return new Configuration(enabled, Collections.unmodifiableList(new ArrayList<>(uris)), outputDir, format, normalisation, crossfade, threads);
+            }
+        }
+    }
+}
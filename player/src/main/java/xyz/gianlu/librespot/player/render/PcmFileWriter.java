@@ -0,0 +1,189 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.render;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import xyz.gianlu.librespot.player.crossfade.CrossfadeController;
+import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
+
+import java.io.*;
+
+/**
+ * Writes decoded PCM to a file, optionally applying the crossfade gain and wrapping it in a WAV container.
+ *
+ * @author devgianlu
+ */
+final class PcmFileWriter extends OutputStream {
+    private static final int WAV_HEADER_SIZE = 44;
+    private final File file;
+    private final OutputStream out;
+    private final OutputAudioFormat format;
+    private final boolean wav;
+    private final CrossfadeController crossfade;
+    private final byte[] buffer = new byte[8192];
+    private long written = 0;
+    private int pendingLow = -1;
+    private int gainTime = -1;
+    private float gain = 1;
+
+    PcmFileWriter(@NotNull File file, @NotNull OutputAudioFormat format, boolean wav, @Nullable CrossfadeController crossfade) throws IOException {
+        if (wav && format.isBigEndian())
+            throw new UnsupportedEncodingException("WAV requires little-endian PCM: " + format);
+        if (crossfade != null && (format.getSampleSizeInBits() != 16 || format.isBigEndian()))
+            throw new UnsupportedEncodingException("Crossfade requires 16 bit little-endian PCM: " + format);
+
+        this.file = file;
+        this.format = format;
+        this.wav = wav;
+        this.crossfade = crossfade;
+        this.out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+
+        if (wav) out.write(new byte[WAV_HEADER_SIZE]);
+    }
+
+    private static void writeIntLE(@NotNull byte[] b, int off, int val) {
+        b[off] = (byte) val;
+        b[off + 1] = (byte) (val >>> 8);
+        b[off + 2] = (byte) (val >>> 16);
+        b[off + 3] = (byte) (val >>> 24);
+    }
+
+    private static void writeShortLE(@NotNull byte[] b, int off, int val) {
+        b[off] = (byte) val;
+        b[off + 1] = (byte) (val >>> 8);
+    }
+
+    @NotNull
+    private static byte[] wavHeader(@NotNull OutputAudioFormat format, long dataSize) {
+        int dataLength = (int) Math.min(dataSize, 0xFFFFFFFFL - WAV_HEADER_SIZE);
+        int sampleRate = (int) format.getSampleRate();
+
+        byte[] header = new byte[WAV_HEADER_SIZE];
+        header[0] = 'R';
+        header[1] = 'I';
+        header[2] = 'F';
+        header[3] = 'F';
+        writeIntLE(header, 4, dataLength + WAV_HEADER_SIZE - 8);
+        header[8] = 'W';
+        header[9] = 'A';
+        header[10] = 'V';
+        header[11] = 'E';
+        header[12] = 'f';
+        header[13] = 'm';
+        header[14] = 't';
+        header[15] = ' ';
+        writeIntLE(header, 16, 16);
+        writeShortLE(header, 20, 1); // PCM
+        writeShortLE(header, 22, format.getChannels());
+        writeIntLE(header, 24, sampleRate);
+        writeIntLE(header, 28, sampleRate * format.getFrameSize());
+        writeShortLE(header, 32, format.getFrameSize());
+        writeShortLE(header, 34, format.getSampleSizeInBits());
+        header[36] = 'd';
+        header[37] = 'a';
+        header[38] = 't';
+        header[39] = 'a';
+        writeIntLE(header, 40, dataLength);
+        return header;
+    }
+
+    /**
+     * @return The number of PCM bytes written so far
+     */
+    long written() {
+        return written;
+    }
+
+    /**
+     * @return The amount of audio written so far, in milliseconds
+     */
+    long writtenMs() {
+        return written * 1000 / (long) (format.getFrameSize() * format.getFrameRate());
+    }
+
+    private float gainAt(long sample) {
+        int time = (int) (sample / format.getChannels() * 1000 / (long) format.getSampleRate());
+        if (time != gainTime) {
+            gainTime = time;
+            gain = crossfade.getGain(time);
+        }
+
+        return gain;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(@NotNull byte[] b, int off, int len) throws IOException {
+        if (crossfade == null) {
+            out.write(b, off, len);
+            written += len;
+            return;
+        }
+
+        int end = off + len;
+        while (off < end) {
+            int count = 0;
+            while (off < end && count < buffer.length - 1) {
+                if (pendingLow == -1) {
+                    pendingLow = b[off++] & 0xFF;
+                    continue;
+                }
+
+                int val = (short) (pendingLow | ((b[off++] & 0xFF) << 8));
+                pendingLow = -1;
+
+                float gain = gainAt((written + count) / 2);
+                if (gain != 1) {
+                    val *= gain;
+                    if (val > 32767) val = 32767;
+                    else if (val < -32768) val = -32768;
+                }
+
+                buffer[count++] = (byte) val;
+                buffer[count++] = (byte) (val >>> 8);
+            }
+
+            out.write(buffer, 0, count);
+            written += count;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Closes the file and fills in the WAV header sizes.
+     */
+    @Override
+    public void close() throws IOException {
+        out.close();
+
+        if (wav) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(0);
+                raf.write(wavHeader(format, written));
+            }
+        }
+    }
+}
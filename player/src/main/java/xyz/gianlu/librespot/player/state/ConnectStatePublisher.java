@@ -0,0 +1,240 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.state;
+
+import com.spotify.connectstate.Connect;
+import com.spotify.connectstate.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import xyz.gianlu.librespot.common.NameThreadFactory;
+
+import java.io.Closeable;
+import java.util.Objects;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Publishes {@link Connect.PutStateRequest}s keeping only the latest pending one. Requests that don't change anything meaningful
+ * are dropped and the others are sent at most once every {@code minIntervalMs}, unless they represent a user-visible transition.
+ *
+ * @author devgianlu
+ */
+final class ConnectStatePublisher implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConnectStatePublisher.class);
+    private static final long POSITION_TOLERANCE_MS = 100;
+    private final Consumer<Connect.PutStateRequest> sender;
+    private final long minIntervalMs;
+    private final ScheduledExecutorService executorService;
+    private Connect.PutStateRequest pending = null;
+    private Connect.PutStateRequest lastSent = null;
+    private long lastSentAt = 0;
+    private ScheduledFuture<?> scheduled = null;
+    private long scheduledAt = 0;
+    private boolean closed = false;
+    private int sent = 0;
+    private int coalesced = 0;
+    private int skipped = 0;
+
+    /**
+     * @param name          The name of the worker thread
+     * @param minIntervalMs The minimum interval between two non-priority requests
+     * @param sender        Performs the request, this is always called from the same thread
+     */
+    ConnectStatePublisher(@NotNull String name, long minIntervalMs, @NotNull Consumer<Connect.PutStateRequest> sender) {
+        this.sender = sender;
+        this.minIntervalMs = minIntervalMs;
+        this.executorService = Executors.newSingleThreadScheduledExecutor(new NameThreadFactory(r -> name));
+    }
+
+    private static long now() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    private static int reasonPriority(@NotNull Connect.PutStateReason reason) {
+        switch (reason) {
+            case BECAME_INACTIVE:
+                return 3;
+            case NEW_DEVICE:
+                return 2;
+            case PLAYER_STATE_CHANGED:
+                return 1;
+            default:
+                return 0;
+        }
+    }
+
+    @NotNull
+    private static Connect.PutStateReason mergeReasons(@NotNull Connect.PutStateReason a, @NotNull Connect.PutStateReason b) {
+        return reasonPriority(a) > reasonPriority(b) ? a : b;
+    }
+
+    /**
+     * @return The position at timestamp zero if playing, the position itself otherwise
+     */
+    private static long positionAnchor(@NotNull Player.PlayerState state) {
+        if (state.getIsPlaying() && !state.getIsPaused())
+            return state.getPositionAsOfTimestamp() - state.getTimestamp();
+        else
+            return state.getPositionAsOfTimestamp();
+    }
+
+    @NotNull
+    private static Connect.PutStateRequest stripVolatileFields(@NotNull Connect.PutStateRequest req) {
+        Connect.PutStateRequest.Builder builder = req.toBuilder()
+                .clearClientSideTimestamp()
+                .clearHasBeenPlayingForMs()
+                .clearPutStateReason()
+                .clearMessageId();
+
+        builder.getDeviceBuilder().getPlayerStateBuilder()
+                .clearTimestamp()
+                .clearPositionAsOfTimestamp();
+
+        return builder.build();
+    }
+
+    /**
+     * @return Whether {@param b} differs from {@param a} in anything but timestamps or an extrapolated position
+     */
+    static boolean hasChanged(@NotNull Connect.PutStateRequest a, @NotNull Connect.PutStateRequest b) {
+        Player.PlayerState as = a.getDevice().getPlayerState();
+        Player.PlayerState bs = b.getDevice().getPlayerState();
+        if (Math.abs(positionAnchor(as) - positionAnchor(bs)) > POSITION_TOLERANCE_MS)
+            return true;
+
+        return !stripVolatileFields(a).equals(stripVolatileFields(b));
+    }
+
+    /**
+     * @return Whether requests with this reason must always reach the server, even if the state is unchanged
+     */
+    private static boolean isPriorityReason(@NotNull Connect.PutStateReason reason) {
+        return reason == Connect.PutStateReason.NEW_DEVICE || reason == Connect.PutStateReason.BECAME_INACTIVE;
+    }
+
+    /**
+     * @return Whether {@param req} is a user-visible transition from {@param prev} that shouldn't be delayed
+     */
+    static boolean isPriority(@Nullable Connect.PutStateRequest prev, @NotNull Connect.PutStateRequest req) {
+        if (prev == null || isPriorityReason(req.getPutStateReason())) return true;
+
+        if (prev.getIsActive() != req.getIsActive()) return true;
+
+        Player.PlayerState ps = prev.getDevice().getPlayerState();
+        Player.PlayerState rs = req.getDevice().getPlayerState();
+        return ps.getIsPlaying() != rs.getIsPlaying()
+                || ps.getIsPaused() != rs.getIsPaused()
+                || !Objects.equals(ps.getPlaybackId(), rs.getPlaybackId())
+                || !Objects.equals(ps.getContextUri(), rs.getContextUri())
+                || !Objects.equals(ps.getTrack().getUri(), rs.getTrack().getUri());
+    }
+
+    /**
+     * Queues the request, replacing any other pending one.
+     *
+     * @throws RejectedExecutionException If this publisher has been closed
+     */
+    synchronized void publish(@NotNull Connect.PutStateRequest req) {
+        if (closed) throw new RejectedExecutionException("Publisher is closed");
+
+        Connect.PutStateRequest base = pending != null ? pending : lastSent;
+        boolean changed = base == null || hasChanged(base, req);
+        if (!changed && pending == null && !isPriorityReason(req.getPutStateReason())) {
+            skipped++;
+            return;
+        }
+
+        boolean priority = isPriority(lastSent, req) || (pending != null && isPriority(lastSent, pending));
+        if (pending != null) {
+            req = req.toBuilder().setPutStateReason(mergeReasons(pending.getPutStateReason(), req.getPutStateReason())).build();
+            coalesced++;
+        }
+
+        pending = req;
+
+        long now = now();
+        long delay = priority ? 0 : Math.max(0, lastSentAt + minIntervalMs - now);
+        if (scheduled != null) {
+            if (scheduledAt <= now + delay) return;
+            scheduled.cancel(false);
+        }
+
+        scheduledAt = now + delay;
+        scheduled = executorService.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Forgets the last sent request, so that the next one is sent regardless. Must be called when the connection ID changes.
+     */
+    synchronized void reset() {
+        lastSent = null;
+    }
+
+    private void flush() {
+        Connect.PutStateRequest req;
+        synchronized (this) {
+            req = pending;
+            pending = null;
+            scheduled = null;
+            if (req == null) return;
+
+            lastSent = req;
+            lastSentAt = now();
+            sent++;
+        }
+
+        try {
+            sender.accept(req);
+        } catch (RuntimeException ex) {
+            LOGGER.error("Failed sending state.", ex);
+        }
+    }
+
+    /**
+     * @return The number of requests sent, coalesced into a newer one and skipped because unchanged
+     */
+    @NotNull
+    synchronized int[] stats() {
+        return new int[]{sent, coalesced, skipped};
+    }
+
+    /**
+     * Sends the pending request, if any, and stops the worker.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+
+            if (scheduled != null && scheduled.cancel(false)) {
+                scheduled = null;
+                executorService.execute(this::flush);
+            }
+
+            LOGGER.trace("Closing publisher. {sent: {}, coalesced: {}, skipped: {}}", sent, coalesced, skipped);
+        }
+
+        executorService.shutdown();
+    }
+
+    boolean awaitTermination(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+        return executorService.awaitTermination(timeout, unit);
+    }
+}
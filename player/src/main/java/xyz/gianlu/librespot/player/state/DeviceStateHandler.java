@@ -29,7 +29,6 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import xyz.gianlu.librespot.Version;
-import xyz.gianlu.librespot.common.AsyncWorker;
 import xyz.gianlu.librespot.common.ProtoUtils;
 import xyz.gianlu.librespot.common.Utils;
 import xyz.gianlu.librespot.core.Session;
@@ -52,6 +51,7 @@ import java.util.concurrent.RejectedExecutionException;
  */
 public final class DeviceStateHandler implements Closeable, DealerClient.MessageListener, DealerClient.RequestListener {
     private static final Logger LOGGER = LoggerFactory.getLogger(DeviceStateHandler.class);
+    private static final long PUT_STATE_MIN_INTERVAL_MS = 500;
 
     static {
         try {
@@ -65,7 +65,7 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
     private final Connect.DeviceInfo.Builder deviceInfo;
     private final List<Listener> listeners = Collections.synchronizedList(new ArrayList<>());
     private final Connect.PutStateRequest.Builder putState;
-    private final AsyncWorker<Connect.PutStateRequest> putStateWorker;
+    private final ConnectStatePublisher putStatePublisher;
     private volatile String connectionId = null;
     private volatile boolean closing = false;
     private String lastCommandSentByDeviceId;
@@ -73,7 +73,7 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
     public DeviceStateHandler(@NotNull Session session, @NotNull PlayerConfiguration conf) {
         this.session = session;
         this.deviceInfo = initializeDeviceInfo(session, conf);
-        this.putStateWorker = new AsyncWorker<>("put-state-worker", this::putConnectState);
+        this.putStatePublisher = new ConnectStatePublisher("put-state-worker", PUT_STATE_MIN_INTERVAL_MS, this::putConnectState);
         this.putState = Connect.PutStateRequest.newBuilder()
                 .setMemberType(Connect.MemberType.CONNECT_STATE)
                 .setDevice(Connect.Device.newBuilder()
@@ -152,6 +152,7 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
 
         if (connectionId == null || !connectionId.equals(newer)) {
             connectionId = newer;
+            putStatePublisher.reset();
             LOGGER.debug("Updated Spotify-Connection-Id: " + connectionId);
             notifyReady();
         }
@@ -198,6 +199,13 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
         return putState.getStartedPlayingAt();
     }
 
+    /**
+     * @return Whether the connection ID has been received and the state can be put
+     */
+    public boolean isReady() {
+        return connectionId != null;
+    }
+
     public synchronized boolean isActive() {
         return putState.getIsActive();
     }
@@ -231,7 +239,7 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
                 .setPlayerState(state);
 
         try {
-            putStateWorker.submit(putState.build());
+            putStatePublisher.publish(putState.build());
         } catch (RejectedExecutionException ex) {
             if (!closing) LOGGER.error("Failed to submit update state task.", ex);
         }
@@ -257,12 +265,12 @@ public final class DeviceStateHandler implements Closeable, DealerClient.Message
         session.dealer().removeMessageListener(this);
         session.dealer().removeRequestListener(this);
 
-        putStateWorker.close();
+        putStatePublisher.close();
         listeners.clear();
     }
 
     /**
-     * Performs the network request related to {@link Connect.PutStateRequest}. This MUST be called only from {@link DeviceStateHandler#putStateWorker}.
+     * Performs the network request related to {@link Connect.PutStateRequest}. This MUST be called only from {@link DeviceStateHandler#putStatePublisher}.
      *
      * @param req The {@link Connect.PutStateRequest}
      */
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.spotify.context.ContextPageOuterClass.ContextPage;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class PagesLoaderTest {
+    private static final int PAGES = 20;
+    private static final int PAGE_SIZE = 50;
+    private ExecutorService executor;
+
+    @NotNull
+    private static List<ContextTrack> tracks(int page) {
+        List<ContextTrack> tracks = new ArrayList<>(PAGE_SIZE);
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            int id = page * PAGE_SIZE + i;
+            tracks.add(ContextTrack.newBuilder().setUri("spotify:track:" + id).setUid("uid" + id).build());
+        }
+
+        return tracks;
+    }
+
+    @NotNull
+    private static List<ContextPage> pageUrls() {
+        List<ContextPage> pages = new ArrayList<>(PAGES);
+        pages.add(ContextPage.newBuilder().addAllTracks(tracks(0)).build());
+        for (int i = 1; i < PAGES; i++) pages.add(ContextPage.newBuilder().setPageUrl("hm://page/" + i).build());
+        return pages;
+    }
+
+    private static int pageFromUrl(@NotNull String url) {
+        return Integer.parseInt(url.substring(url.lastIndexOf('/') + 1));
+    }
+
+    @BeforeEach
+    void setUp() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void testWindowedPrefetch() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher(20);
+        PagesLoader loader = new PagesLoader(fetcher, executor);
+        loader.putFirstPages(pageUrls(), null);
+
+        int page = 0;
+        while (true) {
+            loader.prefetch(PagesLoader.FETCH_WINDOW);
+            if (!loader.nextPage()) break;
+
+            assertEquals(tracks(page), loader.currentPage());
+            page++;
+        }
+
+        assertEquals(PAGES, page);
+        assertEquals(PAGES - 1, fetcher.calls.get());
+        assertTrue(fetcher.maxConcurrent.get() > 1, "Max concurrent: " + fetcher.maxConcurrent);
+        assertTrue(fetcher.maxConcurrent.get() <= PagesLoader.FETCH_WINDOW, "Max concurrent: " + fetcher.maxConcurrent);
+    }
+
+    @Test
+    void testPageIndex() throws Exception {
+        PagesLoader loader = new PagesLoader(new FakeFetcher(0), null);
+        loader.putFirstPages(pageUrls(), null);
+        assertEquals(0, loader.pageOf("spotify:track:3", null));
+        assertEquals(-1, loader.pageOf("spotify:track:" + (3 * PAGE_SIZE), null));
+
+        for (int i = 0; i < 4; i++) assertTrue(loader.nextPage());
+        assertEquals(3, loader.pageOf("spotify:track:" + (3 * PAGE_SIZE), null));
+        assertEquals(3, loader.pageOf(null, "uid" + (3 * PAGE_SIZE + 7)));
+        assertEquals(2, loader.pageOf("unknown", "uid" + (2 * PAGE_SIZE)));
+        assertEquals(-1, loader.pageOf(null, null));
+    }
+
+    @Test
+    void testNextPageUrlChain() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher(0);
+        PagesLoader loader = new PagesLoader(fetcher, executor);
+        List<ContextPage> pages = new ArrayList<>();
+        pages.add(ContextPage.newBuilder().addAllTracks(tracks(0)).setNextPageUrl("hm://page/1").build());
+        loader.putFirstPages(pages, null);
+
+        loader.prefetch(PagesLoader.FETCH_WINDOW);
+        assertTrue(loader.nextPage());
+        assertTrue(loader.nextPage());
+        assertEquals(tracks(1), loader.currentPage());
+        assertFalse(loader.nextPage());
+        assertEquals(1, fetcher.calls.get());
+    }
+
+    @Test
+    void testPrefetchFailure() throws Exception {
+        FakeFetcher fetcher = new FakeFetcher(0);
+        fetcher.failing = 2;
+
+        PagesLoader loader = new PagesLoader(fetcher, executor);
+        loader.putFirstPages(pageUrls(), null);
+        loader.prefetch(PagesLoader.FETCH_WINDOW);
+
+        assertTrue(loader.nextPage());
+        assertTrue(loader.nextPage());
+        assertThrows(IOException.class, loader::nextPage);
+    }
+
+    private static class FakeFetcher implements PagesLoader.Fetcher {
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+        private final AtomicInteger concurrent = new AtomicInteger();
+        private final long latencyMs;
+        volatile int failing = -1;
+
+        FakeFetcher(long latencyMs) {
+            this.latencyMs = latencyMs;
+        }
+
+        @Override
+        public @NotNull List<ContextPage> resolveContext(@NotNull String uri) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public @NotNull List<ContextTrack> fetchTracks(@NotNull String url) throws IOException {
+            calls.incrementAndGet();
+            maxConcurrent.accumulateAndGet(concurrent.incrementAndGet(), Math::max);
+            try {
+                if (latencyMs > 0) Thread.sleep(latencyMs);
+
+                int page = pageFromUrl(url);
+                if (page == failing) throw new IOException("Failed loading page " + page);
+                return tracks(page);
+            } catch (InterruptedException ex) {
+                throw new IOException(ex);
+            } finally {
+                concurrent.decrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.spotify.connectstate.Player.ProvidedTrack;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class ProvidedTrackCacheTest {
+    private static final String CONTEXT = "spotify:playlist:37i9dQZF1DXcBWIGoYBM5M";
+
+    private static ContextTrack track(int i) {
+        return ContextTrack.newBuilder().setUri("spotify:track:" + i).setUid("uid" + i).build();
+    }
+
+    @Test
+    void testIdentity() {
+        ProvidedTrackCache cache = new ProvidedTrackCache(10);
+        ContextTrack track = track(1);
+
+        ProvidedTrack provided = cache.get(track, CONTEXT);
+        assertEquals("spotify:track:1", provided.getUri());
+        assertSame(provided, cache.get(track, CONTEXT));
+
+        ContextTrack modified = track.toBuilder().putMetadata("duration", "1000").build();
+        ProvidedTrack other = cache.get(modified, CONTEXT);
+        assertNotSame(provided, other);
+        assertEquals("1000", other.getMetadataOrThrow("duration"));
+
+        assertNotSame(provided, cache.get(track, "spotify:album:other"));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testGenerations() {
+        ProvidedTrackCache cache = new ProvidedTrackCache(10);
+        ContextTrack[] tracks = new ContextTrack[30];
+        for (int i = 0; i < tracks.length; i++) tracks[i] = track(i);
+
+        ProvidedTrack first = cache.get(tracks[0], CONTEXT);
+        for (int i = 1; i < 15; i++) cache.get(tracks[i], CONTEXT);
+        assertSame(first, cache.get(tracks[0], CONTEXT));
+
+        for (int i = 15; i < 30; i++) cache.get(tracks[i], CONTEXT);
+        assertTrue(cache.size() <= 20, "Size: " + cache.size());
+        assertNotSame(first, cache.get(tracks[0], CONTEXT));
+    }
+}
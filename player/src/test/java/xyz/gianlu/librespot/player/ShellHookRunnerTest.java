@@ -0,0 +1,190 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.player;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.metrics.MetricsRegistry;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class ShellHookRunnerTest {
+
+    private static void awaitIdle(@NotNull ShellHookRunner runner, long expected) throws InterruptedException {
+        for (int i = 0; i < 200; i++) {
+            ShellEvents.Stats stats = runner.stats();
+            if (stats.queueDepth == 0 && stats.executed + stats.failed + stats.timedOut >= expected) return;
+            Thread.sleep(10);
+        }
+
+        fail("Runner didn't finish: " + runner.stats());
+    }
+
+    private static double sample(@NotNull String series) {
+        for (String line : MetricsRegistry.global().toPrometheus().split("\n"))
+            if (line.startsWith(series + " ")) return Double.parseDouble(line.substring(series.length() + 1));
+
+        return 0;
+    }
+
+    @Test
+    void testDoesNotBlockAndKeepsOrder() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> launched = Collections.synchronizedList(new ArrayList<>());
+        try (ShellHookRunner runner = new ShellHookRunner((command, envp) -> {
+            launched.add(command);
+            return new FakeProcess(release, 0);
+        }, 10, 0)) {
+            long start = System.nanoTime();
+            for (int i = 0; i < 5; i++) assertTrue(runner.submit("hook" + i, "cmd" + i, false));
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 100);
+
+            release.countDown();
+            awaitIdle(runner, 5);
+            assertEquals(5, runner.stats().executed);
+            for (int i = 0; i < 5; i++) assertEquals("cmd" + i, launched.get(i));
+        }
+    }
+
+    @Test
+    void testCoalescesAndDrops() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> env = Collections.synchronizedList(new ArrayList<>());
+        try (ShellHookRunner runner = new ShellHookRunner((command, envp) -> {
+            env.add(envp == null || envp.length == 0 ? command : envp[0]);
+            return new FakeProcess(release, 0);
+        }, 3, 0)) {
+            double coalesced = sample("librespot_shell_hooks_total{result=\"coalesced\"}");
+            double dropped = sample("librespot_shell_hooks_total{result=\"dropped\"}");
+            double executed = sample("librespot_shell_hooks_total{result=\"executed\"}");
+
+            assertTrue(runner.submit("blocker", "blocker", false));
+            Thread.sleep(50); // Let the runner pick it up
+
+            for (int i = 0; i < 10; i++) assertTrue(runner.submit("seek", "seek", true, "POSITION=" + i));
+            assertTrue(runner.submit("paused", "paused", false));
+            assertTrue(runner.submit("resumed", "resumed", false));
+            assertFalse(runner.submit("ended", "ended", false));
+
+            ShellEvents.Stats stats = runner.stats();
+            assertEquals(3, stats.queueDepth);
+            assertEquals(9, stats.coalesced);
+            assertEquals(1, stats.dropped);
+            assertEquals(coalesced + 9, sample("librespot_shell_hooks_total{result=\"coalesced\"}"));
+            assertEquals(dropped + 1, sample("librespot_shell_hooks_total{result=\"dropped\"}"));
+
+            release.countDown();
+            awaitIdle(runner, 4);
+            assertEquals(executed + 4, sample("librespot_shell_hooks_total{result=\"executed\"}"));
+            assertEquals("blocker", env.get(0));
+            assertEquals("POSITION=9", env.get(1));
+            assertEquals("paused", env.get(2));
+            assertEquals("resumed", env.get(3));
+        }
+    }
+
+    @Test
+    void testTimeout() throws InterruptedException {
+        CountDownLatch never = new CountDownLatch(1);
+        List<FakeProcess> processes = Collections.synchronizedList(new ArrayList<>());
+        try (ShellHookRunner runner = new ShellHookRunner((command, envp) -> {
+            FakeProcess p = new FakeProcess(command.equals("slow") ? never : new CountDownLatch(0), 0);
+            processes.add(p);
+            return p;
+        }, 10, 1)) {
+            runner.submit("slow", "slow", false);
+            runner.submit("fast", "fast", false);
+
+            Thread.sleep(1500);
+            awaitIdle(runner, 2);
+
+            ShellEvents.Stats stats = runner.stats();
+            assertEquals(1, stats.timedOut);
+            assertEquals(1, stats.executed);
+            assertTrue(processes.get(0).destroyed);
+            assertTrue(stats.maxLatencyMs >= 1000);
+        }
+    }
+
+    private static class FakeProcess extends Process {
+        private final CountDownLatch exit;
+        private final int exitCode;
+        volatile boolean destroyed = false;
+
+        FakeProcess(@NotNull CountDownLatch exit, int exitCode) {
+            this.exit = exit;
+            this.exitCode = exitCode;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new ByteArrayOutputStream();
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public InputStream getErrorStream() {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+
+        @Override
+        public int waitFor() throws InterruptedException {
+            exit.await();
+            return exitCode;
+        }
+
+        @Override
+        public boolean waitFor(long timeout, @NotNull TimeUnit unit) throws InterruptedException {
+            return exit.await(timeout, unit);
+        }
+
+        @Override
+        public int exitValue() {
+            if (exit.getCount() > 0) throw new IllegalThreadStateException();
+            return exitCode;
+        }
+
+        @Override
+        public void destroy() {
+            destroyed = true;
+        }
+
+        @Override
+        public Process destroyForcibly() {
+            destroyed = true;
+            return this;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.player;
+
+import com.spotify.connectstate.Player.ContextPlayerOptions;
+import com.spotify.connectstate.Player.PlayOrigin;
+import com.spotify.context.ContextPageOuterClass.ContextPage;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class StateSnapshotTest {
+    private static final String CONTEXT = "spotify:playlist:37i9dQZF1DXcBWIGoYBM5M";
+
+    private static List<ContextTrack> tracks(int from, int count) {
+        List<ContextTrack> tracks = new ArrayList<>(count);
+        for (int i = from; i < from + count; i++)
+            tracks.add(ContextTrack.newBuilder().setUri("spotify:track:" + i).setUid("uid" + i).putMetadata("index", String.valueOf(i)).build());
+
+        return tracks;
+    }
+
+    private static StateSnapshot snapshot(StateSnapshot.Shuffle shuffle, String contextUrl) {
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("track_count", "300");
+
+        return new StateSnapshot("alice", "device", CONTEXT, contextUrl, metadata,
+                PlayOrigin.newBuilder().setFeatureIdentifier("harmony").build(),
+                ContextPlayerOptions.newBuilder().setShufflingContext(shuffle != null).build(),
+                Collections.singletonList(ContextPage.newBuilder().setPageUrl("hm://page/2").build()), "hm://page/3",
+                tracks(0, 100), 42, false, 300, tracks(1000, 2), false, shuffle, 123456, true);
+    }
+
+    private static StateSnapshot roundTrip(StateSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        snapshot.write(out);
+
+        StateSnapshot read = StateSnapshot.read(new ByteArrayInputStream(out.toByteArray()));
+        assertNotNull(read);
+        return read;
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        StateSnapshot read = roundTrip(snapshot(null, null));
+        assertEquals("alice", read.username);
+        assertEquals("device", read.deviceId);
+        assertEquals(CONTEXT, read.contextUri);
+        assertNull(read.contextUrl);
+        assertEquals("300", read.contextMetadata.get("track_count"));
+        assertEquals("harmony", read.playOrigin.getFeatureIdentifier());
+        assertFalse(read.options.getShufflingContext());
+        assertEquals(1, read.pendingPages.size());
+        assertEquals("hm://page/2", read.pendingPages.get(0).getPageUrl());
+        assertEquals("hm://page/3", read.nextPageUrl);
+        assertEquals(tracks(0, 100), read.tracks);
+        assertEquals(tracks(1000, 2), read.queue);
+        assertEquals(42, read.index);
+        assertEquals(123456, read.position);
+        assertTrue(read.paused);
+        assertFalse(read.cannotLoadMore);
+        assertEquals(300, read.contextTrackCount);
+        assertFalse(read.isPlayingQueue);
+        assertNull(read.shuffle);
+    }
+
+    @Test
+    void testShuffleRoundTrip() throws IOException {
+        StateSnapshot.Shuffle fisherYates = new StateSnapshot.Shuffle(false, 0xCAFEL, 100, 7, 0, new int[0], new int[0], false, Collections.emptyList());
+        StateSnapshot read = roundTrip(snapshot(fisherYates, "context://" + CONTEXT));
+        assertEquals("context://" + CONTEXT, read.contextUrl);
+        assertNotNull(read.shuffle);
+        assertFalse(read.shuffle.lazy);
+        assertEquals(0xCAFEL, read.shuffle.seed);
+        assertEquals(100, read.shuffle.size);
+        assertEquals(7, read.shuffle.keep);
+
+        StateSnapshot.Shuffle lazy = new StateSnapshot.Shuffle(true, -1L, -1, 3, 120, new int[]{5, 9, 1}, new int[]{9}, true, tracks(0, 150));
+        read = roundTrip(snapshot(lazy, null));
+        assertNotNull(read.shuffle);
+        assertTrue(read.shuffle.lazy);
+        assertEquals(-1L, read.shuffle.seed);
+        assertEquals(-1, read.shuffle.size);
+        assertEquals(3, read.shuffle.keep);
+        assertEquals(120, read.shuffle.position);
+        assertArrayEquals(new int[]{5, 9, 1}, read.shuffle.originals);
+        assertArrayEquals(new int[]{9}, read.shuffle.pinned);
+        assertTrue(read.shuffle.exhausted);
+        assertEquals(tracks(0, 150), read.shuffle.loaded);
+    }
+
+    @Test
+    void testBelongsToOwner() throws IOException {
+        StateSnapshot read = roundTrip(snapshot(null, null));
+        assertTrue(read.isFor("alice", "device"));
+        assertFalse(read.isFor("bob", "device"));
+        assertFalse(read.isFor("alice", "other"));
+    }
+
+    @Test
+    void testRejectsGarbage() {
+        assertThrows(IOException.class, () -> StateSnapshot.read(new ByteArrayInputStream(new byte[]{1, 2, 3})));
+    }
+
+    @Test
+    void testStoreDebounces(@TempDir File dir) throws InterruptedException {
+        File file = new File(dir, "state.snapshot");
+        AtomicInteger taken = new AtomicInteger(0);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            StateSnapshotStore store = new StateSnapshotStore(file, 200, scheduler, () -> {
+                taken.incrementAndGet();
+                return snapshot(null, null);
+            });
+
+            for (int i = 0; i < 50; i++) store.changed();
+            Thread.sleep(600);
+            assertEquals(1, taken.get());
+
+            StateSnapshot read = StateSnapshotStore.read(file);
+            assertNotNull(read);
+            assertEquals(42, read.index);
+
+            store.changed();
+            store.clear();
+            Thread.sleep(400);
+            assertFalse(file.exists());
+            assertEquals(1, taken.get());
+
+            store.flush();
+            assertTrue(file.exists());
+            assertEquals(2, taken.get());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.player;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author devgianlu
+ */
+class StateWrapperTest {
+
+    @Test
+    void testTrackCountKeepsServerTotal() {
+        // First page of a 1000 tracks playlist, the count doesn't shrink to what has been loaded
+        assertEquals(1000, StateWrapper.trackCount(1000, 100, false, -1));
+        assertEquals(1000, StateWrapper.trackCount(1000, 100, false, 1000));
+
+        // The playlist changed since it has been resolved
+        assertEquals(1010, StateWrapper.trackCount(1000, 1010, false, -1));
+        assertEquals(990, StateWrapper.trackCount(1000, 990, true, -1));
+
+        // Unknown total
+        assertEquals(100, StateWrapper.trackCount(-1, 100, false, -1));
+        assertEquals(500, StateWrapper.trackCount(-1, 100, false, 500));
+    }
+
+    @Test
+    void testPagesNeeded() {
+        assertEquals(0, StateWrapper.pagesNeeded(0, 100, 100));
+        assertEquals(0, StateWrapper.pagesNeeded(99, 100, 100));
+        assertEquals(1, StateWrapper.pagesNeeded(100, 100, 100));
+        assertEquals(1, StateWrapper.pagesNeeded(199, 100, 100));
+        assertEquals(2, StateWrapper.pagesNeeded(200, 100, 100));
+        assertEquals(9, StateWrapper.pagesNeeded(999, 100, 100));
+
+        // Nothing loaded yet
+        assertEquals(1, StateWrapper.pagesNeeded(0, 0, 0));
+        assertEquals(11, StateWrapper.pagesNeeded(10, 0, 0));
+    }
+}
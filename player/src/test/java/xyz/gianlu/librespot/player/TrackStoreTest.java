@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player;
+
+import com.google.protobuf.ByteString;
+import com.spotify.context.ContextTrackOuterClass.ContextTrack;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.common.FisherYatesShuffle;
+import xyz.gianlu.librespot.common.ProtoUtils;
+import xyz.gianlu.librespot.common.Utils;
+import xyz.gianlu.librespot.metadata.PlayableId;
+import xyz.gianlu.librespot.metadata.TrackId;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author devgianlu
+ */
+public class TrackStoreTest {
+
+    @NotNull
+    static ContextTrack track(int id, int uid) {
+        byte[] gid = new byte[16];
+        gid[12] = (byte) (id >>> 24);
+        gid[13] = (byte) (id >>> 16);
+        gid[14] = (byte) (id >>> 8);
+        gid[15] = (byte) id;
+
+        ContextTrack.Builder builder = ContextTrack.newBuilder()
+                .setUid("uid" + uid)
+                .setGid(ByteString.copyFrom(gid));
+        if (id % 7 != 0) builder.setUri(TrackId.fromHex(Utils.bytesToHex(gid)).toSpotifyUri());
+        return builder.build();
+    }
+
+    private static void assertSameLookups(@NotNull List<ContextTrack> expected, @NotNull TrackStore store, @NotNull Random random) {
+        assertEquals(expected, store);
+        for (int i = 0; i < 50; i++) {
+            ContextTrack probe = random.nextInt(10) == 0 ? track(random.nextInt(5000), -1) : expected.get(random.nextInt(expected.size()));
+            assertEquals(ProtoUtils.indexOfTrack(expected, probe), store.indexOfTrack(probe));
+            assertEquals(ProtoUtils.indexOfTrackByUid(expected, probe.getUid()), store.indexOfUid(probe.getUid()));
+            if (probe.hasUri()) {
+                assertEquals(ProtoUtils.indexOfTrackByUri(expected, probe.getUri()), store.indexOfUri(probe.getUri()));
+
+                PlayableId id = PlayableId.fromUri(probe.getUri());
+                assertEquals(PlayableId.indexOfTrack(expected, id), store.indexOfPlayable(id));
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesLinearScan() {
+        Random random = new Random(11);
+        List<ContextTrack> expected = new ArrayList<>();
+        TrackStore store = new TrackStore();
+
+        int uid = 0;
+        for (int i = 0; i < 2000; i++) {
+            ContextTrack track = track(random.nextInt(1500), uid++); // With duplicates
+            expected.add(track);
+            store.add(track);
+        }
+
+        assertSameLookups(expected, store, random);
+
+        FisherYatesShuffle<ContextTrack> expectedShuffle = new FisherYatesShuffle<>(new Random(5));
+        FisherYatesShuffle<ContextTrack> storeShuffle = new FisherYatesShuffle<>(new Random(5));
+        for (int round = 0; round < 200; round++) {
+            switch (random.nextInt(7)) {
+                case 0: // Add
+                    int at = random.nextInt(expected.size() + 1);
+                    ContextTrack track = track(random.nextInt(1500), uid++);
+                    expected.add(at, track);
+                    store.add(at, track);
+                    break;
+                case 1: // Remove range
+                    int from = random.nextInt(expected.size() - 10);
+                    int length = 1 + random.nextInt(10);
+                    expected.subList(from, from + length).clear();
+                    store.subList(from, from + length).clear();
+                    break;
+                case 2: // Move
+                    int src = random.nextInt(expected.size());
+                    int dst = random.nextInt(expected.size());
+                    expected.add(dst, expected.remove(src));
+                    store.add(dst, store.remove(src));
+                    break;
+                case 3: // Update metadata
+                    int index = random.nextInt(expected.size());
+                    ContextTrack updated = expected.get(index).toBuilder().putMetadata("duration", "1000").build();
+                    expected.set(index, updated);
+                    store.set(index, updated);
+                    break;
+                case 4: // Shuffle and unshuffle
+                    expectedShuffle.shuffle(expected, true);
+                    storeShuffle.shuffle(store, true);
+                    assertSameLookups(expected, store, random);
+                    expectedShuffle.unshuffle(expected);
+                    storeShuffle.unshuffle(store);
+                    break;
+                case 5: // Page append
+                    List<ContextTrack> page = new ArrayList<>();
+                    for (int i = 0; i < 50; i++) page.add(track(random.nextInt(1500), uid++));
+                    expected.addAll(page);
+                    store.addAll(page);
+                    break;
+                case 6: // Swap
+                    int a = random.nextInt(expected.size());
+                    int b = random.nextInt(expected.size());
+                    Collections.swap(expected, a, b);
+                    Collections.swap(store, a, b);
+                    break;
+            }
+
+            assertSameLookups(expected, store, random);
+        }
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(-1, store.indexOfUid("uid0"));
+    }
+}
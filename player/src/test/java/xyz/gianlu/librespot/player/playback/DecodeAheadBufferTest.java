@@ -0,0 +1,215 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package xyz.gianlu.librespot.player.playback;
+
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+import xyz.gianlu.librespot.common.ExecutorProvider;
+import xyz.gianlu.librespot.metrics.Histogram;
+import xyz.gianlu.librespot.metrics.MetricsRegistry;
+import xyz.gianlu.librespot.player.decoders.Decoder;
+import xyz.gianlu.librespot.player.decoders.SeekableInputStream;
+import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+class DecodeAheadBufferTest {
+    /**
+     * One second of {@link OutputAudioFormat#DEFAULT_FORMAT}, rounded up to whole blocks.
+     */
+    private static final int BLOCKS_PER_SECOND = (44100 * 4 + Decoder.BUFFER_SIZE - 1) / Decoder.BUFFER_SIZE;
+    private final Histogram decodeTime = new MetricsRegistry().histogram("decode", "", Histogram.LATENCY_BUCKETS);
+
+    private static void waitFor(@NotNull BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 1000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) fail("Condition not met in time");
+            Thread.sleep(1);
+        }
+    }
+
+    @NotNull
+    private DecodeAheadBuffer newBuffer(@NotNull Decoder decoder) {
+        return new DecodeAheadBuffer(decoder, 1, decodeTime, ExecutorProvider.platform(), "test");
+    }
+
+    @Test
+    void testFillAndDrain() throws Exception {
+        FakeDecoder decoder = new FakeDecoder(20);
+        DecodeAheadBuffer buffer = newBuffer(decoder);
+        try {
+            waitFor(() -> decoder.reads.get() == 21);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            int count;
+            while ((count = buffer.writeSomeTo(out)) != -1) assertEquals(Decoder.BUFFER_SIZE, count);
+
+            byte[] data = out.toByteArray();
+            assertEquals(20 * Decoder.BUFFER_SIZE, data.length);
+            for (int i = 0; i < 20; i++) assertEquals((byte) i, data[i * Decoder.BUFFER_SIZE]);
+            assertEquals(190, buffer.time());
+            assertEquals(21, decodeTime.count());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    void testDecodesOnlyAhead() throws Exception {
+        FakeDecoder decoder = new FakeDecoder(Integer.MAX_VALUE);
+        DecodeAheadBuffer buffer = newBuffer(decoder);
+        try {
+            waitFor(() -> decoder.reads.get() == BLOCKS_PER_SECOND);
+
+            buffer.writeSomeTo(new ByteArrayOutputStream());
+            waitFor(() -> decoder.reads.get() == BLOCKS_PER_SECOND + 1);
+        } finally {
+            buffer.close();
+        }
+    }
+
+    @Test
+    void testCloseLeavesDecoder() throws Exception {
+        FakeDecoder decoder = new FakeDecoder(Integer.MAX_VALUE);
+        decoder.stall = new CountDownLatch(1);
+        DecodeAheadBuffer buffer = newBuffer(decoder);
+
+        assertTrue(decoder.stalled.await(1, TimeUnit.SECONDS));
+        buffer.close();
+
+        assertFalse(decoder.inside);
+        assertEquals(-1, buffer.writeSomeTo(new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void testInterruptedWriterThrows() throws Exception {
+        FakeDecoder decoder = new FakeDecoder(Integer.MAX_VALUE);
+        decoder.stall = new CountDownLatch(1);
+        DecodeAheadBuffer buffer = newBuffer(decoder);
+        try {
+            assertTrue(decoder.stalled.await(1, TimeUnit.SECONDS));
+
+            Thread.currentThread().interrupt();
+            assertThrows(InterruptedIOException.class, () -> buffer.writeSomeTo(new ByteArrayOutputStream()));
+            assertTrue(Thread.interrupted());
+        } finally {
+            buffer.close();
+        }
+    }
+
+    /**
+     * Writes blocks of {@link Decoder#BUFFER_SIZE} bytes filled with the block index, each block lasts 10 ms.
+     */
+    private static class FakeDecoder extends Decoder {
+        final AtomicInteger reads = new AtomicInteger();
+        final CountDownLatch stalled = new CountDownLatch(1);
+        private final int blocks;
+        volatile CountDownLatch stall = null;
+        volatile boolean inside = false;
+        private int block = 0;
+
+        FakeDecoder(int blocks) {
+            super(new EmptyStream(), 1, 0);
+            this.blocks = blocks;
+            setAudioFormat(OutputAudioFormat.DEFAULT_FORMAT);
+        }
+
+        @Override
+        protected int readInternal(@NotNull OutputStream out) throws IOException {
+            inside = true;
+            try {
+                reads.incrementAndGet();
+                if (stall != null) {
+                    stalled.countDown();
+                    try {
+                        stall.await();
+                    } catch (InterruptedException ex) {
+                        throw new InterruptedIOException();
+                    }
+                }
+
+                if (block == blocks) return -1;
+
+                byte[] data = new byte[BUFFER_SIZE];
+                data[0] = (byte) block++;
+                out.write(data);
+                return data.length;
+            } finally {
+                inside = false;
+            }
+        }
+
+        @Override
+        public int time() {
+            return block * 10;
+        }
+    }
+
+    private static class EmptyStream extends SeekableInputStream {
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public int position() {
+            return 0;
+        }
+
+        @Override
+        public void seek(int seekZero) {
+        }
+
+        @Override
+        public long skip(long skip) {
+            return 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int index, int length) {
+            return -1;
+        }
+
+        @Override
+        public int read() {
+            return -1;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public int decodedLength() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.render;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.gianlu.librespot.player.PlayerConfiguration;
+import xyz.gianlu.librespot.player.crossfade.CrossfadeController;
+import xyz.gianlu.librespot.player.metrics.PlaybackMetrics;
+import xyz.gianlu.librespot.player.mixing.output.OutputAudioFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * @author devgianlu
+ */
+public class PcmFileWriterTest {
+    private static final OutputAudioFormat FORMAT = OutputAudioFormat.DEFAULT_FORMAT;
+
+    private static byte[] constantPcm(int frames, short value) {
+        ByteBuffer buffer = ByteBuffer.allocate(frames * FORMAT.getFrameSize()).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) buffer.putShort(value);
+        return buffer.array();
+    }
+
+    @Test
+    public void testWavHeader(@TempDir File dir) throws IOException {
+        File file = new File(dir, "out.wav");
+        byte[] pcm = constantPcm(44100, (short) 1000);
+        try (PcmFileWriter writer = new PcmFileWriter(file, FORMAT, true, null)) {
+            writer.write(pcm, 0, pcm.length);
+            assertEquals(1000, writer.writtenMs());
+        }
+
+        ByteBuffer wav = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(44 + pcm.length, wav.capacity());
+        assertEquals("RIFF", new String(wav.array(), 0, 4));
+        assertEquals(36 + pcm.length, wav.getInt(4));
+        assertEquals("WAVEfmt ", new String(wav.array(), 8, 8));
+        assertEquals(1, wav.getShort(20));
+        assertEquals(2, wav.getShort(22));
+        assertEquals(44100, wav.getInt(24));
+        assertEquals(44100 * 4, wav.getInt(28));
+        assertEquals(4, wav.getShort(32));
+        assertEquals(16, wav.getShort(34));
+        assertEquals("data", new String(wav.array(), 36, 4));
+        assertEquals(pcm.length, wav.getInt(40));
+        assertArrayEquals(pcm, Arrays.copyOfRange(wav.array(), 44, wav.capacity()));
+    }
+
+    @Test
+    public void testFadeInAcrossOddWrites(@TempDir File dir) throws IOException {
+        PlayerConfiguration conf = new PlayerConfiguration.Builder().setCrossfadeDuration(500).build();
+        CrossfadeController crossfade = new CrossfadeController("test", 10_000, Collections.emptyMap(), conf);
+        crossfade.selectFadeIn(PlaybackMetrics.Reason.TRACK_DONE, false);
+
+        File file = new File(dir, "out.pcm");
+        byte[] pcm = constantPcm(44100, (short) 10000);
+        try (PcmFileWriter writer = new PcmFileWriter(file, FORMAT, false, crossfade)) {
+            for (int i = 0; i < pcm.length; i += 333)
+                writer.write(pcm, i, Math.min(333, pcm.length - i));
+        }
+
+        ByteBuffer out = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(pcm.length, out.capacity());
+        assertEquals(0, out.getShort(0));
+        assertEquals(5000, out.getShort(250 * 441 / 10 * 4), 100);
+        assertEquals(10000, out.getShort(600 * 441 / 10 * 4));
+        assertEquals(10000, out.getShort(pcm.length - 2));
+    }
+}
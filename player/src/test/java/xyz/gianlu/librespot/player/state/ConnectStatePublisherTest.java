@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 devgianlu
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package xyz.gianlu.librespot.player.state;
+
+import com.spotify.connectstate.Connect;
+import com.spotify.connectstate.Player;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * @author devgianlu
+ */
+public class ConnectStatePublisherTest {
+    private static final long MIN_INTERVAL = 300;
+
+    @NotNull
+    private static Connect.PutStateRequest request(@NotNull Connect.PutStateReason reason, long timestamp, long position, boolean paused, int volume) {
+        return Connect.PutStateRequest.newBuilder()
+                .setPutStateReason(reason)
+                .setIsActive(true)
+                .setClientSideTimestamp(timestamp)
+                .setDevice(Connect.Device.newBuilder()
+                        .setDeviceInfo(Connect.DeviceInfo.newBuilder().setVolume(volume))
+                        .setPlayerState(Player.PlayerState.newBuilder()
+                                .setTimestamp(timestamp)
+                                .setPositionAsOfTimestamp(position)
+                                .setIsPlaying(true)
+                                .setIsPaused(paused)
+                                .setPlaybackId("abc")
+                                .setTrack(Player.ProvidedTrack.newBuilder().setUri("spotify:track:1"))))
+                .build();
+    }
+
+    @Test
+    public void testExtrapolatedPositionIsUnchanged() {
+        Connect.PutStateRequest a = request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 1000, 5000, false, 10);
+        assertFalse(ConnectStatePublisher.hasChanged(a, request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 3000, 7000, false, 10)));
+        assertTrue(ConnectStatePublisher.hasChanged(a, request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 3000, 9000, false, 10)));
+        assertTrue(ConnectStatePublisher.hasChanged(a, request(Connect.PutStateReason.VOLUME_CHANGED, 1000, 5000, false, 20)));
+
+        Connect.PutStateRequest paused = request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 1000, 5000, true, 10);
+        assertFalse(ConnectStatePublisher.hasChanged(paused, request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 3000, 5000, true, 10)));
+        assertTrue(ConnectStatePublisher.isPriority(a, paused));
+    }
+
+    @Test
+    public void testBurstIsCoalesced() throws InterruptedException {
+        List<Connect.PutStateRequest> puts = new CopyOnWriteArrayList<>();
+        ConnectStatePublisher publisher = new ConnectStatePublisher("test-put-state", MIN_INTERVAL, puts::add);
+
+        publisher.publish(request(Connect.PutStateReason.NEW_DEVICE, 0, 0, false, 10));
+        Thread.sleep(50);
+        assertEquals(1, puts.size());
+
+        // Seeks, volume changes and duplicates within the interval
+        for (int i = 1; i <= 50; i++) {
+            publisher.publish(request(Connect.PutStateReason.PLAYER_STATE_CHANGED, i, i * 1000, false, 10));
+            publisher.publish(request(Connect.PutStateReason.VOLUME_CHANGED, i, i * 1000, false, 10 + i));
+            publisher.publish(request(Connect.PutStateReason.PLAYER_STATE_CHANGED, i + 1, i * 1000 + 1, false, 10 + i));
+        }
+
+        assertEquals(1, puts.size());
+        Thread.sleep(MIN_INTERVAL + 200);
+        assertEquals(2, puts.size());
+
+        Connect.PutStateRequest merged = puts.get(1);
+        assertEquals(Connect.PutStateReason.PLAYER_STATE_CHANGED, merged.getPutStateReason());
+        assertEquals(50_001, merged.getDevice().getPlayerState().getPositionAsOfTimestamp());
+        assertEquals(60, merged.getDevice().getDeviceInfo().getVolume());
+
+        // Nothing changed
+        publisher.publish(request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 1000, 50_001 + 1000 - 51, false, 60));
+        Thread.sleep(MIN_INTERVAL + 100);
+        assertEquals(2, puts.size());
+
+        // The interval has elapsed, the first seek goes out immediately and the second one is delayed
+        publisher.publish(request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 2000, 10_000, false, 60));
+        Thread.sleep(50);
+        assertEquals(3, puts.size());
+        publisher.publish(request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 2010, 20_000, false, 60));
+        Thread.sleep(50);
+        assertEquals(3, puts.size());
+
+        // Pausing bypasses the interval
+        publisher.publish(request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 2020, 20_000, true, 60));
+        Thread.sleep(50);
+        assertEquals(4, puts.size());
+        assertTrue(puts.get(3).getDevice().getPlayerState().getIsPaused());
+
+        publisher.publish(request(Connect.PutStateReason.VOLUME_CHANGED, 2030, 20_000, true, 70));
+        publisher.close();
+        assertTrue(publisher.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(5, puts.size());
+        assertEquals(70, puts.get(4).getDevice().getDeviceInfo().getVolume());
+
+        int[] stats = publisher.stats();
+        assertEquals(5, stats[0]);
+        assertEquals(1, stats[2]);
+    }
+
+    @Test
+    public void testNewDeviceAfterReconnectIsSent() throws InterruptedException {
+        List<Connect.PutStateRequest> puts = new CopyOnWriteArrayList<>();
+        ConnectStatePublisher publisher = new ConnectStatePublisher("test-put-state", MIN_INTERVAL, puts::add);
+
+        publisher.publish(request(Connect.PutStateReason.NEW_DEVICE, 0, 0, true, 10));
+        Thread.sleep(50);
+        assertEquals(1, puts.size());
+
+        // Same state, new connection
+        publisher.publish(request(Connect.PutStateReason.NEW_DEVICE, 10, 0, true, 10));
+        Thread.sleep(50);
+        assertEquals(2, puts.size());
+
+        // Same state, but the server forgot about it
+        publisher.reset();
+        publisher.publish(request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 20, 0, true, 10));
+        Thread.sleep(50);
+        assertEquals(3, puts.size());
+
+        publisher.publish(request(Connect.PutStateReason.PLAYER_STATE_CHANGED, 30, 0, true, 10));
+        Thread.sleep(50);
+        assertEquals(3, puts.size());
+
+        publisher.close();
+        assertTrue(publisher.awaitTermination(1, TimeUnit.SECONDS));
+        assertEquals(1, publisher.stats()[2]);
+    }
+}